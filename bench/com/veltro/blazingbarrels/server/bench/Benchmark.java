@@ -0,0 +1,91 @@
+package com.veltro.blazingbarrels.server.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * A minimal microbenchmark harness. A benchmark is an operation that is run in batches: first for a number of warm-up
+ * batches, so that the JIT compiler has compiled it by the time it is measured, then for a number of measured batches,
+ * whose fastest time per operation is reported (the slower ones having been disturbed by garbage collection or other
+ * threads). The bytes allocated per operation are reported as well, where the JVM can measure them, so that
+ * regressions in allocation show up in the numbers just like regressions in speed do.<p>
+ *
+ * The results of the operations are accumulated and printed, so that the JIT compiler cannot eliminate them as dead
+ * code.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public abstract class Benchmark {
+
+	/**
+	 * The number of operations per batch
+	 */
+	public static final int BATCH_SIZE = 10000;
+
+	/**
+	 * The number of warm-up batches run before measuring
+	 */
+	public static final int WARMUP_BATCHES = 200;
+
+	/**
+	 * The number of measured batches
+	 */
+	public static final int MEASURED_BATCHES = 50;
+
+	/**
+	 * The name under which the benchmark's results are printed
+	 */
+	private final String name;
+
+	/**
+	 * The sum of the results of the operations run so far
+	 */
+	private long sink = 0;
+
+	/**
+	 * @param name The {@link #name} of the benchmark
+	 */
+	protected Benchmark(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Runs the operation being measured once
+	 *
+	 * @param iteration The index of the operation within its batch, for benchmarks that cycle through inputs
+	 * @return A result derived from the operation's output
+	 */
+	protected abstract int run(int iteration);
+
+	/**
+	 * Warms up and measures the benchmark, and prints its results
+	 */
+	public void measure() {
+		for (int batch = 0; batch < WARMUP_BATCHES; batch++)
+			runBatch();
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		com.sun.management.ThreadMXBean allocations = threads instanceof com.sun.management.ThreadMXBean ?
+				(com.sun.management.ThreadMXBean) threads : null;
+		long threadID = Thread.currentThread().getId();
+		long fastest = Long.MAX_VALUE, allocatedBefore = allocations == null ? 0 :
+				allocations.getThreadAllocatedBytes(threadID);
+		for (int batch = 0; batch < MEASURED_BATCHES; batch++) {
+			long start = System.nanoTime();
+			runBatch();
+			fastest = Math.min(fastest, System.nanoTime() - start);
+		}
+		String allocated = allocations == null ? "n/a" : String.format("%.1f", (double)
+				(allocations.getThreadAllocatedBytes(threadID) - allocatedBefore) / MEASURED_BATCHES / BATCH_SIZE);
+		System.out.println(String.format("%-40s %10.1f ns/op %10s B/op   (%d)", name, (double) fastest / BATCH_SIZE,
+				allocated, sink));
+	}
+
+	/**
+	 * Runs a batch of {@value #BATCH_SIZE} operations
+	 */
+	private void runBatch() {
+		for (int i = 0; i < BATCH_SIZE; i++)
+			sink += run(i);
+	}
+}
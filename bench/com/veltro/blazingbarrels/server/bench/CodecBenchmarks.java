@@ -0,0 +1,226 @@
+package com.veltro.blazingbarrels.server.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import com.veltro.blazingbarrels.server.BBServer;
+import com.veltro.blazingbarrels.server.Configuration;
+import com.veltro.blazingbarrels.server.connect.SnapshotEncoder;
+import com.veltro.blazingbarrels.server.connect.packet.Packet21PlayerConnect;
+import com.veltro.blazingbarrels.server.connect.packet.Packet30PlayerUpdate;
+import com.veltro.blazingbarrels.server.connect.packet.Packet40WeaponFire;
+import com.veltro.blazingbarrels.server.game.FloatCodec;
+import com.veltro.blazingbarrels.server.game.Location3D;
+import com.veltro.blazingbarrels.server.game.Player;
+import com.veltro.blazingbarrels.server.game.Vector3D;
+import com.veltro.blazingbarrels.server.game.WeaponType;
+
+/**
+ * Benchmarks the encoding and decoding that every packet goes through: the formatting and parsing of floats (with the
+ * {@link FloatCodec} and, for comparison, with the JDK's general-purpose methods), the rendering and parsing of
+ * {@link Location3D locations}, the generation of datagrams from the most common packets, the hit test of a fired
+ * weapon against the players of a snapshot, and the encoding of server snapshots. The float formatting is checked
+ * first, and no benchmark is run if a check fails. Build and run from the project root with:
+ *
+ * <pre>
+ * javac -d out $(find src bench -name '*.java')
+ * java -cp out com.veltro.blazingbarrels.server.bench.CodecBenchmarks
+ * </pre>
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public class CodecBenchmarks {
+
+	/**
+	 * The number of distinct inputs each benchmark cycles through (a power of two)
+	 */
+	private static final int INPUTS = 1024;
+
+	/**
+	 * The number of players in the snapshots encoded
+	 */
+	private static final int SNAPSHOT_PLAYERS = 64;
+
+	/**
+	 * The number of random floats checked to format and parse back exactly
+	 */
+	private static final int CHECKED_VALUES = 1000000;
+
+	/**
+	 * The charset of the text protocol
+	 */
+	private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+	/**
+	 * Runs the benchmarks and prints their results
+	 *
+	 * @param args Unused
+	 * @throws Exception Thrown if the server configuration used by the snapshot benchmark cannot be set up
+	 */
+	public static void main(String[] args) throws Exception {
+		checkFloatCodec();
+		installConfig();
+		Random random = new Random(42);
+		final float[] values = new float[INPUTS];
+		final Location3D[] locations = new Location3D[INPUTS];
+		for (int i = 0; i < INPUTS; i++) {
+			values[i] = (random.nextFloat() - 0.5f) * 1000;
+			locations[i] = new Location3D(values[i], random.nextFloat() * 200, (random.nextFloat() - 0.5f) * 1000,
+					random.nextFloat() * 360, random.nextFloat() * 360, 0);
+		}
+		final String[] valueStrings = new String[INPUTS];
+		final byte[][] valueBytes = new byte[INPUTS][];
+		final String[] locationStrings = new String[INPUTS];
+		for (int i = 0; i < INPUTS; i++) {
+			valueStrings[i] = Float.toString(values[i]);
+			valueBytes[i] = FloatCodec.toString(values[i], -1).getBytes("US-ASCII");
+			locationStrings[i] = locations[i].toString();
+		}
+		final byte[] out = new byte[Location3D.MAX_LENGTH];
+		final InetAddress address = InetAddress.getLoopbackAddress();
+		final Player[] players = new Player[SNAPSHOT_PLAYERS];
+		for (int i = 0; i < SNAPSHOT_PLAYERS; i++)
+			players[i] = new Player("player" + i, address, 7000 + i, locations[i], 100, false, false, false, false);
+		final SnapshotEncoder encoder = new SnapshotEncoder();
+
+		Benchmark[] benchmarks = {
+			new Benchmark("Float.toString") {
+				protected int run(int i) {
+					return Float.toString(values[i & (INPUTS - 1)]).length();
+				}
+			},
+			new Benchmark("FloatCodec.format (full precision)") {
+				protected int run(int i) {
+					return FloatCodec.format(values[i & (INPUTS - 1)], -1, out, 0);
+				}
+			},
+			new Benchmark("FloatCodec.format (2 decimals)") {
+				protected int run(int i) {
+					return FloatCodec.format(values[i & (INPUTS - 1)], 2, out, 0);
+				}
+			},
+			new Benchmark("Float.parseFloat") {
+				protected int run(int i) {
+					return (int) Float.parseFloat(valueStrings[i & (INPUTS - 1)]);
+				}
+			},
+			new Benchmark("FloatCodec.parse (bytes)") {
+				protected int run(int i) {
+					byte[] value = valueBytes[i & (INPUTS - 1)];
+					return (int) FloatCodec.parse(value, 0, value.length);
+				}
+			},
+			new Benchmark("Location3D.toString") {
+				protected int run(int i) {
+					return locations[i & (INPUTS - 1)].toString().length();
+				}
+			},
+			new Benchmark("Location3D.write") {
+				protected int run(int i) {
+					return locations[i & (INPUTS - 1)].write(out, 0, -1);
+				}
+			},
+			new Benchmark("new Location3D(String)") {
+				protected int run(int i) {
+					return (int) new Location3D(locationStrings[i & (INPUTS - 1)]).getX();
+				}
+			},
+			new Benchmark("Packet21PlayerConnect.generatePacket") {
+				protected int run(int i) {
+					return new Packet21PlayerConnect(players[i & (SNAPSHOT_PLAYERS - 1)]).generatePacket().getLength();
+				}
+			},
+			new Benchmark("Packet30PlayerUpdate.generatePacket") {
+				protected int run(int i) {
+					return new Packet30PlayerUpdate("player", locations[i & (INPUTS - 1)], 100, false, false, false,
+							false, address, 7000).generatePacket().getLength();
+				}
+			},
+			new Benchmark("Packet40WeaponFire.generatePacket") {
+				protected int run(int i) {
+					return new Packet40WeaponFire("player", locations[i & (INPUTS - 1)], WeaponType.MINIGUN, address,
+							7000).generatePacket().getLength();
+				}
+			},
+			new Benchmark("Packet40WeaponFire hit test (" + SNAPSHOT_PLAYERS + " players)") {
+				protected int run(int i) {
+					Location3D trajectory = locations[i & (INPUTS - 1)];
+					Vector3D direction = Packet40WeaponFire.getDirection(trajectory),
+							source = Packet40WeaponFire.getSource(trajectory);
+					int hits = 0;
+					for (Player player : players)
+						if (Packet40WeaponFire.isInPath(source, direction, player.getLocation()) &&
+								Packet40WeaponFire.isHit(source, direction, player.getLocation()))
+							hits++;
+					return hits;
+				}
+			},
+			new Benchmark("SnapshotEncoder.encode (" + SNAPSHOT_PLAYERS + " players)") {
+				protected int run(int i) {
+					return encoder.encode(players).size();
+				}
+			}
+		};
+		for (Benchmark benchmark : benchmarks)
+			benchmark.measure();
+	}
+
+	/**
+	 * Checks that values formatted with full precision by the {@link FloatCodec} parse back exactly, and are never
+	 * longer than what Float.toString() produces: for the edge cases of the fixed-point range and for random floats
+	 * of all magnitudes
+	 *
+	 * @throws IllegalStateException Thrown if a value fails a check
+	 */
+	private static void checkFloatCodec() {
+		float[] cases = { 0, -0f, 3e-7f, 1.2345e-5f, 9.99e-4f, 1e-3f, -1e-3f, 0.1f, 1 / 3f, 0.5f, 2, -123.456f,
+				9999999, 1e7f, 1e14f, -1e14f, Float.MIN_VALUE, Float.MAX_VALUE, Float.POSITIVE_INFINITY };
+		for (float value : cases)
+			checkFloatCodec(value);
+		Random random = new Random(42);
+		for (int i = 0; i < CHECKED_VALUES; i++) {
+			float value = Float.intBitsToFloat(random.nextInt());
+			if (!Float.isNaN(value))
+				checkFloatCodec(value);
+		}
+		System.out.println("FloatCodec: " + (cases.length + CHECKED_VALUES) + " values checked");
+	}
+
+	/**
+	 * @param value A value, which is not NaN
+	 * @throws IllegalStateException Thrown if the value does not format with full precision and parse back exactly,
+	 * or is formatted longer than by Float.toString()
+	 */
+	private static void checkFloatCodec(float value) {
+		String text = FloatCodec.toString(value, -1);
+		byte[] bytes = text.getBytes(US_ASCII);
+		float parsed = FloatCodec.parse(bytes, 0, bytes.length);
+		if (parsed != value)
+			throw new IllegalStateException(value + " was formatted as " + text + ", which parses as " + parsed);
+		if (text.length() > Float.toString(value).length())
+			throw new IllegalStateException(value + " was formatted as " + text + ", longer than by Float.toString()");
+	}
+
+	/**
+	 * Installs a default server configuration, which the snapshot encoder reads, as the one the server would have
+	 * loaded on startup. The configuration is written to a temporary file.
+	 *
+	 * @throws IOException Thrown if the temporary file cannot be created
+	 * @throws ReflectiveOperationException Thrown if the configuration cannot be installed
+	 */
+	private static void installConfig() throws IOException, ReflectiveOperationException {
+		File file = File.createTempFile("bbserver-bench", ".txt");
+		file.deleteOnExit();
+		Configuration config = new Configuration(file);
+		config.loadValues();
+		// The server normally installs its configuration itself
+		Field field = BBServer.class.getDeclaredField("config");
+		field.setAccessible(true);
+		field.set(null, config);
+	}
+}
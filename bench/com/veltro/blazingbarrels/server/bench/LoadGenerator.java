@@ -0,0 +1,652 @@
+package com.veltro.blazingbarrels.server.bench;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import com.veltro.blazingbarrels.server.connect.Connection;
+import com.veltro.blazingbarrels.server.connect.PacketManager;
+import com.veltro.blazingbarrels.server.game.Location3D;
+import com.veltro.blazingbarrels.server.game.WeaponType;
+
+/**
+ * A headless load generator that simulates hundreds of players from a single process, for capacity planning. Each
+ * simulated player (bot) has its own UDP socket and speaks the protocol the way a client does: it authorizes (echoing
+ * the cookie it is challenged with), joins, streams its location along a circular path at a fixed rate, fires its
+ * weapon at a fixed rate, answers pings, acknowledges the packets the server sends reliably, and consumes everything
+ * else the server sends. All bots are driven by one thread multiplexing their sockets with a Selector.<p>
+ *
+ * Against a server on the loopback interface, each bot binds its own loopback address (127.1.x.y), so that the
+ * server's per-source handshake rate limits do not throttle the bots' arrival; bots are still started at a limited
+ * rate, as the global limits apply regardless. The server's Player-cap must be raised to admit the bots.<p>
+ *
+ * Every few seconds the generator reports:
+ * <ul>
+ * <li>the number of bots playing</li>
+ * <li>the rate at which the bots receive packets (overall, and the lowest, average and highest rate of any bot)</li>
+ * <li>the end-to-end latency of location updates, from a bot sending its location to another bot receiving it, as
+ * percentiles. Each bot stamps the locations it sends with the time, in milliseconds modulo six minutes, as the
+ * roll, so latencies are measured on the bots' common clock. The server re-encodes relayed locations at the precision
+ * suited to each client's link, which may round away every decimal place; the stamp is a whole number of
+ * milliseconds, well within a float's exact range, so it survives that rounding intact.</li>
+ * <li>the health of the server's tick, as the gaps between the pings each bot receives, which the server sends every
+ * {@value Connection#PING_INTERVAL} cycles: gaps longer than that many cycles mean the server is overrunning its
+ * cycle length.</li>
+ * </ul>
+ * Run with, for instance:
+ *
+ * <pre>
+ * java -cp out com.veltro.blazingbarrels.server.bench.LoadGenerator -bots 200 -duration 60 -rate 10 -fire 0.5
+ * </pre>
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public class LoadGenerator {
+
+	/**
+	 * The time after which a handshake step that has not been answered is retried, in nanoseconds (one second)
+	 */
+	private static final long RETRY_INTERVAL = 1000000000L;
+
+	/**
+	 * The interval between reports, in nanoseconds (five seconds)
+	 */
+	private static final long REPORT_INTERVAL = 5000000000L;
+
+	/**
+	 * The period, in milliseconds, of the timestamps sent as the roll of the locations. The roll is taken out of its
+	 * usual domain of [0, 360) degrees to carry whole milliseconds, which no location precision rounds.
+	 */
+	private static final int STAMP_PERIOD = 360000;
+
+	/**
+	 * The interval, in milliseconds, at which the server pings each client
+	 */
+	private static final int PING_GAP = Connection.PING_INTERVAL * PacketManager.CYCLE_LENGTH;
+
+	/**
+	 * The character set of the text protocol
+	 */
+	private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+	/**
+	 * Bot state: waiting for the server's cookie challenge
+	 */
+	private static final int CHALLENGED = 0;
+
+	/**
+	 * Bot state: waiting for the server's authorization verdict
+	 */
+	private static final int AUTHORIZING = 1;
+
+	/**
+	 * Bot state: waiting for the server to announce that the bot's player has joined
+	 */
+	private static final int JOINING = 2;
+
+	/**
+	 * Bot state: playing
+	 */
+	private static final int PLAYING = 3;
+
+	/**
+	 * Bot state: refused by the server
+	 */
+	private static final int REFUSED = 4;
+
+	/**
+	 * The socket address of the server
+	 */
+	private final InetSocketAddress server;
+
+	/**
+	 * The server's password (empty if it has none)
+	 */
+	private final String password;
+
+	/**
+	 * The number of bots to simulate
+	 */
+	private final int botCount;
+
+	/**
+	 * The number of bots started per second
+	 */
+	private final int rampRate;
+
+	/**
+	 * The interval between the location updates each bot sends, in nanoseconds
+	 */
+	private final long updateInterval;
+
+	/**
+	 * The interval between the shots each bot fires, in nanoseconds (0 if bots do not fire)
+	 */
+	private final long fireInterval;
+
+	/**
+	 * The weapon the bots fire
+	 */
+	private final WeaponType weapon;
+
+	/**
+	 * Whether each bot binds its own loopback address
+	 */
+	private final boolean separateAddresses;
+
+	/**
+	 * The selector multiplexing the bots' sockets
+	 */
+	private Selector selector;
+
+	/**
+	 * The bots started so far
+	 */
+	private Bot[] bots;
+
+	/**
+	 * The number of bots started so far
+	 */
+	private int started = 0;
+
+	/**
+	 * The time (as given by System.nanoTime()) at which the generator was started
+	 */
+	private long startTime;
+
+	/**
+	 * The buffer into which datagrams are received
+	 */
+	private ByteBuffer receiveBuffer = ByteBuffer.allocate(65536);
+
+	/**
+	 * The end-to-end latencies, in milliseconds, measured since the last report
+	 */
+	private int[] latencies = new int[1024];
+
+	/**
+	 * The number of {@link #latencies} measured since the last report
+	 */
+	private int latencyCount = 0;
+
+	/**
+	 * @param server The socket address of the server
+	 * @param password The server's password (empty if it has none)
+	 * @param botCount The number of bots to simulate
+	 * @param rampRate The number of bots to start per second
+	 * @param updateRate The number of location updates each bot sends per second
+	 * @param fireRate The number of shots each bot fires per second (0 for none)
+	 * @param weapon The weapon the bots fire
+	 */
+	public LoadGenerator(InetSocketAddress server, String password, int botCount, int rampRate, float updateRate,
+			float fireRate, WeaponType weapon) {
+		this.server = server;
+		this.password = password;
+		this.botCount = botCount;
+		this.rampRate = rampRate;
+		updateInterval = (long) (1000000000L / updateRate);
+		fireInterval = fireRate > 0 ? (long) (1000000000L / fireRate) : 0;
+		this.weapon = weapon;
+		InetAddress address = server.getAddress();
+		separateAddresses = address.isLoopbackAddress() && address instanceof Inet4Address;
+	}
+
+	/**
+	 * Parses the command-line options and runs the load generator
+	 *
+	 * @param args Options, each followed by its value: -host, -port, -password, -bots, -ramp (bots started per
+	 * second), -rate (location updates per bot per second), -fire (shots per bot per second), -weapon (weapon ID) and
+	 * -duration (in seconds)
+	 * @throws IOException Thrown if the bots' sockets cannot be opened
+	 */
+	public static void main(String[] args) throws IOException {
+		String host = "127.0.0.1", password = "";
+		int port = 7430, bots = 100, ramp = 15, duration = 60;
+		float rate = 10, fire = 0.5F;
+		WeaponType weapon = WeaponType.MINIGUN;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String option = args[i], value = args[i + 1];
+			if (option.equals("-host"))
+				host = value;
+			else if (option.equals("-port"))
+				port = Integer.parseInt(value);
+			else if (option.equals("-password"))
+				password = value;
+			else if (option.equals("-bots"))
+				bots = Integer.parseInt(value);
+			else if (option.equals("-ramp"))
+				ramp = Integer.parseInt(value);
+			else if (option.equals("-rate"))
+				rate = Float.parseFloat(value);
+			else if (option.equals("-fire"))
+				fire = Float.parseFloat(value);
+			else if (option.equals("-weapon"))
+				weapon = WeaponType.getTypeFromID(Integer.parseInt(value));
+			else if (option.equals("-duration"))
+				duration = Integer.parseInt(value);
+			else
+				System.err.println("Ignoring unknown option " + option);
+		}
+		if (weapon == null) {
+			System.err.println("Unknown weapon ID");
+			return;
+		}
+		new LoadGenerator(new InetSocketAddress(host, port), password, bots, ramp, rate, fire, weapon).run(duration);
+	}
+
+	/**
+	 * Runs the bots for the provided amount of time, reporting periodically, and disconnects them
+	 *
+	 * @param duration The amount of time to run for, in seconds
+	 * @throws IOException Thrown if the bots' sockets cannot be opened
+	 */
+	public void run(int duration) throws IOException {
+		selector = Selector.open();
+		bots = new Bot[botCount];
+		startTime = System.nanoTime();
+		long endTime = startTime + duration * 1000000000L, nextReport = startTime + REPORT_INTERVAL;
+		while (true) {
+			long now = System.nanoTime();
+			if (now >= endTime)
+				break;
+			while (started < botCount && started < (now - startTime) * rampRate / 1000000000L + 1) {
+				bots[started] = new Bot(started);
+				started++;
+			}
+			selector.select(1);
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				Bot bot = (Bot) keys.next().attachment();
+				keys.remove();
+				bot.receiveAll(System.nanoTime());
+			}
+			now = System.nanoTime();
+			for (int i = 0; i < started; i++)
+				bots[i].act(now);
+			if (now >= nextReport) {
+				report(now, REPORT_INTERVAL);
+				nextReport += REPORT_INTERVAL;
+			}
+		}
+		for (int i = 0; i < started; i++)
+			bots[i].disconnect();
+		selector.close();
+	}
+
+	/**
+	 * Prints the statistics gathered since the last report and resets them
+	 *
+	 * @param now The current time, as given by System.nanoTime()
+	 * @param window The time elapsed since the last report, in nanoseconds
+	 */
+	private void report(long now, long window) {
+		int playing = 0;
+		long packets = 0, bytes = 0, minPackets = Long.MAX_VALUE, maxPackets = 0, playingPackets = 0, pingGaps = 0;
+		long pingGapTotal = 0, maxPingGap = 0;
+		for (int i = 0; i < started; i++) {
+			Bot bot = bots[i];
+			if (bot.state == PLAYING) {
+				playing++;
+				minPackets = Math.min(minPackets, bot.packetsReceived);
+				maxPackets = Math.max(maxPackets, bot.packetsReceived);
+				playingPackets += bot.packetsReceived;
+			}
+			packets += bot.packetsReceived;
+			bytes += bot.bytesReceived;
+			pingGaps += bot.pingGaps;
+			pingGapTotal += bot.pingGapTotal;
+			maxPingGap = Math.max(maxPingGap, bot.maxPingGap);
+			bot.packetsReceived = bot.bytesReceived = bot.pingGaps = bot.pingGapTotal = bot.maxPingGap = 0;
+		}
+		double seconds = window / 1e9;
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("[%4ds] bots %d/%d playing | rx %.0f pkt/s, %.1f KB/s", (now - startTime) /
+				1000000000L, playing, botCount, packets / seconds, bytes / seconds / 1024));
+		if (playing > 0)
+			sb.append(String.format(" (per bot min %.1f avg %.1f max %.1f pkt/s)", minPackets / seconds,
+					playingPackets / seconds / playing, maxPackets / seconds));
+		Arrays.sort(latencies, 0, latencyCount);
+		if (latencyCount > 0)
+			sb.append(String.format(" | latency ms p50 %d p90 %d p99 %d max %d (%d samples)", percentile(0.5),
+					percentile(0.9), percentile(0.99), latencies[latencyCount - 1], latencyCount));
+		if (pingGaps > 0)
+			sb.append(String.format(" | ping gap avg %d max %d ms (expected %d)", pingGapTotal / pingGaps, maxPingGap,
+					PING_GAP));
+		System.out.println(sb);
+		latencyCount = 0;
+	}
+
+	/**
+	 * @param fraction A fraction between 0 and 1
+	 * @return The provided percentile of the sorted {@link #latencies}
+	 */
+	private int percentile(double fraction) {
+		return latencies[Math.min(latencyCount - 1, (int) (fraction * latencyCount))];
+	}
+
+	/**
+	 * Records an end-to-end latency sample
+	 *
+	 * @param latency The latency, in milliseconds
+	 */
+	private void recordLatency(int latency) {
+		if (latencyCount == latencies.length)
+			latencies = Arrays.copyOf(latencies, latencyCount * 2);
+		latencies[latencyCount++] = latency;
+	}
+
+	/**
+	 * @param now A time, as given by System.nanoTime()
+	 * @return The time elapsed since the generator started, in milliseconds, as a stamp between 1 and
+	 * {@value #STAMP_PERIOD} (exclusive)
+	 */
+	private int stamp(long now) {
+		return (int) ((now - startTime) / 1000000L % (STAMP_PERIOD - 1)) + 1; // Never 0, which marks unstamped rolls
+	}
+
+	/**
+	 * A simulated player
+	 */
+	private class Bot {
+
+		/**
+		 * The bot's player name
+		 */
+		private final String name;
+
+		/**
+		 * The bot's socket. It is not connected, as the server replies from a different port than it listens on.
+		 */
+		private final DatagramChannel channel;
+
+		/**
+		 * The radius of the bot's circular path
+		 */
+		private final float radius;
+
+		/**
+		 * The angle at which the bot starts on its path, in radians
+		 */
+		private final double phase;
+
+		/**
+		 * The bot's {@link LoadGenerator#CHALLENGED state}
+		 */
+		private int state = CHALLENGED;
+
+		/**
+		 * The session ID issued to the bot (-1 until it is authorized)
+		 */
+		private int sessionID = -1;
+
+		/**
+		 * The time at which the last handshake packet was sent
+		 */
+		private long handshakeTime;
+
+		/**
+		 * The time at which the next location update is due
+		 */
+		private long nextUpdate;
+
+		/**
+		 * The time at which the next shot is due
+		 */
+		private long nextFire;
+
+		/**
+		 * The highest sequence number received from the server (-1 if none has been)
+		 */
+		private int remoteSequence = -1;
+
+		/**
+		 * The acknowledgment bitfield for the sequence numbers before the {@link #remoteSequence}
+		 */
+		private int receivedBits = 0;
+
+		/**
+		 * Whether packets have been received reliably since the last acknowledgment was sent
+		 */
+		private boolean ackPending = false;
+
+		/**
+		 * The time at which the last ping was received (0 if none has been)
+		 */
+		private long lastPing = 0;
+
+		/**
+		 * The number of packets received since the last report
+		 */
+		private long packetsReceived = 0;
+
+		/**
+		 * The number of bytes received since the last report
+		 */
+		private long bytesReceived = 0;
+
+		/**
+		 * The number of gaps between pings measured since the last report
+		 */
+		private long pingGaps = 0;
+
+		/**
+		 * The sum of the gaps between pings measured since the last report, in milliseconds
+		 */
+		private long pingGapTotal = 0;
+
+		/**
+		 * The longest gap between pings measured since the last report, in milliseconds
+		 */
+		private long maxPingGap = 0;
+
+		/**
+		 * Opens the bot's socket and sends its first authorization request
+		 *
+		 * @param index The index of the bot, from which its name, address and path are derived
+		 * @throws IOException Thrown if the socket cannot be opened
+		 */
+		private Bot(int index) throws IOException {
+			name = String.format("bot%04d", index);
+			radius = 50 + index % 20 * 20;
+			phase = index * 2.39996; // The golden angle spreads the bots evenly
+			channel = DatagramChannel.open();
+			channel.configureBlocking(false);
+			channel.bind(separateAddresses ? new InetSocketAddress(InetAddress.getByAddress(new byte[] {127, 1,
+					(byte) (index / 250), (byte) (index % 250 + 1)}), 0) : null);
+			channel.register(selector, SelectionKey.OP_READ, this);
+			sendHandshake(System.nanoTime());
+		}
+
+		/**
+		 * Sends the packets that are due: handshake retries, location updates and shots
+		 *
+		 * @param now The current time, as given by System.nanoTime()
+		 */
+		private void act(long now) {
+			if (state == REFUSED)
+				return;
+			if (state != PLAYING) {
+				if (now - handshakeTime > RETRY_INTERVAL) {
+					if (state == AUTHORIZING)
+						state = CHALLENGED; // The cookie may have expired
+					sendHandshake(now);
+				}
+				return;
+			}
+			if (now >= nextUpdate) {
+				send("30 @" + sessionID + " l" + getLocation(now).toString(3));
+				nextUpdate += updateInterval;
+			}
+			if (fireInterval > 0 && now >= nextFire) {
+				send("40 @" + sessionID + " " + getLocation(now).toString(3) + " " + weapon.ID);
+				nextFire += fireInterval;
+			}
+		}
+
+		/**
+		 * Sends the packet for the bot's current handshake step
+		 *
+		 * @param now The current time, as given by System.nanoTime()
+		 */
+		private void sendHandshake(long now) {
+			handshakeTime = now;
+			if (state == JOINING)
+				send("20 " + name);
+			else
+				send("0 " + name + (password.equals("") ? "" : " " + password));
+		}
+
+		/**
+		 * @param now The current time, as given by System.nanoTime()
+		 * @return The bot's location on its path at the provided time, with the time stamped in the roll
+		 */
+		private Location3D getLocation(long now) {
+			double angle = phase + (now - startTime) / 1e9 * 0.5;
+			return new Location3D((float) (radius * Math.cos(angle)), (float) (10 * Math.sin(angle * 3)),
+					(float) (radius * Math.sin(angle)), (float) Math.toDegrees(angle) % 360, 0,
+					stamp(now));
+		}
+
+		/**
+		 * Receives and processes every datagram waiting on the bot's socket
+		 *
+		 * @param now The current time, as given by System.nanoTime()
+		 */
+		private void receiveAll(long now) {
+			while (true) {
+				receiveBuffer.clear();
+				try {
+					if (channel.receive(receiveBuffer) == null)
+						return;
+				} catch (IOException e) {
+					e.printStackTrace();
+					return;
+				}
+				packetsReceived++;
+				bytesReceived += receiveBuffer.position();
+				process(new String(receiveBuffer.array(), 0, receiveBuffer.position(), US_ASCII), now);
+			}
+		}
+
+		/**
+		 * Processes a datagram received from the server
+		 *
+		 * @param text The contents of the datagram
+		 * @param now The time at which the datagram was received, as given by System.nanoTime()
+		 */
+		private void process(String text, long now) {
+			if (text.startsWith("~")) // A fragment of a snapshot, which the bots do not need
+				return;
+			String[] tokens = text.split(" ");
+			int i = 0;
+			for (; i < tokens.length && (tokens[i].startsWith("#") || tokens[i].startsWith("!")); i++)
+				if (tokens[i].startsWith("#"))
+					receiveSequence(Integer.parseInt(tokens[i].substring(1)));
+			if (i >= tokens.length)
+				return;
+			String id = tokens[i];
+			if (id.equals("1") && tokens.length > i + 2 && state != PLAYING) { // Authorization response
+				int verdict = Integer.parseInt(tokens[i + 2]);
+				if (verdict >= 3 && tokens.length <= i + 3)
+					return;
+				if (verdict == 4 && state == CHALLENGED) { // Cookie challenge
+					state = AUTHORIZING;
+					handshakeTime = now;
+					send("0 " + name + (password.equals("") ? "" : " " + password) + " +c:" + tokens[i + 3]);
+				} else if (verdict == 3 && state == AUTHORIZING) {
+					sessionID = Integer.parseInt(tokens[i + 3]);
+					state = JOINING;
+					sendHandshake(now);
+				} else if (verdict < 3) {
+					state = REFUSED;
+					System.err.println(name + " was refused by the server (verdict " + verdict + ")");
+				}
+			} else if (id.equals("2") && state == JOINING) { // Deauthorization warning
+				sendHandshake(now);
+			} else if (id.equals("3") && tokens.length > i + 1) { // Ping
+				send("4 @" + sessionID + " " + tokens[i + 1]);
+				if (lastPing != 0) {
+					long gap = (now - lastPing) / 1000000L;
+					pingGaps++;
+					pingGapTotal += gap;
+					maxPingGap = Math.max(maxPingGap, gap);
+				}
+				lastPing = now;
+			} else if (id.equals("21") && tokens.length > i + 1 && tokens[i + 1].equals(name) && state == JOINING) {
+				state = PLAYING;
+				nextUpdate = nextFire = now;
+			} else if (id.equals("30")) {
+				for (int j = i + 2; j < tokens.length; j++) {
+					if (!tokens[j].startsWith("l"))
+						continue;
+					int roll = tokens[j].lastIndexOf(':');
+					int sent;
+					try {
+						sent = Math.round(Float.parseFloat(tokens[j].substring(roll + 1)));
+					} catch (NumberFormatException e) {
+						continue;
+					}
+					if (sent != 0) // Locations not stamped by a bot (such as respawn points) have no roll
+						recordLatency((stamp(now) - sent + STAMP_PERIOD) % STAMP_PERIOD);
+				}
+			}
+		}
+
+		/**
+		 * Records the receipt of a packet sent reliably, for the acknowledgment piggybacked on the next packet sent
+		 * (the join request, for the authorization response, and location updates after that)
+		 *
+		 * @param sequence The packet's sequence number
+		 */
+		private void receiveSequence(int sequence) {
+			ackPending = true;
+			if (sequence > remoteSequence) {
+				int shift = sequence - remoteSequence;
+				receivedBits = shift >= 32 ? 0 : receivedBits << shift;
+				if (remoteSequence >= 0 && shift <= 32)
+					receivedBits |= 1 << (shift - 1);
+				remoteSequence = sequence;
+			} else if (sequence < remoteSequence && remoteSequence - sequence <= 32)
+				receivedBits |= 1 << (remoteSequence - sequence - 1);
+		}
+
+		/**
+		 * Sends the provided packet to the server, piggybacking the pending acknowledgment (if any) on it
+		 *
+		 * @param packet The packet, rendered as text
+		 */
+		private void send(String packet) {
+			if (ackPending && sessionID >= 0) {
+				packet = "!" + remoteSequence + "." + Integer.toHexString(receivedBits) + " " + packet;
+				ackPending = false;
+			}
+			try {
+				channel.send(ByteBuffer.wrap(packet.getBytes(US_ASCII)), server);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		/**
+		 * Disconnects the bot's player from the server and closes its socket
+		 */
+		private void disconnect() {
+			if (state == PLAYING)
+				send("22 @" + sessionID);
+			try {
+				channel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,424 @@
+package com.veltro.blazingbarrels.server.bench;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.veltro.blazingbarrels.server.BBServer;
+import com.veltro.blazingbarrels.server.Configuration;
+import com.veltro.blazingbarrels.server.connect.CyclePhase;
+import com.veltro.blazingbarrels.server.connect.Histogram;
+import com.veltro.blazingbarrels.server.connect.LoopbackNetwork;
+import com.veltro.blazingbarrels.server.connect.LoopbackTransport;
+import com.veltro.blazingbarrels.server.connect.PacketManager;
+import com.veltro.blazingbarrels.server.connect.ReceiverThread;
+import com.veltro.blazingbarrels.server.connect.SenderThread;
+import com.veltro.blazingbarrels.server.connect.ServerMetrics;
+import com.veltro.blazingbarrels.server.game.Location3D;
+import com.veltro.blazingbarrels.server.record.MatchRecorder;
+
+/**
+ * Measures the server's game loop in isolation from the network stack: the server's receiver and sender run over a
+ * {@link LoopbackNetwork} in the same process as a number of bots, which the main thread drives between the cycles it
+ * runs. Each bot joins, sends a location update every cycle, fires now and then, answers pings and acknowledges what
+ * the server sends reliably. After a warm-up, the cycles are measured for the given duration, and the work done per
+ * cycle, per datagram received and per packet sent is reported as the server's {@link ServerMetrics} recorded it.
+ * Build and run from the project root with:
+ *
+ * <pre>
+ * javac -d out $(find src bench -name '*.java')
+ * java -cp out com.veltro.blazingbarrels.server.bench.LoopbackBenchmark [-bots 64] [-fire 10] [-warmup 10]
+ *      [-duration 30]
+ * </pre>
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public class LoopbackBenchmark {
+
+	/**
+	 * The character set of the packets
+	 */
+	private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+	/**
+	 * The number of cycles a joining bot waits for a reply before starting its handshake over (handshakes are
+	 * rate-limited, so some of those sent at once are dropped)
+	 */
+	private static final int RETRY_CYCLES = 20;
+
+	/**
+	 * The bots
+	 */
+	private final List<Bot> bots = new ArrayList<Bot>();
+
+	/**
+	 * The address of the server's receiver
+	 */
+	private final InetSocketAddress server;
+
+	/**
+	 * The number of cycles between the shots of a bot, or 0 for bots that do not fire
+	 */
+	private final int fireInterval;
+
+	/**
+	 * The number of the current cycle
+	 */
+	private int cycle = 0;
+
+	/**
+	 * Runs the benchmark
+	 *
+	 * @param args Pairs of options and values: -bots (number of bots), -fire (cycles between shots, 0 for none),
+	 * -warmup and -duration (in seconds)
+	 * @throws Exception Thrown if the server cannot be set up
+	 */
+	public static void main(String[] args) throws Exception {
+		int bots = 64, fire = 10, warmUp = 10, duration = 30;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String option = args[i], value = args[i + 1];
+			if (option.equals("-bots"))
+				bots = Integer.parseInt(value);
+			else if (option.equals("-fire"))
+				fire = Integer.parseInt(value);
+			else if (option.equals("-warmup"))
+				warmUp = Integer.parseInt(value);
+			else if (option.equals("-duration"))
+				duration = Integer.parseInt(value);
+			else
+				System.err.println("Ignoring unknown option " + option);
+		}
+		LoopbackNetwork network = new LoopbackNetwork();
+		Configuration config = installServer(bots);
+		LoopbackTransport endpoint = network.open(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+				config.getPort()));
+		ReceiverThread receiver = new ReceiverThread(endpoint);
+		SenderThread sender = new SenderThread(network.open());
+		install("receiver", receiver);
+		install("sender", sender);
+		receiver.start();
+		sender.start();
+
+		LoopbackBenchmark benchmark = new LoopbackBenchmark(network, endpoint.getLocalAddress(), bots, fire);
+		benchmark.run(warmUp * 1000 / PacketManager.CYCLE_LENGTH);
+		BBServer.getMetrics().sampleInterval(); // Discard the warm-up
+		benchmark.run(duration * 1000 / PacketManager.CYCLE_LENGTH);
+		ServerMetrics.Interval interval = BBServer.getMetrics().sampleInterval();
+		benchmark.report(interval, network);
+		receiver.terminate();
+		sender.terminate();
+		endpoint.close();
+	}
+
+	/**
+	 * Installs a server configuration (with a player cap fitting the bots) and the server's components, as the server
+	 * would on startup. The configuration is written to a temporary file.
+	 *
+	 * @param bots The number of bots
+	 * @return The configuration
+	 * @throws IOException Thrown if the temporary file cannot be written
+	 * @throws ReflectiveOperationException Thrown if the components cannot be installed
+	 */
+	private static Configuration installServer(int bots) throws IOException, ReflectiveOperationException {
+		File file = File.createTempFile("bbserver-bench", ".txt");
+		file.deleteOnExit();
+		FileWriter writer = new FileWriter(file);
+		writer.write("Player-cap: " + bots + "\n");
+		writer.close();
+		Configuration config = new Configuration(file);
+		config.loadValues();
+		install("config", config);
+		install("metrics", new ServerMetrics());
+		install("recorder", new MatchRecorder());
+		install("pm", new PacketManager());
+		return config;
+	}
+
+	/**
+	 * Sets one of the server's components, which the server normally sets itself
+	 *
+	 * @param name The name of the field of {@link BBServer} holding the component
+	 * @param component The component
+	 * @throws ReflectiveOperationException Thrown if the field cannot be set
+	 */
+	private static void install(String name, Object component) throws ReflectiveOperationException {
+		Field field = BBServer.class.getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(null, component);
+	}
+
+	/**
+	 * Opens the bots' endpoints
+	 *
+	 * @param network The network
+	 * @param server The address of the server's receiver
+	 * @param count The number of bots
+	 * @param fireInterval The number of cycles between the shots of a bot, or 0 for bots that do not fire
+	 * @throws IOException Thrown if an endpoint cannot be opened
+	 */
+	private LoopbackBenchmark(LoopbackNetwork network, InetSocketAddress server, int count, int fireInterval)
+			throws IOException {
+		this.server = server;
+		this.fireInterval = fireInterval;
+		for (int i = 0; i < count; i++) // Each bot has an address of its own, as handshakes are rate-limited by address
+			bots.add(new Bot(i, network.open(new InetSocketAddress(InetAddress.getByAddress(new byte[] {127, 1,
+					(byte) (i / 250), (byte) (i % 250 + 1)}), 7000))));
+	}
+
+	/**
+	 * Runs cycles, having the bots read what the server sent them and act before each
+	 *
+	 * @param cycles The number of cycles to run
+	 * @throws IOException Thrown if a bot fails to receive or send
+	 */
+	private void run(int cycles) throws IOException {
+		for (int i = 0; i < cycles; i++, cycle++) {
+			for (Bot bot : bots) {
+				bot.receiveAll();
+				bot.act();
+			}
+			BBServer.getPacketManager().runCycle();
+		}
+	}
+
+	/**
+	 * Prints the results
+	 *
+	 * @param interval The server's metrics over the measured cycles
+	 * @param network The network
+	 */
+	private void report(ServerMetrics.Interval interval, LoopbackNetwork network) {
+		int playing = 0;
+		long dropped = 0;
+		for (Bot bot : bots) {
+			if (bot.state == Bot.PLAYING)
+				playing++;
+			dropped += bot.endpoint.getDropped();
+		}
+		System.out.println(String.format("%d/%d bots playing, %.1f s measured", playing, bots.size(),
+				interval.getSeconds()));
+		System.out.println("Cycle work (p50/p99/max):    " + describe(interval.getCycles()) + " (" +
+				interval.getCycles().getCount() + " cycles)");
+		for (CyclePhase phase : CyclePhase.values())
+			System.out.println(String.format("  %-26s %s", phase.toString().toLowerCase() + ":",
+					describe(interval.getPhase(phase))));
+		System.out.println("Receive time (p50/p99/max):  " + describe(interval.getReceives()) + " (" +
+				interval.getReceives().getCount() + " datagrams)");
+		System.out.println("Send time (p50/p99/max):     " + describe(interval.getSends()) + " (" +
+				interval.getSends().getCount() + " packets)");
+		System.out.println("Datagrams dropped by the network: " + (network.getUndeliverable() + dropped) +
+				"; malformed: " + interval.getMalformedDrops() + "; failed to send: " + interval.getSendFailures());
+	}
+
+	/**
+	 * @param times A summary of durations recorded in nanoseconds
+	 * @return The median, 99th percentile and maximum of the durations, in microseconds
+	 */
+	private static String describe(Histogram.Summary times) {
+		return String.format("%.1f/%.1f/%.1f us", times.getPercentile(50) / 1e3, times.getPercentile(99) / 1e3,
+				times.getMax() / 1e3);
+	}
+
+	/**
+	 * A simulated client
+	 *
+	 * @author LinearLogic
+	 * @since 0.4.0
+	 */
+	private class Bot {
+
+		/**
+		 * The bot's state from its first authorization request until its player is connected
+		 */
+		private static final int JOINING = 0;
+
+		/**
+		 * The bot's state while its player is connected
+		 */
+		private static final int PLAYING = 1;
+
+		/**
+		 * The index of the bot, from which its name and path are derived
+		 */
+		private final int index;
+
+		/**
+		 * The name of the bot's player
+		 */
+		private final String name;
+
+		/**
+		 * The bot's endpoint
+		 */
+		private final LoopbackTransport endpoint;
+
+		/**
+		 * The packets received in a batch
+		 */
+		private final DatagramPacket[] batch = new DatagramPacket[16];
+
+		/**
+		 * The reusable list holding the packet sent
+		 */
+		private final List<DatagramPacket> outbound = new ArrayList<DatagramPacket>(1);
+
+		/**
+		 * The bot's state
+		 */
+		private int state = JOINING;
+
+		/**
+		 * The bot's next handshake packet, rendered as text (sent in reply to the previous step), or null if none is
+		 * due
+		 */
+		private String handshake;
+
+		/**
+		 * The cycle in which the bot sent its last handshake packet
+		 */
+		private int handshakeCycle = 0;
+
+		/**
+		 * The session ID issued to the bot (-1 until it is authorized)
+		 */
+		private int sessionID = -1;
+
+		/**
+		 * The highest sequence number of the packets the server sent reliably (-1 if none were received)
+		 */
+		private int remoteSequence = -1;
+
+		/**
+		 * The acknowledgment bitfield for the sequence numbers preceding the {@link #remoteSequence}
+		 */
+		private int receivedBits = 0;
+
+		/**
+		 * Whether a packet sent reliably has been received since the last acknowledgment
+		 */
+		private boolean ackPending = false;
+
+		/**
+		 * @param index The index of the bot
+		 * @param endpoint The bot's endpoint
+		 */
+		private Bot(int index, LoopbackTransport endpoint) {
+			this.index = index;
+			this.endpoint = endpoint;
+			name = String.format("bot%04d", index);
+			handshake = "0 " + name;
+			for (int i = 0; i < batch.length; i++)
+				batch[i] = new DatagramPacket(new byte[2048], 2048);
+		}
+
+		/**
+		 * Sends the packets due: the next handshake step (or the first, if the server has not replied for a while), or
+		 * a location update and possibly a shot
+		 *
+		 * @throws IOException Thrown if the endpoint is closed
+		 */
+		private void act() throws IOException {
+			if (state == JOINING && handshake == null && cycle - handshakeCycle > RETRY_CYCLES)
+				handshake = "0 " + name;
+			if (handshake != null) {
+				send(handshake);
+				handshake = null;
+				handshakeCycle = cycle;
+			}
+			if (state != PLAYING)
+				return;
+			double angle = index * 2.39996 + cycle * 0.025; // The golden angle spreads the bots evenly
+			int radius = 50 + index % 20 * 20;
+			Location3D location = new Location3D((float) (radius * Math.cos(angle)), (float) (10 * Math.sin(angle *
+					3)), (float) (radius * Math.sin(angle)), (float) Math.toDegrees(angle) % 360, 0, 0);
+			send("30 @" + sessionID + " l" + location.toString(3));
+			if (fireInterval > 0 && (cycle + index) % fireInterval == 0)
+				send("40 @" + sessionID + " " + location.toString(3) + " 1");
+		}
+
+		/**
+		 * Processes every datagram queued for the bot
+		 *
+		 * @throws IOException Thrown if the endpoint is closed
+		 */
+		private void receiveAll() throws IOException {
+			int count;
+			while ((count = endpoint.poll(batch, 0)) > 0)
+				for (int i = 0; i < count; i++)
+					process(new String(batch[i].getData(), 0, batch[i].getLength(), US_ASCII));
+		}
+
+		/**
+		 * Processes a datagram received from the server
+		 *
+		 * @param text The contents of the datagram
+		 * @throws IOException Thrown if the endpoint is closed
+		 */
+		private void process(String text) throws IOException {
+			if (text.startsWith("~")) // A fragment of a snapshot, which the bots do not need
+				return;
+			String[] tokens = text.split(" ");
+			int i = 0;
+			for (; i < tokens.length && (tokens[i].startsWith("#") || tokens[i].startsWith("!")); i++)
+				if (tokens[i].startsWith("#"))
+					receiveSequence(Integer.parseInt(tokens[i].substring(1)));
+			if (i >= tokens.length)
+				return;
+			String id = tokens[i];
+			if (id.equals("1") && tokens.length > i + 3 && state == JOINING) { // Authorization response
+				if (tokens[i + 2].equals("4"))
+					handshake = "0 " + name + " +c:" + tokens[i + 3];
+				else if (tokens[i + 2].equals("3")) {
+					sessionID = Integer.parseInt(tokens[i + 3]);
+					handshake = "20 " + name;
+				}
+			} else if (id.equals("3") && tokens.length > i + 1) { // Ping
+				send("4 @" + sessionID + " " + tokens[i + 1]);
+			} else if (id.equals("21") && tokens.length > i + 1 && tokens[i + 1].equals(name)) {
+				state = PLAYING;
+			}
+		}
+
+		/**
+		 * Records the receipt of a packet sent reliably, for the acknowledgment piggybacked on the next packet sent
+		 *
+		 * @param sequence The packet's sequence number
+		 */
+		private void receiveSequence(int sequence) {
+			ackPending = true;
+			if (sequence > remoteSequence) {
+				int shift = sequence - remoteSequence;
+				receivedBits = shift >= 32 ? 0 : receivedBits << shift;
+				if (remoteSequence >= 0 && shift <= 32)
+					receivedBits |= 1 << (shift - 1);
+				remoteSequence = sequence;
+			} else if (sequence < remoteSequence && remoteSequence - sequence <= 32)
+				receivedBits |= 1 << (remoteSequence - sequence - 1);
+		}
+
+		/**
+		 * Sends the provided packet to the server, piggybacking the pending acknowledgment (if any) on it
+		 *
+		 * @param packet The packet, rendered as text
+		 * @throws IOException Thrown if the endpoint is closed
+		 */
+		private void send(String packet) throws IOException {
+			if (ackPending && sessionID >= 0) {
+				packet = "!" + remoteSequence + "." + Integer.toHexString(receivedBits) + " " + packet;
+				ackPending = false;
+			}
+			byte[] data = packet.getBytes(US_ASCII);
+			outbound.add(new DatagramPacket(data, data.length, server));
+			endpoint.send(outbound);
+			outbound.clear();
+		}
+	}
+}
@@ -0,0 +1,386 @@
+package com.veltro.blazingbarrels.server.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.veltro.blazingbarrels.server.connect.TrafficCapture;
+
+/**
+ * Replays a {@link TrafficCapture} against a running server, so that the traffic of a real match can be profiled
+ * offline and reproducibly. Every datagram of the capture is sent to the server in order, through the server's real
+ * ingress path, either with its original timing (optionally sped up or slowed down) for latency tests, or as fast as
+ * possible for throughput tests.<p>
+ *
+ * Each client in the capture is given its own UDP socket, bound to a distinct loopback address (127.2.x.y) when the
+ * server is on the loopback interface, so that the server sees as many sources as it originally did and applies its
+ * per-source limits the same way. The server's answers are received and discarded, except for what the replay needs
+ * to get the captured clients through the handshake again: the cookie each client is challenged with replaces the one
+ * captured in its authorization requests, and the session ID each client is issued replaces the one captured in its
+ * later packets. A datagram that needs a cookie or session ID the server has not sent yet waits for it (up to
+ * {@value #HANDSHAKE_WAIT} milliseconds), so that the handshake keeps its order however fast the capture is replayed.
+ * Note that the server's global rate limits still apply, and drop traffic replayed much faster than it was
+ * captured.<p>
+ *
+ * Run with, for instance:
+ *
+ * <pre>
+ * java -cp out com.veltro.blazingbarrels.server.bench.TrafficReplay -capture match.bbtc -speed 0
+ * </pre>
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public class TrafficReplay {
+
+	/**
+	 * The longest time, in milliseconds, a datagram waits for the cookie or session ID it needs
+	 */
+	private static final int HANDSHAKE_WAIT = 200;
+
+	/**
+	 * The interval between progress reports, in nanoseconds (five seconds)
+	 */
+	private static final long REPORT_INTERVAL = 5000000000L;
+
+	/**
+	 * The character set of the text protocol
+	 */
+	private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+	/**
+	 * The capture to replay
+	 */
+	private final File captureFile;
+
+	/**
+	 * The socket address of the server
+	 */
+	private final InetSocketAddress server;
+
+	/**
+	 * The factor by which the capture's timing is sped up (0 to replay as fast as possible)
+	 */
+	private final double speed;
+
+	/**
+	 * Whether each captured client is given its own loopback address
+	 */
+	private final boolean separateAddresses;
+
+	/**
+	 * The selector multiplexing the sources' sockets
+	 */
+	private Selector selector;
+
+	/**
+	 * The replayed clients, indexed by their captured socket addresses
+	 */
+	private Map<InetSocketAddress, Source> sources = new LinkedHashMap<InetSocketAddress, Source>();
+
+	/**
+	 * The buffer into which the server's datagrams are received
+	 */
+	private ByteBuffer receiveBuffer = ByteBuffer.allocate(65536);
+
+	/**
+	 * The number of datagrams sent and received
+	 */
+	private long sent = 0, received = 0;
+
+	/**
+	 * The number of cookies and session IDs rewritten
+	 */
+	private long cookiesRewritten = 0, sessionIDsRewritten = 0;
+
+	/**
+	 * The total and greatest lateness of the datagrams sent, relative to their schedule, in nanoseconds
+	 */
+	private long totalLateness = 0, maxLateness = 0;
+
+	/**
+	 * @param captureFile The capture to replay
+	 * @param server The socket address of the server
+	 * @param speed The factor by which to speed up the capture's timing, or 0 to replay as fast as possible
+	 */
+	public TrafficReplay(File captureFile, InetSocketAddress server, double speed) {
+		this.captureFile = captureFile;
+		this.server = server;
+		this.speed = speed;
+		InetAddress address = server.getAddress();
+		separateAddresses = address.isLoopbackAddress() && address instanceof Inet4Address;
+	}
+
+	/**
+	 * Parses the command line options and runs the replay. The options are -capture (the capture file, required),
+	 * -host and -port (the server's address), -speed (the factor by which to speed up the capture's timing: 1 for
+	 * real time, 0 for as fast as possible) and -linger (the number of seconds to keep receiving the server's answers
+	 * after the last datagram).
+	 *
+	 * @param args The command line options, as option-value pairs
+	 * @throws IOException Thrown if the capture cannot be read or the sockets cannot be opened
+	 */
+	public static void main(String[] args) throws IOException {
+		String capture = null, host = "127.0.0.1";
+		int port = 7430, linger = 2;
+		double speed = 1;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String option = args[i], value = args[i + 1];
+			if (option.equals("-capture"))
+				capture = value;
+			else if (option.equals("-host"))
+				host = value;
+			else if (option.equals("-port"))
+				port = Integer.parseInt(value);
+			else if (option.equals("-speed"))
+				speed = Double.parseDouble(value);
+			else if (option.equals("-linger"))
+				linger = Integer.parseInt(value);
+			else
+				System.err.println("Ignoring unknown option " + option);
+		}
+		if (capture == null) {
+			System.err.println("Usage: TrafficReplay -capture <file> [-host <host>] [-port <port>] [-speed <factor>] " +
+					"[-linger <seconds>]");
+			return;
+		}
+		new TrafficReplay(new File(capture), new InetSocketAddress(host, port), Math.max(speed, 0)).run(linger);
+	}
+
+	/**
+	 * Replays the capture, then keeps receiving the server's answers for a while, and prints a summary
+	 *
+	 * @param linger The number of seconds to keep receiving after the last datagram has been sent
+	 * @throws IOException Thrown if the capture cannot be read or the sockets cannot be opened
+	 */
+	public void run(int linger) throws IOException {
+		selector = Selector.open();
+		TrafficCapture.Reader reader = new TrafficCapture.Reader(captureFile);
+		long startTime = System.nanoTime(), nextReport = startTime + REPORT_INTERVAL, captureTime = 0;
+		try {
+			while (reader.next()) {
+				captureTime = reader.getTime();
+				Source source = getSource(new InetSocketAddress(reader.getSource(), reader.getPort()));
+				if (speed > 0) { // Wait for the datagram's turn
+					long due = startTime + (long) (captureTime / speed);
+					for (long now = System.nanoTime(); now < due; now = System.nanoTime())
+						receive(Math.max((due - now) / 1000000L, 1));
+					long lateness = System.nanoTime() - due;
+					totalLateness += lateness;
+					maxLateness = Math.max(maxLateness, lateness);
+				} else if ((sent & 63) == 0) {
+					receive(0);
+				}
+				String text = new String(reader.getData(), 0, reader.getLength(), US_ASCII);
+				awaitHandshake(source, text);
+				byte[] datagram = source.rewrite(text, reader.getData(), reader.getLength());
+				source.channel.send(ByteBuffer.wrap(datagram), server);
+				sent++;
+				long now = System.nanoTime();
+				if (now >= nextReport) {
+					System.out.println(String.format("[%5ds] %d datagrams sent (capture at %.1f s), %d received",
+							(now - startTime) / 1000000000L, sent, captureTime / 1e9, received));
+					nextReport += REPORT_INTERVAL;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		long elapsed = System.nanoTime() - startTime;
+		for (long end = System.nanoTime() + linger * 1000000000L; System.nanoTime() < end; )
+			receive(10);
+		System.out.println(String.format("Replayed %d datagrams from %d clients in %.2f s (%.0f datagrams/s; the " +
+				"capture spans %.2f s)", sent, sources.size(), elapsed / 1e9, sent / (elapsed / 1e9),
+				captureTime / 1e9));
+		if (speed > 0 && sent > 0)
+			System.out.println(String.format("Lateness relative to the schedule: avg %.3f ms, max %.3f ms",
+					totalLateness / 1e6 / sent, maxLateness / 1e6));
+		System.out.println("Received " + received + " datagrams; rewrote " + cookiesRewritten + " cookies and " +
+				sessionIDsRewritten + " session IDs");
+		for (Source source : sources.values())
+			source.channel.close();
+		selector.close();
+	}
+
+	/**
+	 * @param captured The socket address of a captured client
+	 * @return The source replaying the client's datagrams, which is created on the client's first datagram
+	 * @throws IOException Thrown if the source's socket cannot be opened
+	 */
+	private Source getSource(InetSocketAddress captured) throws IOException {
+		Source source = sources.get(captured);
+		if (source == null) {
+			source = new Source(sources.size());
+			sources.put(captured, source);
+		}
+		return source;
+	}
+
+	/**
+	 * Waits for the server to send the provided source the cookie or session ID the provided datagram needs, if it
+	 * has not already
+	 *
+	 * @param source The source about to send the datagram
+	 * @param text The datagram, as text
+	 * @throws IOException Thrown if the sockets cannot be read
+	 */
+	private void awaitHandshake(Source source, String text) throws IOException {
+		boolean needsCookie = text.contains("+c:"), needsSessionID = text.contains("@");
+		long deadline = System.nanoTime() + HANDSHAKE_WAIT * 1000000L;
+		while (((needsCookie && !source.freshCookie) || (needsSessionID && source.sessionID < 0)) &&
+				System.nanoTime() < deadline)
+			receive(1);
+	}
+
+	/**
+	 * Receives the datagrams the server has sent to any source
+	 *
+	 * @param timeout The longest time to wait for a datagram, in milliseconds (0 not to wait)
+	 * @throws IOException Thrown if the sockets cannot be read
+	 */
+	private void receive(long timeout) throws IOException {
+		if (timeout > 0)
+			selector.select(timeout);
+		else
+			selector.selectNow();
+		Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+		while (keys.hasNext()) {
+			Source source = (Source) keys.next().attachment();
+			keys.remove();
+			source.receiveAll();
+		}
+	}
+
+	/**
+	 * A client of the capture, replayed from a socket of its own
+	 */
+	private class Source {
+
+		/**
+		 * The source's socket
+		 */
+		private final DatagramChannel channel;
+
+		/**
+		 * The cookie the server last challenged the source with (null if it has not)
+		 */
+		private String cookie = null;
+
+		/**
+		 * Whether the source has been challenged since it last sent an authorization request without a cookie
+		 */
+		private boolean freshCookie = false;
+
+		/**
+		 * The session ID the server issued to the source (-1 if it has not)
+		 */
+		private int sessionID = -1;
+
+		/**
+		 * Opens the source's socket
+		 *
+		 * @param index The index of the source, from which its loopback address is derived
+		 * @throws IOException Thrown if the socket cannot be opened
+		 */
+		private Source(int index) throws IOException {
+			channel = DatagramChannel.open();
+			channel.bind(separateAddresses ? new InetSocketAddress(InetAddress.getByAddress(new byte[] {127, 2,
+					(byte) (index / 250), (byte) (index % 250 + 1)}), 0) : null);
+			channel.configureBlocking(false);
+			channel.register(selector, SelectionKey.OP_READ, this);
+		}
+
+		/**
+		 * Replaces the cookie and session ID captured in a datagram with the ones the server issued to this source
+		 *
+		 * @param text The datagram, as text
+		 * @param data The array holding the datagram
+		 * @param length The length of the datagram
+		 * @return The datagram to send
+		 */
+		private byte[] rewrite(String text, byte[] data, int length) {
+			String[] tokens = text.split(" ", -1);
+			int i = 0;
+			while (i < tokens.length && (tokens[i].startsWith("#") || tokens[i].startsWith("!")))
+				i++; // Reliability headers
+			if (i + 1 >= tokens.length || tokens[0].startsWith("~")) // Fragments are sent as captured
+				return copy(data, length);
+			boolean rewritten = false;
+			if (tokens[i].equals("0")) {
+				for (int j = i + 2; j < tokens.length; j++) {
+					if (tokens[j].startsWith("+c:") && cookie != null) {
+						tokens[j] = "+c:" + cookie;
+						cookiesRewritten++;
+						rewritten = true;
+					}
+				}
+				freshCookie = false;
+			} else if (tokens[i + 1].startsWith("@") && sessionID >= 0) {
+				tokens[i + 1] = "@" + sessionID;
+				sessionIDsRewritten++;
+				rewritten = true;
+			}
+			if (!rewritten)
+				return copy(data, length);
+			StringBuilder result = new StringBuilder(length + 8);
+			for (int j = 0; j < tokens.length; j++)
+				result.append(j == 0 ? "" : " ").append(tokens[j]);
+			return result.toString().getBytes(US_ASCII);
+		}
+
+		/**
+		 * Receives all the datagrams waiting on the source's socket, picking up the cookies and session IDs the
+		 * server issues in its authorization responses
+		 *
+		 * @throws IOException Thrown if the socket cannot be read
+		 */
+		private void receiveAll() throws IOException {
+			while (true) {
+				receiveBuffer.clear();
+				if (channel.receive(receiveBuffer) == null)
+					return;
+				received++;
+				receiveBuffer.flip();
+				if (receiveBuffer.remaining() == 0 || receiveBuffer.get(0) == '^' || receiveBuffer.get(0) == '~')
+					continue; // Authorization responses are never compressed or fragmented
+				String[] tokens = new String(receiveBuffer.array(), 0, receiveBuffer.limit(), US_ASCII).split(" ");
+				int i = 0;
+				while (i < tokens.length && (tokens[i].startsWith("#") || tokens[i].startsWith("!")))
+					i++;
+				if (i + 3 >= tokens.length || !tokens[i].equals("1"))
+					continue;
+				if (tokens[i + 2].equals("4")) {
+					cookie = tokens[i + 3];
+					freshCookie = true;
+				} else if (tokens[i + 2].equals("3")) {
+					try {
+						sessionID = Integer.parseInt(tokens[i + 3]);
+					} catch (NumberFormatException e) {
+						continue;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param data An array
+	 * @param length The number of bytes to copy
+	 * @return A copy of the provided number of bytes at the start of the array
+	 */
+	private static byte[] copy(byte[] data, int length) {
+		byte[] copy = new byte[length];
+		System.arraycopy(data, 0, copy, 0, length);
+		return copy;
+	}
+}
@@ -1,11 +1,22 @@
 package com.veltro.blazingbarrels.server;
 
 import java.io.File;
-import java.net.SocketException;
+import java.io.IOException;
 
 import com.veltro.blazingbarrels.server.connect.PacketManager;
+import com.veltro.blazingbarrels.server.connect.Reactor;
 import com.veltro.blazingbarrels.server.connect.ReceiverThread;
 import com.veltro.blazingbarrels.server.connect.SenderThread;
+import com.veltro.blazingbarrels.server.connect.ServerMetrics;
+import com.veltro.blazingbarrels.server.connect.Transport;
+import com.veltro.blazingbarrels.server.connect.UdpTransport;
+import com.veltro.blazingbarrels.server.connect.WarmUp;
+import com.veltro.blazingbarrels.server.game.World;
+import com.veltro.blazingbarrels.server.jfr.FlightRecording;
+import com.veltro.blazingbarrels.server.log.LogLevel;
+import com.veltro.blazingbarrels.server.log.ServerLog;
+import com.veltro.blazingbarrels.server.record.MatchRecorder;
+import com.veltro.blazingbarrels.server.spectate.SpectatorServer;
 
 /**
  * Main class - contains {@link #main(String[]) launch method}
@@ -34,6 +45,16 @@ public class BBServer {
 	 */
 	private static Configuration config;
 
+	/**
+	 * The histograms and counters instrumenting the server's threads
+	 */
+	private static ServerMetrics metrics;
+
+	/**
+	 * Records the matches played on the server, when match recording is on
+	 */
+	private static MatchRecorder recorder;
+
 	/**
 	 * The server's {@link PacketManager}, which is responsible for the handling of received packets, the updating of
 	 * the server, and the creation of response packets to be sent to clients connected to the server.
@@ -50,6 +71,17 @@ public class BBServer {
 	 */
 	private static ReceiverThread receiver;
 
+	/**
+	 * The reactor doing the work of the {@link #receiver} and the {@link #sender} on the main thread, or null if they
+	 * run as threads of their own
+	 */
+	private static Reactor reactor;
+
+	/**
+	 * The thread streaming the match to spectators (null if the spectator port is 0)
+	 */
+	private static SpectatorServer spectators;
+
 	/**
 	 * The thread responsible for parsing console input
 	 */
@@ -68,45 +100,119 @@ public class BBServer {
 		File configFile = new File ("config.txt"); // File is within the jar for simplicity in testing
 		config = new Configuration(configFile);
 		config.loadValues();
+		ServerLog.setLevel(config.getLogLevel());
+		ServerLog.start(config.getLogFile() == null ? null : new File(config.getLogFile()), config.getLogFileSize(),
+				config.getLogFiles());
+		metrics = new ServerMetrics();
+		recorder = new MatchRecorder();
 		pm = new PacketManager();
 
-		// Set up threads:
-		try {
-			sender = new SenderThread();
-		} catch (SocketException e) {
-			System.err.println("Failed to find an available port for packet transmission. Stopping the server...");
-			return;
-		} catch (SecurityException e) {
-			e.printStackTrace();
-			return;
+		// Set up threads (or the reactor doing their work on this thread):
+		if (config.isReactorMode()) {
+			try {
+				Transport transport = new UdpTransport(config.getPort(), ReceiverThread.SOCKET_BUFFER_SIZE);
+				receiver = new ReceiverThread(transport);
+				sender = new SenderThread(transport);
+				reactor = new Reactor(transport, receiver, sender);
+			} catch (IOException e) {
+				System.err.println("Failed to bind to port " + config.getPort() + ". Is it in use by another " +
+						"program?\nStopping the server...");
+				return;
+			}
+		} else {
+			try {
+				sender = new SenderThread();
+			} catch (IOException e) {
+				System.err.println("Failed to find an available port for packet transmission. Stopping the " +
+						"server...");
+				return;
+			} catch (SecurityException e) {
+				e.printStackTrace();
+				return;
+			}
+			try {
+				receiver = new ReceiverThread(config.getPort());
+			} catch (IOException e) {
+				System.err.println("Failed to bind to port " + config.getPort() + " for packet receipt. Is it in use " +
+						"by another program?\nStopping the server...");
+				return;
+			} catch (SecurityException e) {
+				e.printStackTrace();
+				return;
+			}
 		}
-		try {
-			receiver = new ReceiverThread(config.getPort());
-		} catch (SocketException e) {
-			System.err.println("Failed to bind to port " + config.getPort() + " for packet receipt. Is it in use by " +
-					"another program?\nStopping the server...");
-			return;
-		} catch (SecurityException e) {
-			e.printStackTrace();
-			return;
+		if (config.getSpectatorPort() != 0) {
+			try {
+				spectators = new SpectatorServer(config.getSpectatorPort());
+			} catch (IOException e) {
+				System.err.println("Failed to bind to port " + config.getSpectatorPort() + " for spectators. The " +
+						"match will not be streamed.");
+			}
 		}
 		input = new InputThread();
 
+		// Warm up against synthetic clients, then start afresh:
+		if (config.getWarmUpCycles() > 0) {
+			System.out.println("Warming up...");
+			long start = System.currentTimeMillis();
+			int cycles = new WarmUp(receiver, sender).run(config.getWarmUpCycles());
+			World.clearPlayers();
+			pm = new PacketManager();
+			metrics = new ServerMetrics();
+			receiver.reset();
+			sender.reset();
+			System.out.println("Warmed up in " + (System.currentTimeMillis() - start) + " ms (" + cycles +
+					" cycles)");
+		}
+
 		// Launch threads:
-		sender.start();
-		receiver.start();
+		if (reactor == null) {
+			sender.start();
+			receiver.start();
+		} else
+			System.out.println("Running in reactor mode: receiving, cycles and sending share the main thread");
 		input.start();
+		if (spectators != null) {
+			spectators.start();
+			recorder.setSpectatorFeed(spectators);
+			System.out.println("Streaming the match to spectators on port " + spectators.getPort());
+		}
+		if (config.getRecordingDirectory() != null) {
+			File directory = new File(config.getRecordingDirectory(), MatchRecorder.getRecordingName());
+			try {
+				recorder.start(directory);
+				System.out.println("Recording matches to " + directory);
+			} catch (IOException e) {
+				System.err.println("Failed to start recording matches: " + e.getMessage());
+			}
+		}
 
 		// Main loop
 		while(running) {
-			pm.runCycle();
+			if (reactor != null)
+				reactor.runCycle();
+			else
+				pm.runCycle();
 		}
 
 		// Cleanup:
 		System.out.println("Saving the server configuration...");
 		config.saveValues();
+		if (FlightRecording.isRecording()) {
+			System.out.println("Writing the Flight Recorder recording...");
+			System.out.println("Recording written to " + FlightRecording.stop());
+		}
+		if (recorder.stop() != null)
+			System.out.println("Match recording stopped.");
+		if (spectators != null)
+			spectators.terminate();
 		sender.terminate();
 		receiver.terminate();
+		if (reactor != null)
+			reactor.close();
+		if (receiver.stopCapture() != null)
+			System.out.println("Traffic capture stopped.");
+		ServerLog.stop();
 		System.out.println("\nServer closed.");
 		System.out.println(goodbyes[(int) (Math.random() * goodbyes.length)]);
 	}
@@ -118,6 +224,20 @@ public class BBServer {
 		return config;
 	}
 
+	/**
+	 * @return The server's {@link ServerMetrics metrics}
+	 */
+	public static ServerMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return The server's {@link MatchRecorder match recorder}
+	 */
+	public static MatchRecorder getMatchRecorder() {
+		return recorder;
+	}
+
 	/**
 	 * @return The server's {@link #pm packet manager}
 	 */
@@ -139,6 +259,13 @@ public class BBServer {
 		return receiver;
 	}
 
+	/**
+	 * @return The server's {@link #spectators spectator server}, or null if the match is not streamed to spectators
+	 */
+	public static SpectatorServer getSpectatorServer() {
+		return spectators;
+	}
+
 	/**
 	 * @return The server's {@link #input input thread}
 	 */
@@ -7,10 +7,20 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.Scanner;
 
+import com.veltro.blazingbarrels.server.connect.Compressor;
+import com.veltro.blazingbarrels.server.connect.Connection;
+import com.veltro.blazingbarrels.server.connect.Fragmenter;
+import com.veltro.blazingbarrels.server.connect.PacketManager;
+import com.veltro.blazingbarrels.server.connect.Reactor;
 import com.veltro.blazingbarrels.server.connect.ReceiverThread;
 import com.veltro.blazingbarrels.server.connect.SenderThread;
+import com.veltro.blazingbarrels.server.connect.WarmUp;
 import com.veltro.blazingbarrels.server.connect.packet.Packet00AuthRequest;
 import com.veltro.blazingbarrels.server.game.World;
+import com.veltro.blazingbarrels.server.log.LogLevel;
+import com.veltro.blazingbarrels.server.log.ServerLog;
+import com.veltro.blazingbarrels.server.record.MatchRecorder;
+import com.veltro.blazingbarrels.server.spectate.SpectatorServer;
 
 /**
  * Configuration manager - provides methods for accessing and altering nodes in the {@link #configFile}, such as the
@@ -21,6 +31,32 @@ import com.veltro.blazingbarrels.server.game.World;
  */
 public class Configuration {
 
+	/**
+	 * The smallest allowed {@link #maxDatagramSize}, which fits every packet the server sends apart from snapshots
+	 */
+	public static final int MIN_DATAGRAM_SIZE = 256;
+
+	/**
+	 * The largest allowed {@link #maxDatagramSize}, the largest payload a UDP datagram can carry over IPv4
+	 */
+	public static final int MAX_DATAGRAM_SIZE = 65507;
+
+	/**
+	 * The number of bytes per second of player updates that each client may be sent. When more players have changed
+	 * than fit in this budget, the updates that matter most to the client are sent first (see {@link Connection}).<p>
+	 * Like the other config values, the client bandwidth cannot be changed without restarting the server, so it
+	 * does not have a setter method.
+	 */
+	private int clientBandwidth;
+
+	/**
+	 * The size, in bytes, above which the packets sent to clients that opted in to compression are compressed (see
+	 * {@link Compressor}). Smaller packets gain too little to be worth the CPU time.<p>
+	 * Like the other config values, the compression threshold cannot be changed without restarting the server, so it
+	 * does not have a setter method.
+	 */
+	private int compressionThreshold;
+
 	/**
 	 * The maximum health value a player can have. When a player spawns, their health level is set to this value.<p>
 	 * Like the other config values, the health cap cannot be changed without restarting the server, so it
@@ -28,6 +64,61 @@ public class Configuration {
 	 */
 	private int healthCap;
 
+	/**
+	 * The amount of time, in milliseconds, after which a player whose client has not been heard from is disconnected
+	 * for timing out. Clients are pinged every second (see {@link Connection}), so a client that is still running is
+	 * heard from regularly even when its player is idle.<p>
+	 * Like the other config values, the idle timeout cannot be changed without restarting the server, so it does not
+	 * have a setter method.
+	 */
+	private int idleTimeout;
+
+	/**
+	 * The longest amount of time, in milliseconds, that the server may wait between sending player updates to a client.
+	 * Clients on slow or lossy links are sent updates less frequently (see {@link Connection}), but never less often
+	 * than this.<p>
+	 * Like the other config values, the maximum send interval cannot be changed without restarting the server, so it
+	 * does not have a setter method.
+	 */
+	private int maxSendInterval;
+
+	/**
+	 * The size, in bytes, beyond which the {@link #logFile} is rotated.<p>
+	 * Like the other config values, the log file size cannot be changed without restarting the server, so it does not
+	 * have a setter method.
+	 */
+	private long logFileSize;
+
+	/**
+	 * The number of rotated log files kept besides the {@link #logFile}, the oldest being deleted.<p>
+	 * Like the other config values, the number of log files kept cannot be changed without restarting the server, so
+	 * it does not have a setter method.
+	 */
+	private int logFiles;
+
+	/**
+	 * The least severe {@link LogLevel level} of the messages written to the {@link ServerLog}.<p>
+	 * The log level can be changed from the console, but the value in the config file is only read at startup.
+	 */
+	private LogLevel logLevel;
+
+	/**
+	 * The maximum size, in bytes, of the datagrams sent by the server. Larger packets (such as the snapshots of busy
+	 * servers) are split into fragments of at most this size (see {@link Fragmenter}). The default is small enough to
+	 * avoid IP fragmentation on practically every path.<p>
+	 * Like the other config values, the maximum datagram size cannot be changed without restarting the server, so it
+	 * does not have a setter method.
+	 */
+	private int maxDatagramSize;
+
+	/**
+	 * The shortest amount of time, in milliseconds, between player updates sent to a client. Clients on healthy links
+	 * are sent updates at this interval, which is rounded down to a whole number of {@link PacketManager} cycles.<p>
+	 * Like the other config values, the minimum send interval cannot be changed without restarting the server, so it
+	 * does not have a setter method.
+	 */
+	private int minSendInterval;
+
 	/**
 	 * The maximum number of players allowed on the server simultaneously. Note that this limit does not apply to
 	 * server administrators.<p>
@@ -60,6 +151,63 @@ public class Configuration {
 	 */
 	private String password;
 
+	/**
+	 * The directory in which matches are recorded (see {@link MatchRecorder}), each in a subdirectory of its own. If
+	 * this field is null, matches are only recorded when recording is started from the console.<p>
+	 * Like the other config values, the recording directory cannot be changed without restarting the server, so it
+	 * does not have a setter method.
+	 */
+	private String recordingDirectory;
+
+	/**
+	 * The file to which the {@link ServerLog} is written besides the console. If this field is null, the log is only
+	 * written to the console.<p>
+	 * Like the other config values, the log file cannot be changed without restarting the server, so it does not have
+	 * a setter method.
+	 */
+	private String logFile;
+
+	/**
+	 * The port on which spectators subscribe to the delayed feed of the match (see {@link SpectatorServer}), or 0 if
+	 * the feed is not served.<p>
+	 * Like the other config values, the spectator port cannot be changed without restarting the server, so it does
+	 * not have a setter method.
+	 */
+	private int spectatorPort;
+
+	/**
+	 * The delay, in milliseconds, with which the live match is streamed to spectators, so that they cannot relay
+	 * what they see to the players in time to matter.<p>
+	 * Like the other config values, the spectator delay cannot be changed without restarting the server, so it does
+	 * not have a setter method.
+	 */
+	private int spectatorDelay;
+
+	/**
+	 * The maximum number of spectators subscribed to the feed simultaneously. Spectators do not count against the
+	 * {@link #playerCap}.<p>
+	 * Like the other config values, the spectator cap cannot be changed without restarting the server, so it does not
+	 * have a setter method.
+	 */
+	private int spectatorCap;
+
+	/**
+	 * Whether the server runs in a single thread, receiving, running the cycles and sending in turn (see
+	 * {@link Reactor}), rather than with a thread dedicated to receiving and another to sending.<p>
+	 * Like the other config values, the run mode cannot be changed without restarting the server, so it does not have
+	 * a setter method.
+	 */
+	private boolean reactorMode;
+
+	/**
+	 * The maximum number of cycles the server runs against synthetic clients before accepting players, so that the
+	 * code handling them is compiled by the time the first players join (see {@link WarmUp}), or 0 to skip the
+	 * warm-up.<p>
+	 * Like the other config values, the number of warm-up cycles cannot be changed without restarting the server, so
+	 * it does not have a setter method.
+	 */
+	private int warmUpCycles;
+
 	/**
 	 * The configFile stores all of the server's configuration values ({@link #playerCap}, {@link #port}, etc.)
 	 */
@@ -92,6 +240,24 @@ public class Configuration {
 		}
 		while (sc.hasNext()) {
 			String[] data = sc.nextLine().split("\\s+", 2);
+			if (data[0].equalsIgnoreCase("client-bandwidth:") && data.length == 2) {
+				try {
+					clientBandwidth = Integer.parseInt(data[1]);
+				} catch (NumberFormatException e) {
+					System.err.println("Invalid client bandwidth in the config file: not a number. Using default " +
+							"value.");
+				}
+				continue;
+			}
+			if (data[0].equalsIgnoreCase("compression-threshold:") && data.length == 2) {
+				try {
+					compressionThreshold = Integer.parseInt(data[1]);
+				} catch (NumberFormatException e) {
+					System.err.println("Invalid compression threshold in the config file: not a number. Using " +
+							"default value.");
+				}
+				continue;
+			}
 			if (data[0].equalsIgnoreCase("health-cap:")) {
 				try {
 					healthCap = Integer.parseInt(data[1]);
@@ -105,6 +271,76 @@ public class Configuration {
 				}
 				continue;
 			}
+			if (data[0].equalsIgnoreCase("idle-timeout:") && data.length == 2) {
+				try {
+					idleTimeout = Integer.parseInt(data[1]);
+				} catch (NumberFormatException e) {
+					System.err.println("Invalid idle timeout in the config file: not a number. Using default value.");
+				}
+				continue;
+			}
+			if (data[0].equalsIgnoreCase("log-file:")) {
+				logFile = data.length == 2 && !data[1].trim().equals("") ? data[1].trim() : null;
+				continue;
+			}
+			if (data[0].equalsIgnoreCase("log-file-size:") && data.length == 2) {
+				try {
+					logFileSize = Long.parseLong(data[1]);
+				} catch (NumberFormatException e) {
+					System.err.println("Invalid log file size in the config file: not a number. Using default value.");
+				}
+				continue;
+			}
+			if (data[0].equalsIgnoreCase("log-files:") && data.length == 2) {
+				try {
+					logFiles = Math.max(0, Integer.parseInt(data[1]));
+				} catch (NumberFormatException e) {
+					System.err.println("Invalid number of log files in the config file: not a number. Using default " +
+							"value.");
+				}
+				continue;
+			}
+			if (data[0].equalsIgnoreCase("log-level:") && data.length == 2) {
+				LogLevel level = LogLevel.getLevel(data[1].trim());
+				if (level == null)
+					System.err.println("Invalid log level in the config file: not one of DEBUG, INFO, WARNING or " +
+							"SEVERE. Using default value.");
+				else
+					logLevel = level;
+				continue;
+			}
+			if (data[0].equalsIgnoreCase("max-datagram-size:") && data.length == 2) {
+				try {
+					maxDatagramSize = Integer.parseInt(data[1]);
+				} catch (NumberFormatException e) {
+					System.err.println("Invalid max datagram size in the config file: not a number. Using default " +
+							"value.");
+				}
+				if (maxDatagramSize < MIN_DATAGRAM_SIZE || maxDatagramSize > MAX_DATAGRAM_SIZE) {
+					maxDatagramSize = Math.max(MIN_DATAGRAM_SIZE, Math.min(maxDatagramSize, MAX_DATAGRAM_SIZE));
+					System.err.println("The max datagram size specified in the config file is out of bounds. Using " +
+							"the nearest bound (" + maxDatagramSize + ") instead.");
+				}
+				continue;
+			}
+			if (data[0].equalsIgnoreCase("max-send-interval:") && data.length == 2) {
+				try {
+					maxSendInterval = Integer.parseInt(data[1]);
+				} catch (NumberFormatException e) {
+					System.err.println("Invalid max send interval in the config file: not a number. Using default " +
+							"value.");
+				}
+				continue;
+			}
+			if (data[0].equalsIgnoreCase("min-send-interval:") && data.length == 2) {
+				try {
+					minSendInterval = Integer.parseInt(data[1]);
+				} catch (NumberFormatException e) {
+					System.err.println("Invalid min send interval in the config file: not a number. Using default " +
+							"value.");
+				}
+				continue;
+			}
 			if (data[0].equalsIgnoreCase("password:")) {
 				password = data.length == 2 ? data[1].trim() : null;
 				continue;
@@ -125,6 +361,53 @@ public class Configuration {
 				}
 				continue;
 			}
+			if (data[0].equalsIgnoreCase("reactor-mode:") && data.length == 2) {
+				if (data[1].equalsIgnoreCase("true") || data[1].equalsIgnoreCase("false"))
+					reactorMode = Boolean.parseBoolean(data[1]);
+				else
+					System.err.println("Invalid reactor mode in the config file: not 'true' or 'false'. Using " +
+							"default value.");
+				continue;
+			}
+			if (data[0].equalsIgnoreCase("recording-directory:")) {
+				recordingDirectory = data.length == 2 && !data[1].trim().equals("") ? data[1].trim() : null;
+				continue;
+			}
+			if (data[0].equalsIgnoreCase("spectator-cap:") && data.length == 2) {
+				try {
+					spectatorCap = Integer.parseInt(data[1]);
+				} catch (NumberFormatException e) {
+					System.err.println("Invalid spectator cap in the config file: not a number. Using default value.");
+				}
+				continue;
+			}
+			if (data[0].equalsIgnoreCase("spectator-delay:") && data.length == 2) {
+				try {
+					spectatorDelay = Math.max(0, Integer.parseInt(data[1]));
+				} catch (NumberFormatException e) {
+					System.err.println("Invalid spectator delay in the config file: not a number. Using default " +
+							"value.");
+				}
+				continue;
+			}
+			if (data[0].equalsIgnoreCase("spectator-port:") && data.length == 2) {
+				try {
+					spectatorPort = Integer.parseInt(data[1]);
+				} catch (NumberFormatException e) {
+					System.err.println("Invalid spectator port in the config file: not a number. Using default " +
+							"value.");
+				}
+				continue;
+			}
+			if (data[0].equalsIgnoreCase("warm-up-cycles:") && data.length == 2) {
+				try {
+					warmUpCycles = Math.max(0, Integer.parseInt(data[1]));
+				} catch (NumberFormatException e) {
+					System.err.println("Invalid number of warm-up cycles in the config file: not a number. Using " +
+							"default value.");
+				}
+				continue;
+			}
 			if (data[0].equalsIgnoreCase("world-radius:") && data.length == 2) {
 				try {
 					worldRadius = Integer.parseInt(data[1]);
@@ -139,6 +422,22 @@ public class Configuration {
 				continue;
 			}
 		}
+		if (minSendInterval < PacketManager.CYCLE_LENGTH) {
+			minSendInterval = PacketManager.CYCLE_LENGTH;
+			System.err.println("The min send interval specified in the config file is shorter than a cycle. Using " +
+					"the cycle length (" + minSendInterval + ") instead.");
+		}
+		if (maxSendInterval < minSendInterval) {
+			maxSendInterval = minSendInterval;
+			System.err.println("The max send interval specified in the config file is shorter than the min send " +
+					"interval. Using the min send interval (" + maxSendInterval + ") instead.");
+		}
+		int minIdleTimeout = 2 * Connection.PING_INTERVAL * PacketManager.CYCLE_LENGTH;
+		if (idleTimeout < minIdleTimeout) {
+			idleTimeout = minIdleTimeout;
+			System.err.println("The idle timeout specified in the config file is shorter than two ping intervals. " +
+					"Using the shortest allowed timeout (" + idleTimeout + ") instead.");
+		}
 		saveValues();
 	}
 
@@ -159,10 +458,26 @@ public class Configuration {
 			return;
 		}
 		PrintWriter pw = new PrintWriter(fw);
+		pw.println("Client-bandwidth: " + clientBandwidth);
+		pw.println("Compression-threshold: " + compressionThreshold);
 		pw.println("Health-cap: " + healthCap);
+		pw.println("Idle-timeout: " + idleTimeout);
+		pw.println("Log-file:" + (logFile == null ? "" : " " + logFile));
+		pw.println("Log-file-size: " + logFileSize);
+		pw.println("Log-files: " + logFiles);
+		pw.println("Log-level: " + logLevel);
+		pw.println("Max-datagram-size: " + maxDatagramSize);
+		pw.println("Max-send-interval: " + maxSendInterval);
+		pw.println("Min-send-interval: " + minSendInterval);
 		pw.println("Password:" + (password == null || password.equals("") ? "" : " " + password));
 		pw.println("Player-cap: " + playerCap);
 		pw.println("Port: " + port);
+		pw.println("Reactor-mode: " + reactorMode);
+		pw.println("Recording-directory:" + (recordingDirectory == null ? "" : " " + recordingDirectory));
+		pw.println("Spectator-cap: " + spectatorCap);
+		pw.println("Spectator-delay: " + spectatorDelay);
+		pw.println("Spectator-port: " + spectatorPort);
+		pw.println("Warm-up-cycles: " + warmUpCycles);
 		pw.println("World-radius: " + worldRadius);
 		pw.close();
 		try {
@@ -178,13 +493,43 @@ public class Configuration {
 	 * file will still have values assigned.
 	 */
 	private void loadDefaults() {
+		clientBandwidth = 12000;
+		compressionThreshold = 200;
 		healthCap = 100;
+		idleTimeout = 10000;
+		logFile = null;
+		logFileSize = 10 << 20;
+		logFiles = 5;
+		logLevel = LogLevel.INFO;
+		maxDatagramSize = 1200;
+		maxSendInterval = 400;
+		minSendInterval = PacketManager.CYCLE_LENGTH;
 		playerCap = 5;
 		port = 7430;
 		password = null;
+		reactorMode = false;
+		recordingDirectory = null;
+		spectatorCap = 500;
+		spectatorDelay = 2000;
+		spectatorPort = 0;
+		warmUpCycles = 0;
 		worldRadius = 500;
 	}
 
+	/**
+	 * @return The server's {@link #clientBandwidth}, in bytes per second
+	 */
+	public int getClientBandwidth() {
+		return clientBandwidth;
+	}
+
+	/**
+	 * @return The server's {@link #compressionThreshold}, in bytes
+	 */
+	public int getCompressionThreshold() {
+		return compressionThreshold;
+	}
+
 	/**
 	 * @return The server's {@link #healthCap} value
 	 */
@@ -192,6 +537,62 @@ public class Configuration {
 		return healthCap;
 	}
 
+	/**
+	 * @return The server's {@link #idleTimeout}, in milliseconds
+	 */
+	public int getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	/**
+	 * @return The {@link #logFile file} to which the log is written, or null if it is only written to the console
+	 */
+	public String getLogFile() {
+		return logFile;
+	}
+
+	/**
+	 * @return The server's {@link #logFileSize}, in bytes
+	 */
+	public long getLogFileSize() {
+		return logFileSize;
+	}
+
+	/**
+	 * @return The number of rotated {@link #logFiles log files} kept
+	 */
+	public int getLogFiles() {
+		return logFiles;
+	}
+
+	/**
+	 * @return The server's {@link #logLevel}, as read from the config file
+	 */
+	public LogLevel getLogLevel() {
+		return logLevel;
+	}
+
+	/**
+	 * @return The server's {@link #maxDatagramSize}, in bytes
+	 */
+	public int getMaxDatagramSize() {
+		return maxDatagramSize;
+	}
+
+	/**
+	 * @return The server's {@link #maxSendInterval}, in milliseconds
+	 */
+	public int getMaxSendInterval() {
+		return maxSendInterval;
+	}
+
+	/**
+	 * @return The server's {@link #minSendInterval}, in milliseconds
+	 */
+	public int getMinSendInterval() {
+		return minSendInterval;
+	}
+
 	/**
 	 * @return The server's {@link #playerCap} value
 	 */
@@ -213,6 +614,49 @@ public class Configuration {
 		return worldRadius;
 	}
 
+	/**
+	 * @return The {@link #recordingDirectory directory} in which matches are recorded, or null if matches are not
+	 * recorded from the start
+	 */
+	public String getRecordingDirectory() {
+		return recordingDirectory;
+	}
+
+	/**
+	 * @return The {@link #spectatorPort port} on which spectators subscribe to the feed, or 0 if it is not served
+	 */
+	public int getSpectatorPort() {
+		return spectatorPort;
+	}
+
+	/**
+	 * @return The server's {@link #spectatorDelay}, in milliseconds
+	 */
+	public int getSpectatorDelay() {
+		return spectatorDelay;
+	}
+
+	/**
+	 * @return The server's {@link #spectatorCap} value
+	 */
+	public int getSpectatorCap() {
+		return spectatorCap;
+	}
+
+	/**
+	 * @return The server's {@link #reactorMode} value
+	 */
+	public boolean isReactorMode() {
+		return reactorMode;
+	}
+
+	/**
+	 * @return The server's {@link #warmUpCycles} value
+	 */
+	public int getWarmUpCycles() {
+		return warmUpCycles;
+	}
+
 	/**
 	 * @return The server's {@link #password}
 	 */
@@ -1,9 +1,31 @@
 package com.veltro.blazingbarrels.server;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.Scanner;
 
-import com.veltro.blazingbarrels.server.game.Player;
+import com.veltro.blazingbarrels.server.connect.Compressor;
+import com.veltro.blazingbarrels.server.connect.CyclePhase;
+import com.veltro.blazingbarrels.server.connect.Histogram;
+import com.veltro.blazingbarrels.server.connect.PacketTrace;
+import com.veltro.blazingbarrels.server.connect.PacketTracer;
+import com.veltro.blazingbarrels.server.connect.RateLimiter;
+import com.veltro.blazingbarrels.server.connect.ServerMetrics;
+import com.veltro.blazingbarrels.server.connect.TrafficCapture;
+import com.veltro.blazingbarrels.server.connect.TrafficClass;
+import com.veltro.blazingbarrels.server.game.PlayerView;
 import com.veltro.blazingbarrels.server.game.World;
+import com.veltro.blazingbarrels.server.jfr.FlightRecording;
+import com.veltro.blazingbarrels.server.log.LogLevel;
+import com.veltro.blazingbarrels.server.log.ServerLog;
+import com.veltro.blazingbarrels.server.record.MatchRecorder;
+import com.veltro.blazingbarrels.server.record.RecorderThread;
+import com.veltro.blazingbarrels.server.spectate.SpectatorServer;
 
 /**
  * The InputThread is dedicated to listening for and parsing console input, enabling the main thread to run without
@@ -31,32 +53,255 @@ public class InputThread extends Thread {
 			String name = command[0].toLowerCase();
 			if (name.equals("/help") || name.equals("/?")) {
 				System.out.println("[]===[]===[Commands]===[]===[]\n" +
+						"/capture <start [file]|stop> - starts or stops capturing the traffic received for replay\n" +
 						"/info - displays configuration info\n" +
-						"/list - lists online players\n" +
+						"/jfr <start [file]|stop> - starts or stops a Flight Recorder recording of the server\n" +
+						"/list - lists online players and their connection statistics\n" +
+						"/log [level] - sets the least severe level of the messages logged, or displays it\n" +
+						"/record <start [directory]|stop> - starts or stops recording the match\n" +
+						"/spectate [live|replay <directory> [tick]] - streams the live match or a recorded one to " +
+						"spectators, or displays the spectators' status\n" +
+						"/stats - displays network statistics and timings since the last /stats\n" +
 						"/stop - terminates the server\n" +
+						"/trace [on <interval>|off] - traces one in every <interval> packets received through the " +
+						"server, or displays the traces since the last /trace\n" +
 						"/version - displays the version of BBServer currently being run\n");
 				continue;
 			}
+			if (name.equals("/capture")) {
+				if (command.length >= 2 && command[1].equalsIgnoreCase("start")) {
+					File file = new File(command.length >= 3 ? command[2] : "bbserver-" +
+							new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".bbtc");
+					try {
+						BBServer.getReceiverDaemon().startCapture(file);
+						System.out.println("Capturing traffic to " + file + "; type /capture stop to finish.\n");
+					} catch (IllegalStateException e) {
+						System.out.println(e.getMessage() + ".\n");
+					} catch (IOException e) {
+						System.out.println("Failed to start the capture: " + e.getMessage() + "\n");
+					}
+				} else if (command.length >= 2 && command[1].equalsIgnoreCase("stop")) {
+					TrafficCapture capture = BBServer.getReceiverDaemon().stopCapture();
+					if (capture == null)
+						System.out.println("No capture is in progress.\n");
+					else
+						System.out.println("Captured " + capture.getRecordCount() + " datagrams (" +
+								capture.getFile().length() + " B) to " + capture.getFile() + "\n");
+				} else {
+					System.out.println("Usage: /capture <start [file]|stop>\n");
+				}
+				continue;
+			}
 			if (name.equals("/info")) {
 				System.out.println("[]===[]===[Config Info]===[]===[]\nConnection:\n" +
 						"\tPort number: " + BBServer.getConfig().getPort() + "\n" +
+						"\tReactor mode: " + BBServer.getConfig().isReactorMode() + "\n" +
 						"\tServer password: " + BBServer.getConfig().getPassword() + "\n" +
-						"\tPlayer slots: " + BBServer.getConfig().getPlayerCap() + "\nIn-game:\n" +
+						"\tPlayer slots: " + BBServer.getConfig().getPlayerCap() + "\n" +
+						"\tUpdate interval: " + BBServer.getConfig().getMinSendInterval() + "-" +
+						BBServer.getConfig().getMaxSendInterval() + " ms\n" +
+						"\tClient bandwidth: " + BBServer.getConfig().getClientBandwidth() + " B/s\n" +
+						"\tIdle timeout: " + BBServer.getConfig().getIdleTimeout() + " ms\n" +
+						"\tRecording directory: " + BBServer.getConfig().getRecordingDirectory() + "\n" +
+						"\tLog file: " + BBServer.getConfig().getLogFile() + " (level " + ServerLog.getLevel() + ")\n" +
+						"\tSpectator port: " + BBServer.getConfig().getSpectatorPort() + " (" +
+						BBServer.getConfig().getSpectatorCap() + " slots, " + BBServer.getConfig().getSpectatorDelay() +
+						" ms delay)\nIn-game:\n" +
 						"\tPlayer health cap: " + BBServer.getConfig().getHealthCap() + "\n" +
 						"\tWorld radius: " + BBServer.getConfig().getWorldRadius() + "\n");
 				continue;
 			}
+			if (name.equals("/jfr")) {
+				if (command.length >= 2 && command[1].equalsIgnoreCase("start")) {
+					Path destination = Paths.get(command.length >= 3 ? command[2] : "bbserver-" +
+							new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".jfr");
+					try {
+						FlightRecording.start(destination);
+						System.out.println("Recording to " + destination + "; type /jfr stop to finish.\n");
+					} catch (IllegalStateException e) {
+						System.out.println(e.getMessage() + ".\n");
+					} catch (IOException e) {
+						System.out.println("Failed to start the recording: " + e.getMessage() + "\n");
+					} catch (ParseException e) {
+						System.out.println("Failed to start the recording: " + e.getMessage() + "\n");
+					}
+				} else if (command.length >= 2 && command[1].equalsIgnoreCase("stop")) {
+					try {
+						System.out.println("Recording written to " + FlightRecording.stop() + "\n");
+					} catch (IllegalStateException e) {
+						System.out.println(e.getMessage() + ".\n");
+					}
+				} else {
+					System.out.println("Usage: /jfr <start [file]|stop>\n");
+				}
+				continue;
+			}
 			if (name.equals("/list")) {
 				 System.out.println("Connected players:");
-				 for (Player p : World.getPlayers())
-					 System.out.println(p.getName());
+				 for (PlayerView p : World.getView().getPlayers()) {
+					 System.out.println(p.getName() + " (" + p.getClientAddress() + ":" + p.getClientPort() + ", rtt " +
+							 (int) p.getRoundTripTime() + " ms, " + p.getPacketsReceived() + " packets/" +
+							 p.getBytesReceived() + " B in, " + p.getPacketsSent() + " packets/" + p.getBytesSent() +
+							 " B out)");
+				 }
 				 System.out.println();
 				 continue;
 			}
+			if (name.equals("/log")) {
+				if (command.length == 1) {
+					System.out.println("Logging " + ServerLog.getLevel() + " messages and above (" +
+							ServerLog.getDropped() + " messages dropped so far).\n");
+				} else {
+					LogLevel level = LogLevel.getLevel(command[1]);
+					if (level == null) {
+						System.out.println("Usage: /log [DEBUG|INFO|WARNING|SEVERE]\n");
+					} else {
+						ServerLog.setLevel(level);
+						System.out.println("Logging " + level + " messages and above.\n");
+					}
+				}
+				continue;
+			}
+			if (name.equals("/record")) {
+				MatchRecorder recorder = BBServer.getMatchRecorder();
+				if (command.length >= 2 && command[1].equalsIgnoreCase("start")) {
+					File directory = command.length >= 3 ? new File(command[2]) : new File(
+							BBServer.getConfig().getRecordingDirectory() == null ? "recordings" :
+							BBServer.getConfig().getRecordingDirectory(), MatchRecorder.getRecordingName());
+					try {
+						recorder.start(directory);
+						System.out.println("Recording the match to " + directory + "; type /record stop to finish." +
+								"\n");
+					} catch (IllegalStateException e) {
+						System.out.println(e.getMessage() + ".\n");
+					} catch (IOException e) {
+						System.out.println("Failed to start the recording: " + e.getMessage() + "\n");
+					}
+				} else if (command.length >= 2 && command[1].equalsIgnoreCase("stop")) {
+					RecorderThread writer = recorder.stop();
+					if (writer == null)
+						System.out.println("No match recording is in progress.\n");
+					else
+						System.out.println("Recorded " + recorder.getTicksRecorded() + " ticks (" +
+								recorder.getTicksDropped() + " dropped, " + writer.getBytesWritten() + " B in " +
+								writer.getSegmentCount() + " segments) to " + writer.getDirectory() + "\n");
+				} else {
+					System.out.println("Usage: /record <start [directory]|stop>\n");
+				}
+				continue;
+			}
+			if (name.equals("/spectate")) {
+				SpectatorServer spectators = BBServer.getSpectatorServer();
+				if (spectators == null) {
+					System.out.println("The match is not streamed to spectators (the spectator port is 0).\n");
+				} else if (command.length == 1) {
+					File replay = spectators.getReplayDirectory();
+					System.out.println("Streaming " + (replay == null ? "the live match" : "the recording " + replay) +
+							" to " + spectators.getSubscriberCount() + " spectators on port " + spectators.getPort() +
+							" (" + spectators.getFramesEncoded() + " frames encoded, " +
+							spectators.getDatagramsSent() + " datagrams sent, " + spectators.getRecordsDropped() +
+							" tick records dropped)\n");
+				} else if (command[1].equalsIgnoreCase("live")) {
+					spectators.live();
+					System.out.println("Streaming the live match to spectators.\n");
+				} else if (command[1].equalsIgnoreCase("replay") && command.length >= 3) {
+					try {
+						long tick = command.length >= 4 ? Long.parseLong(command[3]) : 0;
+						spectators.replay(new File(command[2]), tick);
+						System.out.println("Streaming " + command[2] + " from tick " + tick + " to spectators.\n");
+					} catch (NumberFormatException e) {
+						System.out.println("Invalid tick: not a number.\n");
+					}
+				} else {
+					System.out.println("Usage: /spectate [live|replay <directory> [tick]]\n");
+				}
+				continue;
+			}
+			if (name.equals("/stats")) {
+				RateLimiter limiter = BBServer.getReceiverDaemon().getRateLimiter();
+				Compressor compressor = BBServer.getSenderDaemon().getCompressor();
+				System.out.println("[]===[]===[Server Stats]===[]===[]\nIngress:\n" +
+						"\tConnections: " + BBServer.getPacketManager().getConnectionTable().size() + "\n" +
+						"\tDropped from unknown sources: " +
+						BBServer.getPacketManager().getConnectionTable().getUnknownSourceDrops() + "\n" +
+						"\tDropped by rate limits (per source/overall):");
+				for (TrafficClass type : TrafficClass.values())
+					if (type != TrafficClass.INVALID)
+						System.out.println("\t\t" + type.name().toLowerCase() + ": " + limiter.getSourceDrops(type) +
+								"/" + limiter.getGlobalDrops(type));
+				System.out.println("Egress:\n" +
+						"\tQueued packets: " + BBServer.getSenderDaemon().outgoingPacketQueue.size() + "\n" +
+						"\tSuperseded updates merged: " +
+						BBServer.getSenderDaemon().outgoingPacketQueue.getSupersededCount() + "\n" +
+						"\tPackets compressed (not worth compressing): " + compressor.getPacketsCompressed() + " (" +
+						compressor.getPacketsIncompressible() + ")\n" +
+						"\tCompression ratio: " + String.format("%.2f", compressor.getCompressionRatio()) + "\n" +
+						"\tCompression time: " + String.format("%.1f", compressor.getAverageCompressionTime()) +
+						" us/packet");
+				ServerMetrics.Interval interval = BBServer.getMetrics().sampleInterval();
+				System.out.println(String.format("Last %.1f s (p50/p99/max):", interval.getSeconds()) + "\n" +
+						"\tCycle work: " + describeTimes(interval.getCycles()) + " (" +
+						interval.getCycles().getCount() + " cycles)");
+				for (CyclePhase phase : CyclePhase.values())
+					System.out.println("\t\t" + phase.name().toLowerCase() + ": " +
+							describeTimes(interval.getPhase(phase)));
+				System.out.println("\tPackets drained per cycle: " + describeCounts(interval.getDrained()) + "\n" +
+						"\tPackets queued after each cycle: " + describeCounts(interval.getQueued()) + "\n" +
+						"\tReceive time: " + describeTimes(interval.getReceives()) + " (" +
+						interval.getReceives().getCount() + " datagrams)\n" +
+						"\tSend time: " + describeTimes(interval.getSends()) + " (" + interval.getSends().getCount() +
+						" packets)\n" +
+						"\tDropped as malformed: " + interval.getMalformedDrops() + "\n" +
+						"\tFailed to send: " + interval.getSendFailures() + "\n" +
+						"\tTraffic by packet ID (packets/bytes in, out):");
+				for (int id = 0; id < ServerMetrics.PACKET_IDS; id++)
+					if (interval.getPacketsReceived(id) > 0 || interval.getPacketsSent(id) > 0)
+						System.out.println("\t\t" + id + ": " + interval.getPacketsReceived(id) + "/" +
+								interval.getBytesReceived(id) + ", " + interval.getPacketsSent(id) + "/" +
+								interval.getBytesSent(id));
+				System.out.println();
+				continue;
+			}
 			if (name.equals("/stop")) {
 				BBServer.terminate();
 				break;
 			}
+			if (name.equals("/trace")) {
+				PacketTracer tracer = BBServer.getMetrics().getTracer();
+				if (command.length >= 2 && command[1].equalsIgnoreCase("off")) {
+					tracer.setSamplingInterval(0);
+					System.out.println("Packet tracing is off.\n");
+					continue;
+				}
+				if (command.length >= 2 && command[1].equalsIgnoreCase("on")) {
+					int interval = 100;
+					try {
+						if (command.length >= 3)
+							interval = Integer.parseInt(command[2]);
+					} catch (NumberFormatException e) {
+						System.out.println("Usage: /trace [on <interval>|off]\n");
+						continue;
+					}
+					tracer.setSamplingInterval(Math.max(interval, 1));
+					System.out.println("Tracing one in every " + tracer.getSamplingInterval() + " packets received." +
+							"\n");
+					continue;
+				}
+				System.out.println("[]===[]===[Packet Traces]===[]===[]\n" + (tracer.getSamplingInterval() == 0 ?
+						"Tracing is off; type /trace on <interval> to start.\n" : "Tracing one in every " +
+						tracer.getSamplingInterval() + " packets received.\n") +
+						"Time per stage since the last /trace (p50/p99/max):");
+				for (PacketTracer.Stage stage : PacketTracer.Stage.values()) {
+					Histogram.Summary times = tracer.getStage(stage).sampleInterval();
+					System.out.println("\t" + stage.name().toLowerCase() + ": " + describeTimes(times) + " (" +
+							times.getCount() + " traced)");
+				}
+				System.out.println("Most recent traces:");
+				for (PacketTrace trace : tracer.getRecentTraces())
+					System.out.println("\t" + trace);
+				System.out.println();
+				continue;
+			}
 			if (name.equals("/version")) {
 				System.out.println("You are running BBServer version " + BBServer.VERSION + " by LinearLogic\n");
 				continue;
@@ -65,4 +310,21 @@ public class InputThread extends Thread {
 		}
 		sc.close();
 	}
+
+	/**
+	 * @param times A summary of durations recorded in nanoseconds
+	 * @return The median, 99th percentile and maximum of the durations, in microseconds
+	 */
+	private static String describeTimes(Histogram.Summary times) {
+		return String.format("%.1f/%.1f/%.1f us", times.getPercentile(50) / 1e3, times.getPercentile(99) / 1e3,
+				times.getMax() / 1e3);
+	}
+
+	/**
+	 * @param counts A summary of counts
+	 * @return The median, 99th percentile and maximum of the counts
+	 */
+	private static String describeCounts(Histogram.Summary counts) {
+		return counts.getPercentile(50) + "/" + counts.getPercentile(99) + "/" + counts.getMax();
+	}
 }
@@ -0,0 +1,151 @@
+package com.veltro.blazingbarrels.server.connect;
+
+import java.net.DatagramPacket;
+import java.nio.charset.Charset;
+import java.util.zip.Deflater;
+
+import com.veltro.blazingbarrels.server.connect.packet.Packet00AuthRequest;
+
+/**
+ * Compresses the packets sent to clients that opted in to compression (see {@link Packet00AuthRequest}). Packets are
+ * compressed with raw deflate, primed with a {@link #DICTIONARY preset dictionary} of the text that recurs in
+ * snapshots and player updates, so that even a single small packet compresses well. A compressed datagram is the
+ * {@link #MARKER} byte followed by the deflated packet (reliability headers included), and is produced before the
+ * packet is fragmented; a client inflates every message starting with the marker, using the same dictionary, before
+ * parsing it. Packets no larger than the threshold, and packets that would not shrink, are sent as they are.<p>
+ *
+ * The compressor keeps count of the bytes it is given and produces, and of the time it spends compressing, so that the
+ * ratio achieved on real traffic can be weighed against its CPU cost. Compressors are not thread-safe; the server's is
+ * only used by the {@link SenderThread}. Its counters may be read from any thread.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public class Compressor {
+
+	/**
+	 * The first byte of every compressed datagram. It cannot start an uncompressed datagram, which always starts with a
+	 * packet ID or a header token.
+	 */
+	public static final byte MARKER = '^';
+
+	/**
+	 * The preset dictionary shared with clients. Deflate favors matches at short distances, so the most common
+	 * strings are placed at the end.
+	 */
+	public static final byte[] DICTIONARY = ("21 22 40 ~0.0.2 ~1.1.2 !0.0 #0 @0 10 s.500.100 .0.0 .1.0 .0.1 h100 " +
+			"h50 h0 0.0:0.0:0.0:0.0:0.0:0.0 .100.0.0 :-0. :0. :1. :2. :3. :-1. :-2. :-3. 30 @1 l0. l1. l-1. ")
+			.getBytes(Charset.forName("US-ASCII"));
+
+	/**
+	 * The deflater, reset for every packet
+	 */
+	private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+
+	/**
+	 * The size, in bytes, above which packets are compressed
+	 */
+	private final int threshold;
+
+	/**
+	 * A reusable buffer receiving the deflated packets
+	 */
+	private byte[] buffer = new byte[0];
+
+	/**
+	 * The number of packets that have been compressed
+	 */
+	private volatile long packetsCompressed = 0;
+
+	/**
+	 * The number of packets above the threshold that were sent uncompressed because compression did not shrink them
+	 */
+	private volatile long packetsIncompressible = 0;
+
+	/**
+	 * The combined size of the packets passed to the deflater, in bytes
+	 */
+	private volatile long bytesIn = 0;
+
+	/**
+	 * The combined size of the datagrams sent in place of the compressed packets, in bytes
+	 */
+	private volatile long bytesOut = 0;
+
+	/**
+	 * The time spent deflating packets, in nanoseconds
+	 */
+	private volatile long compressionTime = 0;
+
+	/**
+	 * @param threshold The size, in bytes, above which packets are to be compressed
+	 */
+	public Compressor(int threshold) {
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Compresses the provided datagram if it is larger than the threshold and compression shrinks it
+	 *
+	 * @param datagram A datagram generated from a packet destined for a client that opted in to compression
+	 * @return A compressed datagram, or the provided one if it was not worth compressing
+	 */
+	public DatagramPacket compress(DatagramPacket datagram) {
+		int length = datagram.getLength();
+		if (length <= threshold)
+			return datagram;
+		long start = System.nanoTime();
+		if (buffer.length < length + 1)
+			buffer = new byte[length + 1];
+		deflater.reset();
+		deflater.setDictionary(DICTIONARY);
+		deflater.setInput(datagram.getData(), datagram.getOffset(), length);
+		deflater.finish();
+		buffer[0] = MARKER;
+		int compressedLength = 1;
+		while (!deflater.finished() && compressedLength < length) // Give up as soon as the output is no smaller
+			compressedLength += deflater.deflate(buffer, compressedLength, length - compressedLength);
+		compressionTime += System.nanoTime() - start;
+		bytesIn += length;
+		if (!deflater.finished()) {
+			packetsIncompressible++;
+			bytesOut += length;
+			return datagram;
+		}
+		packetsCompressed++;
+		bytesOut += compressedLength;
+		byte[] compressed = new byte[compressedLength];
+		System.arraycopy(buffer, 0, compressed, 0, compressedLength);
+		return new DatagramPacket(compressed, compressedLength, datagram.getAddress(), datagram.getPort());
+	}
+
+	/**
+	 * @return The number of packets that have been compressed
+	 */
+	public long getPacketsCompressed() {
+		return packetsCompressed;
+	}
+
+	/**
+	 * @return The number of packets that were sent uncompressed because compression did not shrink them
+	 */
+	public long getPacketsIncompressible() {
+		return packetsIncompressible;
+	}
+
+	/**
+	 * @return The ratio of the size of the datagrams sent to the size of the packets passed to the deflater (1 if none
+	 * have been)
+	 */
+	public float getCompressionRatio() {
+		return bytesIn == 0 ? 1 : (float) bytesOut / bytesIn;
+	}
+
+	/**
+	 * @return The average time spent deflating a packet, in microseconds (0 if none have been)
+	 */
+	public float getAverageCompressionTime() {
+		long packets = packetsCompressed + packetsIncompressible;
+		return packets == 0 ? 0 : compressionTime / 1000f / packets;
+	}
+}
@@ -0,0 +1,609 @@
+package com.veltro.blazingbarrels.server.connect;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.veltro.blazingbarrels.server.BBServer;
+import com.veltro.blazingbarrels.server.Configuration;
+import com.veltro.blazingbarrels.server.connect.packet.Packet03Ping;
+import com.veltro.blazingbarrels.server.connect.packet.Packet04Pong;
+import com.veltro.blazingbarrels.server.game.Player;
+import com.veltro.blazingbarrels.server.game.World;
+
+/**
+ * Keeps track of the state of the network link between the server and a single client. The connection periodically
+ * {@link #nextPing(Player) pings} the client and uses the {@link Packet04Pong} replies to maintain a smoothed
+ * round-trip time and a loss estimate. Based on those, it adapts the {@link #updateInterval interval} at which the
+ * client is sent player updates (within the bounds specified in the {@link Configuration}) and the
+ * {@link #getLocationPrecision() precision} of the locations it is sent, so that poor links are not flooded and good
+ * links receive updates every cycle.<p>
+ *
+ * Location and health changes destined for the client are accumulated in the connection between updates, so a client
+ * on a slow link always receives the latest state of each player rather than a backlog of outdated states. Each
+ * pending change carries a priority that grows every cycle it waits, by an amount that depends on how much the change
+ * matters to the client (see {@link #getPriorityWeight(Player, Player)}). The updates are sent in order of priority
+ * until the client's {@link #getByteBudget() byte budget} is used up, and whatever does not fit keeps accumulating
+ * priority until it does.<p>
+ *
+ * A connection is established when its client is authorized, at which point the client is issued a session ID, and
+ * carries a {@link ReliableChannel} for the packets that must not be lost. It is registered in the
+ * {@link ConnectionTable} under the client's socket address, which is how the packets the client sends are attributed
+ * to it, and it keeps count of the traffic exchanged with the client.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public class Connection {
+
+	/**
+	 * The number of cycles between the pings sent to the client
+	 */
+	public static final int PING_INTERVAL = 20;
+
+	/**
+	 * The number of pings that can be awaiting a reply at any time. If no reply to a ping has been received by the time
+	 * its slot is reused, the ping is counted as lost.
+	 */
+	public static final int PING_WINDOW = 8;
+
+	/**
+	 * Bit flag marking a pending location update in the {@link #pendingUpdates} map
+	 */
+	public static final int PENDING_LOCATION = 1;
+
+	/**
+	 * Bit flag marking a pending health update in the {@link #pendingUpdates} map
+	 */
+	public static final int PENDING_HEALTH = 2;
+
+	/**
+	 * The priority weight of the changes to the client's own player, which the client cannot predict and should
+	 * always receive first
+	 */
+	public static final float SELF_WEIGHT = 16;
+
+	/**
+	 * Orders {@link PendingUpdate}s from highest to lowest priority
+	 */
+	private static final Comparator<PendingUpdate> BY_PRIORITY = new Comparator<PendingUpdate>() {
+		public int compare(PendingUpdate a, PendingUpdate b) {
+			return Float.compare(b.priority, a.priority);
+		}
+	};
+
+	/**
+	 * The IP address of the client
+	 */
+	private final InetAddress address;
+
+	/**
+	 * The port on the client's {@link #address}
+	 */
+	private final int port;
+
+	/**
+	 * The session ID issued to the client (-1 if none has been issued)
+	 */
+	private int sessionID = -1;
+
+	/**
+	 * Whether the client opted in to receiving {@link Compressor compressed} packets. Read by the {@link SenderThread}.
+	 */
+	private volatile boolean compressionEnabled = false;
+
+	/**
+	 * The channel over which packets are sent to (and received from) the client reliably
+	 */
+	private final ReliableChannel channel = new ReliableChannel(this);
+
+	/**
+	 * The sequence number of the next ping to be sent
+	 */
+	private int pingSequence = 0;
+
+	/**
+	 * The sequence numbers of the pings awaiting replies, indexed by sequence number modulo {@link #PING_WINDOW}
+	 * (-1 for empty slots)
+	 */
+	private int[] pingSequences = new int[PING_WINDOW];
+
+	/**
+	 * The times (as given by System.nanoTime()) at which the pings awaiting replies were sent
+	 */
+	private long[] pingTimes = new long[PING_WINDOW];
+
+	/**
+	 * The number of cycles since the last ping was sent
+	 */
+	private int cyclesSincePing = PING_INTERVAL;
+
+	/**
+	 * The smoothed round-trip time of the link, in milliseconds (-1 until the first sample arrives)
+	 */
+	private float smoothedRTT = -1;
+
+	/**
+	 * The smoothed mean deviation of the round-trip time samples, in milliseconds
+	 */
+	private float rttVariation = 0;
+
+	/**
+	 * An exponentially weighted estimate of the fraction of pings that are lost, between 0 and 1
+	 */
+	private float lossRate = 0;
+
+	/**
+	 * The number of cycles between the player updates sent to the client
+	 */
+	private int updateInterval;
+
+	/**
+	 * The number of cycles remaining until the next player update is sent to the client
+	 */
+	private int cyclesUntilUpdate = 0;
+
+	/**
+	 * The location and/or health changes that have not yet been sent to the client, indexed by the player they concern
+	 */
+	private Map<Player, PendingUpdate> pendingUpdates = new HashMap<Player, PendingUpdate>();
+
+	/**
+	 * A reusable list used to sort the {@link #pendingUpdates} by priority
+	 */
+	private List<PendingUpdate> sortedUpdates = new ArrayList<PendingUpdate>();
+
+	/**
+	 * The client's token buckets in the {@link RateLimiter}, indexed by {@link TrafficClass} ordinal. Only used by the
+	 * {@link ReceiverThread}.
+	 */
+	private final TokenBucket[] ingressBuckets = RateLimiter.createSourceBuckets(System.nanoTime());
+
+	/**
+	 * The time (as given by System.nanoTime()) at which the last packet was received from the client, or at which the
+	 * connection was established if none has been. Only updated by the {@link ReceiverThread}.
+	 */
+	private volatile long lastHeard = System.nanoTime();
+
+	/**
+	 * The number of packets received from the client. Only updated by the {@link ReceiverThread}.
+	 */
+	private volatile long packetsReceived = 0;
+
+	/**
+	 * The number of bytes received from the client. Only updated by the {@link ReceiverThread}.
+	 */
+	private volatile long bytesReceived = 0;
+
+	/**
+	 * The number of packets queued for transmission to the client, including retransmissions
+	 */
+	private volatile long packetsSent = 0;
+
+	/**
+	 * The number of bytes queued for transmission to the client, including retransmissions
+	 */
+	private volatile long bytesSent = 0;
+
+	/**
+	 * Constructs a connection starting out at the fastest update rate allowed by the {@link Configuration}
+	 *
+	 * @param address The IP address of the client
+	 * @param port The port on the above address
+	 */
+	public Connection(InetAddress address, int port) {
+		this.address = address;
+		this.port = port;
+		updateInterval = getMinUpdateInterval();
+		for (int i = 0; i < PING_WINDOW; i++)
+			pingSequences[i] = -1;
+	}
+
+	/**
+	 * Counts down the cycles until the next ping is due, and returns a ping for the client if it is. Any ping occupying
+	 * the slot of the new one without having received a reply is counted as lost.
+	 *
+	 * @param player The player whose client the connection belongs to
+	 * @return A {@link Packet03Ping} to send to the client, or null if no ping is due this cycle
+	 */
+	public Packet03Ping nextPing(Player player) {
+		if (++cyclesSincePing < PING_INTERVAL)
+			return null;
+		cyclesSincePing = 0;
+		int slot = pingSequence % PING_WINDOW;
+		if (pingSequences[slot] != -1) // The ping sent PING_WINDOW pings ago was never answered
+			recordLoss(true);
+		pingSequences[slot] = pingSequence;
+		pingTimes[slot] = System.nanoTime();
+		Packet03Ping ping = new Packet03Ping(pingSequence, player.getClientAddress(), player.getClientPort());
+		pingSequence = (pingSequence + 1) & Integer.MAX_VALUE;
+		return ping;
+	}
+
+	/**
+	 * Registers the client's reply to a ping, updating the round-trip time and loss estimates and adapting the
+	 * {@link #updateInterval}. Replies to pings that are unknown or have already been counted as lost are ignored.
+	 *
+	 * @param sequence The sequence number echoed by the client
+	 * @param receiptTime The time (as given by System.nanoTime()) at which the reply was received
+	 */
+	public void handlePong(int sequence, long receiptTime) {
+		if (sequence < 0)
+			return;
+		int slot = sequence % PING_WINDOW;
+		if (pingSequences[slot] != sequence)
+			return;
+		pingSequences[slot] = -1;
+		recordRoundTrip((receiptTime - pingTimes[slot]) / 1000000F);
+		recordLoss(false);
+	}
+
+	/**
+	 * Folds a round-trip time sample (from a ping or from a packet acknowledged over the {@link ReliableChannel})
+	 * into the smoothed round-trip time and its variation
+	 *
+	 * @param sample The round-trip time measured, in milliseconds
+	 */
+	public void recordRoundTrip(float sample) {
+		if (smoothedRTT < 0) {
+			smoothedRTT = sample;
+			rttVariation = sample / 2;
+		} else { // Same weights as TCP's retransmission timer (RFC 6298)
+			rttVariation = 0.75F * rttVariation + 0.25F * Math.abs(smoothedRTT - sample);
+			smoothedRTT = 0.875F * smoothedRTT + 0.125F * sample;
+		}
+	}
+
+	/**
+	 * Folds a ping outcome into the {@link #lossRate} and re-evaluates the {@link #updateInterval}. The interval is
+	 * doubled whenever the link shows signs of congestion (high loss or round-trip time) and shortened one cycle at a
+	 * time while the link is healthy, so that a struggling client backs off quickly and recovers gradually.
+	 *
+	 * @param lost Whether the ping was lost
+	 */
+	private void recordLoss(boolean lost) {
+		lossRate = 0.875F * lossRate + (lost ? 0.125F : 0);
+		int min = getMinUpdateInterval(), max = getMaxUpdateInterval();
+		if (lossRate > 0.1F || smoothedRTT > 250)
+			updateInterval = Math.min(updateInterval * 2, max);
+		else if (lossRate < 0.02F && smoothedRTT < 150)
+			updateInterval = Math.max(updateInterval - 1, min);
+		updateInterval = Math.max(min, Math.min(updateInterval, max));
+	}
+
+	/**
+	 * Marks the provided player's location and/or health as needing to be sent to the client. If an update concerning
+	 * the player is already pending, the flags are merged into it and it keeps its accumulated priority.
+	 *
+	 * @param subject The player whose state has changed
+	 * @param flags A combination of {@link #PENDING_LOCATION} and {@link #PENDING_HEALTH}
+	 */
+	public void markPending(Player subject, int flags) {
+		PendingUpdate update = pendingUpdates.get(subject);
+		if (update == null)
+			pendingUpdates.put(subject, new PendingUpdate(subject, flags));
+		else
+			update.flags |= flags;
+	}
+
+	/**
+	 * Discards any pending updates concerning the provided player (called when the player leaves the server)
+	 *
+	 * @param subject The player to forget
+	 */
+	public void forget(Player subject) {
+		pendingUpdates.remove(subject);
+	}
+
+	/**
+	 * Discards all pending updates (called when the client is sent a complete snapshot of the server instead)
+	 */
+	public void clearPending() {
+		pendingUpdates.clear();
+	}
+
+	/**
+	 * Raises the priority of every pending update by its {@link #getPriorityWeight(Player, Player) weight}. This is
+	 * called once per cycle, so the longer an update has been skipped, the higher its priority.
+	 *
+	 * @param recipient The player whose client the connection belongs to
+	 */
+	public void accumulatePriority(Player recipient) {
+		for (PendingUpdate update : pendingUpdates.values())
+			update.priority += getPriorityWeight(recipient, update.subject);
+	}
+
+	/**
+	 * Counts down the cycles until the next update is due to be sent to the client
+	 *
+	 * @return 'true' iff an update should be sent to the client this cycle
+	 */
+	public boolean isUpdateDue() {
+		if (--cyclesUntilUpdate > 0)
+			return false;
+		cyclesUntilUpdate = updateInterval;
+		return true;
+	}
+
+	/**
+	 * @return The pending updates, sorted from highest to lowest priority. The list is reused between calls, so it
+	 * should not be retained. Updates that are sent must be reported through {@link #markSent(PendingUpdate)}.
+	 */
+	public List<PendingUpdate> getPendingByPriority() {
+		sortedUpdates.clear();
+		sortedUpdates.addAll(pendingUpdates.values());
+		Collections.sort(sortedUpdates, BY_PRIORITY);
+		return sortedUpdates;
+	}
+
+	/**
+	 * Removes an update that has been sent from the pending updates, resetting the priority of its player
+	 *
+	 * @param update The update that was sent
+	 */
+	public void markSent(PendingUpdate update) {
+		pendingUpdates.remove(update.subject);
+	}
+
+	/**
+	 * @return The number of bytes of player updates the client may be sent per update, which is the bandwidth allowed
+	 * by the {@link Configuration} over the client's current {@link #updateInterval}
+	 */
+	public int getByteBudget() {
+		return BBServer.getConfig().getClientBandwidth() * PacketManager.CYCLE_LENGTH * updateInterval / 1000;
+	}
+
+	/**
+	 * Determines how quickly an update concerning the provided subject gains priority while it waits to be sent to the
+	 * provided recipient. Updates to the recipient itself always come first. Otherwise, nearby players weigh more than
+	 * distant ones, and the weight is doubled for players that have recently taken damage and tripled for the player
+	 * that has recently attacked the recipient.
+	 *
+	 * @param recipient The player whose client is being updated
+	 * @param subject The player that the update concerns
+	 * @return The amount by which to raise the update's priority each cycle
+	 */
+	public static float getPriorityWeight(Player recipient, Player subject) {
+		if (subject == recipient)
+			return SELF_WEIGHT;
+		float weight = 1;
+		float distance = recipient.getLocation().distanceTo(subject.getLocation());
+		weight += 4 * Math.max(0, 1 - distance / (2F * BBServer.getConfig().getWorldRadius()));
+		if (subject.wasRecentlyDamaged())
+			weight *= 2;
+		if (recipient.getLastAttacker() == subject && recipient.wasRecentlyDamaged())
+			weight *= 3;
+		return weight;
+	}
+
+	/**
+	 * Determines the number of decimal places with which to send locations to the client. Clients receiving updates
+	 * at the full rate get full precision; the slower the link, the coarser the locations, which shortens every
+	 * update sent over it.
+	 *
+	 * @return The number of decimal places, or -1 for full precision
+	 */
+	public int getLocationPrecision() {
+		if (updateInterval <= getMinUpdateInterval())
+			return -1;
+		return updateInterval >= getMaxUpdateInterval() ? 0 : 1;
+	}
+
+	/**
+	 * @return The IP {@link #address} of the client
+	 */
+	public InetAddress getAddress() {
+		return address;
+	}
+
+	/**
+	 * @return The {@link #port} on the client's address
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * @return The {@link #sessionID} issued to the client, or -1 if none has been issued
+	 */
+	public int getSessionID() {
+		return sessionID;
+	}
+
+	/**
+	 * Sets the {@link #sessionID} issued to the client
+	 *
+	 * @param sessionID A session ID obtained from {@link World#allocateSessionID()}
+	 */
+	public void setSessionID(int sessionID) {
+		this.sessionID = sessionID;
+	}
+
+	/**
+	 * @return 'true' iff the client opted in to receiving compressed packets
+	 */
+	public boolean isCompressionEnabled() {
+		return compressionEnabled;
+	}
+
+	/**
+	 * Sets whether the client is sent compressed packets
+	 *
+	 * @param compressionEnabled 'true' iff the client opted in to compression
+	 */
+	public void setCompressionEnabled(boolean compressionEnabled) {
+		this.compressionEnabled = compressionEnabled;
+	}
+
+	/**
+	 * @return The {@link ReliableChannel} to the client
+	 */
+	public ReliableChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * @return The {@link #smoothedRTT smoothed round-trip time} in milliseconds, or -1 if it has not been measured yet
+	 */
+	public float getRoundTripTime() {
+		return smoothedRTT;
+	}
+
+	/**
+	 * @return The smoothed {@link #rttVariation mean deviation} of the round-trip time, in milliseconds
+	 */
+	public float getRoundTripTimeVariation() {
+		return rttVariation;
+	}
+
+	/**
+	 * @return The estimated fraction of packets lost on the link
+	 */
+	public float getLossRate() {
+		return lossRate;
+	}
+
+	/**
+	 * @return The current {@link #updateInterval}, in cycles
+	 */
+	public int getUpdateInterval() {
+		return updateInterval;
+	}
+
+	/**
+	 * Counts a datagram received from the client, and records that the client has been heard from. Called by the
+	 * {@link ReceiverThread}.
+	 *
+	 * @param bytes The length of the datagram
+	 * @param receiptTime The time, as given by System.nanoTime(), at which the datagram was received
+	 */
+	public void recordReceived(int bytes, long receiptTime) {
+		lastHeard = receiptTime;
+		packetsReceived++;
+		bytesReceived += bytes;
+	}
+
+	/**
+	 * Counts a packet queued for transmission to the client
+	 *
+	 * @param bytes The {@link com.veltro.blazingbarrels.server.connect.packet.BBPacket#getLength() length} of the
+	 * packet
+	 */
+	public void recordSent(int bytes) {
+		packetsSent++;
+		bytesSent += bytes;
+	}
+
+	/**
+	 * @param type A {@link TrafficClass}
+	 * @return The client's token bucket for packets of that class
+	 */
+	public TokenBucket getIngressBucket(TrafficClass type) {
+		return ingressBuckets[type.ordinal()];
+	}
+
+	/**
+	 * @return The time (as given by System.nanoTime()) at which the client was last heard from
+	 */
+	public long getLastHeard() {
+		return lastHeard;
+	}
+
+	/**
+	 * @return The number of packets received from the client
+	 */
+	public long getPacketsReceived() {
+		return packetsReceived;
+	}
+
+	/**
+	 * @return The number of bytes received from the client
+	 */
+	public long getBytesReceived() {
+		return bytesReceived;
+	}
+
+	/**
+	 * @return The number of packets queued for transmission to the client, including retransmissions
+	 */
+	public long getPacketsSent() {
+		return packetsSent;
+	}
+
+	/**
+	 * @return The number of bytes queued for transmission to the client, including retransmissions
+	 */
+	public long getBytesSent() {
+		return bytesSent;
+	}
+
+	/**
+	 * @return The minimum update interval allowed by the {@link Configuration}, in cycles
+	 */
+	private static int getMinUpdateInterval() {
+		return Math.max(1, BBServer.getConfig().getMinSendInterval() / PacketManager.CYCLE_LENGTH);
+	}
+
+	/**
+	 * @return The maximum update interval allowed by the {@link Configuration}, in cycles
+	 */
+	private static int getMaxUpdateInterval() {
+		return Math.max(getMinUpdateInterval(), BBServer.getConfig().getMaxSendInterval() /
+				PacketManager.CYCLE_LENGTH);
+	}
+
+	/**
+	 * A location and/or health change that has yet to be sent to the client, along with its accumulated priority
+	 */
+	public static class PendingUpdate {
+
+		/**
+		 * The player whose state has changed
+		 */
+		private final Player subject;
+
+		/**
+		 * A combination of the {@link Connection#PENDING_LOCATION} and {@link Connection#PENDING_HEALTH} flags
+		 */
+		private int flags;
+
+		/**
+		 * The priority accumulated by the update while waiting to be sent
+		 */
+		private float priority = 0;
+
+		/**
+		 * @param subject The player whose state has changed
+		 * @param flags The {@link #flags} specifying which parts of the player's state have changed
+		 */
+		private PendingUpdate(Player subject, int flags) {
+			this.subject = subject;
+			this.flags = flags;
+		}
+
+		/**
+		 * @return The player whose state has changed
+		 */
+		public Player getSubject() {
+			return subject;
+		}
+
+		/**
+		 * @return The update's {@link #flags}
+		 */
+		public int getFlags() {
+			return flags;
+		}
+
+		/**
+		 * @return The update's accumulated {@link #priority}
+		 */
+		public float getPriority() {
+			return priority;
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package com.veltro.blazingbarrels.server.connect;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The table of the {@link Connection connections} established for authorized clients, indexed by the socket address
+ * (IP address and port) of each client. The {@link ReceiverThread} consults the table as soon as a datagram arrives,
+ * so each packet is attributed to its connection before it is queued, and datagrams from unknown sources can be
+ * discarded before they are parsed, unless they are authorization or join requests.<p>
+ *
+ * Connections are registered and unregistered by the thread running the {@link PacketManager} cycles, while the
+ * receiver looks them up concurrently; the table is backed by a ConcurrentHashMap to allow this.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public class ConnectionTable {
+
+	/**
+	 * The registered connections, indexed by the socket addresses of their clients
+	 */
+	private ConcurrentHashMap<SocketAddress, Connection> connections =
+			new ConcurrentHashMap<SocketAddress, Connection>();
+
+	/**
+	 * The number of datagrams discarded because they came from a source with no registered connection. Only updated by
+	 * the {@link ReceiverThread}.
+	 */
+	private volatile long unknownSourceDrops = 0;
+
+	/**
+	 * Registers the provided connection under its client's socket address, replacing any connection previously
+	 * registered for that address
+	 *
+	 * @param connection The connection to register
+	 */
+	public void register(Connection connection) {
+		connections.put(new InetSocketAddress(connection.getAddress(), connection.getPort()), connection);
+	}
+
+	/**
+	 * Unregisters the provided connection, provided it is still the one registered for its client's socket address
+	 *
+	 * @param connection The connection to unregister
+	 */
+	public void unregister(Connection connection) {
+		connections.remove(new InetSocketAddress(connection.getAddress(), connection.getPort()), connection);
+	}
+
+	/**
+	 * @param address The socket address a datagram was received from
+	 * @return The connection registered for that address, or null if there is none
+	 */
+	public Connection get(SocketAddress address) {
+		return connections.get(address);
+	}
+
+	/**
+	 * @param connection A connection
+	 * @return 'true' iff the connection is still registered
+	 */
+	public boolean contains(Connection connection) {
+		return connections.get(new InetSocketAddress(connection.getAddress(), connection.getPort())) == connection;
+	}
+
+	/**
+	 * @return A live view of the registered connections
+	 */
+	public Collection<Connection> getConnections() {
+		return connections.values();
+	}
+
+	/**
+	 * @return The number of registered connections
+	 */
+	public int size() {
+		return connections.size();
+	}
+
+	/**
+	 * Counts a datagram discarded because it came from an unknown source
+	 */
+	public void recordUnknownSourceDrop() {
+		unknownSourceDrops++;
+	}
+
+	/**
+	 * @return The number of datagrams discarded because they came from an unknown source
+	 */
+	public long getUnknownSourceDrops() {
+		return unknownSourceDrops;
+	}
+}
@@ -0,0 +1,138 @@
+package com.veltro.blazingbarrels.server.connect;
+
+import java.net.InetAddress;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.veltro.blazingbarrels.server.connect.packet.Packet00AuthRequest;
+import com.veltro.blazingbarrels.server.connect.packet.Packet01AuthResponse;
+
+/**
+ * Generates and verifies the cookies used to make sure that a {@link Packet00AuthRequest} really comes from the
+ * address it claims to come from before the server commits any resources to it. A cookie is an HMAC of the client's
+ * IP address and port and the current time bucket, computed with a secret key generated when the server starts. A
+ * client sending a request without a valid cookie is {@link Packet01AuthResponse challenged} with one, and must echo it
+ * in a new request; only a client that can receive packets at its claimed address can do so.<p>
+ *
+ * Since a cookie can be verified by recomputing it, the server keeps no record of the challenges it sends: a flood of
+ * requests from spoofed addresses costs one HMAC per packet and no memory. Cookies remain valid for between one and
+ * two {@link #BUCKET_LENGTH time buckets}.<p>
+ *
+ * Cookie generators are not thread-safe; the server's is only used by the {@link ReceiverThread}.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public class CookieGenerator {
+
+	/**
+	 * The length of a time bucket, in nanoseconds (ten seconds)
+	 */
+	public static final long BUCKET_LENGTH = 10000000000L;
+
+	/**
+	 * The number of bytes of the HMAC included in a cookie
+	 */
+	public static final int COOKIE_BYTES = 8;
+
+	/**
+	 * The HMAC-SHA256 instance keyed with the server's secret
+	 */
+	private Mac mac;
+
+	/**
+	 * A reusable buffer holding the port and time bucket fed to the {@link #mac}
+	 */
+	private byte[] suffix = new byte[12];
+
+	/**
+	 * Generates a random secret key and initializes the {@link #mac} with it
+	 *
+	 * @throws IllegalStateException Thrown if the JVM does not support HMAC-SHA256 (which every JVM must)
+	 */
+	public CookieGenerator() {
+		byte[] secret = new byte[32];
+		new SecureRandom().nextBytes(secret);
+		try {
+			mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("HMAC-SHA256 is not available", e);
+		}
+	}
+
+	/**
+	 * Generates the cookie for the provided client in the current time bucket
+	 *
+	 * @param address The IP address of the client
+	 * @param port The port on the above address
+	 * @param now The current time, as given by System.nanoTime()
+	 * @return The cookie, as a string of {@value #COOKIE_BYTES} hexadecimal-encoded bytes
+	 */
+	public String generate(InetAddress address, int port, long now) {
+		byte[] hmac = compute(address, port, now / BUCKET_LENGTH);
+		StringBuilder cookie = new StringBuilder(COOKIE_BYTES * 2);
+		for (int i = 0; i < COOKIE_BYTES; i++) {
+			cookie.append(Character.forDigit((hmac[i] >> 4) & 0xF, 16));
+			cookie.append(Character.forDigit(hmac[i] & 0xF, 16));
+		}
+		return cookie.toString();
+	}
+
+	/**
+	 * Determines whether the provided cookie was generated for the provided client in the current or the previous time
+	 * bucket. The comparison takes the same time however many bytes match, so that it leaks nothing about the cookie.
+	 *
+	 * @param cookie The cookie echoed by the client (null if the client did not send one)
+	 * @param address The IP address of the client
+	 * @param port The port on the above address
+	 * @param now The current time, as given by System.nanoTime()
+	 * @return 'true' iff the cookie is valid
+	 */
+	public boolean verify(String cookie, InetAddress address, int port, long now) {
+		if (cookie == null || cookie.length() != COOKIE_BYTES * 2)
+			return false;
+		byte[] echoed = new byte[COOKIE_BYTES];
+		for (int i = 0; i < COOKIE_BYTES; i++) {
+			int high = Character.digit(cookie.charAt(2 * i), 16), low = Character.digit(cookie.charAt(2 * i + 1), 16);
+			if (high < 0 || low < 0)
+				return false;
+			echoed[i] = (byte) (high << 4 | low);
+		}
+		long bucket = now / BUCKET_LENGTH;
+		return matches(echoed, compute(address, port, bucket)) | matches(echoed, compute(address, port, bucket - 1));
+	}
+
+	/**
+	 * Computes the HMAC of the provided client address and time bucket
+	 *
+	 * @param address The IP address of the client
+	 * @param port The port on the above address
+	 * @param bucket The time bucket
+	 * @return The HMAC
+	 */
+	private byte[] compute(InetAddress address, int port, long bucket) {
+		for (int i = 0; i < 4; i++)
+			suffix[i] = (byte) (port >>> (24 - 8 * i));
+		for (int i = 0; i < 8; i++)
+			suffix[4 + i] = (byte) (bucket >>> (56 - 8 * i));
+		mac.update(address.getAddress());
+		mac.update(suffix);
+		return mac.doFinal();
+	}
+
+	/**
+	 * @param echoed The cookie echoed by the client
+	 * @param hmac An HMAC computed by the server
+	 * @return 'true' iff the cookie matches the leading bytes of the HMAC
+	 */
+	private static boolean matches(byte[] echoed, byte[] hmac) {
+		byte[] expected = new byte[COOKIE_BYTES];
+		System.arraycopy(hmac, 0, expected, 0, COOKIE_BYTES);
+		return MessageDigest.isEqual(echoed, expected);
+	}
+}
@@ -0,0 +1,40 @@
+package com.veltro.blazingbarrels.server.connect;
+
+/**
+ * The CyclePhase enum names the consecutive phases of a {@link PacketManager} cycle, whose durations are recorded
+ * separately by the {@link ServerMetrics} so that it can be told where the time of a slow cycle went.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public enum CyclePhase {
+
+	/**
+	 * Deauthorizing the players whose deauth tasks have expired, draining the {@link ReceiverThread}'s queue, passing
+	 * the reliability headers of the packets drained to their connections' channels, and sorting the packets released
+	 */
+	DRAIN,
+
+	/**
+	 * Handling the packets released, and timing out the players whose clients have gone silent
+	 */
+	HANDLE,
+
+	/**
+	 * Collecting the changes to each player, disconnecting the players that have left, broadcasting toggles and
+	 * marking location and health changes as pending for every client
+	 */
+	COLLECT,
+
+	/**
+	 * Encoding the server snapshot (on snapshot cycles), the pings due and the pending updates of the clients whose
+	 * update intervals have elapsed, and queuing them for transmission
+	 */
+	ENCODE,
+
+	/**
+	 * Queuing the reliable packets due for retransmission and the acknowledgments that no packet carried, and handing
+	 * the cycle's tick record to the match recorder
+	 */
+	ENQUEUE;
+}
@@ -5,11 +5,14 @@ import java.net.InetAddress;
 import com.veltro.blazingbarrels.server.BBServer;
 import com.veltro.blazingbarrels.server.connect.packet.Packet02DeauthWarning;
 import com.veltro.blazingbarrels.server.connect.packet.Packet20PlayerJoin;
+import com.veltro.blazingbarrels.server.log.LogLevel;
+import com.veltro.blazingbarrels.server.log.ServerLog;
 
 /**
  * A task thread used to send {@link Packet02DeauthWarning} packets to a client that has been authorized to join but
  * has not responded with a {@link Packet20PlayerJoin}. If the maximum number of {@link #warnings} are sent, with a
- * specified {@link #timeout} in between each, the player is disconnected from the server.
+ * specified {@link #timeout} in between each, the player is deauthorized, freeing up its name and the
+ * {@link #connection} established for its client.
  * 
  * @author LinearLogic
  * @since 0.3.0
@@ -22,6 +25,11 @@ public class DeauthTask extends Thread {
 	 */
 	private String name;
 
+	/**
+	 * The connection established for the client upon its authorization, which the player takes over upon joining
+	 */
+	private Connection connection;
+
 	/**
 	 * The IP address of the client being sent deauthorization warnings
 	 */
@@ -47,36 +55,38 @@ public class DeauthTask extends Thread {
 	 * fields to the provided values.
 	 * 
 	 * @param playerName The name of the player receiving the deauthorization warning
-	 * @param address The IP address of the client of the player the above name
-	 * @param port The port on the above address
+	 * @param connection The {@link #connection} established for the player's client
 	 * @param warnings The number of warnings to send the player's client before deauthorizing the player
 	 * @param timeout The amount of time, in milliseconds, between warnings being sent
 	 */
-	public DeauthTask(String playerName, InetAddress address, int port, int warnings, int timeout) {
+	public DeauthTask(String playerName, Connection connection, int warnings, int timeout) {
 		super("DeauthTask");
 		name = playerName;
-		this.address = address;
-		this.port = port;
+		this.connection = connection;
+		address = connection.getAddress();
+		port = connection.getPort();
 		this.warnings = warnings;
 		this.timeout = timeout;
 	}
 
 	/**
 	 * Pauses for the length of the {@link #timeout} field and then sends a {@link Packet02DeauthWarning}. This process
-	 * is repeated as many times as is specified in the {@link #warnings} field, and then the player is disconnected
-	 * from the server for timing out.
+	 * is repeated as many times as is specified in the {@link #warnings} field, and then the player is deauthorized for
+	 * timing out.
 	 */
 	public void run() {
 		Packet02DeauthWarning packet = new Packet02DeauthWarning(name, address, port);
-		for (int i = 0; i < warnings; i++) {
+		for (int i = 0; i <= warnings; i++) {
 			try {
-				wait(timeout);
+				Thread.sleep(timeout);
 			} catch (InterruptedException e) { // The client has sent a PlayerJoin packet; cease the deauth warnings
-				System.out.println("Stopping the deauth task for player " + name + "!"); // for debugging
+				ServerLog.log(LogLevel.DEBUG, "Stopping the deauth task for player {}!", name);
 				return;
 			}
-			BBServer.getSenderDaemon().outgoingPacketQueue.add(packet);
+			if (i < warnings)
+				BBServer.getSenderDaemon().outgoingPacketQueue.add(packet);
 		}
+		BBServer.getPacketManager().expireDeauthTask(this);
 	}
 
 	/**
@@ -96,6 +106,13 @@ public class DeauthTask extends Thread {
 		return name;
 	}
 
+	/**
+	 * @return The {@link #connection} established for the player's client
+	 */
+	public Connection getConnection() {
+		return connection;
+	}
+
 	/**
 	 * @return The {@link #address} registered with the task
 	 */
@@ -0,0 +1,110 @@
+package com.veltro.blazingbarrels.server.connect;
+
+import java.net.DatagramPacket;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.veltro.blazingbarrels.server.Configuration;
+
+/**
+ * Splits packets too large for a single datagram into fragments. Each fragment is a datagram of at most the
+ * {@link Configuration#getMaxDatagramSize() maximum datagram size}, made up of a fragment header of the form
+ * "~&lt;message ID&gt;.&lt;index&gt;.&lt;count&gt; " followed by a slice of the packet as it would otherwise have been
+ * sent (reliability headers included). The receiver buffers the fragments of a message until all of them have arrived
+ * and then processes the reassembled packet as a whole (see {@link Reassembler}), so large state transfers are applied
+ * atomically. If any fragment is lost, the whole message is lost.<p>
+ *
+ * Fragmenters are not thread-safe; the server's is only used by the {@link SenderThread}.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public class Fragmenter {
+
+	/**
+	 * The maximum number of fragments a message may be split into
+	 */
+	public static final int MAX_FRAGMENTS = 32;
+
+	/**
+	 * The number of distinct message IDs, after which they wrap around
+	 */
+	public static final int MESSAGE_IDS = 4096;
+
+	/**
+	 * The maximum length of a fragment header ("~4095.31.32 ")
+	 */
+	public static final int MAX_HEADER_LENGTH = 12;
+
+	/**
+	 * The maximum size, in bytes, of the datagrams produced
+	 */
+	private final int maxDatagramSize;
+
+	/**
+	 * The ID to assign to the next message fragmented
+	 */
+	private int nextMessageID = 0;
+
+	/**
+	 * The number of messages that have been fragmented
+	 */
+	private volatile long messagesFragmented = 0;
+
+	/**
+	 * @param maxDatagramSize The maximum size, in bytes, of the datagrams to produce
+	 */
+	public Fragmenter(int maxDatagramSize) {
+		this.maxDatagramSize = maxDatagramSize;
+	}
+
+	/**
+	 * Splits the provided datagram into fragments if it is larger than the maximum datagram size
+	 *
+	 * @param datagram A datagram generated from a packet
+	 * @return The datagram itself if it is small enough, else its fragments in order
+	 * @throws IllegalArgumentException Thrown if the datagram would need more than {@value #MAX_FRAGMENTS} fragments
+	 */
+	public List<DatagramPacket> split(DatagramPacket datagram) {
+		List<DatagramPacket> fragments = new ArrayList<DatagramPacket>(1);
+		int length = datagram.getLength();
+		if (length <= maxDatagramSize) {
+			fragments.add(datagram);
+			return fragments;
+		}
+		int chunk = maxDatagramSize - MAX_HEADER_LENGTH;
+		int count = (length + chunk - 1) / chunk;
+		if (count > MAX_FRAGMENTS)
+			throw new IllegalArgumentException("A packet of " + length + " bytes exceeds the maximum message size (" +
+					getMaxMessageSize(maxDatagramSize) + " bytes)");
+		int messageID = nextMessageID;
+		nextMessageID = (nextMessageID + 1) % MESSAGE_IDS;
+		messagesFragmented++;
+		byte[] payload = datagram.getData();
+		for (int i = 0; i < count; i++) {
+			String header = "~" + messageID + "." + i + "." + count + " ";
+			int offset = datagram.getOffset() + i * chunk, sliceLength = Math.min(chunk, length - i * chunk);
+			byte[] fragment = new byte[header.length() + sliceLength];
+			for (int j = 0; j < header.length(); j++)
+				fragment[j] = (byte) header.charAt(j);
+			System.arraycopy(payload, offset, fragment, header.length(), sliceLength);
+			fragments.add(new DatagramPacket(fragment, fragment.length, datagram.getAddress(), datagram.getPort()));
+		}
+		return fragments;
+	}
+
+	/**
+	 * @return The number of messages that have been split into fragments
+	 */
+	public long getMessagesFragmented() {
+		return messagesFragmented;
+	}
+
+	/**
+	 * @param maxDatagramSize A maximum datagram size, in bytes
+	 * @return The size, in bytes, of the largest packet that can be sent with that maximum datagram size
+	 */
+	public static int getMaxMessageSize(int maxDatagramSize) {
+		return MAX_FRAGMENTS * (maxDatagramSize - MAX_HEADER_LENGTH);
+	}
+}
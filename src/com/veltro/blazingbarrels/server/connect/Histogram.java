@@ -0,0 +1,154 @@
+package com.veltro.blazingbarrels.server.connect;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative values (durations in nanoseconds, queue depths, sizes) with a fixed relative precision,
+ * in the manner of an HDR histogram: values below 2 * {@value #SUB_BUCKETS} are counted exactly, and larger values are
+ * counted in buckets {@value #SUB_BUCKETS} to a power of two, so that every bucket is at most 1/{@value #SUB_BUCKETS}
+ * (about 3%) as wide as the values it holds. Recording a value costs a few shifts and an ordered write, and never
+ * allocates, so histograms can be kept around every phase of a cycle and every datagram sent or received.<p>
+ *
+ * Each histogram must be recorded to by a single thread. The counts are cumulative; any other thread may read them
+ * through {@link #sampleInterval()}, which summarizes the values recorded since its previous call. Only one thread may
+ * sample a given histogram.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public class Histogram {
+
+	/**
+	 * The number of bits of a value kept beyond its most significant one, which sets the histogram's precision
+	 */
+	public static final int SUB_BUCKET_BITS = 5;
+
+	/**
+	 * The number of buckets each power of two is divided into
+	 */
+	public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * The number of buckets needed to cover every non-negative long
+	 */
+	private static final int BUCKET_COUNT = indexOf(Long.MAX_VALUE) + 1;
+
+	/**
+	 * The number of values recorded in each bucket since the histogram was created
+	 */
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+	/**
+	 * The counts as of the previous {@link #sampleInterval() sample}, which are subtracted from the current counts to
+	 * obtain those of the interval. Only accessed by the sampling thread.
+	 */
+	private final long[] sampledCounts = new long[BUCKET_COUNT];
+
+	/**
+	 * Records the provided value. Negative values are recorded as 0.
+	 *
+	 * @param value The value to record
+	 */
+	public void record(long value) {
+		int index = indexOf(Math.max(value, 0));
+		counts.lazySet(index, counts.get(index) + 1); // Only the recording thread writes
+	}
+
+	/**
+	 * Summarizes the values recorded since the previous call (or since the histogram was created)
+	 *
+	 * @return The {@link Summary} of the interval
+	 */
+	public Summary sampleInterval() {
+		long[] interval = new long[BUCKET_COUNT];
+		long total = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			long count = counts.get(i);
+			interval[i] = count - sampledCounts[i];
+			sampledCounts[i] = count;
+			total += interval[i];
+		}
+		return new Summary(interval, total);
+	}
+
+	/**
+	 * @param value A non-negative value
+	 * @return The index of the bucket the value is counted in
+	 */
+	private static int indexOf(long value) {
+		int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS - 1;
+		if (shift <= 0)
+			return (int) value;
+		return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+	}
+
+	/**
+	 * @param index The index of a bucket
+	 * @return The largest value counted in the bucket
+	 */
+	private static long highestValueOf(int index) {
+		if (index < 2 * SUB_BUCKETS)
+			return index;
+		int shift = (index >> SUB_BUCKET_BITS) - 1;
+		long lowest = (long) (index - (shift << SUB_BUCKET_BITS)) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	/**
+	 * The values recorded in a histogram over an interval. Percentiles are reported as the largest value of the
+	 * bucket they fall in, so they are never understated by more than the histogram's precision.
+	 */
+	public static class Summary {
+
+		/**
+		 * The number of values recorded in each bucket over the interval
+		 */
+		private final long[] counts;
+
+		/**
+		 * The number of values recorded over the interval
+		 */
+		private final long total;
+
+		/**
+		 * @param counts The {@link #counts}
+		 * @param total The {@link #total}
+		 */
+		private Summary(long[] counts, long total) {
+			this.counts = counts;
+			this.total = total;
+		}
+
+		/**
+		 * @return The number of values recorded over the interval
+		 */
+		public long getCount() {
+			return total;
+		}
+
+		/**
+		 * @param percentile A percentile, between 0 and 100
+		 * @return The value at or below which the provided percentage of the values recorded fall, or 0 if none were
+		 */
+		public long getPercentile(double percentile) {
+			long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank)
+					return highestValueOf(i);
+			}
+			return 0;
+		}
+
+		/**
+		 * @return The largest value recorded over the interval, or 0 if none were
+		 */
+		public long getMax() {
+			for (int i = counts.length - 1; i >= 0; i--)
+				if (counts[i] > 0)
+					return highestValueOf(i);
+			return 0;
+		}
+	}
+}
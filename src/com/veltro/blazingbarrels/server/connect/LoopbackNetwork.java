@@ -0,0 +1,129 @@
+package com.veltro.blazingbarrels.server.connect;
+
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory network of {@link LoopbackTransport} endpoints, over which the server and the clients of a benchmark or
+ * load generator run in the same process. A datagram sent over an endpoint is copied into the queue of the endpoint
+ * bound to its destination, without going through the network stack; like UDP, the network drops the datagrams sent
+ * to addresses nobody is bound to and those arriving at a full queue, and counts them.<p>
+ *
+ * Endpoints may be bound to any socket address, which lets every client have an address of its own.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public class LoopbackNetwork {
+
+	/**
+	 * The number of datagrams an endpoint queues by default
+	 */
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	/**
+	 * The first port assigned to endpoints opened without an address
+	 */
+	public static final int FIRST_EPHEMERAL_PORT = 49152;
+
+	/**
+	 * The endpoints, by the address to which they are bound
+	 */
+	private final ConcurrentHashMap<InetSocketAddress, LoopbackTransport> endpoints =
+			new ConcurrentHashMap<InetSocketAddress, LoopbackTransport>();
+
+	/**
+	 * The port assigned to the next endpoint opened without an address
+	 */
+	private final AtomicInteger nextPort = new AtomicInteger(FIRST_EPHEMERAL_PORT);
+
+	/**
+	 * The number of datagrams dropped because nobody was bound to their destination
+	 */
+	private final AtomicLong undeliverable = new AtomicLong();
+
+	/**
+	 * Opens an endpoint bound to the provided address
+	 *
+	 * @param address The address
+	 * @param capacity The number of datagrams the endpoint queues
+	 * @return The endpoint
+	 * @throws SocketException Thrown if an endpoint is already bound to the address
+	 */
+	public LoopbackTransport open(InetSocketAddress address, int capacity) throws SocketException {
+		LoopbackTransport endpoint = new LoopbackTransport(this, address, capacity);
+		if (endpoints.putIfAbsent(address, endpoint) != null)
+			throw new SocketException("Address already in use: " + address);
+		return endpoint;
+	}
+
+	/**
+	 * Opens an endpoint bound to the provided address, queueing up to {@value #DEFAULT_CAPACITY} datagrams
+	 *
+	 * @param address The address
+	 * @return The endpoint
+	 * @throws SocketException Thrown if an endpoint is already bound to the address
+	 */
+	public LoopbackTransport open(InetSocketAddress address) throws SocketException {
+		return open(address, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Opens an endpoint bound to the loopback address and a port not in use, queueing up to
+	 * {@value #DEFAULT_CAPACITY} datagrams
+	 *
+	 * @return The endpoint
+	 * @throws SocketException Thrown if every port is in use
+	 */
+	public LoopbackTransport open() throws SocketException {
+		InetAddress loopback = InetAddress.getLoopbackAddress();
+		while (true) {
+			int port = nextPort.getAndIncrement();
+			if (port > 65535)
+				throw new SocketException("No port available");
+			InetSocketAddress address = new InetSocketAddress(loopback, port);
+			if (!endpoints.containsKey(address))
+				try {
+					return open(address);
+				} catch (SocketException e) { // Taken in the meantime
+					continue;
+				}
+		}
+	}
+
+	/**
+	 * Copies a datagram into the queue of the endpoint bound to its destination
+	 *
+	 * @param datagram The datagram
+	 * @param source The address of the endpoint sending the datagram
+	 */
+	void deliver(DatagramPacket datagram, InetSocketAddress source) {
+		LoopbackTransport destination = endpoints.get(datagram.getSocketAddress());
+		if (destination == null) {
+			undeliverable.incrementAndGet();
+			return;
+		}
+		destination.enqueue(datagram, source);
+	}
+
+	/**
+	 * Unbinds a closed endpoint
+	 *
+	 * @param endpoint The endpoint
+	 */
+	void unbind(LoopbackTransport endpoint) {
+		endpoints.remove(endpoint.getLocalAddress(), endpoint);
+	}
+
+	/**
+	 * @return The number of datagrams dropped because nobody was bound to their destination
+	 */
+	public long getUndeliverable() {
+		return undeliverable.get();
+	}
+}
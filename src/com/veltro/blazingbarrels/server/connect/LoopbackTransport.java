@@ -0,0 +1,203 @@
+package com.veltro.blazingbarrels.server.connect;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An endpoint of a {@link LoopbackNetwork}: a {@link Transport} whose datagrams are copied straight into the queue of
+ * their destination's endpoint. The queue is lock-free, so any number of threads may send to the endpoint while its
+ * owner receives; a receiver waiting for a datagram is parked and woken by the next one delivered.<p>
+ *
+ * Polling an endpoint without waiting lets a benchmark or load generator drive its clients from a single thread.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public class LoopbackTransport implements Transport {
+
+	/**
+	 * The network the endpoint belongs to
+	 */
+	private final LoopbackNetwork network;
+
+	/**
+	 * The address to which the endpoint is bound
+	 */
+	private final InetSocketAddress address;
+
+	/**
+	 * The number of datagrams the endpoint queues
+	 */
+	private final int capacity;
+
+	/**
+	 * The datagrams delivered to the endpoint and not yet received, each a copy owned by the queue
+	 */
+	private final ConcurrentLinkedQueue<DatagramPacket> queue = new ConcurrentLinkedQueue<DatagramPacket>();
+
+	/**
+	 * The number of datagrams in the {@link #queue}, kept apart as the queue's size is not a constant-time operation
+	 */
+	private final AtomicInteger queued = new AtomicInteger();
+
+	/**
+	 * The number of datagrams dropped because the queue was full
+	 */
+	private final AtomicLong dropped = new AtomicLong();
+
+	/**
+	 * The thread waiting to receive, or null if there is none
+	 */
+	private volatile Thread waiter = null;
+
+	/**
+	 * Whether the endpoint is closed
+	 */
+	private volatile boolean closed = false;
+
+	/**
+	 * Endpoints are opened by their {@link LoopbackNetwork}
+	 *
+	 * @param network The network the endpoint belongs to
+	 * @param address The address to which the endpoint is bound
+	 * @param capacity The number of datagrams the endpoint queues
+	 */
+	LoopbackTransport(LoopbackNetwork network, InetSocketAddress address, int capacity) {
+		this.network = network;
+		this.address = address;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Receives the datagrams queued, up to the length of the batch, waiting until one arrives
+	 *
+	 * @param batch The packets to receive datagrams into
+	 * @return The number of datagrams received
+	 * @throws IOException Thrown if the endpoint is closed
+	 */
+	public int receive(DatagramPacket[] batch) throws IOException {
+		while (true) {
+			int count = poll(batch, Long.MAX_VALUE);
+			if (count > 0)
+				return count;
+		}
+	}
+
+	/**
+	 * Receives the datagrams that arrive within the timeout, up to the length of the batch
+	 *
+	 * @param batch The packets to receive datagrams into
+	 * @param timeout The time, in nanoseconds, to wait for a datagram (0 or less to return at once)
+	 * @return The number of datagrams received, which is 0 if none arrived in time
+	 * @throws IOException Thrown if the endpoint is closed
+	 */
+	public int poll(DatagramPacket[] batch, long timeout) throws IOException {
+		int count = read(batch);
+		if (count > 0 || timeout <= 0)
+			return count;
+		waiter = Thread.currentThread();
+		if (queue.isEmpty() && !closed) { // Checked after registering, so that no delivery goes unnoticed
+			if (timeout == Long.MAX_VALUE)
+				LockSupport.park(this);
+			else
+				LockSupport.parkNanos(this, timeout);
+		}
+		waiter = null;
+		return read(batch);
+	}
+
+	/**
+	 * Reads the datagrams queued, up to the length of the batch, without waiting
+	 *
+	 * @param batch The packets to receive datagrams into
+	 * @return The number of datagrams received, which may be 0
+	 * @throws IOException Thrown if the endpoint is closed
+	 */
+	private int read(DatagramPacket[] batch) throws IOException {
+		if (closed)
+			throw new SocketException("Socket is closed");
+		int count = 0;
+		DatagramPacket datagram;
+		while (count < batch.length && (datagram = queue.poll()) != null) {
+			queued.decrementAndGet();
+			DatagramPacket packet = batch[count++];
+			int length = Math.min(datagram.getLength(), packet.getData().length);
+			System.arraycopy(datagram.getData(), 0, packet.getData(), 0, length);
+			packet.setLength(length);
+			packet.setSocketAddress(datagram.getSocketAddress());
+		}
+		return count;
+	}
+
+	/**
+	 * Sends datagrams to the endpoints bound to their destinations
+	 *
+	 * @param batch The datagrams to send
+	 * @throws IOException Thrown if the endpoint is closed
+	 */
+	public void send(List<DatagramPacket> batch) throws IOException {
+		if (closed)
+			throw new SocketException("Socket is closed");
+		for (DatagramPacket datagram : batch)
+			network.deliver(datagram, address);
+	}
+
+	/**
+	 * Queues a copy of a datagram sent to the endpoint, unless the queue is full
+	 *
+	 * @param datagram The datagram
+	 * @param source The address of the endpoint sending the datagram
+	 */
+	void enqueue(DatagramPacket datagram, InetSocketAddress source) {
+		if (queued.incrementAndGet() > capacity) {
+			queued.decrementAndGet();
+			dropped.incrementAndGet();
+			return;
+		}
+		byte[] data = new byte[datagram.getLength()];
+		System.arraycopy(datagram.getData(), datagram.getOffset(), data, 0, data.length);
+		queue.add(new DatagramPacket(data, data.length, source));
+		Thread thread = waiter;
+		if (thread != null)
+			LockSupport.unpark(thread);
+	}
+
+	/**
+	 * @return The address to which the endpoint is bound
+	 */
+	public InetSocketAddress getLocalAddress() {
+		return address;
+	}
+
+	/**
+	 * @return The number of datagrams dropped because the queue was full
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return 'true' iff the endpoint has not been closed
+	 */
+	public boolean isOpen() {
+		return !closed;
+	}
+
+	/**
+	 * Closes the endpoint, unbinding it and causing a thread waiting to receive to fail
+	 */
+	public void close() {
+		closed = true;
+		network.unbind(this);
+		Thread thread = waiter;
+		if (thread != null)
+			LockSupport.unpark(thread);
+	}
+}
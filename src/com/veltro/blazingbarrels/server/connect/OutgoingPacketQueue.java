@@ -0,0 +1,227 @@
+package com.veltro.blazingbarrels.server.connect;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.veltro.blazingbarrels.server.connect.packet.BBPacket;
+import com.veltro.blazingbarrels.server.connect.packet.Packet21PlayerConnect;
+import com.veltro.blazingbarrels.server.connect.packet.Packet22PlayerDisconnect;
+import com.veltro.blazingbarrels.server.connect.packet.Packet30PlayerUpdate;
+
+/**
+ * The queue of packets waiting to be sent by the {@link SenderThread}. Packets leave the queue in the order in which
+ * they were added, with one exception: a {@link Packet30PlayerUpdate} that only carries a player's location and/or
+ * health (see {@link Packet30PlayerUpdate#isStateUpdate()}) is made obsolete by a newer one concerning the same player
+ * and bound for the same client. Rather than queueing the newer update behind the older one, the queue merges the two
+ * in the older one's place, so a sender that falls behind catches up with the current state of the game instead of
+ * replaying its history.<p>
+ *
+ * Events (connects, disconnects, weapon fire, status toggles) are never merged or dropped. A connect or disconnect
+ * concerning a player also seals any state update for that player queued before it, so that state updates added later
+ * are sent after the event.<p>
+ *
+ * The queue is lock-free, and safe for use by multiple producer threads and a single consumer thread. The slot of a
+ * state update is claimed by the consumer atomically as it leaves the queue, so an update merged into a slot either
+ * makes it out with the slot or, if the slot was claimed first, is queued in a slot of its own.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public class OutgoingPacketQueue {
+
+	/**
+	 * The queued packet slots, in order of transmission
+	 */
+	private ConcurrentLinkedQueue<Slot> slots = new ConcurrentLinkedQueue<Slot>();
+
+	/**
+	 * The number of slots in the queue, kept apart as the size of the {@link #slots} queue is not a constant-time
+	 * operation
+	 */
+	private AtomicInteger size = new AtomicInteger();
+
+	/**
+	 * The slots holding state updates that newer state updates may still be merged into, indexed by destination and
+	 * player
+	 */
+	private ConcurrentHashMap<StateKey, Slot> stateSlots = new ConcurrentHashMap<StateKey, Slot>();
+
+	/**
+	 * The number of state updates that have been merged into older ones instead of being queued separately
+	 */
+	private AtomicLong supersededCount = new AtomicLong();
+
+	/**
+	 * Adds the provided packet to the back of the queue, or merges it into a queued state update it supersedes
+	 *
+	 * @param packet A {@link BBPacket} subclass with its destination address and port specified
+	 * @return 'true' (for compatibility with the Queue interface)
+	 */
+	public boolean add(BBPacket packet) {
+		if (packet instanceof Packet30PlayerUpdate && ((Packet30PlayerUpdate) packet).isStateUpdate()) {
+			Packet30PlayerUpdate update = (Packet30PlayerUpdate) packet;
+			StateKey key = new StateKey(update.getAddress(), update.getPort(), update.getUsername());
+			while (true) {
+				Slot slot = stateSlots.get(key);
+				if (slot == null) {
+					slot = new Slot(update, key);
+					if (stateSlots.putIfAbsent(key, slot) == null) {
+						enqueue(slot);
+						return true;
+					}
+					continue; // Another producer queued an update for the same player first
+				}
+				BBPacket queued = slot.packet.get();
+				if (queued == null) { // Claimed by the consumer in the meantime
+					stateSlots.remove(key, slot);
+					continue;
+				}
+				update.absorb((Packet30PlayerUpdate) queued);
+				if (slot.packet.compareAndSet(queued, update)) {
+					supersededCount.incrementAndGet();
+					return true;
+				}
+			}
+		}
+		if (packet instanceof Packet21PlayerConnect)
+			stateSlots.remove(new StateKey(packet.getAddress(), packet.getPort(),
+					((Packet21PlayerConnect) packet).getUsername()));
+		else if (packet instanceof Packet22PlayerDisconnect)
+			stateSlots.remove(new StateKey(packet.getAddress(), packet.getPort(),
+					((Packet22PlayerDisconnect) packet).getUsername()));
+		enqueue(new Slot(packet, null));
+		return true;
+	}
+
+	/**
+	 * Adds the provided slot to the back of the queue
+	 *
+	 * @param slot The slot
+	 */
+	private void enqueue(Slot slot) {
+		slots.add(slot);
+		size.incrementAndGet();
+	}
+
+	/**
+	 * Retrieves and removes the packet at the front of the queue
+	 *
+	 * @return The packet, or null if the queue is empty
+	 */
+	public BBPacket poll() {
+		Slot slot = slots.poll();
+		if (slot == null)
+			return null;
+		size.decrementAndGet();
+		BBPacket packet = slot.packet.getAndSet(null); // Claims the slot, so nothing more is merged into it
+		if (slot.key != null)
+			stateSlots.remove(slot.key, slot);
+		return packet;
+	}
+
+	/**
+	 * Discards every packet waiting to be sent, and the count of the state updates merged. Only called while no other
+	 * thread uses the queue.
+	 */
+	public void clear() {
+		slots.clear();
+		stateSlots.clear();
+		size.set(0);
+		supersededCount.set(0);
+	}
+
+	/**
+	 * @return 'true' iff no packets are waiting to be sent
+	 */
+	public boolean isEmpty() {
+		return slots.isEmpty();
+	}
+
+	/**
+	 * @return The number of packets waiting to be sent
+	 */
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * @return The number of state updates that have been merged into older ones since the queue was created
+	 */
+	public long getSupersededCount() {
+		return supersededCount.get();
+	}
+
+	/**
+	 * A position in the queue. The packet held by a slot may be replaced by a newer state update while it waits.
+	 */
+	private static class Slot {
+
+		/**
+		 * The packet to send when the slot reaches the front of the queue, or null once the consumer has claimed it
+		 */
+		private final AtomicReference<BBPacket> packet;
+
+		/**
+		 * The key under which the slot is registered in {@link OutgoingPacketQueue#stateSlots}, or null if the slot
+		 * holds an event
+		 */
+		private final StateKey key;
+
+		/**
+		 * @param packet The packet held by the slot
+		 * @param key The slot's {@link #key}
+		 */
+		private Slot(BBPacket packet, StateKey key) {
+			this.packet = new AtomicReference<BBPacket>(packet);
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Identifies the state of a player as seen by a client: the client's address and port, and the player's name
+	 */
+	private static class StateKey {
+
+		/**
+		 * The IP address of the client receiving the state update
+		 */
+		private final InetAddress address;
+
+		/**
+		 * The port on the above address
+		 */
+		private final int port;
+
+		/**
+		 * The name of the player the state update concerns
+		 */
+		private final String subject;
+
+		/**
+		 * @param address The IP address of the client receiving the state update
+		 * @param port The port on the above address
+		 * @param subject The name of the player the state update concerns
+		 */
+		private StateKey(InetAddress address, int port, String subject) {
+			this.address = address;
+			this.port = port;
+			this.subject = subject;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof StateKey))
+				return false;
+			StateKey other = (StateKey) o;
+			return port == other.port && subject.equals(other.subject) &&
+					(address == null ? other.address == null : address.equals(other.address));
+		}
+
+		public int hashCode() {
+			return (address == null ? 0 : address.hashCode()) * 31 * 31 + port * 31 + subject.hashCode();
+		}
+	}
+}
@@ -1,16 +1,25 @@
 package com.veltro.blazingbarrels.server.connect;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.TreeSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import com.veltro.blazingbarrels.server.BBServer;
 import com.veltro.blazingbarrels.server.connect.packet.BBPacket;
+import com.veltro.blazingbarrels.server.connect.packet.Packet03Ping;
+import com.veltro.blazingbarrels.server.connect.packet.Packet05Ack;
 import com.veltro.blazingbarrels.server.connect.packet.Packet10ServerSnapshot;
 import com.veltro.blazingbarrels.server.connect.packet.Packet22PlayerDisconnect;
 import com.veltro.blazingbarrels.server.connect.packet.Packet30PlayerUpdate;
 import com.veltro.blazingbarrels.server.game.ChangeType;
 import com.veltro.blazingbarrels.server.game.Player;
 import com.veltro.blazingbarrels.server.game.World;
+import com.veltro.blazingbarrels.server.game.WorldView;
+import com.veltro.blazingbarrels.server.jfr.CycleEvent;
+import com.veltro.blazingbarrels.server.jfr.PlayerDisconnectEvent;
+import com.veltro.blazingbarrels.server.record.MatchRecorder;
 
 /**
  * The PacketManager is where all of the server's logic - which is based on the packets it receives - occurs. The
@@ -18,11 +27,21 @@ import com.veltro.blazingbarrels.server.game.World;
  * 
  * In the first phase of a cycle, the PacketManager iterates through the packets that have accumulated in the
  * {@link ReceiverThread}'s queue since the last cycle, casting them to {@link BBPacket} subclasses and updating the
- * game (moving players, handling weapon firing and collisions, etc.) based on their data.<p>
+ * game (moving players, handling weapon firing and collisions, etc.) based on their data. Acknowledgments and sequence
+ * numbers are processed by the {@link ReliableChannel} of the sending client's {@link Connection} first, so that
+ * packets sent reliably are handled exactly once and in order. Players whose clients have not been heard from for
+ * longer than the configured idle timeout are then disconnected for timing out.<p>
  * 
  * The second phase of each cycle is oriented towards updating the BlazingBarrels clients connected to the server. The
  * PacketManager determines which changes to the game should be sent to which clients and then generates the
- * appropriate BBPacket subclasses and adds them to the {@link SenderThread}'s outbound packet queue.
+ * appropriate BBPacket subclasses and adds them to the {@link SenderThread}'s outbound packet queue. Location and
+ * health changes are sent to each client at the rate its {@link Connection} deems suitable for the client's link.
+ * Packets that must not be lost are sent over the client's reliable channel, which retransmits them as needed.<p>
+ * 
+ * The duration of each {@link CyclePhase phase} of a cycle is recorded in the server's {@link ServerMetrics}, and in a
+ * {@link CycleEvent} when the Flight Recorder is recording. When a match is being recorded, each cycle ends by handing
+ * the {@link MatchRecorder} the cycle's tick record. Every cycle then publishes a {@link WorldView}, through which
+ * other threads read the state of the game.
  * 
  * @author LinearLogic
  * @since 0.2.0
@@ -34,18 +53,53 @@ public class PacketManager {
 	 */
 	public static final int CYCLE_LENGTH = 50;
 
+	/**
+	 * The number of cycles between server snapshots (30 seconds' worth). Since events are delivered reliably, snapshots
+	 * only serve to correct the rare drift in clients' views of the game and can be sent infrequently.
+	 */
+	public static final int SNAPSHOT_INTERVAL = 600;
+
+	/**
+	 * The number of slots of the {@link #idleTimers} wheel, which covers this many cycles per revolution (12.8 seconds)
+	 */
+	public static final int IDLE_WHEEL_SLOTS = 256;
+
 	/**
 	 * The number of cycles that have elapsed since the last server snapshot was sent to all connected clients. This
-	 * snapshot is sent every ten seconds, or 200 cycles; at the same time, this number is reset to 0.
+	 * snapshot is sent every {@value #SNAPSHOT_INTERVAL} cycles; at the same time, this number is reset to 0.
 	 */
 	private int cycleCount = 0;
 
+	/**
+	 * The connections established for authorized clients, indexed by the clients' socket addresses
+	 */
+	private ConnectionTable connections = new ConnectionTable();
+
+	/**
+	 * The deadlines by which the clients of the registered connections must have been heard from. Each connection is
+	 * scheduled to be checked when it would time out if it were not heard from again; when it comes due, it is either
+	 * timed out or scheduled again according to when it was last heard from. This way, silent clients are detected
+	 * without scanning every connection every cycle, and receiving a packet costs nothing beyond recording its time.
+	 */
+	private TimingWheel<Connection> idleTimers = new TimingWheel<Connection>(IDLE_WHEEL_SLOTS);
+
 	/**
 	 * A registry of all the currently running {@link DeauthTask} objects. Each task is coupled with the name of the
 	 * player the task is running for.
 	 */
 	private HashMap<String, DeauthTask> deauthTasks = new HashMap<String, DeauthTask>();
 
+	/**
+	 * The {@link DeauthTask} objects that have sent all their warnings without the player joining, waiting for their
+	 * players to be deauthorized at the start of the next cycle
+	 */
+	private ConcurrentLinkedQueue<DeauthTask> expiredDeauthTasks = new ConcurrentLinkedQueue<DeauthTask>();
+
+	/**
+	 * Encodes the server snapshots, which are sent to every client every {@value #SNAPSHOT_INTERVAL} cycles
+	 */
+	private SnapshotEncoder snapshotEncoder = new SnapshotEncoder();
+
 	/**
 	 * Executes a cycle, advancing the game based on packets received since the last cycle and generating response
 	 * packets to be sent to update clients connected to the server.
@@ -54,84 +108,253 @@ public class PacketManager {
 	 */
 	public void runCycle() {
 		long startTime = System.currentTimeMillis();
+		advance();
+
+		// Round out the cycle length:
+		int dt = (int) (System.currentTimeMillis() - startTime);
+		if (dt < CYCLE_LENGTH) {
+			synchronized (this) {
+				try {
+					this.wait(CYCLE_LENGTH - dt);
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+					System.exit(0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Does the work of a cycle without rounding out its length, which lets the {@link WarmUp} run cycles back to back
+	 * 
+	 * @see #runCycle()
+	 */
+	void advance() {
+		CycleEvent event = new CycleEvent();
+		event.begin();
+		long cycleStart = System.nanoTime(), phaseStart = cycleStart;
+
+		DeauthTask expired;
+		while ((expired = expiredDeauthTasks.poll()) != null)
+			deauthorize(expired);
 
 		// Handle newly arrived packets:
-		TreeSet<BBPacket> packets = new TreeSet<BBPacket>(); // A TreeSet is used to order packets by priority
-		while (!BBServer.getReceiverDaemon().incomingPacketQueue.isEmpty())
-			packets.add(BBServer.getReceiverDaemon().incomingPacketQueue.poll());
-		for (BBPacket p : packets)
+		List<BBPacket> packets = new ArrayList<BBPacket>();
+		BBPacket received;
+		while ((received = BBServer.getReceiverDaemon().incomingPacketQueue.poll()) != null) {
+			if (received.getTrace() != null)
+				received.getTrace().stamp(PacketTrace.Point.DRAINED);
+			acceptPacket(received, packets);
+		}
+		int drained = packets.size();
+		Collections.sort(packets); // The sort is stable, so packets of equal priority keep their order of arrival
+		phaseStart = endPhase(CyclePhase.DRAIN, phaseStart, event);
+		for (BBPacket p : packets) {
+			PacketTrace trace = p.getTrace(); // Handling may pass the packet on with a trace of its own
+			if (trace == null) {
+				p.handle();
+				continue;
+			}
+			trace.stamp(PacketTrace.Point.HANDLING);
 			p.handle();
+			trace.stamp(PacketTrace.Point.HANDLED);
+			BBServer.getMetrics().getTracer().recordHandled(trace);
+		}
+
+		// Time out the players whose clients have gone silent:
+		long checkTime = System.nanoTime();
+		for (Connection connection : idleTimers.advance())
+			checkIdle(connection, checkTime);
+		phaseStart = endPhase(CyclePhase.HANDLE, phaseStart, event);
 
 		// Generate response packets:
+		boolean sendSnapshot = cycleCount >= SNAPSHOT_INTERVAL;
 		for (Player player : World.getPlayers()) {
 			if (player.getChanges().length == 0) // This player does not need to be updated
 				continue;
 			ChangeType[] changes = player.getChanges();
 			switch(changes[0]) {
 			case DISCONNECT_KICK:
-				broadcastPacket(new Packet22PlayerDisconnect(player.getName(), 2, null, 0));
-				World.removePlayer(player);
+				disconnectPlayer(player, 2);
 				continue;
 			case DISCONNECT_TIMEOUT:
-				broadcastPacket(new Packet22PlayerDisconnect(player.getName(), 1, null, 0));
-				World.removePlayer(player);
+				disconnectPlayer(player, 1);
 				continue;
 			case DISCONNECT_QUIT:
-				broadcastPacket(new Packet22PlayerDisconnect(player.getName(), 0, null, 0));
-				World.removePlayer(player);
+				disconnectPlayer(player, 0);
 				continue;
 			default:
 				break;
 			}
-			if (cycleCount >= 200) { // Send a server snapshot instead of update packets
-				for (Player p : World.getPlayers())
-					sendServerSnapshot(p);
+			player.clearChanges();
+			if (sendSnapshot) // The snapshot sent at the end of this cycle will reflect the changes
 				continue;
-			}
-			Packet30PlayerUpdate outgoing = new Packet30PlayerUpdate(player.getName());
+			Packet30PlayerUpdate toggles = new Packet30PlayerUpdate(player.getName());
+			boolean toggled = false;
+			int pending = 0;
 			for (ChangeType type : changes) {
 				switch(type) {
 				case ADMIN:
-					outgoing.toggleAdminStatus();
+					toggles.toggleAdminStatus();
+					toggled = true;
 					break;
 				case GODMODE:
-					outgoing.toggleGodMode();
+					toggles.toggleGodMode();
+					toggled = true;
 					break;
 				case HEALTH:
-					outgoing.setHealth(player.getHealth());
+					pending |= Connection.PENDING_HEALTH;
 					break;
 				case LOCATION:
-					outgoing.setLocation(player.getLocation());
+					pending |= Connection.PENDING_LOCATION;
 					break;
 				case VISIBILITY:
-					outgoing.toggleVisibility();
+					toggles.toggleVisibility();
+					toggled = true;
 					break;
 				default:
 					// TODO: log an error, as this should never be reached
 					break;
 				}
 			}
-			outgoing.updateData();
-			broadcastPacket(outgoing);
+			if (toggled) { // Toggles are rare and cannot be coalesced, so they are sent to every client right away
+				toggles.updateData();
+				broadcastPacket(toggles);
+			}
+			if (pending != 0) // Location and health are sent according to each client's update interval
+				for (Player recipient : World.getPlayers())
+					recipient.getConnection().markPending(player, pending);
 		}
-
-		// Round out the cycle length:
-		int dt = (int) (System.currentTimeMillis() - startTime);
-		if (dt < CYCLE_LENGTH) {
-			synchronized (this) {
-				try {
-					this.wait(CYCLE_LENGTH - dt);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-					System.exit(0);
-				}
+		phaseStart = endPhase(CyclePhase.COLLECT, phaseStart, event);
+		List<byte[]> snapshot = sendSnapshot ? snapshotEncoder.encode(World.getPlayers()) : null; // Shared by all
+		for (Player recipient : World.getPlayers()) {
+			Connection connection = recipient.getConnection();
+			Packet03Ping ping = connection.nextPing(recipient);
+			if (ping != null)
+				sendPacket(recipient, ping);
+			if (sendSnapshot) { // Send a server snapshot instead of update packets
+				connection.clearPending();
+				sendServerSnapshot(recipient, snapshot);
+				continue;
 			}
+			connection.accumulatePriority(recipient);
+			if (connection.isUpdateDue())
+				sendPendingUpdates(recipient);
+		}
+		long now = endPhase(CyclePhase.ENCODE, phaseStart, event);
+		for (Connection connection : connections.getConnections()) {
+			connection.getChannel().retransmitOverdue(now);
+			if (connection.getChannel().isFailed()) // The link is dead, as the client stopped acknowledging
+				timeOut(connection);
+			Packet05Ack ack = connection.getChannel().flushAck(); // Nothing was sent to carry the acknowledgment
+			if (ack != null)
+				BBServer.getSenderDaemon().outgoingPacketQueue.add(ack);
+		}
+		BBServer.getMatchRecorder().endTick(World.getPlayers());
+		World.publishView();
+		int queued = BBServer.getSenderDaemon().outgoingPacketQueue.size();
+		BBServer.getMetrics().recordCycle(endPhase(CyclePhase.ENQUEUE, now, event) - cycleStart, drained, queued);
+		event.end();
+		if (event.shouldCommit()) {
+			event.setLoad(World.getPlayers().length, drained, queued);
+			event.commit();
 		}
-		if (++cycleCount > 200) {
+		if (++cycleCount > SNAPSHOT_INTERVAL) {
 			cycleCount = 0;
 		}
 	}
 
+	/**
+	 * Records the duration of a cycle phase that has just ended
+	 * 
+	 * @param phase The phase that has ended
+	 * @param start The time (as given by System.nanoTime()) at which the phase started
+	 * @param event The event recording the cycle
+	 * @return The current time, at which the next phase starts
+	 */
+	private static long endPhase(CyclePhase phase, long start, CycleEvent event) {
+		long now = BBServer.getMetrics().endPhase(phase, start);
+		event.setPhaseTime(phase, now - start);
+		return now;
+	}
+
+	/**
+	 * Notifies all clients that the provided player has disconnected, and removes the player from the server
+	 * 
+	 * @param player The player that has disconnected
+	 * @param reasonID The {@link Packet22PlayerDisconnect#getReasonID() reason} for the disconnect
+	 */
+	private void disconnectPlayer(Player player, int reasonID) {
+		broadcastPacket(new Packet22PlayerDisconnect(player.getName(), reasonID, null, 0));
+		World.removePlayer(player);
+		connections.unregister(player.getConnection());
+		for (Player p : World.getPlayers())
+			p.getConnection().forget(player);
+		PlayerDisconnectEvent.record(player.getName(), reasonID, World.getPlayers().length);
+		BBServer.getMatchRecorder().recordLeave(player, reasonID);
+	}
+
+	/**
+	 * Passes the reliability headers of a newly arrived packet to the {@link ReliableChannel} of the connection it was
+	 * attributed to by the {@link ReceiverThread}, and determines which packets can be handled as a result. Packets
+	 * without a sequence number are handled right away; packets with one are handled once every packet sent before
+	 * them over the channel has been, and only once.
+	 * 
+	 * @param packet The packet received
+	 * @param accepted The list of packets to handle this cycle, to which the packets released are added
+	 */
+	private void acceptPacket(BBPacket packet, List<BBPacket> accepted) {
+		if (packet.getSequence() < 0 && packet.getAck() < 0) {
+			accepted.add(packet);
+			return;
+		}
+		Connection connection = packet.getConnection();
+		if (connection == null) { // Reliability headers are meaningless without an established connection
+			if (packet.getSequence() < 0)
+				accepted.add(packet);
+			return;
+		}
+		if (packet.getAck() >= 0)
+			connection.getChannel().acknowledge(packet.getAck(), packet.getAckBits(), packet.getReceiptTime());
+		if (packet.getSequence() < 0)
+			accepted.add(packet);
+		else
+			accepted.addAll(connection.getChannel().receive(packet, packet.getSequence()));
+	}
+
+	/**
+	 * Sends the provided player's client the location and health changes that have accumulated in its
+	 * {@link Connection} since the last update, using one {@link Packet30PlayerUpdate} per changed player. The updates
+	 * are sent from highest to lowest priority until the connection's {@link Connection#getByteBudget() byte budget}
+	 * is exhausted; the rest stay pending and gain priority until a later update. Locations are sent with the
+	 * {@link Connection#getLocationPrecision() precision} suited to the client's link.
+	 * 
+	 * @param recipient The player whose client to update
+	 */
+	private void sendPendingUpdates(Player recipient) {
+		Connection connection = recipient.getConnection();
+		int budget = connection.getByteBudget();
+		boolean first = true;
+		for (Connection.PendingUpdate update : connection.getPendingByPriority()) {
+			Player subject = update.getSubject();
+			Packet30PlayerUpdate outgoing = new Packet30PlayerUpdate(subject.getName());
+			if ((update.getFlags() & Connection.PENDING_LOCATION) != 0) {
+				outgoing.setLocation(subject.getLocation());
+				outgoing.setLocationPrecision(connection.getLocationPrecision());
+				outgoing.setTrace(subject.getLocationTrace());
+			}
+			if ((update.getFlags() & Connection.PENDING_HEALTH) != 0)
+				outgoing.setHealth(subject.getHealth());
+			outgoing.updateData();
+			if (outgoing.getLength() > budget && !first) // Always send at least one update so the client progresses
+				break;
+			budget -= outgoing.getLength();
+			first = false;
+			connection.markSent(update);
+			sendPacket(recipient, outgoing);
+		}
+	}
+
 	/**
 	 * Sends the provided packet to the client corresponding to the provided player
 	 * 
@@ -142,7 +365,19 @@ public class PacketManager {
 	public void sendPacket(Player target, BBPacket packet) {
 		packet.setAddress(target.getClientAddress());
 		packet.setPort(target.getClientPort());
-		BBServer.getSenderDaemon().outgoingPacketQueue.add(packet);
+		transmit(target.getConnection(), packet);
+	}
+
+	/**
+	 * Sends the provided packet to the client for which the provided connection was established
+	 * 
+	 * @param target The {@link Connection} to the client, which need not belong to a player that has joined yet
+	 * @param packet A {@link BBPacket} subclass. The packet does not need to have its address or port specified.
+	 */
+	public void sendPacket(Connection target, BBPacket packet) {
+		packet.setAddress(target.getAddress());
+		packet.setPort(target.getPort());
+		transmit(target, packet);
 	}
 
 	/**
@@ -151,29 +386,134 @@ public class PacketManager {
 	 * @param packet A {@link BBPacket} subclass. The packet does not need to have its address or port specified
 	 */
 	public void broadcastPacket(BBPacket packet) {
-		for (Player p : World.getPlayers()) {
-			packet.setAddress(p.getClientAddress());
-			packet.setPort(p.getClientPort());
-			BBServer.getSenderDaemon().outgoingPacketQueue.add(packet);
+		for (Player p : World.getPlayers())
+			transmit(p.getConnection(), packet.addressedTo(p.getClientAddress(), p.getClientPort()));
+	}
+
+	/**
+	 * Sends the provided packet over the provided connection: reliable packets are handed to the connection's
+	 * {@link ReliableChannel}, and the rest are queued for transmission right away with the channel's acknowledgment
+	 * piggybacked on them. Packets carrying the trace of a traced packet received are given a trace of their own,
+	 * {@link PacketTrace#derive(int, java.net.InetAddress, int) derived} from it.
+	 * 
+	 * @param connection The connection to the client the packet is addressed to
+	 * @param packet A packet addressed to the client, which must not be shared with other recipients
+	 */
+	private void transmit(Connection connection, BBPacket packet) {
+		packet.setSequence(-1); // Relayed packets still carry the reliability headers of the client that sent them
+		packet.setAck(-1, 0);
+		if (packet.getTrace() != null && !packet.getTrace().isDerived())
+			packet.setTrace(packet.getTrace().derive(packet.getID(), packet.getAddress(), packet.getPort()));
+		if (packet.isReliable()) {
+			connection.getChannel().send(packet);
+			return;
+		}
+		connection.getChannel().attachAck(packet);
+		connection.recordSent(packet.getLength());
+		BBServer.getSenderDaemon().outgoingPacketQueue.add(packet);
+	}
+
+	/**
+	 * Registers the provided connection, established for a newly authorized client, so that the reliability headers of
+	 * the packets the client sends can be processed
+	 * 
+	 * @param connection The connection to register
+	 */
+	public void registerConnection(Connection connection) {
+		connections.register(connection);
+		idleTimers.schedule(connection, toCycles(BBServer.getConfig().getIdleTimeout() * 1000000L));
+	}
+
+	/**
+	 * Determines whether the provided connection's client has been silent for longer than the configured idle timeout,
+	 * and if so, disconnects its player for timing out. Otherwise, the connection is scheduled to be checked again
+	 * when it would time out if its client were not heard from again. Connections that have been closed in the
+	 * meantime are dropped. Those whose players have yet to join are left to their {@link DeauthTask}, but remain on
+	 * the wheel for as long as they are registered, so that a player joining late is still timed out.
+	 * 
+	 * @param connection A connection that has come due on the {@link #idleTimers} wheel
+	 * @param now The current time, as given by System.nanoTime()
+	 */
+	private void checkIdle(Connection connection, long now) {
+		if (!connections.contains(connection))
+			return;
+		long timeout = BBServer.getConfig().getIdleTimeout() * 1000000L;
+		long silence = now - connection.getLastHeard();
+		if (silence < timeout) {
+			idleTimers.schedule(connection, toCycles(timeout - silence));
+			return;
+		}
+		if (!timeOut(connection)) // Not joined yet: checked again in case the player joins before being deauthorized
+			idleTimers.schedule(connection, toCycles(timeout));
+	}
+
+	/**
+	 * Disconnects the player of the provided connection for timing out, if the player has joined. Connections whose
+	 * players have not joined are left to their {@link DeauthTask}.
+	 * 
+	 * @param connection A connection whose client is presumed gone
+	 * @return 'true' if the connection's player has joined and was disconnected, else 'false'
+	 */
+	private boolean timeOut(Connection connection) {
+		Player player = World.getPlayer(connection.getSessionID());
+		if (player == null || player.getConnection() != connection)
+			return false;
+		player.disconnect(1);
+		return true;
+	}
+
+	/**
+	 * @param nanoseconds An amount of time, in nanoseconds
+	 * @return The number of cycles covering that amount of time, rounded up
+	 */
+	private static int toCycles(long nanoseconds) {
+		long cycle = CYCLE_LENGTH * 1000000L;
+		return (int) ((nanoseconds + cycle - 1) / cycle);
+	}
+
+	/**
+	 * @return The {@link ConnectionTable} of the connections established for authorized clients
+	 */
+	public ConnectionTable getConnectionTable() {
+		return connections;
+	}
+
+	/**
+	 * Revokes the authorization of the player whose {@link DeauthTask} has expired: the task is unregistered, and the
+	 * connection and session ID established for the player's client are discarded
+	 * 
+	 * @param task The expired task
+	 */
+	private void deauthorize(DeauthTask task) {
+		synchronized (this) {
+			if (deauthTasks.get(task.getPlayerName()) != task) // The player has joined in the meantime
+				return;
+			deauthTasks.remove(task.getPlayerName());
 		}
+		connections.unregister(task.getConnection());
+		World.releaseSessionID(task.getConnection().getSessionID());
 	}
 
 	/**
-	 * Sends a snapshot of the server (transfered using one or more {@link Packet10ServerSnapshot} packets) to the
-	 * client associated with the provided player.
+	 * Sends a snapshot of the server (normally a single {@link Packet10ServerSnapshot}, fragmented as needed, or
+	 * several if the snapshot exceeds the maximum message size) to the client associated with the provided player.
 	 * 
 	 * @param target The player to send the server snapshot to
 	 */
 	public void sendServerSnapshot(Player target) {
-		Packet10ServerSnapshot outgoing = new Packet10ServerSnapshot(true, target.getClientAddress(),
-				target.getClientPort());
-		for (Player p : World.getPlayers()) {
-			if (outgoing.addPlayerSnapshot(p))
-				continue;
-			BBServer.getSenderDaemon().outgoingPacketQueue.add(outgoing);
-			outgoing = new Packet10ServerSnapshot(false, target.getClientAddress(), target.getClientPort());
-			outgoing.addPlayerSnapshot(p);
-		}
+		sendServerSnapshot(target, snapshotEncoder.encode(World.getPlayers()));
+	}
+
+	/**
+	 * Sends a snapshot encoded beforehand to the client associated with the provided player. The same payloads can be
+	 * sent to any number of clients.
+	 * 
+	 * @param target The player to send the server snapshot to
+	 * @param payloads The payloads of the snapshot's packets, as produced by the {@link SnapshotEncoder}
+	 */
+	private void sendServerSnapshot(Player target, List<byte[]> payloads) {
+		for (byte[] payload : payloads)
+			sendPacket(target, new Packet10ServerSnapshot(payload, target.getClientAddress(), target.getClientPort()));
 	}
 
 	/**
@@ -186,18 +526,37 @@ public class PacketManager {
 	}
 
 	/**
-	 * Attempts to cancel the {@link DeauthTask} (if any) associated with the player with the provided name
+	 * Attempts to cancel the {@link DeauthTask} (if any) associated with the player with the provided name, and
+	 * unregisters it
 	 * 
 	 * @param playerName The name of the player whose client is being pinged with deauthorization warnings
 	 */
 	public synchronized void cancelDeauthTask(String playerName) {
 		try {
-			deauthTasks.get(playerName).interrupt();
+			deauthTasks.remove(playerName).interrupt();
 		} catch (NullPointerException e) { // There isn't a deauth task running for the player with the provided name
 			return;
 		}
 	}
 
+	/**
+	 * Queues the provided task, which has sent all of its warnings, for the deauthorization of its player at the start
+	 * of the next cycle. Called by the task's own thread.
+	 * 
+	 * @param task The expired {@link DeauthTask}
+	 */
+	public void expireDeauthTask(DeauthTask task) {
+		expiredDeauthTasks.add(task);
+	}
+
+	/**
+	 * @param playerName The name of the player whose client is being pinged with deauthorization warnings
+	 * @return The {@link DeauthTask} running for that player, or null if there is none
+	 */
+	public synchronized DeauthTask getDeauthTask(String playerName) {
+		return deauthTasks.get(playerName);
+	}
+
 	/**
 	 * Determines whether a {@link DeauthTask} is running for the player with the provided name
 	 * 
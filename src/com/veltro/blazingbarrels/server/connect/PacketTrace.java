@@ -0,0 +1,200 @@
+package com.veltro.blazingbarrels.server.connect;
+
+import java.net.InetAddress;
+
+/**
+ * The path of a sampled packet through the server, as a series of timestamps (given by System.nanoTime()) taken at
+ * each {@link Point} of the pipeline. A trace is created by the {@link PacketTracer} when a packet it samples is
+ * received, and follows the packet through the {@link ReceiverThread}, the incoming packet queue and the
+ * {@link PacketManager}'s cycle. Each packet the server sends as a result of handling the traced packet (the
+ * broadcast of a weapon fire, or the updates carrying a player's new location to other clients) is given a
+ * {@link #derive(int, InetAddress, int) derived} trace when it is queued for transmission, which copies the ingress
+ * timestamps and goes on to record the packet's wait in the outgoing packet queue and its transmission by the
+ * {@link SenderThread}.<p>
+ *
+ * Each timestamp is taken by one thread, and handed over with the packet through the queues between threads.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public class PacketTrace {
+
+	/**
+	 * The points of the pipeline at which traced packets are timestamped, in the order they are passed
+	 */
+	public enum Point {
+
+		/**
+		 * The receipt of the datagram by the receiver thread
+		 */
+		RECEIVED,
+
+		/**
+		 * The addition of the parsed packet to the incoming packet queue
+		 */
+		QUEUED,
+
+		/**
+		 * The removal of the packet from the incoming packet queue at the start of a cycle
+		 */
+		DRAINED,
+
+		/**
+		 * The start of the packet's handling
+		 */
+		HANDLING,
+
+		/**
+		 * The end of the packet's handling
+		 */
+		HANDLED,
+
+		/**
+		 * The addition of a derived packet to the outgoing packet queue (or to a reliable channel)
+		 */
+		ENQUEUED,
+
+		/**
+		 * The removal of a derived packet from the outgoing packet queue by the sender thread
+		 */
+		DEQUEUED,
+
+		/**
+		 * The transmission of the last datagram of a derived packet
+		 */
+		SENT
+	}
+
+	/**
+	 * The timestamps taken, indexed by {@link Point} ordinal (0 where none has been taken yet)
+	 */
+	private final long[] stamps;
+
+	/**
+	 * The ID of the packet received
+	 */
+	private final int receivedID;
+
+	/**
+	 * The IP address of the client the packet was received from
+	 */
+	private final InetAddress source;
+
+	/**
+	 * The port of the client the packet was received from
+	 */
+	private final int sourcePort;
+
+	/**
+	 * The ID of the derived packet (-1 for the trace of a packet received)
+	 */
+	private final int sentID;
+
+	/**
+	 * The IP address of the client the derived packet is sent to (null for the trace of a packet received)
+	 */
+	private final InetAddress destination;
+
+	/**
+	 * The port of the client the derived packet is sent to
+	 */
+	private final int destinationPort;
+
+	/**
+	 * Starts the trace of a packet received
+	 *
+	 * @param packetID The ID of the packet
+	 * @param source The IP address of the client the packet was received from
+	 * @param sourcePort The port of the client the packet was received from
+	 * @param receiptTime The time at which the packet was received
+	 */
+	public PacketTrace(int packetID, InetAddress source, int sourcePort, long receiptTime) {
+		this(new long[Point.values().length], packetID, source, sourcePort, -1, null, 0);
+		stamps[Point.RECEIVED.ordinal()] = receiptTime;
+	}
+
+	/**
+	 * @param stamps The {@link #stamps}
+	 * @param receivedID The {@link #receivedID}
+	 * @param source The {@link #source}
+	 * @param sourcePort The {@link #sourcePort}
+	 * @param sentID The {@link #sentID}
+	 * @param destination The {@link #destination}
+	 * @param destinationPort The {@link #destinationPort}
+	 */
+	private PacketTrace(long[] stamps, int receivedID, InetAddress source, int sourcePort, int sentID,
+			InetAddress destination, int destinationPort) {
+		this.stamps = stamps;
+		this.receivedID = receivedID;
+		this.source = source;
+		this.sourcePort = sourcePort;
+		this.sentID = sentID;
+		this.destination = destination;
+		this.destinationPort = destinationPort;
+	}
+
+	/**
+	 * Creates the trace of a packet sent as a result of handling the traced packet, timestamped as
+	 * {@link Point#ENQUEUED} now
+	 *
+	 * @param packetID The ID of the derived packet
+	 * @param destination The IP address of the client the derived packet is sent to
+	 * @param destinationPort The port of the client the derived packet is sent to
+	 * @return The derived trace
+	 */
+	public PacketTrace derive(int packetID, InetAddress destination, int destinationPort) {
+		PacketTrace derived = new PacketTrace(stamps.clone(), receivedID, source, sourcePort, packetID, destination,
+				destinationPort);
+		derived.stamp(Point.ENQUEUED);
+		return derived;
+	}
+
+	/**
+	 * Timestamps the provided point of the pipeline with the current time
+	 *
+	 * @param point The point the packet has reached
+	 */
+	public void stamp(Point point) {
+		stamps[point.ordinal()] = System.nanoTime();
+	}
+
+	/**
+	 * @param point A point of the pipeline
+	 * @return The time at which the packet reached the point, or 0 if it has not
+	 */
+	public long getStamp(Point point) {
+		return stamps[point.ordinal()];
+	}
+
+	/**
+	 * @return 'true' iff this is the trace of a packet the server has sent (or is to send), rather than of one it
+	 * received
+	 */
+	public boolean isDerived() {
+		return destination != null;
+	}
+
+	/**
+	 * Describes the path of the packet, with the time spent between each pair of consecutive points it was
+	 * timestamped at
+	 */
+	public String toString() {
+		StringBuilder description = new StringBuilder();
+		description.append(receivedID).append(" from ").append(source.getHostAddress()).append(':').append(sourcePort);
+		if (isDerived())
+			description.append(" -> ").append(sentID).append(" to ").append(destination.getHostAddress()).append(':')
+					.append(destinationPort);
+		description.append(':');
+		long previous = 0;
+		for (Point point : Point.values()) {
+			long stamp = stamps[point.ordinal()];
+			if (stamp == 0)
+				continue;
+			if (previous != 0)
+				description.append(String.format(" %s +%.3f ms", point.name().toLowerCase(), (stamp - previous) / 1e6));
+			previous = stamp;
+		}
+		return description.append(String.format(" (total %.3f ms)", (previous - getStamp(Point.RECEIVED)) / 1e6))
+				.toString();
+	}
+}
@@ -0,0 +1,223 @@
+package com.veltro.blazingbarrels.server.connect;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.veltro.blazingbarrels.server.connect.PacketTrace.Point;
+
+/**
+ * Samples the packets the server receives for {@link PacketTrace tracing}, and aggregates the traces into histograms of
+ * the time packets spend in each {@link Stage} of the pipeline, so that it can be told whether the latency between a
+ * client's update and its effect reaching other clients is dominated by queuing or by computation. Tracing is off
+ * until a {@link #setSamplingInterval(int) sampling interval} is set; while it is off, the pipeline pays nothing but a
+ * read of a volatile field per packet received.<p>
+ *
+ * The stages ending at or before the end of a packet's handling are recorded by the thread running the
+ * {@link PacketManager}'s cycles, and the rest by the {@link SenderThread} as each derived packet is sent, so that
+ * each histogram has a single writer. The {@value #RECENT_TRACES} most recently completed traces are kept so that
+ * individual paths can be inspected.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public class PacketTracer {
+
+	/**
+	 * The number of completed traces kept for inspection
+	 */
+	public static final int RECENT_TRACES = 8;
+
+	/**
+	 * The stages of the pipeline, each spanning the time between two {@link Point points}. The stages other than
+	 * {@link #HANDLE} and {@link #TOTAL} follow one another, so their times add up to the total.
+	 */
+	public enum Stage {
+
+		/**
+		 * The parsing of the datagram by the receiver thread
+		 */
+		PARSE(Point.RECEIVED, Point.QUEUED),
+
+		/**
+		 * The wait in the incoming packet queue for the next cycle
+		 */
+		INBOUND_QUEUE(Point.QUEUED, Point.DRAINED),
+
+		/**
+		 * The wait within the cycle for the packet's turn to be handled (reliable delivery, sorting and the handling
+		 * of the packets before it)
+		 */
+		CYCLE_WAIT(Point.DRAINED, Point.HANDLING),
+
+		/**
+		 * The handling of the packet
+		 */
+		HANDLE(Point.HANDLING, Point.HANDLED),
+
+		/**
+		 * The time from the start of the packet's handling until a derived packet is queued, which for player updates
+		 * includes the wait for the recipient's next update to be due
+		 */
+		HOLD(Point.HANDLING, Point.ENQUEUED),
+
+		/**
+		 * The wait of a derived packet in the outgoing packet queue
+		 */
+		OUTBOUND_QUEUE(Point.ENQUEUED, Point.DEQUEUED),
+
+		/**
+		 * The encoding, compression, fragmentation and transmission of a derived packet
+		 */
+		SEND(Point.DEQUEUED, Point.SENT),
+
+		/**
+		 * The time from the receipt of the packet to the transmission of a derived packet
+		 */
+		TOTAL(Point.RECEIVED, Point.SENT);
+
+		/**
+		 * The point at which the stage starts
+		 */
+		public final Point start;
+
+		/**
+		 * The point at which the stage ends
+		 */
+		public final Point end;
+
+		/**
+		 * @param start The {@link #start} of the stage
+		 * @param end The {@link #end} of the stage
+		 */
+		private Stage(Point start, Point end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		/**
+		 * @return 'true' iff the stage ends after the packet received has been handled, and is thus only recorded for
+		 * derived packets
+		 */
+		public boolean isOutbound() {
+			return end.compareTo(Point.HANDLED) > 0;
+		}
+	}
+
+	/**
+	 * The number of packets received per packet traced (0 while tracing is off)
+	 */
+	private volatile int samplingInterval = 0;
+
+	/**
+	 * The number of packets received since the last one traced. Only accessed by the receiver thread.
+	 */
+	private int skipped = 0;
+
+	/**
+	 * The time spent in each stage, in nanoseconds, indexed by {@link Stage} ordinal
+	 */
+	private final Histogram[] stages = new Histogram[Stage.values().length];
+
+	/**
+	 * The most recently completed traces, in the order they were completed (oldest first)
+	 */
+	private final List<PacketTrace> recent = new ArrayList<PacketTrace>(RECENT_TRACES + 1);
+
+	/**
+	 * Creates the histograms of the stages
+	 */
+	public PacketTracer() {
+		for (int i = 0; i < stages.length; i++)
+			stages[i] = new Histogram();
+	}
+
+	/**
+	 * Decides whether to trace a packet that has been received. Only called by the receiver thread.
+	 *
+	 * @param packetID The ID of the packet
+	 * @param source The IP address of the client the packet was received from
+	 * @param sourcePort The port of the client the packet was received from
+	 * @param receiptTime The time (as given by System.nanoTime()) at which the packet was received
+	 * @return The packet's new trace, or null if the packet is not to be traced
+	 */
+	public PacketTrace sample(int packetID, InetAddress source, int sourcePort, long receiptTime) {
+		int interval = samplingInterval;
+		if (interval == 0 || ++skipped < interval)
+			return null;
+		skipped = 0;
+		return new PacketTrace(packetID, source, sourcePort, receiptTime);
+	}
+
+	/**
+	 * Records the stages a traced packet has been through by the end of its handling. Only called by the thread
+	 * running the cycles.
+	 *
+	 * @param trace The trace of the packet, timestamped as {@link Point#HANDLED}
+	 */
+	public void recordHandled(PacketTrace trace) {
+		for (Stage stage : Stage.values())
+			if (!stage.isOutbound())
+				record(stage, trace);
+	}
+
+	/**
+	 * Records the stages a derived packet has been through since its handling, and keeps its trace as one of the
+	 * most recent. Only called by the sender thread.
+	 *
+	 * @param trace The trace of the derived packet, timestamped as {@link Point#SENT}
+	 */
+	public void recordSent(PacketTrace trace) {
+		for (Stage stage : Stage.values())
+			if (stage.isOutbound())
+				record(stage, trace);
+		synchronized (recent) {
+			recent.add(trace);
+			if (recent.size() > RECENT_TRACES)
+				recent.remove(0);
+		}
+	}
+
+	/**
+	 * Records the time the traced packet spent in the provided stage, if it has been timestamped at both ends of it
+	 *
+	 * @param stage The stage to record
+	 * @param trace The trace of the packet
+	 */
+	private void record(Stage stage, PacketTrace trace) {
+		long start = trace.getStamp(stage.start), end = trace.getStamp(stage.end);
+		if (start != 0 && end != 0)
+			stages[stage.ordinal()].record(end - start);
+	}
+
+	/**
+	 * @param stage A stage of the pipeline
+	 * @return The histogram of the time traced packets spent in the stage, in nanoseconds
+	 */
+	public Histogram getStage(Stage stage) {
+		return stages[stage.ordinal()];
+	}
+
+	/**
+	 * @return The most recently completed traces, oldest first
+	 */
+	public List<PacketTrace> getRecentTraces() {
+		synchronized (recent) {
+			return new ArrayList<PacketTrace>(recent);
+		}
+	}
+
+	/**
+	 * @return The number of packets received per packet traced (0 while tracing is off)
+	 */
+	public int getSamplingInterval() {
+		return samplingInterval;
+	}
+
+	/**
+	 * @param samplingInterval The number of packets received per packet to trace, or 0 to turn tracing off
+	 */
+	public void setSamplingInterval(int samplingInterval) {
+		this.samplingInterval = Math.max(samplingInterval, 0);
+	}
+}
@@ -0,0 +1,129 @@
+package com.veltro.blazingbarrels.server.connect;
+
+import java.net.InetAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Limits the rate at which the {@link ReceiverThread} accepts packets, so that a single client flooding the server
+ * cannot blow the cycle budget for everyone else. Each {@link TrafficClass} has its own limits, enforced by two
+ * {@link TokenBucket}s per packet: one for the packet's source and one shared by all sources. The source's bucket is
+ * checked first, so an abusive client exhausts its own allowance before it can eat into everyone else's.<p>
+ * 
+ * The buckets of clients with a {@link Connection} are kept in the connection. Unknown sources may only send
+ * handshakes; their buckets are kept per IP address (so that cycling through ports does not help) in a table holding
+ * the {@value #MAX_TRACKED_SOURCES} most recently seen addresses, so that a flood of spoofed addresses cannot exhaust
+ * the server's memory.<p>
+ * 
+ * Packets are checked before they are parsed, using nothing but the ID at the start of the datagram. The limiter is
+ * only used by the {@link ReceiverThread}; its drop counters may be read from any thread.
+ * 
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public class RateLimiter {
+
+	/**
+	 * The maximum number of unknown source addresses whose handshake buckets are kept at any time
+	 */
+	public static final int MAX_TRACKED_SOURCES = 1024;
+
+	/**
+	 * The buckets shared by all sources, indexed by {@link TrafficClass} ordinal
+	 */
+	private TokenBucket[] globalBuckets;
+
+	/**
+	 * The handshake buckets of unknown sources, indexed by IP address and kept in order of last use so that the least
+	 * recently seen address is evicted first
+	 */
+	private Map<InetAddress, TokenBucket> handshakeBuckets;
+
+	/**
+	 * The number of packets of each {@link TrafficClass} dropped because their source exceeded its limit
+	 */
+	private AtomicLongArray sourceDrops = new AtomicLongArray(TrafficClass.values().length);
+
+	/**
+	 * The number of packets of each {@link TrafficClass} dropped because all sources combined exceeded the limit
+	 */
+	private AtomicLongArray globalDrops = new AtomicLongArray(TrafficClass.values().length);
+
+	/**
+	 * Initializes the global buckets (full) and the table of handshake buckets
+	 */
+	public RateLimiter() {
+		long now = System.nanoTime();
+		globalBuckets = new TokenBucket[TrafficClass.values().length];
+		for (TrafficClass type : TrafficClass.values())
+			globalBuckets[type.ordinal()] = new TokenBucket(type.globalRate, type.globalBurst, now);
+		handshakeBuckets = new LinkedHashMap<InetAddress, TokenBucket>(64, 0.75F, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<InetAddress, TokenBucket> eldest) {
+				return size() > MAX_TRACKED_SOURCES;
+			}
+		};
+	}
+
+	/**
+	 * Determines whether a packet of the provided class is admitted, consuming a token from both of its buckets if so
+	 * 
+	 * @param type The packet's {@link TrafficClass}
+	 * @param connection The connection the packet was attributed to, or null if it comes from an unknown source
+	 * @param source The IP address the packet was received from
+	 * @param now The time (as given by System.nanoTime()) at which the packet was received
+	 * @return 'true' iff the packet may be parsed and queued
+	 */
+	public boolean admit(TrafficClass type, Connection connection, InetAddress source, long now) {
+		TokenBucket bucket;
+		if (connection != null)
+			bucket = connection.getIngressBucket(type);
+		else {
+			bucket = handshakeBuckets.get(source);
+			if (bucket == null) {
+				bucket = new TokenBucket(type.sourceRate, type.sourceBurst, now);
+				handshakeBuckets.put(source, bucket);
+			}
+		}
+		if (!bucket.tryConsume(now)) {
+			sourceDrops.incrementAndGet(type.ordinal());
+			return false;
+		}
+		if (!globalBuckets[type.ordinal()].tryConsume(now)) {
+			globalDrops.incrementAndGet(type.ordinal());
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Creates a full set of per-source buckets for a newly established {@link Connection}
+	 * 
+	 * @param now The current time, as given by System.nanoTime()
+	 * @return The buckets, indexed by {@link TrafficClass} ordinal
+	 */
+	public static TokenBucket[] createSourceBuckets(long now) {
+		TokenBucket[] buckets = new TokenBucket[TrafficClass.values().length];
+		for (TrafficClass type : TrafficClass.values())
+			buckets[type.ordinal()] = new TokenBucket(type.sourceRate, type.sourceBurst, now);
+		return buckets;
+	}
+
+	/**
+	 * @param type A {@link TrafficClass}
+	 * @return The number of packets of that class dropped because their source exceeded its limit
+	 */
+	public long getSourceDrops(TrafficClass type) {
+		return sourceDrops.get(type.ordinal());
+	}
+
+	/**
+	 * @param type A {@link TrafficClass}
+	 * @return The number of packets of that class dropped because all sources combined exceeded the limit
+	 */
+	public long getGlobalDrops(TrafficClass type) {
+		return globalDrops.get(type.ordinal());
+	}
+}
@@ -0,0 +1,113 @@
+package com.veltro.blazingbarrels.server.connect;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+
+import com.veltro.blazingbarrels.server.BBServer;
+import com.veltro.blazingbarrels.server.connect.packet.BBPacket;
+import com.veltro.blazingbarrels.server.log.LogLevel;
+import com.veltro.blazingbarrels.server.log.ServerLog;
+
+/**
+ * The server's single-threaded run mode, in which the main thread does the work of the {@link ReceiverThread}, the
+ * {@link PacketManager} and the {@link SenderThread} in turn, over a single {@link Transport}. Each cycle is advanced,
+ * the packets queued are sent right away, and the time left until the next cycle is spent polling the transport: the
+ * datagrams arriving are processed as soon as they are read, and the replies they call for (such as cookie
+ * challenges) are sent at once. Nothing crosses threads but the packets queued by the console and the deauth tasks,
+ * which are sent along with the rest.<p>
+ *
+ * The receiver and the sender are used for their processing and encoding only, and are never started. Their queues
+ * merely carry packets between the phases of the loop, as the cycle drains and sorts the packets received before
+ * handling them. For small matches, this saves the hand-offs between threads and the core the sender would keep busy,
+ * so that many servers may share a host with a thread each.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public class Reactor {
+
+	/**
+	 * The transport over which datagrams are received and sent
+	 */
+	private final Transport transport;
+
+	/**
+	 * The receiver processing the datagrams received
+	 */
+	private final ReceiverThread receiver;
+
+	/**
+	 * The sender encoding and sending the packets queued
+	 */
+	private final SenderThread sender;
+
+	/**
+	 * The reusable packets into which datagrams are received
+	 */
+	private final DatagramPacket[] batch = new DatagramPacket[ReceiverThread.RECEIVE_BATCH];
+
+	/**
+	 * @param transport The transport over which datagrams are received and sent
+	 * @param receiver A receiver over the same transport, not started
+	 * @param sender A sender over the same transport, not started
+	 */
+	public Reactor(Transport transport, ReceiverThread receiver, SenderThread sender) {
+		this.transport = transport;
+		this.receiver = receiver;
+		this.sender = sender;
+		for (int i = 0; i < batch.length; i++) {
+			byte[] buffer = new byte[BBServer.getConfig().getMaxDatagramSize()]; // Reused: packets copy what they keep
+			batch[i] = new DatagramPacket(buffer, buffer.length);
+		}
+	}
+
+	/**
+	 * Executes a cycle, sends what it queued, then receives and processes datagrams until the next cycle is due
+	 *
+	 * @see PacketManager Complete description of a cycle
+	 */
+	public void runCycle() {
+		long deadline = System.nanoTime() + PacketManager.CYCLE_LENGTH * 1000000L;
+		BBServer.getPacketManager().advance();
+		flush();
+		ServerMetrics metrics = BBServer.getMetrics();
+		while (true) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0)
+				break;
+			int count;
+			try {
+				count = transport.poll(batch, remaining);
+			} catch (IOException e) {
+				if (!transport.isOpen())
+					break;
+				ServerLog.log(LogLevel.WARNING, "Failed to receive: {}", e.getMessage());
+				continue;
+			}
+			long receiptTime = System.nanoTime();
+			for (int i = 0; i < count; i++) {
+				receiver.process(batch[i], receiptTime);
+				long now = System.nanoTime();
+				metrics.recordReceiveTime(now - receiptTime);
+				receiptTime = now;
+			}
+			flush();
+		}
+	}
+
+	/**
+	 * Sends every packet queued
+	 */
+	private void flush() {
+		BBPacket packet;
+		while ((packet = sender.outgoingPacketQueue.poll()) != null)
+			sender.send(packet, true);
+	}
+
+	/**
+	 * Closes the transport, as the receiver and sender would when terminating
+	 */
+	public void close() {
+		transport.close();
+	}
+}
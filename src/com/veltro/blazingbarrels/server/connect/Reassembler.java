@@ -0,0 +1,280 @@
+package com.veltro.blazingbarrels.server.connect;
+
+import java.net.SocketAddress;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reassembles the messages that clients split into fragments (see {@link Fragmenter} for the fragment format). The
+ * fragments of each message are buffered, keyed by source address and message ID, until all of them have arrived, at
+ * which point the reassembled message is returned for processing as a single datagram.<p>
+ *
+ * Incomplete messages are discarded once they are {@value #TIMEOUT} nanoseconds old. At most
+ * {@value #MAX_PENDING_PER_SOURCE} messages from the same source are buffered at any time, the source's oldest being
+ * discarded to make room for a new one, so a client sending fragments that never complete only ever evicts its own
+ * messages. Overall, at most {@value #MAX_PENDING} messages are buffered, which bounds the memory the server holds on
+ * to whatever the number of sources. Since messages are buffered in order of arrival, expired ones are found without
+ * scanning the others.<p>
+ *
+ * Reassemblers are not thread-safe; the server's is only used by the {@link ReceiverThread}. Its counters may be read
+ * from any thread.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public class Reassembler {
+
+	/**
+	 * The amount of time, in nanoseconds, after which an incomplete message is discarded (one second)
+	 */
+	public static final long TIMEOUT = 1000000000L;
+
+	/**
+	 * The maximum number of incomplete messages buffered at any time
+	 */
+	public static final int MAX_PENDING = 64;
+
+	/**
+	 * The maximum number of incomplete messages from a single source buffered at any time
+	 */
+	public static final int MAX_PENDING_PER_SOURCE = 4;
+
+	/**
+	 * The incomplete messages, in order of arrival of their first fragment
+	 */
+	private LinkedHashMap<Key, Message> pending = new LinkedHashMap<Key, Message>();
+
+	/**
+	 * The number of incomplete messages from each source with any buffered
+	 */
+	private HashMap<SocketAddress, Integer> pendingBySource = new HashMap<SocketAddress, Integer>();
+
+	/**
+	 * The number of messages that have been reassembled
+	 */
+	private volatile long completed = 0;
+
+	/**
+	 * The number of incomplete messages that have been discarded
+	 */
+	private volatile long discarded = 0;
+
+	/**
+	 * The number of fragments that have been rejected for having a malformed or inconsistent header
+	 */
+	private volatile long rejected = 0;
+
+	/**
+	 * Buffers the provided fragment and, if it completes its message, reassembles the message
+	 *
+	 * @param source The socket address the fragment was received from
+	 * @param datagram The contents of the datagram containing the fragment, which starts with the fragment header
+	 * @param length The length of the datagram
+	 * @param now The time (as given by System.nanoTime()) at which the fragment was received
+	 * @return The reassembled message, or null if the message is not complete yet (or the fragment was rejected)
+	 */
+	public byte[] add(SocketAddress source, byte[] datagram, int length, long now) {
+		expire(now);
+
+		// Parse the "~<message ID>.<index>.<count> " header:
+		int[] fields = new int[3];
+		int i = 1;
+		for (int field = 0; field < 3; field++) {
+			int start = i;
+			for (; i < length && datagram[i] >= '0' && datagram[i] <= '9' && i - start < 5; i++)
+				fields[field] = fields[field] * 10 + datagram[i] - '0';
+			if (i == start || i == length || datagram[i] != (field < 2 ? '.' : ' ')) {
+				rejected++;
+				return null;
+			}
+			i++;
+		}
+		int messageID = fields[0], index = fields[1], count = fields[2];
+		if (count < 1 || count > Fragmenter.MAX_FRAGMENTS || index >= count) {
+			rejected++;
+			return null;
+		}
+
+		// Buffer the fragment:
+		Key key = new Key(source, messageID);
+		Message message = pending.get(key);
+		if (message == null) {
+			Integer sourcePending = pendingBySource.get(source);
+			if (sourcePending != null && sourcePending >= MAX_PENDING_PER_SOURCE) // Discard the source's oldest
+				discardOldest(source);
+			else if (pending.size() >= MAX_PENDING) // Make room by discarding the oldest message
+				discardOldest(null);
+			message = new Message(count, now);
+			pending.put(key, message);
+			count(source, 1);
+		} else if (message.fragments.length != count) {
+			rejected++;
+			return null;
+		}
+		if (message.fragments[index] == null) {
+			byte[] fragment = new byte[length - i];
+			System.arraycopy(datagram, i, fragment, 0, fragment.length);
+			message.fragments[index] = fragment;
+			message.received++;
+			message.size += fragment.length;
+		}
+		if (message.received < count)
+			return null;
+
+		// Reassemble the message:
+		pending.remove(key);
+		count(source, -1);
+		byte[] reassembled = new byte[message.size];
+		int offset = 0;
+		for (byte[] fragment : message.fragments) {
+			System.arraycopy(fragment, 0, reassembled, offset, fragment.length);
+			offset += fragment.length;
+		}
+		completed++;
+		return reassembled;
+	}
+
+	/**
+	 * Discards the incomplete messages that have timed out
+	 *
+	 * @param now The current time, as given by System.nanoTime()
+	 */
+	private void expire(long now) {
+		Iterator<Map.Entry<Key, Message>> messages = pending.entrySet().iterator();
+		while (messages.hasNext()) {
+			Map.Entry<Key, Message> entry = messages.next();
+			if (now - entry.getValue().firstArrival <= TIMEOUT)
+				break;
+			messages.remove();
+			count(entry.getKey().source, -1);
+			discarded++;
+		}
+	}
+
+	/**
+	 * Discards the oldest incomplete message, from the provided source or from any
+	 *
+	 * @param source The source whose oldest message to discard, or null to discard the oldest message of all
+	 */
+	private void discardOldest(SocketAddress source) {
+		Iterator<Key> keys = pending.keySet().iterator();
+		while (keys.hasNext()) {
+			Key key = keys.next();
+			if (source == null || key.source.equals(source)) {
+				keys.remove();
+				count(key.source, -1);
+				discarded++;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Adjusts the number of incomplete messages buffered from the provided source
+	 *
+	 * @param source The source
+	 * @param delta The change in the number of messages
+	 */
+	private void count(SocketAddress source, int delta) {
+		Integer current = pendingBySource.get(source);
+		int updated = (current == null ? 0 : current) + delta;
+		if (updated <= 0)
+			pendingBySource.remove(source);
+		else
+			pendingBySource.put(source, updated);
+	}
+
+	/**
+	 * @return The number of messages that have been reassembled
+	 */
+	public long getCompletedCount() {
+		return completed;
+	}
+
+	/**
+	 * @return The number of incomplete messages that have been discarded, for timing out or to make room
+	 */
+	public long getDiscardedCount() {
+		return discarded;
+	}
+
+	/**
+	 * @return The number of fragments that have been rejected for having a malformed or inconsistent header
+	 */
+	public long getRejectedCount() {
+		return rejected;
+	}
+
+	/**
+	 * An incomplete message
+	 */
+	private static class Message {
+
+		/**
+		 * The fragments received so far, indexed by position in the message (null for those yet to arrive)
+		 */
+		private final byte[][] fragments;
+
+		/**
+		 * The time (as given by System.nanoTime()) at which the first fragment of the message arrived
+		 */
+		private final long firstArrival;
+
+		/**
+		 * The number of fragments received so far
+		 */
+		private int received = 0;
+
+		/**
+		 * The combined length of the fragments received so far
+		 */
+		private int size = 0;
+
+		/**
+		 * @param count The number of fragments the message is split into
+		 * @param firstArrival The time at which the first fragment arrived
+		 */
+		private Message(int count, long firstArrival) {
+			fragments = new byte[count][];
+			this.firstArrival = firstArrival;
+		}
+	}
+
+	/**
+	 * Identifies a message: the socket address it comes from and its ID
+	 */
+	private static class Key {
+
+		/**
+		 * The socket address the message comes from
+		 */
+		private final SocketAddress source;
+
+		/**
+		 * The message's ID
+		 */
+		private final int messageID;
+
+		/**
+		 * @param source The socket address the message comes from
+		 * @param messageID The message's ID
+		 */
+		private Key(SocketAddress source, int messageID) {
+			this.source = source;
+			this.messageID = messageID;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key other = (Key) o;
+			return messageID == other.messageID && source.equals(other.source);
+		}
+
+		public int hashCode() {
+			return source.hashCode() * 31 + messageID;
+		}
+	}
+}
@@ -1,191 +1,516 @@
 package com.veltro.blazingbarrels.server.connect;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.SocketException;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
+import com.veltro.blazingbarrels.server.BBServer;
 import com.veltro.blazingbarrels.server.connect.packet.BBPacket;
 import com.veltro.blazingbarrels.server.connect.packet.Packet00AuthRequest;
+import com.veltro.blazingbarrels.server.connect.packet.Packet01AuthResponse;
+import com.veltro.blazingbarrels.server.connect.packet.Packet04Pong;
+import com.veltro.blazingbarrels.server.connect.packet.Packet05Ack;
 import com.veltro.blazingbarrels.server.connect.packet.Packet20PlayerJoin;
 import com.veltro.blazingbarrels.server.connect.packet.Packet22PlayerDisconnect;
 import com.veltro.blazingbarrels.server.connect.packet.Packet30PlayerUpdate;
 import com.veltro.blazingbarrels.server.connect.packet.Packet40WeaponFire;
 import com.veltro.blazingbarrels.server.game.Location3D;
 import com.veltro.blazingbarrels.server.game.WeaponType;
+import com.veltro.blazingbarrels.server.jfr.PacketReceivedEvent;
+import com.veltro.blazingbarrels.server.log.LogLevel;
+import com.veltro.blazingbarrels.server.log.ServerLog;
 
 /**
- * A thread dedicated to receiving Datagram packets over a network socket. While running, this thread receives Datagram
- * packets, constructs BBPackets from them, and adds the resulting objects to the {@link #incomingPacketQueue}
+ * A thread dedicated to receiving Datagram packets over a network socket (or another {@link Transport}). While
+ * running, this thread receives Datagram packets, in batches where the transport allows it, constructs BBPackets from
+ * them, and adds the resulting objects to the {@link #incomingPacketQueue}.<p>
+ * 
+ * The packet ID may be preceded by the {@link BBPacket reliability headers} of the client's {@link ReliableChannel},
+ * which are stored in the resulting packet for the {@link PacketManager} to process. Packets sent by players that have
+ * joined may identify the player by the session ID issued upon authorization ("@" followed by the ID) rather than by
+ * name.<p>
+ * 
+ * Each datagram is attributed to the {@link Connection} registered for its source address in the
+ * {@link ConnectionTable} as soon as it arrives. Datagrams from unknown sources are discarded without being parsed,
+ * unless they are authorization or join requests, and so are datagrams rejected by the {@link #rateLimiter} based on
+ * the packet ID they start with. Authorization requests from unknown sources are only queued if they echo a valid
+ * cookie; otherwise the client is challenged with one right away, without anything being queued or retained.<p>
+ * 
+ * While a {@link TrafficCapture} is in progress, every datagram is appended to it as soon as it arrives.<p>
+ * 
+ * Packets sent in fragments (see {@link Fragmenter}) are passed to the {@link #reassembler} and processed once they
+ * are complete. The packets admitted, the datagrams discarded for being malformed and the time taken to process each
+ * datagram are recorded in the server's {@link ServerMetrics}, which may select packets for
+ * {@link PacketTracer tracing}, and a sample of the packets admitted is recorded by
+ * the Flight Recorder as {@link PacketReceivedEvent}s.
  * 
  * @author LinearLogic
  * @since 0.0.4
  */
 public class ReceiverThread extends Thread {
 
+	/**
+	 * The size, in bytes, of the socket's receive buffer requested from the operating system, which lets bursts of
+	 * datagrams (such as the fragments of a message) queue up while the thread is busy
+	 */
+	public static final int SOCKET_BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * The maximum number of datagrams received at once
+	 */
+	public static final int RECEIVE_BATCH = 32;
+
 	/**
 	 * Status flag for the loop. If set to false, causes the thread to complete its {@link #run()} method and terminate
 	 */
-	private boolean running = false;
+	private volatile boolean running = false;
 
 	/**
-	 * The internet socket over which to send packets in the {@link #packetQueue}
+	 * The transport over which datagrams are received
 	 */
-	private DatagramSocket socket = null;
+	private final Transport transport;
 
 	/**
 	 * A queue (first in - first out list) of the packets to be sent over the internet
 	 */
 	public ConcurrentLinkedQueue<BBPacket> incomingPacketQueue;
 
+	/**
+	 * Limits the rate at which packets are accepted, per source and overall
+	 */
+	private RateLimiter rateLimiter = new RateLimiter();
+
+	/**
+	 * Generates and verifies the cookies that clients without a connection must echo in their authorization requests
+	 */
+	private CookieGenerator cookies = new CookieGenerator();
+
+	/**
+	 * Reassembles the packets that clients send in fragments
+	 */
+	private Reassembler reassembler = new Reassembler();
+
+	/**
+	 * The capture to which every datagram received is appended, or null if traffic is not being captured
+	 */
+	private volatile TrafficCapture capture = null;
+
 	/**
 	 * Passes the thread's name to the superclass constructor, attempts to open a DatagramSocket on the provided port,
 	 * and initializes the {@link #incomingPacketQueue}
 	 * 
 	 * @param port The port on which to open a DatagramSocket to receive incoming DatagramPackets
-	 * @throws SocketException Thrown if the server failed to bind to the provided port
+	 * @throws IOException Thrown if the server failed to bind to the provided port
+	 * @throws SecurityException Thrown if a security manager blocks the creation of this thread (should never happen)
+	 */
+	public ReceiverThread(int port) throws IOException, SecurityException {
+		this(new UdpTransport(port, SOCKET_BUFFER_SIZE));
+	}
+
+	/**
+	 * Passes the thread's name to the superclass constructor and initializes the {@link #incomingPacketQueue}
+	 * 
+	 * @param transport The transport over which to receive datagrams, which is closed when the thread is
+	 * {@link #terminate() terminated}
 	 * @throws SecurityException Thrown if a security manager blocks the creation of this thread (should never happen)
 	 */
-	public ReceiverThread(int port) throws SocketException, SecurityException {
+	public ReceiverThread(Transport transport) throws SecurityException {
 		super("ReceiverThread");
-		socket = new DatagramSocket(port);
+		this.transport = transport;
 		incomingPacketQueue = new ConcurrentLinkedQueue<BBPacket>();
+		running = true;
 	}
 
 	/**
-	 * The thread listens for incoming DatagramPackets arriving over the socket, casts them to BBPacket subclass
+	 * The thread listens for incoming DatagramPackets arriving over the transport, casts them to BBPacket subclass
 	 * objects, and adds them to the {@link #incomingPacketQueue}
 	 */
 	public void run() {
+		DatagramPacket[] batch = new DatagramPacket[RECEIVE_BATCH]; // Reused, as packets copy what they keep
+		for (int i = 0; i < batch.length; i++) {
+			byte[] buffer = new byte[BBServer.getConfig().getMaxDatagramSize()];
+			batch[i] = new DatagramPacket(buffer, buffer.length);
+		}
+		ServerMetrics metrics = BBServer.getMetrics();
 		while (running) {
-			byte[] buffer = new byte[256];
-
-			// Receive the packet
-			DatagramPacket inbound = new DatagramPacket(buffer, buffer.length);
+			// Receive the packets
+			int count;
 			try {
-				socket.receive(inbound);
+				count = transport.receive(batch);
 			} catch (IOException e) {
+				if (!running || !transport.isOpen()) // Closed by terminate(), or from under the thread
+					break;
+				ServerLog.log(LogLevel.WARNING, "Failed to receive: {}", e.getMessage());
 				continue;
 			}
 
-			
-			// Unpack the packet's contents
-			String[] data = new String(inbound.getData(), 0, inbound.getLength()).split("\\s+", 2);
-			if (data.length <= 1) // No packet data beyond an ID has been supplied - discard packet
-				continue;
-			int id;
+			long receiptTime = System.nanoTime();
+			for (int i = 0; i < count; i++) {
+				process(batch[i], receiptTime);
+				long now = System.nanoTime();
+				metrics.recordReceiveTime(now - receiptTime);
+				receiptTime = now;
+			}
+		}
+	}
+
+	/**
+	 * Processes a datagram received by the server: attributes it to its connection, reassembles it if it is a
+	 * fragment (each fragment being charged to its source's {@link TrafficClass#FRAGMENT} allowance before it is
+	 * buffered), applies the {@link #rateLimiter}, parses it into a BBPacket and adds the result to the
+	 * {@link #incomingPacketQueue}. Called for each datagram received by the thread, and for the synthetic datagrams
+	 * of the {@link WarmUp}.
+	 * 
+	 * @param inbound The datagram, whose data starts at offset 0
+	 * @param receiptTime The time (as given by System.nanoTime()) at which the datagram was received
+	 */
+	void process(DatagramPacket inbound, long receiptTime) {
+		ConnectionTable connections = BBServer.getPacketManager().getConnectionTable();
+		ServerMetrics metrics = BBServer.getMetrics();
+		byte[] buffer = inbound.getData();
+		TrafficCapture activeCapture = capture;
+		if (activeCapture != null) {
 			try {
-				id = Integer.parseInt(data[0]);
-			} catch (NumberFormatException e) { // Invalid packet format - discard packet
-				continue;
+				activeCapture.record(buffer, inbound.getLength(), inbound.getAddress(), inbound.getPort(),
+						receiptTime);
+			} catch (IOException e) {
+				ServerLog.log(LogLevel.WARNING, "Traffic capture failed: {}", e.getMessage());
+				stopCapture();
 			}
-			data = data[1].split("\\s+");
-			BBPacket received = null;;
-
-			switch(id) { // Only the id values of packets that the server should normally receive are handled
-			
-				// Packet00AuthRequest
-				case 0:
-					received = new Packet00AuthRequest(data[0], (data.length >= 2 ? data[1].trim() : ""),
-							inbound.getAddress(), inbound.getPort());
-					break;
+		}
+		Connection connection = connections.get(inbound.getSocketAddress());
+		if (connection != null)
+			connection.recordReceived(inbound.getLength(), receiptTime);
+		byte[] payload = buffer;
+		int length = inbound.getLength();
+		if (length > 0 && buffer[0] == '~') { // A fragment of a larger packet
+			if (connection == null) {
+				connections.recordUnknownSourceDrop();
+				return;
+			}
+			if (!rateLimiter.admit(TrafficClass.FRAGMENT, connection, inbound.getAddress(), receiptTime))
+				return;
+			payload = reassembler.add(inbound.getSocketAddress(), buffer, length, receiptTime);
+			if (payload == null) // The packet is incomplete
+				return;
+			length = payload.length;
+		}
+		int peekedID = peekPacketID(payload, length);
+		TrafficClass trafficClass = TrafficClass.fromPacketID(peekedID);
+		if (connection == null && trafficClass != TrafficClass.HANDSHAKE) {
+			connections.recordUnknownSourceDrop();
+			return;
+		}
+		if (trafficClass == TrafficClass.INVALID ||
+				!rateLimiter.admit(trafficClass, connection, inbound.getAddress(), receiptTime))
+			return;
+		metrics.recordReceived(peekedID, length);
+		PacketReceivedEvent.sample(peekedID, length, inbound.getAddress(), inbound.getPort());
 
-				// Packet20PlayerJoin
-				case 20:
-					received = new Packet20PlayerJoin(data[0], (data.length >= 2 && data[1].equalsIgnoreCase("s") ?
-							true : false), inbound.getAddress(), inbound.getPort());
-					break;
+		// Unpack the packet's contents
+		String[] data = new String(payload, 0, length).split("\\s+", 2);
+		int sequence = -1, ack = -1, ackBits = 0;
+		while (data != null && data.length > 1 && (data[0].startsWith("#") || data[0].startsWith("!"))) {
+			try {
+				if (data[0].charAt(0) == '#')
+					sequence = Integer.parseInt(data[0].substring(1));
+				else {
+					int separator = data[0].indexOf('.');
+					ack = Integer.parseInt(data[0].substring(1, separator));
+					ackBits = (int) Long.parseLong(data[0].substring(separator + 1), 16);
+				}
+			} catch (RuntimeException e) { // Malformed reliability header - discard packet
+				data = null;
+				break;
+			}
+			data = data[1].split("\\s+", 2);
+		}
+		if (data == null || data.length <= 1) { // No packet data beyond an ID has been supplied - discard packet
+			metrics.recordMalformedDrop();
+			return;
+		}
+		int id;
+		try {
+			id = Integer.parseInt(data[0]);
+		} catch (NumberFormatException e) { // Invalid packet format - discard packet
+			metrics.recordMalformedDrop();
+			return;
+		}
+		data = data[1].split("\\s+");
+		int sessionID = (id == 0 || id == 20) ? -1 : parseSessionID(data[0]);
+		String username = sessionID < 0 ? data[0] : null;
+		BBPacket received = null;
 
-				// Packet22PlayerDisconnect
-				case 22:
-					int reasonID = 0;
-					if (data.length >= 2) {
-						try {
-							reasonID = Integer.parseInt(data[1]);
-						} catch (NumberFormatException e) {
-							break;
-						}
-						if (reasonID < 0 || reasonID > 2)
-							reasonID = 0;
-					}
-					received = new Packet22PlayerDisconnect(data[0], reasonID, inbound.getAddress(), inbound.getPort());
+		switch(id) { // Only the id values of packets that the server should normally receive are handled
+		
+			// Packet00AuthRequest
+			case 0:
+				String password = "", cookie = null;
+				boolean compression = false;
+				for (int i = 1; i < data.length; i++) { // Options are prefixed with '+'
+					if (data[i].startsWith("+c:"))
+						cookie = data[i].substring(3);
+					else if (data[i].equals("+z"))
+						compression = true;
+					else if (!data[i].startsWith("+") && password.equals(""))
+						password = data[i];
+				}
+				if (connection == null && !cookies.verify(cookie, inbound.getAddress(), inbound.getPort(),
+						receiptTime)) { // Challenge the client to prove that it can receive at its address
+					BBServer.getSenderDaemon().outgoingPacketQueue.add(new Packet01AuthResponse(data[0],
+							cookies.generate(inbound.getAddress(), inbound.getPort(), receiptTime),
+							inbound.getAddress(), inbound.getPort()));
+					return;
+				}
+				received = new Packet00AuthRequest(data[0], password, compression, inbound.getAddress(),
+						inbound.getPort());
+				break;
+
+			// Packet04Pong
+			case 4:
+				if (data.length != 2)
+					break;
+				int pingSequence;
+				try {
+					pingSequence = Integer.parseInt(data[1]);
+				} catch (NumberFormatException e) {
 					break;
+				}
+				received = new Packet04Pong(username, pingSequence, inbound.getAddress(), inbound.getPort());
+				break;
 
-				// Packet30PlayerUpdate
-				case 30:
-					if (data.length < 2 || data.length > 7) { // Too many updates - or none, have been specified
-						break;
-					}
-					Packet30PlayerUpdate update = new Packet30PlayerUpdate(data[0]);
-					update.setAddress(inbound.getAddress());
-					update.setPort(inbound.getPort());
-					for (int i = 1; i < data.length; i++) {
-						String flag = data[i];
-						switch(flag.charAt(0)) {
-							case 'l':
-								update.setLocation(new Location3D(flag.substring(1)));
-								break;
-							case 'h':
-								try {
-									update.setHealth(Integer.parseInt(flag.substring(1)));
-								} catch (NumberFormatException e) {
-									break;
-								}
-								break;
-							case 'a':
-								update.toggleAdminStatus();
-								break;
-							case 'f':
-								update.toggleFlymode();
-								break;
-							case 'g':
-								update.toggleGodMode();
-								break;
-							case 'v':
-								update.toggleVisibility();
-								break;
-							default:
-								break;
-						}
-					}
-					update.updateData();
-					received = update;
+			// Packet05Ack
+			case 5:
+				if (data.length != 3)
+					break;
+				int explicitAck, explicitAckBits;
+				try {
+					explicitAck = Integer.parseInt(data[1]);
+					explicitAckBits = (int) Long.parseLong(data[2], 16);
+				} catch (NumberFormatException e) {
 					break;
+				}
+				received = new Packet05Ack(username, explicitAck, explicitAckBits, inbound.getAddress(),
+						inbound.getPort());
+				received.setAck(explicitAck, explicitAckBits);
+				break;
 
-				// Packet40WeaponFire
-				case 40:
-					if (data.length != 3) // Invalid packet contents
-						break;
-					int weaponTypeID;
+			// Packet20PlayerJoin
+			case 20:
+				received = new Packet20PlayerJoin(data[0], (data.length >= 2 && data[1].equalsIgnoreCase("s") ?
+						true : false), inbound.getAddress(), inbound.getPort());
+				break;
+
+			// Packet22PlayerDisconnect
+			case 22:
+				int reasonID = 0;
+				if (data.length >= 2) {
 					try {
-						weaponTypeID = Integer.parseInt(data[2]);
+						reasonID = Integer.parseInt(data[1]);
 					} catch (NumberFormatException e) {
 						break;
 					}
-					WeaponType type = WeaponType.getTypeFromID(weaponTypeID);
-					if (type == null)
-						break;
-					received = new Packet40WeaponFire(data[0], new Location3D(data[1]), type, inbound.getAddress(),
-							inbound.getPort());
+					if (reasonID < 0 || reasonID > 2)
+						reasonID = 0;
+				}
+				received = new Packet22PlayerDisconnect(username, reasonID, inbound.getAddress(),
+						inbound.getPort());
+				break;
+
+			// Packet30PlayerUpdate
+			case 30:
+				if (data.length < 2 || data.length > 7) { // Too many updates - or none, have been specified
 					break;
+				}
+				Packet30PlayerUpdate update = new Packet30PlayerUpdate(username);
+				update.setAddress(inbound.getAddress());
+				update.setPort(inbound.getPort());
+				for (int i = 1; i < data.length; i++) {
+					String flag = data[i];
+					switch(flag.charAt(0)) {
+						case 'l':
+							update.setLocation(new Location3D(flag.substring(1)));
+							break;
+						case 'h':
+							try {
+								update.setHealth(Integer.parseInt(flag.substring(1)));
+							} catch (NumberFormatException e) {
+								break;
+							}
+							break;
+						case 'a':
+							update.toggleAdminStatus();
+							break;
+						case 'f':
+							update.toggleFlymode();
+							break;
+						case 'g':
+							update.toggleGodMode();
+							break;
+						case 'v':
+							update.toggleVisibility();
+							break;
+						default:
+							break;
+					}
+				}
+				update.updateData();
+				received = update;
+				break;
 
-				default:
+			// Packet40WeaponFire
+			case 40:
+				if (data.length != 3) // Invalid packet contents
+					break;
+				int weaponTypeID;
+				try {
+					weaponTypeID = Integer.parseInt(data[2]);
+				} catch (NumberFormatException e) {
 					break;
+				}
+				WeaponType type = WeaponType.getTypeFromID(weaponTypeID);
+				if (type == null)
+					break;
+				received = new Packet40WeaponFire(username, new Location3D(data[1]), type, inbound.getAddress(),
+						inbound.getPort());
+				break;
+
+			default:
+				break;
+		}
+		if (received == null) { // Invalid packet contents
+			metrics.recordMalformedDrop();
+			return;
+		}
+		received.setReceiptTime(receiptTime);
+		received.setConnection(connection);
+		if (sessionID >= 0)
+			received.setSessionID(sessionID);
+		if (sequence >= 0)
+			received.setSequence(sequence);
+		if (ack >= 0)
+			received.setAck(ack, ackBits);
+		PacketTrace trace = metrics.getTracer().sample(id, inbound.getAddress(), inbound.getPort(), receiptTime);
+		if (trace != null) {
+			received.setTrace(trace);
+			trace.stamp(PacketTrace.Point.QUEUED);
+		}
+		incomingPacketQueue.add(received);
+	}
+
+	/**
+	 * Reads the ID of the packet contained in the provided datagram without parsing the rest of it, skipping any
+	 * reliability headers that precede the ID
+	 * 
+	 * @param buffer The contents of the datagram
+	 * @param length The length of the datagram
+	 * @return The packet ID, or -1 if the datagram does not start with a valid one
+	 */
+	private static int peekPacketID(byte[] buffer, int length) {
+		int i = 0;
+		while (i < length && (buffer[i] == '#' || buffer[i] == '!')) { // Skip the reliability headers
+			while (i < length && !isWhitespace(buffer[i]))
+				i++;
+			while (i < length && isWhitespace(buffer[i]))
+				i++;
+		}
+		int id = 0, digits = 0;
+		for (; i < length && buffer[i] >= '0' && buffer[i] <= '9'; i++)
+			if (++digits > 2) // No packet ID has more than two digits
+				return -1;
+			else
+				id = id * 10 + buffer[i] - '0';
+		if (digits == 0 || i == length || !isWhitespace(buffer[i]))
+			return -1;
+		return id;
+	}
+
+	/**
+	 * @param b A byte of a datagram
+	 * @return 'true' iff the byte is a whitespace character, as matched by "\\s" in a regular expression
+	 */
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+	}
+
+	/**
+	 * Parses the session ID a client may identify its player with in place of the player's name
+	 * 
+	 * @param token The first token of the packet's data
+	 * @return The session ID, or -1 if the token is not a session ID (in which case it is the player's name)
+	 */
+	private static int parseSessionID(String token) {
+		if (token.length() < 2 || token.charAt(0) != '@')
+			return -1;
+		try {
+			return Integer.parseInt(token.substring(1));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @return The {@link RateLimiter} applied to incoming packets
+	 */
+	public RateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+
+	/**
+	 * Starts capturing the datagrams received to the provided file
+	 * 
+	 * @param file The file to write the {@link TrafficCapture} to, which is overwritten if it exists
+	 * @throws IllegalStateException Thrown if a capture is already in progress
+	 * @throws IOException Thrown if the file cannot be created
+	 */
+	public synchronized void startCapture(File file) throws IOException {
+		if (capture != null)
+			throw new IllegalStateException("A capture is already in progress");
+		capture = new TrafficCapture(file, System.nanoTime());
+	}
+
+	/**
+	 * Stops the capture in progress, if any, and closes its file
+	 * 
+	 * @return The capture stopped, or null if none was in progress
+	 */
+	public synchronized TrafficCapture stopCapture() {
+		TrafficCapture stopped = capture;
+		capture = null;
+		if (stopped != null) {
+			try {
+				stopped.close();
+			} catch (IOException e) {
+				ServerLog.log(LogLevel.WARNING, "Failed to finish writing the traffic capture: {}", e.getMessage());
 			}
-			if (received != null)
-				incomingPacketQueue.add(received);
 		}
-		socket.close();
+		return stopped;
+	}
+
+	/**
+	 * @return The {@link Reassembler} of fragmented packets
+	 */
+	public Reassembler getReassembler() {
+		return reassembler;
+	}
+
+	/**
+	 * Discards the packets queued and the state kept about the sources of the datagrams processed so far (their rate
+	 * limits and incomplete messages), as is done once the {@link WarmUp} is over
+	 */
+	public void reset() {
+		incomingPacketQueue.clear();
+		rateLimiter = new RateLimiter();
+		reassembler = new Reassembler();
 	}
 
 	/**
-	 * Causes the main loop in the {@link #run()} method to exit; as a result, the thread completes its execution. Note
-	 * that this is not a guaranteed way to instantly terminate the thread, as its execution pauses until it receives a
-	 * packet. This is not really an issue, however, as this method is only called when the server in its entirety is
-	 * shutting down.
+	 * Causes the main loop in the {@link #run()} method to exit; as a result, the thread completes its execution. The
+	 * transport is closed, which wakes the thread up if it is waiting to receive.
 	 */
 	public void terminate() {
 		running = false;
+		transport.close();
 	}
 }
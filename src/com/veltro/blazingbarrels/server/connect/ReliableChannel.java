@@ -0,0 +1,364 @@
+package com.veltro.blazingbarrels.server.connect;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.veltro.blazingbarrels.server.BBServer;
+import com.veltro.blazingbarrels.server.connect.packet.BBPacket;
+import com.veltro.blazingbarrels.server.connect.packet.Packet05Ack;
+
+/**
+ * A lightweight reliable, ordered channel layered on top of the UDP link to a single client. Packets sent over the
+ * channel (those whose {@link BBPacket#isReliable()} method returns 'true') are tagged with a sequence number and kept
+ * until the client acknowledges them, and are retransmitted whenever their acknowledgment is overdue. Packets received
+ * with a sequence number are acknowledged and released to the server in sequence order, exactly once.<p>
+ *
+ * Acknowledgments are piggybacked on whatever packets are sent in the opposite direction, in the form of the latest
+ * sequence number received plus a bitfield covering the {@value #ACK_BITS} sequence numbers before it, so a single lost
+ * acknowledgment rarely causes a retransmission. If nothing is sent to the client before the end of a cycle, an
+ * explicit {@link Packet05Ack} carries the acknowledgment instead.<p>
+ *
+ * Like the rest of a {@link Connection}, the channel is only accessed by the thread running the {@link PacketManager}
+ * cycles.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public class ReliableChannel {
+
+	/**
+	 * The number of sequence numbers preceding the latest acknowledged one that are covered by the acknowledgment
+	 * bitfield. This is also the size of the window of sequence numbers that can await acknowledgment at any time;
+	 * packets sent while the oldest of them is still unacknowledged are held back until the window moves on.
+	 */
+	public static final int ACK_BITS = 32;
+
+	/**
+	 * The retransmission timeout, in milliseconds, used until the round-trip time of the link has been measured
+	 */
+	public static final int INITIAL_TIMEOUT = 500;
+
+	/**
+	 * The lower bound of the retransmission timeout, in milliseconds
+	 */
+	public static final int MIN_TIMEOUT = 100;
+
+	/**
+	 * The upper bound of the retransmission timeout, in milliseconds
+	 */
+	public static final int MAX_TIMEOUT = 3000;
+
+	/**
+	 * The number of times a packet is transmitted before the channel gives up on it, and on the link with it
+	 */
+	public static final int MAX_ATTEMPTS = 10;
+
+	/**
+	 * The connection the channel belongs to, used to obtain the round-trip time of the link
+	 */
+	private final Connection connection;
+
+	/**
+	 * The sequence number to assign to the next packet sent over the channel
+	 */
+	private int nextSequence = 0;
+
+	/**
+	 * The packets awaiting acknowledgment, indexed by sequence number modulo {@value #ACK_BITS}
+	 */
+	private Outstanding[] outstanding = new Outstanding[ACK_BITS];
+
+	/**
+	 * The number of packets awaiting acknowledgment
+	 */
+	private int outstandingCount = 0;
+
+	/**
+	 * The packets held back because the window of unacknowledged packets was full
+	 */
+	private ArrayDeque<BBPacket> backlog = new ArrayDeque<BBPacket>();
+
+	/**
+	 * The highest sequence number received from the client (-1 if none has been received)
+	 */
+	private int remoteSequence = -1;
+
+	/**
+	 * The acknowledgment bitfield for the {@value #ACK_BITS} sequence numbers before the {@link #remoteSequence}: bit
+	 * n is set iff the packet numbered remoteSequence - n - 1 has been received
+	 */
+	private int receivedBits = 0;
+
+	/**
+	 * The sequence number of the next packet to be released to the server
+	 */
+	private int nextDelivery = 0;
+
+	/**
+	 * Packets received ahead of the {@link #nextDelivery next one due}, indexed by sequence number modulo
+	 * {@value #ACK_BITS}
+	 */
+	private BBPacket[] held = new BBPacket[ACK_BITS];
+
+	/**
+	 * Whether a packet has been received from the client since the last acknowledgment was sent to it
+	 */
+	private boolean ackPending = false;
+
+	/**
+	 * The number of packets that have been retransmitted over the channel
+	 */
+	private long retransmissions = 0;
+
+	/**
+	 * Whether a packet has gone unacknowledged after {@value #MAX_ATTEMPTS} transmissions, in which case the client is
+	 * presumed gone: the client could never receive the packets sent after it, so nothing more is sent
+	 */
+	private boolean failed = false;
+
+	/**
+	 * @param connection The {@link Connection} the channel belongs to
+	 */
+	public ReliableChannel(Connection connection) {
+		this.connection = connection;
+	}
+
+	/**
+	 * Assigns the provided packet the next sequence number and queues it for transmission, or holds it back if the
+	 * window of unacknowledged packets is full
+	 *
+	 * @param packet A packet addressed to the client, which must not be shared with other recipients
+	 */
+	public void send(BBPacket packet) {
+		if (failed)
+			return;
+		backlog.add(packet);
+		sendBacklog(System.nanoTime());
+	}
+
+	/**
+	 * Assigns sequence numbers to the packets held back and transmits them, for as long as the window allows
+	 *
+	 * @param now The current time, as given by System.nanoTime()
+	 */
+	private void sendBacklog(long now) {
+		while (!backlog.isEmpty() && outstanding[nextSequence % ACK_BITS] == null) {
+			BBPacket packet = backlog.poll();
+			int sequence = nextSequence;
+			nextSequence = (nextSequence + 1) & Integer.MAX_VALUE;
+			packet.setSequence(sequence);
+			outstanding[sequence % ACK_BITS] = new Outstanding(packet, sequence);
+			outstandingCount++;
+			transmit(outstanding[sequence % ACK_BITS], now);
+		}
+	}
+
+	/**
+	 * Processes an acknowledgment from the client, releasing every acknowledged packet. The round-trip time of packets
+	 * acknowledged after their first transmission is passed on to the {@link Connection}; retransmitted packets are
+	 * ignored in that respect, as there is no telling which transmission the acknowledgment is for.
+	 *
+	 * @param ack The highest sequence number received by the client
+	 * @param ackBits The client's acknowledgment bitfield for the sequence numbers before ack
+	 * @param receiptTime The time (as given by System.nanoTime()) at which the acknowledgment was received
+	 */
+	public void acknowledge(int ack, int ackBits, long receiptTime) {
+		release(ack, receiptTime);
+		for (int i = 0; i < ACK_BITS; i++)
+			if ((ackBits & (1 << i)) != 0)
+				release(ack - i - 1, receiptTime);
+		sendBacklog(receiptTime);
+	}
+
+	/**
+	 * Releases the packet with the provided sequence number, if it is still awaiting acknowledgment
+	 *
+	 * @param sequence The acknowledged sequence number
+	 * @param receiptTime The time (as given by System.nanoTime()) at which the acknowledgment was received
+	 */
+	private void release(int sequence, long receiptTime) {
+		if (sequence < 0)
+			return;
+		Outstanding entry = outstanding[sequence % ACK_BITS];
+		if (entry == null || entry.sequence != sequence)
+			return;
+		if (entry.attempts == 1)
+			connection.recordRoundTrip((receiptTime - entry.sentTime) / 1000000F);
+		outstanding[sequence % ACK_BITS] = null;
+		outstandingCount--;
+	}
+
+	/**
+	 * Retransmits every packet whose acknowledgment is overdue. The timeout is derived from the link's round-trip time
+	 * and doubled with every attempt (up to {@value #MAX_TIMEOUT} milliseconds). Once a packet has been sent
+	 * {@value #MAX_ATTEMPTS} times, the channel {@link #isFailed() fails} rather than leave a gap the client would wait
+	 * on forever.
+	 *
+	 * @param now The current time, as given by System.nanoTime()
+	 */
+	public void retransmitOverdue(long now) {
+		if (failed || outstandingCount == 0)
+			return;
+		long timeout = getTimeout() * 1000000L;
+		for (int i = 0; i < ACK_BITS; i++) {
+			Outstanding entry = outstanding[i];
+			if (entry == null || now - entry.sentTime < Math.min(timeout << (entry.attempts - 1),
+					MAX_TIMEOUT * 1000000L))
+				continue;
+			if (entry.attempts >= MAX_ATTEMPTS) { // The client is most likely gone
+				failed = true;
+				backlog.clear();
+				return;
+			}
+			retransmissions++;
+			transmit(entry, now);
+		}
+		sendBacklog(now);
+	}
+
+	/**
+	 * Queues a copy of the outstanding packet for transmission, piggybacking the current acknowledgment on it
+	 *
+	 * @param entry The packet to transmit
+	 * @param now The current time, as given by System.nanoTime()
+	 */
+	private void transmit(Outstanding entry, long now) {
+		entry.sentTime = now;
+		entry.attempts++;
+		BBPacket copy = entry.packet.addressedTo(entry.packet.getAddress(), entry.packet.getPort());
+		attachAck(copy);
+		connection.recordSent(copy.getLength());
+		BBServer.getSenderDaemon().outgoingPacketQueue.add(copy);
+	}
+
+	/**
+	 * @return The retransmission timeout, in milliseconds, computed from the link's round-trip time in the same way as
+	 * TCP's (RFC 6298) and clamped to [{@value #MIN_TIMEOUT}, {@value #MAX_TIMEOUT}]
+	 */
+	public int getTimeout() {
+		if (connection.getRoundTripTime() < 0)
+			return INITIAL_TIMEOUT;
+		int timeout = (int) (connection.getRoundTripTime() + 4 * connection.getRoundTripTimeVariation());
+		return Math.max(MIN_TIMEOUT, Math.min(timeout, MAX_TIMEOUT));
+	}
+
+	/**
+	 * Registers a packet received from the client with the provided sequence number and determines which packets can
+	 * now be released to the server. Duplicates are discarded, and packets that arrive ahead of one that is missing
+	 * are held back until the gap is filled. Packets too far ahead to be held are discarded without being
+	 * acknowledged, so that the client retransmits them once the gap has been filled.
+	 *
+	 * @param packet The packet received
+	 * @param sequence The packet's sequence number
+	 * @return The packets to handle, in sequence order (possibly none)
+	 */
+	public List<BBPacket> receive(BBPacket packet, int sequence) {
+		List<BBPacket> deliverable = new ArrayList<BBPacket>(1);
+		if (sequence >= nextDelivery && sequence - nextDelivery >= ACK_BITS) // Too far ahead to hold
+			return deliverable;
+		ackPending = true;
+		if (sequence > remoteSequence) {
+			int shift = sequence - remoteSequence;
+			receivedBits = shift >= ACK_BITS ? 0 : receivedBits << shift;
+			if (remoteSequence >= 0 && shift <= ACK_BITS)
+				receivedBits |= 1 << (shift - 1);
+			remoteSequence = sequence;
+		} else if (sequence < remoteSequence && remoteSequence - sequence <= ACK_BITS)
+			receivedBits |= 1 << (remoteSequence - sequence - 1);
+		if (sequence < nextDelivery) // Duplicate, acknowledged again in case the last acknowledgment was lost
+			return deliverable;
+		held[sequence % ACK_BITS] = packet;
+		while (held[nextDelivery % ACK_BITS] != null) {
+			deliverable.add(held[nextDelivery % ACK_BITS]);
+			held[nextDelivery % ACK_BITS] = null;
+			nextDelivery = (nextDelivery + 1) & Integer.MAX_VALUE;
+		}
+		return deliverable;
+	}
+
+	/**
+	 * Piggybacks the channel's acknowledgment on the provided outgoing packet, if anything has been received from the
+	 * client since the last acknowledgment was sent (so that the header is not repeated on every packet)
+	 *
+	 * @param packet A packet addressed to the client, which must not be shared with other recipients
+	 */
+	public void attachAck(BBPacket packet) {
+		if (!ackPending)
+			return;
+		packet.setAck(remoteSequence, receivedBits);
+		ackPending = false;
+	}
+
+	/**
+	 * Generates an explicit acknowledgment if packets have been received from the client since the last one was sent
+	 *
+	 * @return A {@link Packet05Ack} addressed to the client, or null if no acknowledgment is needed
+	 */
+	public Packet05Ack flushAck() {
+		if (!ackPending)
+			return null;
+		ackPending = false;
+		Packet05Ack ack = new Packet05Ack(null, remoteSequence, receivedBits, connection.getAddress(),
+				connection.getPort());
+		connection.recordSent(ack.getLength());
+		return ack;
+	}
+
+	/**
+	 * @return The number of packets sent over the channel that have yet to be acknowledged (including those held back)
+	 */
+	public int getUnacknowledgedCount() {
+		return outstandingCount + backlog.size();
+	}
+
+	/**
+	 * @return The number of packets that have been retransmitted over the channel
+	 */
+	public long getRetransmissionCount() {
+		return retransmissions;
+	}
+
+	/**
+	 * @return 'true' iff a packet has gone unacknowledged after {@value #MAX_ATTEMPTS} transmissions, meaning the link
+	 * to the client is dead
+	 */
+	public boolean isFailed() {
+		return failed;
+	}
+
+	/**
+	 * A packet awaiting acknowledgment
+	 */
+	private static class Outstanding {
+
+		/**
+		 * The packet, with its sequence number assigned
+		 */
+		private final BBPacket packet;
+
+		/**
+		 * The packet's sequence number
+		 */
+		private final int sequence;
+
+		/**
+		 * The time (as given by System.nanoTime()) at which the packet was last transmitted
+		 */
+		private long sentTime;
+
+		/**
+		 * The number of times the packet has been transmitted
+		 */
+		private int attempts = 0;
+
+		/**
+		 * @param packet The packet awaiting acknowledgment
+		 * @param sequence The packet's sequence number
+		 */
+		private Outstanding(BBPacket packet, int sequence) {
+			this.packet = packet;
+			this.sequence = sequence;
+		}
+	}
+}
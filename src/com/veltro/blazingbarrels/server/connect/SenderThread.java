@@ -1,15 +1,25 @@
 package com.veltro.blazingbarrels.server.connect;
 
 import java.io.IOException;
-import java.net.DatagramSocket;
-import java.net.SocketException;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.util.List;
 
+import com.veltro.blazingbarrels.server.BBServer;
 import com.veltro.blazingbarrels.server.connect.packet.BBPacket;
+import com.veltro.blazingbarrels.server.jfr.PacketSentEvent;
+import com.veltro.blazingbarrels.server.log.LogLevel;
+import com.veltro.blazingbarrels.server.log.ServerLog;
 
 /**
- * A thread dedicated to sending Datagram packets to network addresses. While running, this thread waits for 
- * {@link BBPacket packets} to be added to the {@link #outgoingPacketQueue}
+ * A thread dedicated to sending Datagram packets to network addresses, over a UDP socket or another
+ * {@link Transport}. While running, this thread waits for 
+ * {@link BBPacket packets} to be added to the {@link #outgoingPacketQueue}. Packets destined for clients that opted in
+ * to compression are compressed by the {@link #compressor}, and packets larger than the configured maximum datagram
+ * size are then split into fragments by the {@link #fragmenter}. The packets sent, the time taken to send each of them
+ * and the packets that could not be sent are recorded in the server's {@link ServerMetrics}, and a sample of the
+ * packets sent is recorded by the Flight Recorder as {@link PacketSentEvent}s. The traces of
+ * {@link PacketTracer traced} packets are completed as they are sent.
  * 
  * @author LinearLogic
  * @since 0.0.3
@@ -19,28 +29,54 @@ public class SenderThread extends Thread {
 	/**
 	 * Status flag for the loop. If set to false, causes the thread to complete its {@link #run()} method and terminate
 	 */
-	private boolean running = false;
+	private volatile boolean running = false;
 
 	/**
-	 * The internet socket over which to send packets in the {@link #packetQueue}
+	 * The transport over which to send packets in the {@link #outgoingPacketQueue}
 	 */
-	private DatagramSocket socket = null;
+	private final Transport transport;
 
 	/**
-	 * A queue (first in - first out list) of the packets to be sent over the internet
+	 * A queue (first in - first out list, save for superseded state updates) of the packets to be sent over the
+	 * internet
 	 */
-	public ConcurrentLinkedQueue<BBPacket> outgoingPacketQueue;
+	public OutgoingPacketQueue outgoingPacketQueue;
 
 	/**
-	 * Passes the thread's name to the superclass constructor and initializes the {@link #outgoingPacketQueue}
+	 * Splits packets too large for a single datagram into fragments
+	 */
+	private Fragmenter fragmenter;
+
+	/**
+	 * Compresses the packets destined for clients that opted in to compression
+	 */
+	private Compressor compressor;
+
+	/**
+	 * Passes the thread's name to the superclass constructor and initializes the {@link #outgoingPacketQueue}, the
+	 * {@link #fragmenter} and the {@link #compressor}
 	 * 
-	 * @throws SocketException Thrown if the server failed to bind the {@link #socket} to an available port
+	 * @throws IOException Thrown if the server failed to bind a socket to an available port
 	 * @throws SecurityException Thrown if a security manager blocks the creation of this thread (should never happen)
 	 */
-	public SenderThread() throws SocketException, SecurityException {
+	public SenderThread() throws IOException, SecurityException {
+		this(new UdpTransport());
+	}
+
+	/**
+	 * Passes the thread's name to the superclass constructor and initializes the {@link #outgoingPacketQueue}, the
+	 * {@link #fragmenter} and the {@link #compressor}
+	 * 
+	 * @param transport The transport over which to send packets, which the thread closes when it terminates
+	 * @throws SecurityException Thrown if a security manager blocks the creation of this thread (should never happen)
+	 */
+	public SenderThread(Transport transport) throws SecurityException {
 		super("SenderThread");
-		socket = new DatagramSocket();
-		outgoingPacketQueue = new ConcurrentLinkedQueue<BBPacket>();
+		this.transport = transport;
+		outgoingPacketQueue = new OutgoingPacketQueue();
+		fragmenter = new Fragmenter(BBServer.getConfig().getMaxDatagramSize());
+		compressor = new Compressor(BBServer.getConfig().getCompressionThreshold());
+		running = true;
 	}
 
 	/**
@@ -49,15 +85,79 @@ public class SenderThread extends Thread {
 	 */
 	public void run() {
 		while (running) {
-			if (!outgoingPacketQueue.isEmpty()) {
-				try {
-					socket.send(outgoingPacketQueue.poll().generatePacket());
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
+			BBPacket packet = outgoingPacketQueue.poll();
+			if (packet == null)
+				continue;
+			send(packet, true);
+		}
+		transport.close();
+	}
+
+	/**
+	 * Generates the datagram of a packet, compresses it if its recipient opted in to compression, splits it into
+	 * fragments as needed and sends them, recording the packet in the server's {@link ServerMetrics}
+	 * 
+	 * @param packet The packet to send
+	 * @param deliver Whether to send the datagrams over the transport; the {@link WarmUp} goes through everything
+	 * else
+	 */
+	void send(BBPacket packet, boolean deliver) {
+		ServerMetrics metrics = BBServer.getMetrics();
+		long start = System.nanoTime();
+		PacketTrace trace = packet.getTrace();
+		if (trace != null && (!trace.isDerived() || trace.getStamp(PacketTrace.Point.SENT) != 0))
+			trace = null; // Only the first transmission of a derived packet completes its trace
+		if (trace != null)
+			trace.stamp(PacketTrace.Point.DEQUEUED);
+		try {
+			DatagramPacket message = packet.generatePacket();
+			Connection connection = BBServer.getPacketManager().getConnectionTable().get(
+					new InetSocketAddress(message.getAddress(), message.getPort()));
+			if (connection != null && connection.isCompressionEnabled())
+				message = compressor.compress(message);
+			List<DatagramPacket> datagrams = fragmenter.split(message);
+			if (deliver)
+				transport.send(datagrams);
+			int length = 0;
+			for (DatagramPacket datagram : datagrams)
+				length += datagram.getLength();
+			metrics.recordSent(packet.getID(), length, System.nanoTime() - start);
+			PacketSentEvent.sample(packet.getID(), length, message.getAddress(), message.getPort());
+			if (trace != null) {
+				trace.stamp(PacketTrace.Point.SENT);
+				metrics.getTracer().recordSent(trace);
 			}
+		} catch (IllegalArgumentException e) { // The packet is too large to be sent at all
+			metrics.recordSendFailure();
+			ServerLog.log(LogLevel.WARNING, e.getMessage());
+		} catch (IOException e) {
+			metrics.recordSendFailure();
+			ServerLog.log(LogLevel.WARNING, "Failed to send: {}", e.getMessage());
 		}
-		socket.close();
+	}
+
+	/**
+	 * @return The {@link Fragmenter} used to split large packets
+	 */
+	public Fragmenter getFragmenter() {
+		return fragmenter;
+	}
+
+	/**
+	 * @return The {@link Compressor} used to compress packets for the clients that opted in to compression
+	 */
+	public Compressor getCompressor() {
+		return compressor;
+	}
+
+	/**
+	 * Discards the packets queued and starts the {@link #fragmenter} and {@link #compressor} afresh, as is done once
+	 * the {@link WarmUp} is over
+	 */
+	public void reset() {
+		outgoingPacketQueue.clear();
+		fragmenter = new Fragmenter(BBServer.getConfig().getMaxDatagramSize());
+		compressor = new Compressor(BBServer.getConfig().getCompressionThreshold());
 	}
 
 	/**
@@ -0,0 +1,392 @@
+package com.veltro.blazingbarrels.server.connect;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Instruments the server's threads with {@link Histogram}s and counters that are cheap enough to be kept on all the
+ * time: the duration of each {@link CyclePhase phase} of the {@link PacketManager}'s cycles and of the cycles as a
+ * whole, the number of packets drained from the {@link ReceiverThread}'s queue and left in the {@link SenderThread}'s
+ * each cycle, the time taken to process each datagram received and each packet sent, the number of packets and bytes
+ * received and sent per packet ID, and the number of packets dropped for being malformed or unsendable. The metrics
+ * also include the {@link PacketTracer}, which follows sampled packets through the whole pipeline.<p>
+ *
+ * Every histogram and counter is written by a single thread: the cycle metrics by the thread running the cycles, and
+ * the receive and send metrics by the receiver and sender threads respectively. The metrics are read by
+ * {@link #sampleInterval()}, which reports what was recorded since its previous call.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public class ServerMetrics {
+
+	/**
+	 * The number of distinct packet IDs counted (no packet ID has more than two digits)
+	 */
+	public static final int PACKET_IDS = 100;
+
+	/**
+	 * The duration of each phase of the cycles, in nanoseconds, indexed by {@link CyclePhase} ordinal
+	 */
+	private final Histogram[] phases = new Histogram[CyclePhase.values().length];
+
+	/**
+	 * The duration of the cycles' work (excluding the wait rounding them out), in nanoseconds
+	 */
+	private final Histogram cycles = new Histogram();
+
+	/**
+	 * The number of packets drained from the receiver thread's queue each cycle
+	 */
+	private final Histogram drained = new Histogram();
+
+	/**
+	 * The number of packets left in the sender thread's queue at the end of each cycle
+	 */
+	private final Histogram queued = new Histogram();
+
+	/**
+	 * The time taken to process each datagram received, from its receipt to its being queued or discarded, in
+	 * nanoseconds
+	 */
+	private final Histogram receives = new Histogram();
+
+	/**
+	 * The time taken to send each packet, from its removal from the queue to the transmission of its last datagram,
+	 * in nanoseconds
+	 */
+	private final Histogram sends = new Histogram();
+
+	/**
+	 * The number of packets received, indexed by packet ID
+	 */
+	private final AtomicLongArray packetsReceived = new AtomicLongArray(PACKET_IDS);
+
+	/**
+	 * The number of bytes received, indexed by packet ID
+	 */
+	private final AtomicLongArray bytesReceived = new AtomicLongArray(PACKET_IDS);
+
+	/**
+	 * The number of packets sent, indexed by packet ID
+	 */
+	private final AtomicLongArray packetsSent = new AtomicLongArray(PACKET_IDS);
+
+	/**
+	 * The number of bytes sent (after compression and fragmentation), indexed by packet ID
+	 */
+	private final AtomicLongArray bytesSent = new AtomicLongArray(PACKET_IDS);
+
+	/**
+	 * Traces sampled packets from their receipt to the transmission of the packets derived from them
+	 */
+	private final PacketTracer tracer = new PacketTracer();
+
+	/**
+	 * The number of datagrams that passed the rate limits but were discarded for being malformed
+	 */
+	private volatile long malformedDrops = 0;
+
+	/**
+	 * The number of packets that could not be sent
+	 */
+	private volatile long sendFailures = 0;
+
+	/**
+	 * The per-packet-ID counters as of the previous {@link #sampleInterval() sample}. Only accessed while sampling.
+	 */
+	private long[] sampledPacketsReceived = new long[PACKET_IDS], sampledBytesReceived = new long[PACKET_IDS],
+			sampledPacketsSent = new long[PACKET_IDS], sampledBytesSent = new long[PACKET_IDS];
+
+	/**
+	 * The drop counters as of the previous {@link #sampleInterval() sample}
+	 */
+	private long sampledMalformedDrops = 0, sampledSendFailures = 0;
+
+	/**
+	 * The time (as given by System.nanoTime()) of the previous {@link #sampleInterval() sample}
+	 */
+	private long sampleTime = System.nanoTime();
+
+	/**
+	 * Creates the histograms of the cycle phases
+	 */
+	public ServerMetrics() {
+		for (int i = 0; i < phases.length; i++)
+			phases[i] = new Histogram();
+	}
+
+	/**
+	 * Records the duration of a cycle phase that has just ended
+	 *
+	 * @param phase The phase that has ended
+	 * @param start The time (as given by System.nanoTime()) at which the phase started
+	 * @return The current time, at which the next phase starts
+	 */
+	public long endPhase(CyclePhase phase, long start) {
+		long now = System.nanoTime();
+		phases[phase.ordinal()].record(now - start);
+		return now;
+	}
+
+	/**
+	 * Records the work done by a cycle that has just ended
+	 *
+	 * @param duration The duration of the cycle's work, in nanoseconds
+	 * @param drainedPackets The number of packets drained from the receiver thread's queue
+	 * @param queuedPackets The number of packets in the sender thread's queue
+	 */
+	public void recordCycle(long duration, int drainedPackets, int queuedPackets) {
+		cycles.record(duration);
+		drained.record(drainedPackets);
+		queued.record(queuedPackets);
+	}
+
+	/**
+	 * Records a datagram that has passed the rate limits
+	 *
+	 * @param packetID The ID of the packet the datagram contains
+	 * @param length The length of the datagram
+	 */
+	public void recordReceived(int packetID, int length) {
+		increment(packetsReceived, packetID, 1);
+		increment(bytesReceived, packetID, length);
+	}
+
+	/**
+	 * Records the time taken to process a datagram received
+	 *
+	 * @param duration The time, in nanoseconds
+	 */
+	public void recordReceiveTime(long duration) {
+		receives.record(duration);
+	}
+
+	/**
+	 * Records a packet that has been sent
+	 *
+	 * @param packetID The ID of the packet
+	 * @param length The total length of the datagrams the packet was sent in
+	 * @param duration The time taken to send the packet, in nanoseconds
+	 */
+	public void recordSent(int packetID, int length, long duration) {
+		increment(packetsSent, packetID, 1);
+		increment(bytesSent, packetID, length);
+		sends.record(duration);
+	}
+
+	/**
+	 * Records a datagram discarded for being malformed. Only called by the receiver thread.
+	 */
+	public void recordMalformedDrop() {
+		malformedDrops++;
+	}
+
+	/**
+	 * Records a packet that could not be sent. Only called by the sender thread.
+	 */
+	public void recordSendFailure() {
+		sendFailures++;
+	}
+
+	/**
+	 * Adds the provided amount to a per-packet-ID counter. Only the thread owning the counter calls this.
+	 *
+	 * @param counters The counters
+	 * @param packetID The packet ID whose counter to increment (IDs out of range are ignored)
+	 * @param amount The amount to add
+	 */
+	private static void increment(AtomicLongArray counters, int packetID, long amount) {
+		if (packetID >= 0 && packetID < PACKET_IDS)
+			counters.lazySet(packetID, counters.get(packetID) + amount);
+	}
+
+	/**
+	 * @return The {@link PacketTracer} following sampled packets through the pipeline
+	 */
+	public PacketTracer getTracer() {
+		return tracer;
+	}
+
+	/**
+	 * Summarizes the metrics recorded since the previous call (or since the server started)
+	 *
+	 * @return The {@link Interval} summarized
+	 */
+	public synchronized Interval sampleInterval() {
+		long now = System.nanoTime();
+		Interval interval = new Interval((now - sampleTime) / 1e9);
+		sampleTime = now;
+		for (int i = 0; i < phases.length; i++)
+			interval.phases[i] = phases[i].sampleInterval();
+		interval.cycles = cycles.sampleInterval();
+		interval.drained = drained.sampleInterval();
+		interval.queued = queued.sampleInterval();
+		interval.receives = receives.sampleInterval();
+		interval.sends = sends.sampleInterval();
+		sample(packetsReceived, sampledPacketsReceived, interval.packetsReceived);
+		sample(bytesReceived, sampledBytesReceived, interval.bytesReceived);
+		sample(packetsSent, sampledPacketsSent, interval.packetsSent);
+		sample(bytesSent, sampledBytesSent, interval.bytesSent);
+		long malformed = malformedDrops, failures = sendFailures;
+		interval.malformedDrops = malformed - sampledMalformedDrops;
+		interval.sendFailures = failures - sampledSendFailures;
+		sampledMalformedDrops = malformed;
+		sampledSendFailures = failures;
+		return interval;
+	}
+
+	/**
+	 * Computes the increase of each of the provided counters since the previous sample
+	 *
+	 * @param counters The current counters
+	 * @param sampled The counters as of the previous sample, which are updated to the current ones
+	 * @param increase The array receiving the increases
+	 */
+	private static void sample(AtomicLongArray counters, long[] sampled, long[] increase) {
+		for (int i = 0; i < PACKET_IDS; i++) {
+			long count = counters.get(i);
+			increase[i] = count - sampled[i];
+			sampled[i] = count;
+		}
+	}
+
+	/**
+	 * The metrics recorded over an interval
+	 */
+	public static class Interval {
+
+		/**
+		 * The length of the interval, in seconds
+		 */
+		private final double seconds;
+
+		/**
+		 * The durations of the cycle phases, indexed by {@link CyclePhase} ordinal
+		 */
+		private final Histogram.Summary[] phases = new Histogram.Summary[CyclePhase.values().length];
+
+		/**
+		 * The durations of the cycles, and the numbers of packets drained and left queued each cycle
+		 */
+		private Histogram.Summary cycles, drained, queued;
+
+		/**
+		 * The times taken to process the datagrams received and to send the packets sent
+		 */
+		private Histogram.Summary receives, sends;
+
+		/**
+		 * The numbers of packets and bytes received and sent, indexed by packet ID
+		 */
+		private final long[] packetsReceived = new long[PACKET_IDS], bytesReceived = new long[PACKET_IDS],
+				packetsSent = new long[PACKET_IDS], bytesSent = new long[PACKET_IDS];
+
+		/**
+		 * The numbers of datagrams discarded for being malformed and of packets that could not be sent
+		 */
+		private long malformedDrops, sendFailures;
+
+		/**
+		 * @param seconds The {@link #seconds length} of the interval
+		 */
+		private Interval(double seconds) {
+			this.seconds = seconds;
+		}
+
+		/**
+		 * @return The length of the interval, in seconds
+		 */
+		public double getSeconds() {
+			return seconds;
+		}
+
+		/**
+		 * @param phase A cycle phase
+		 * @return The durations of the phase, in nanoseconds
+		 */
+		public Histogram.Summary getPhase(CyclePhase phase) {
+			return phases[phase.ordinal()];
+		}
+
+		/**
+		 * @return The durations of the cycles' work, in nanoseconds
+		 */
+		public Histogram.Summary getCycles() {
+			return cycles;
+		}
+
+		/**
+		 * @return The numbers of packets drained from the receiver thread's queue each cycle
+		 */
+		public Histogram.Summary getDrained() {
+			return drained;
+		}
+
+		/**
+		 * @return The numbers of packets left in the sender thread's queue at the end of each cycle
+		 */
+		public Histogram.Summary getQueued() {
+			return queued;
+		}
+
+		/**
+		 * @return The times taken to process the datagrams received, in nanoseconds
+		 */
+		public Histogram.Summary getReceives() {
+			return receives;
+		}
+
+		/**
+		 * @return The times taken to send the packets sent, in nanoseconds
+		 */
+		public Histogram.Summary getSends() {
+			return sends;
+		}
+
+		/**
+		 * @param packetID A packet ID
+		 * @return The number of packets with that ID received
+		 */
+		public long getPacketsReceived(int packetID) {
+			return packetsReceived[packetID];
+		}
+
+		/**
+		 * @param packetID A packet ID
+		 * @return The number of bytes received in packets with that ID
+		 */
+		public long getBytesReceived(int packetID) {
+			return bytesReceived[packetID];
+		}
+
+		/**
+		 * @param packetID A packet ID
+		 * @return The number of packets with that ID sent
+		 */
+		public long getPacketsSent(int packetID) {
+			return packetsSent[packetID];
+		}
+
+		/**
+		 * @param packetID A packet ID
+		 * @return The number of bytes sent in packets with that ID
+		 */
+		public long getBytesSent(int packetID) {
+			return bytesSent[packetID];
+		}
+
+		/**
+		 * @return The number of datagrams discarded for being malformed
+		 */
+		public long getMalformedDrops() {
+			return malformedDrops;
+		}
+
+		/**
+		 * @return The number of packets that could not be sent
+		 */
+		public long getSendFailures() {
+			return sendFailures;
+		}
+	}
+}
@@ -0,0 +1,208 @@
+package com.veltro.blazingbarrels.server.connect;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.veltro.blazingbarrels.server.BBServer;
+import com.veltro.blazingbarrels.server.connect.packet.Packet10ServerSnapshot;
+import com.veltro.blazingbarrels.server.game.Location3D;
+import com.veltro.blazingbarrels.server.game.Player;
+import com.veltro.blazingbarrels.server.record.MatchEntry;
+import com.veltro.blazingbarrels.server.record.MatchState;
+
+/**
+ * Encodes server snapshots (see {@link Packet10ServerSnapshot}) by writing the server info and each player's entry
+ * straight into a reusable ByteBuffer as ASCII text, without building intermediate Strings. The buffer holds the
+ * largest payload a snapshot may have; if the players' entries do not all fit, the buffer is split after the last
+ * entry that does, and encoding continues in a new payload. Each payload is copied out of the buffer once, and can
+ * then be shared by every recipient of the snapshot, so a snapshot costs time linear in the number of players however
+ * many clients it is sent to.<p>
+ *
+ * Locations are written with full precision by {@link Location3D#write(byte[], int, int)}, which formats coordinates
+ * straight into the buffer's backing array.<p>
+ *
+ * Snapshot encoders are not thread-safe; the server's is only used by the thread running the {@link PacketManager}
+ * cycles, and spectators are served by an encoder of their own.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public class SnapshotEncoder {
+
+	/**
+	 * The number of bytes of a message reserved for the packet's ID and reliability headers
+	 */
+	public static final int HEADER_ALLOWANCE = 32;
+
+	/**
+	 * The character set used to encode the names of players that contain characters outside of ASCII
+	 */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * The reusable buffer into which the payloads are written
+	 */
+	private final ByteBuffer buffer;
+
+	/**
+	 * A reusable scratch array holding the digits of a number, least significant first
+	 */
+	private final byte[] digits = new byte[20];
+
+	/**
+	 * Allocates the {@link #buffer}, sized to hold the largest snapshot payload that can be sent as a fragmented
+	 * message with the configured maximum datagram size
+	 */
+	public SnapshotEncoder() {
+		buffer = ByteBuffer.allocate(Fragmenter.getMaxMessageSize(BBServer.getConfig().getMaxDatagramSize()) -
+				HEADER_ALLOWANCE);
+	}
+
+	/**
+	 * Encodes a snapshot of the server and the provided players
+	 *
+	 * @param players The players to include in the snapshot
+	 * @return The payloads of the {@link Packet10ServerSnapshot}s making up the snapshot, the first starting with the
+	 * server info (normally a single payload)
+	 */
+	public List<byte[]> encode(Player[] players) {
+		List<byte[]> payloads = begin();
+		for (Player player : players)
+			add(payloads, player.getName(), player.getLocation(), player.getHealth(), player.isAdmin(),
+					player.isVanished());
+		payloads.add(copyPayload());
+		return payloads;
+	}
+
+	/**
+	 * Encodes a snapshot of the server and the players of a match reconstructed from its tick records, as is sent to
+	 * spectators
+	 *
+	 * @param state The state of the match
+	 * @return The payloads of the {@link Packet10ServerSnapshot}s making up the snapshot, the first starting with the
+	 * server info (normally a single payload)
+	 */
+	public List<byte[]> encode(MatchState state) {
+		List<byte[]> payloads = begin();
+		for (MatchState.Entity entity : state.getEntities())
+			add(payloads, entity.getName(), entity.getLocation(), entity.getHealth(),
+					(entity.getFlags() & MatchEntry.ADMIN) != 0, (entity.getFlags() & MatchEntry.VANISHED) != 0);
+		payloads.add(copyPayload());
+		return payloads;
+	}
+
+	/**
+	 * Starts a snapshot by writing the server info to the {@link #buffer}
+	 *
+	 * @return The list to which the snapshot's payloads are added
+	 */
+	private List<byte[]> begin() {
+		buffer.clear();
+		buffer.put((byte) 's').put((byte) '.');
+		putInteger(BBServer.getConfig().getWorldRadius());
+		buffer.put((byte) '.');
+		putInteger(BBServer.getConfig().getHealthCap());
+		return new ArrayList<byte[]>(1);
+	}
+
+	/**
+	 * Adds a player's entry to the snapshot, starting a new payload if it does not fit in the current one
+	 *
+	 * @param payloads The payloads of the snapshot completed so far
+	 * @param name The player's name
+	 * @param location The player's location
+	 * @param health The player's health
+	 * @param admin Whether the player is an administrator
+	 * @param vanished Whether the player is vanished
+	 */
+	private void add(List<byte[]> payloads, String name, Location3D location, int health, boolean admin,
+			boolean vanished) {
+		int start = buffer.position();
+		try {
+			putEntry(name, location, health, admin, vanished, start > 0);
+		} catch (BufferOverflowException e) { // Split the snapshot before this entry
+			buffer.position(start);
+			payloads.add(copyPayload());
+			buffer.clear();
+			try {
+				putEntry(name, location, health, admin, vanished, false);
+			} catch (BufferOverflowException e2) { // The entry alone does not fit in a payload, so it is skipped
+				buffer.clear();
+			}
+		}
+	}
+
+	/**
+	 * Writes a player's snapshot entry: the player's name, location, health, admin status and visibility, separated
+	 * by periods
+	 *
+	 * @param name The player's name
+	 * @param location The player's location
+	 * @param health The player's health
+	 * @param admin Whether the player is an administrator
+	 * @param vanished Whether the player is vanished
+	 * @param separate Whether to separate the entry from a preceding one with a space
+	 * @throws BufferOverflowException Thrown if the entry does not fit in the remainder of the {@link #buffer}
+	 */
+	private void putEntry(String name, Location3D location, int health, boolean admin, boolean vanished,
+			boolean separate) {
+		if (separate)
+			buffer.put((byte) ' ');
+		putName(name);
+		buffer.put((byte) '.');
+		if (buffer.remaining() < Location3D.MAX_LENGTH)
+			throw new BufferOverflowException();
+		buffer.position(location.write(buffer.array(), buffer.position(), -1));
+		buffer.put((byte) '.');
+		putInteger(health);
+		buffer.put((byte) '.').put((byte) (admin ? '1' : '0'));
+		buffer.put((byte) '.').put((byte) (vanished ? '1' : '0'));
+	}
+
+	/**
+	 * Writes the provided player name, which is encoded as UTF-8 in the rare case that it is not plain ASCII
+	 *
+	 * @param name The name to write
+	 */
+	private void putName(String name) {
+		for (int i = 0; i < name.length(); i++) {
+			if (name.charAt(i) < 0x80)
+				continue;
+			buffer.put(name.getBytes(UTF_8));
+			return;
+		}
+		for (int i = 0; i < name.length(); i++)
+			buffer.put((byte) name.charAt(i));
+	}
+
+	/**
+	 * Writes the provided integer in decimal notation
+	 *
+	 * @param value The integer to write
+	 */
+	private void putInteger(long value) {
+		if (value < 0) {
+			buffer.put((byte) '-');
+			value = -value;
+		}
+		int count = 0;
+		do {
+			digits[count++] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value > 0);
+		while (count > 0)
+			buffer.put(digits[--count]);
+	}
+
+	/**
+	 * @return A copy of the payload written to the {@link #buffer} so far
+	 */
+	private byte[] copyPayload() {
+		byte[] payload = new byte[buffer.position()];
+		System.arraycopy(buffer.array(), 0, payload, 0, payload.length);
+		return payload;
+	}
+}
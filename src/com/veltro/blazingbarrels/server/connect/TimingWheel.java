@@ -0,0 +1,123 @@
+package com.veltro.blazingbarrels.server.connect;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hashed timing wheel: a circular array of slots, one per tick, each holding the items due when the wheel reaches
+ * it. Scheduling an item and advancing the wheel by a tick both take constant time (plus the number of items that come
+ * due), however many items are scheduled, so deadlines can be tracked for every connection without scanning all of
+ * them every cycle. Items due further ahead than one revolution are placed in the slot they will eventually come due
+ * in along with the number of revolutions remaining, and are skipped until those have passed.<p>
+ *
+ * The wheel does not support cancellation. Instead, the owner of an item decides what to do with it when it comes due:
+ * an item whose deadline has moved in the meantime can simply be scheduled again. Timing wheels are not thread-safe.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ * @param <T> The type of the items scheduled on the wheel
+ */
+public class TimingWheel<T> {
+
+	/**
+	 * The heads of the linked lists of entries in each slot
+	 */
+	private Entry<T>[] slots;
+
+	/**
+	 * The index of the slot the wheel will reach on the next tick
+	 */
+	private int cursor = 0;
+
+	/**
+	 * The number of items scheduled on the wheel
+	 */
+	private int size = 0;
+
+	/**
+	 * @param slotCount The number of slots (ticks per revolution) of the wheel. Items due within this many ticks never
+	 * need to be skipped.
+	 */
+	@SuppressWarnings("unchecked")
+	public TimingWheel(int slotCount) {
+		slots = (Entry<T>[]) new Entry<?>[slotCount];
+	}
+
+	/**
+	 * Schedules the provided item to come due after the provided number of ticks
+	 *
+	 * @param item The item to schedule
+	 * @param ticks The number of ticks after which the item comes due (at least 1; lower values are treated as 1)
+	 */
+	public void schedule(T item, int ticks) {
+		ticks = Math.max(1, ticks);
+		int slot = (cursor + ticks - 1) % slots.length;
+		slots[slot] = new Entry<T>(item, (ticks - 1) / slots.length, slots[slot]);
+		size++;
+	}
+
+	/**
+	 * Advances the wheel by one tick and retrieves the items that have come due
+	 *
+	 * @return The items due, in no particular order (possibly none)
+	 */
+	public List<T> advance() {
+		List<T> due = new ArrayList<T>(0);
+		Entry<T> previous = null;
+		for (Entry<T> entry = slots[cursor]; entry != null; entry = entry.next) {
+			if (entry.rounds-- > 0) { // Not due on this revolution
+				previous = entry;
+				continue;
+			}
+			due.add(entry.item);
+			size--;
+			if (previous == null)
+				slots[cursor] = entry.next;
+			else
+				previous.next = entry.next;
+		}
+		cursor = (cursor + 1) % slots.length;
+		return due;
+	}
+
+	/**
+	 * @return The number of items scheduled on the wheel
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * An item scheduled on the wheel, linked to the next one in the same slot
+	 *
+	 * @param <T> The type of the item
+	 */
+	private static class Entry<T> {
+
+		/**
+		 * The scheduled item
+		 */
+		private final T item;
+
+		/**
+		 * The number of times the wheel must pass the entry's slot before the item comes due
+		 */
+		private int rounds;
+
+		/**
+		 * The next entry in the same slot
+		 */
+		private Entry<T> next;
+
+		/**
+		 * @param item The scheduled {@link #item}
+		 * @param rounds The number of {@link #rounds} remaining
+		 * @param next The {@link #next} entry in the slot
+		 */
+		private Entry(T item, int rounds, Entry<T> next) {
+			this.item = item;
+			this.rounds = rounds;
+			this.next = next;
+		}
+	}
+}
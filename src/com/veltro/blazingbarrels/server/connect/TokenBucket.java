@@ -0,0 +1,65 @@
+package com.veltro.blazingbarrels.server.connect;
+
+/**
+ * A token bucket: tokens accumulate at a fixed rate up to a maximum, and each admitted event consumes one. This
+ * allows bursts of up to the maximum number of tokens while limiting the long-term rate of events to the rate at which
+ * tokens accumulate. The bucket is refilled lazily whenever an event is checked, so it costs nothing while idle.<p>
+ * 
+ * Token buckets are not thread-safe; those of the {@link RateLimiter} are only used by the {@link ReceiverThread}.
+ * 
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public class TokenBucket {
+
+	/**
+	 * The number of tokens added to the bucket per nanosecond
+	 */
+	private final double rate;
+
+	/**
+	 * The maximum number of tokens the bucket can hold
+	 */
+	private final double capacity;
+
+	/**
+	 * The number of tokens currently in the bucket
+	 */
+	private double tokens;
+
+	/**
+	 * The time (as given by System.nanoTime()) at which the bucket was last refilled
+	 */
+	private long lastRefill;
+
+	/**
+	 * Constructs a full bucket
+	 * 
+	 * @param perSecond The number of tokens added to the bucket per second
+	 * @param burst The maximum number of tokens the bucket can hold
+	 * @param now The current time, as given by System.nanoTime()
+	 */
+	public TokenBucket(int perSecond, int burst, long now) {
+		rate = perSecond / 1E9;
+		capacity = burst;
+		tokens = burst;
+		lastRefill = now;
+	}
+
+	/**
+	 * Refills the bucket and consumes a token from it, if there is one
+	 * 
+	 * @param now The current time, as given by System.nanoTime()
+	 * @return 'true' iff a token was available, meaning the event is admitted
+	 */
+	public boolean tryConsume(long now) {
+		if (now > lastRefill) {
+			tokens = Math.min(capacity, tokens + (now - lastRefill) * rate);
+			lastRefill = now;
+		}
+		if (tokens < 1)
+			return false;
+		tokens--;
+		return true;
+	}
+}
@@ -0,0 +1,313 @@
+package com.veltro.blazingbarrels.server.connect;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+
+/**
+ * Appends every datagram the {@link ReceiverThread} receives to a compact binary log, so that real traffic can be
+ * {@link Reader read back} and replayed against a server offline. Datagrams are captured exactly as they arrive
+ * (before reassembly, rate limiting or parsing), together with their source and the time at which they were
+ * received.<p>
+ *
+ * A capture starts with a header consisting of the {@link #MAGIC} number, the {@link #VERSION} of the format and the
+ * wall-clock time (as given by System.currentTimeMillis()) at which the capture started. Each datagram is then
+ * recorded as:
+ * <ul>
+ * <li>the nanoseconds elapsed since the previous datagram (or since the start of the capture), as a variable-length
+ * integer</li>
+ * <li>the length of the source's IP address (4 or 16), as a byte, followed by the address</li>
+ * <li>the source's port, as an unsigned short</li>
+ * <li>the length of the datagram, as a variable-length integer, followed by the datagram</li>
+ * </ul>
+ * Variable-length integers are written 7 bits at a time, least significant first, with the high bit of each byte set
+ * if more bytes follow. Records are buffered in memory and written out in blocks, so that capturing costs the receiver
+ * thread little more than a copy of each datagram.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public class TrafficCapture {
+
+	/**
+	 * The number the file of every capture starts with ("BBTC" in ASCII)
+	 */
+	public static final int MAGIC = 0x42425443;
+
+	/**
+	 * The version of the format written
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * The size, in bytes, of the buffer in which records accumulate before they are written to the file
+	 */
+	public static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * The file the capture is written to
+	 */
+	private final File file;
+
+	/**
+	 * The stream writing to the {@link #file} (null once the capture is closed)
+	 */
+	private DataOutputStream out;
+
+	/**
+	 * The receipt time of the previous datagram recorded, or the time at which the capture started
+	 */
+	private long previousTime;
+
+	/**
+	 * The number of datagrams recorded
+	 */
+	private volatile long recordCount = 0;
+
+	/**
+	 * Creates the capture file, overwriting any existing file, and writes its header
+	 *
+	 * @param file The file to write the capture to
+	 * @param now The time (as given by System.nanoTime()) at which the capture starts
+	 * @throws IOException Thrown if the file cannot be created or written to
+	 */
+	public TrafficCapture(File file, long now) throws IOException {
+		this.file = file;
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+		out.writeLong(System.currentTimeMillis());
+		previousTime = now;
+	}
+
+	/**
+	 * Records a datagram. Datagrams must be recorded in the order they were received. Nothing is recorded once the
+	 * capture has been closed.
+	 *
+	 * @param datagram The array containing the datagram
+	 * @param length The length of the datagram
+	 * @param source The IP address the datagram was received from
+	 * @param port The port the datagram was received from
+	 * @param receiptTime The time (as given by System.nanoTime()) at which the datagram was received
+	 * @throws IOException Thrown if the capture cannot be written to
+	 */
+	public synchronized void record(byte[] datagram, int length, InetAddress source, int port, long receiptTime)
+			throws IOException {
+		if (out == null)
+			return;
+		writeVarint(Math.max(receiptTime - previousTime, 0));
+		previousTime = receiptTime;
+		byte[] address = source.getAddress();
+		out.writeByte(address.length);
+		out.write(address);
+		out.writeShort(port);
+		writeVarint(length);
+		out.write(datagram, 0, length);
+		recordCount++;
+	}
+
+	/**
+	 * Writes a non-negative integer in the variable-length format
+	 *
+	 * @param value The integer to write
+	 * @throws IOException Thrown if the capture cannot be written to
+	 */
+	private void writeVarint(long value) throws IOException {
+		while (value >= 0x80) {
+			out.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	/**
+	 * Writes out the records still buffered and closes the capture file
+	 *
+	 * @throws IOException Thrown if the capture cannot be written to
+	 */
+	public synchronized void close() throws IOException {
+		if (out == null)
+			return;
+		try {
+			out.close();
+		} finally {
+			out = null;
+		}
+	}
+
+	/**
+	 * @return The file the capture is written to
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return The number of datagrams recorded
+	 */
+	public long getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * Reads the datagrams of a capture back, one at a time
+	 */
+	public static class Reader implements Closeable {
+
+		/**
+		 * The stream reading from the capture file
+		 */
+		private final DataInputStream in;
+
+		/**
+		 * The wall-clock time (as given by System.currentTimeMillis()) at which the capture started
+		 */
+		private final long startTime;
+
+		/**
+		 * The time, in nanoseconds since the start of the capture, at which the current datagram was received
+		 */
+		private long time = 0;
+
+		/**
+		 * The IP address the current datagram was received from
+		 */
+		private InetAddress source;
+
+		/**
+		 * The port the current datagram was received from
+		 */
+		private int port;
+
+		/**
+		 * A reusable array holding the current datagram
+		 */
+		private byte[] data = new byte[0];
+
+		/**
+		 * The length of the current datagram
+		 */
+		private int length;
+
+		/**
+		 * Opens the provided capture file and reads its header
+		 *
+		 * @param file The capture file
+		 * @throws IOException Thrown if the file cannot be read or is not a capture in a supported format
+		 */
+		public Reader(File file) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+			if (in.readInt() != MAGIC) {
+				in.close();
+				throw new IOException(file + " is not a traffic capture");
+			}
+			int version = in.readUnsignedShort();
+			if (version != VERSION) {
+				in.close();
+				throw new IOException(file + " is a capture of unsupported version " + version);
+			}
+			startTime = in.readLong();
+		}
+
+		/**
+		 * Reads the next datagram of the capture, which then becomes the current one
+		 *
+		 * @return 'true' iff a datagram was read, 'false' at the end of the capture
+		 * @throws IOException Thrown if the capture cannot be read or is corrupt
+		 */
+		public boolean next() throws IOException {
+			int first = in.read();
+			if (first < 0)
+				return false;
+			time += readVarint(first);
+			byte[] address = new byte[in.readUnsignedByte()];
+			in.readFully(address);
+			source = InetAddress.getByAddress(address);
+			port = in.readUnsignedShort();
+			length = (int) readVarint(in.readUnsignedByte());
+			if (length > data.length)
+				data = new byte[length];
+			in.readFully(data, 0, length);
+			return true;
+		}
+
+		/**
+		 * Reads a variable-length integer
+		 *
+		 * @param first The first byte of the integer, already read
+		 * @return The integer
+		 * @throws IOException Thrown if the capture cannot be read or is corrupt
+		 */
+		private long readVarint(int first) throws IOException {
+			long value = first & 0x7F;
+			for (int shift = 7; (first & 0x80) != 0; shift += 7) {
+				if (shift > 63)
+					throw new IOException("Corrupt capture: variable-length integer too long");
+				first = in.read();
+				if (first < 0)
+					throw new EOFException("Truncated capture");
+				value |= (long) (first & 0x7F) << shift;
+			}
+			return value;
+		}
+
+		/**
+		 * @return The wall-clock time (as given by System.currentTimeMillis()) at which the capture started
+		 */
+		public long getStartTime() {
+			return startTime;
+		}
+
+		/**
+		 * @return The time, in nanoseconds since the start of the capture, at which the current datagram was received
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		/**
+		 * @return The IP address the current datagram was received from
+		 */
+		public InetAddress getSource() {
+			return source;
+		}
+
+		/**
+		 * @return The port the current datagram was received from
+		 */
+		public int getPort() {
+			return port;
+		}
+
+		/**
+		 * @return The array holding the current datagram, which is reused by the next call to {@link #next()}
+		 */
+		public byte[] getData() {
+			return data;
+		}
+
+		/**
+		 * @return The length of the current datagram
+		 */
+		public int getLength() {
+			return length;
+		}
+
+		/**
+		 * Closes the capture file
+		 *
+		 * @throws IOException Thrown if the file cannot be closed
+		 */
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package com.veltro.blazingbarrels.server.connect;
+
+/**
+ * The TrafficClass enum groups the packets the server receives by the cost of handling them and the rate at which a
+ * well-behaved client sends them. Each class has its own limits in the {@link RateLimiter}: the rate (in packets per
+ * second) and burst size allowed from a single source, and the rate and burst size allowed from all sources combined.
+ * 
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public enum TrafficClass {
+
+	/**
+	 * Authorization and join requests. These are the only packets accepted from unknown sources, and the most
+	 * expensive to handle, so they are limited the most strictly.
+	 */
+	HANDSHAKE(2, 5, 50, 100),
+
+	/**
+	 * Pongs, acknowledgments and disconnects, which are small and sent at a low rate by clients
+	 */
+	CONTROL(40, 40, 2000, 2000),
+
+	/**
+	 * Player updates, sent by clients at most once every cycle under normal circumstances
+	 */
+	UPDATE(60, 60, 3000, 3000),
+
+	/**
+	 * Weapon fire, the handling of which involves collision checks against every player
+	 */
+	WEAPON(20, 10, 1000, 500),
+
+	/**
+	 * Fragments of messages too large for a single datagram, which are charged before they are buffered for
+	 * reassembly. A source may send the fragments of a message split as finely as the {@link Fragmenter} allows in a
+	 * single burst; the reassembled message is then charged to its own class.
+	 */
+	FRAGMENT(64, Fragmenter.MAX_FRAGMENTS, 2000, 2000),
+
+	/**
+	 * Packets with an ID the server does not accept. These are always discarded.
+	 */
+	INVALID(0, 0, 0, 0);
+
+	/**
+	 * The number of packets of the class a single source may send per second
+	 */
+	public final int sourceRate;
+
+	/**
+	 * The number of packets of the class a single source may send in a burst
+	 */
+	public final int sourceBurst;
+
+	/**
+	 * The number of packets of the class all sources combined may send per second
+	 */
+	public final int globalRate;
+
+	/**
+	 * The number of packets of the class all sources combined may send in a burst
+	 */
+	public final int globalBurst;
+
+	/**
+	 * @param sourceRate The {@link #sourceRate}
+	 * @param sourceBurst The {@link #sourceBurst}
+	 * @param globalRate The {@link #globalRate}
+	 * @param globalBurst The {@link #globalBurst}
+	 */
+	private TrafficClass(int sourceRate, int sourceBurst, int globalRate, int globalBurst) {
+		this.sourceRate = sourceRate;
+		this.sourceBurst = sourceBurst;
+		this.globalRate = globalRate;
+		this.globalBurst = globalBurst;
+	}
+
+	/**
+	 * @param packetID The ID of a received packet
+	 * @return The traffic class the packet belongs to ({@link #INVALID} if the server does not accept such packets)
+	 */
+	public static TrafficClass fromPacketID(int packetID) {
+		switch (packetID) {
+			case 0:
+			case 20:
+				return HANDSHAKE;
+			case 4:
+			case 5:
+			case 22:
+				return CONTROL;
+			case 30:
+				return UPDATE;
+			case 40:
+				return WEAPON;
+			default:
+				return INVALID;
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package com.veltro.blazingbarrels.server.connect;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.util.List;
+
+/**
+ * The means by which the {@link ReceiverThread} and the {@link SenderThread} exchange datagrams with the clients. The
+ * server normally runs over a {@link UdpTransport}; a {@link LoopbackTransport} lets benchmarks and load generators
+ * drive the game loop in the same process, without paying for the network stack. The {@link Reactor} polls a transport
+ * between the cycles it runs.<p>
+ *
+ * A transport is received from by a single thread at a time, but may be sent over by several.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public interface Transport {
+
+	/**
+	 * Receives at least one datagram, waiting until one arrives. Each datagram received is copied into the buffer of
+	 * the next packet of the batch, from offset 0 (and truncated to it), and the packet's length and socket address
+	 * are set to the datagram's length and source.
+	 *
+	 * @param batch The packets to receive datagrams into
+	 * @return The number of datagrams received, from 1 to the length of the batch
+	 * @throws IOException Thrown if the transport is closed or fails to receive
+	 */
+	int receive(DatagramPacket[] batch) throws IOException;
+
+	/**
+	 * Receives the datagrams that arrive within the timeout, up to the length of the batch, as
+	 * {@link #receive(DatagramPacket[])} does
+	 *
+	 * @param batch The packets to receive datagrams into
+	 * @param timeout The time, in nanoseconds, to wait for a datagram (0 or less to return at once)
+	 * @return The number of datagrams received, which is 0 if none arrived in time
+	 * @throws IOException Thrown if the transport is closed or fails to receive
+	 */
+	int poll(DatagramPacket[] batch, long timeout) throws IOException;
+
+	/**
+	 * Sends datagrams to the socket addresses they carry
+	 *
+	 * @param batch The datagrams to send
+	 * @throws IOException Thrown if the transport is closed or fails to send
+	 */
+	void send(List<DatagramPacket> batch) throws IOException;
+
+	/**
+	 * @return The socket address from which the datagrams sent over the transport come
+	 */
+	InetSocketAddress getLocalAddress();
+
+	/**
+	 * @return 'true' iff the transport has not been closed
+	 */
+	boolean isOpen();
+
+	/**
+	 * Closes the transport, causing a thread waiting to receive to fail
+	 */
+	void close();
+}
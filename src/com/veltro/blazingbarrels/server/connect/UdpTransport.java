@@ -0,0 +1,180 @@
+package com.veltro.blazingbarrels.server.connect;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.List;
+
+/**
+ * A {@link Transport} over a non-blocking UDP channel. Receiving waits on a selector until the channel is readable,
+ * then reads as many of the datagrams waiting as fit in the batch. Sending never waits either: a datagram that does
+ * not fit in the socket's send buffer is dropped, as the network itself might drop it.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public class UdpTransport implements Transport {
+
+	/**
+	 * The size, in bytes, of the largest datagram received in full
+	 */
+	public static final int MAX_DATAGRAM_SIZE = 65507;
+
+	/**
+	 * The channel
+	 */
+	private final DatagramChannel channel;
+
+	/**
+	 * The selector telling when the channel is readable
+	 */
+	private final Selector selector;
+
+	/**
+	 * The buffer into which each datagram is received before being copied into its packet
+	 */
+	private final ByteBuffer buffer = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+
+	/**
+	 * Opens a channel on an available port
+	 *
+	 * @throws IOException Thrown if no port is available
+	 */
+	public UdpTransport() throws IOException {
+		this(0, 0);
+	}
+
+	/**
+	 * Opens a channel on the provided port
+	 *
+	 * @param port The port (0 for any available port)
+	 * @param receiveBufferSize The size, in bytes, of the socket's receive buffer to request from the operating system
+	 * (0 for the system's default)
+	 * @throws IOException Thrown if the channel cannot be bound to the port
+	 */
+	public UdpTransport(int port, int receiveBufferSize) throws IOException {
+		channel = DatagramChannel.open();
+		try {
+			if (receiveBufferSize > 0)
+				channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+			channel.bind(new InetSocketAddress(port));
+			channel.configureBlocking(false);
+			selector = Selector.open();
+			channel.register(selector, SelectionKey.OP_READ);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Receives the datagrams waiting, up to the length of the batch, waiting until one arrives
+	 *
+	 * @param batch The packets to receive datagrams into
+	 * @return The number of datagrams received
+	 * @throws IOException Thrown if the channel is closed or fails to receive
+	 */
+	public int receive(DatagramPacket[] batch) throws IOException {
+		while (true) {
+			int count = poll(batch, Long.MAX_VALUE);
+			if (count > 0)
+				return count;
+		}
+	}
+
+	/**
+	 * Receives the datagrams that arrive within the timeout, up to the length of the batch
+	 *
+	 * @param batch The packets to receive datagrams into
+	 * @param timeout The time, in nanoseconds, to wait for a datagram (0 or less to return at once)
+	 * @return The number of datagrams received, which is 0 if none arrived in time
+	 * @throws IOException Thrown if the channel is closed or fails to receive
+	 */
+	public int poll(DatagramPacket[] batch, long timeout) throws IOException {
+		int count = read(batch);
+		if (count > 0 || timeout <= 0)
+			return count;
+		try {
+			long millis = timeout == Long.MAX_VALUE ? 0 : Math.max(1, (timeout + 999999) / 1000000);
+			if (selector.select(millis) == 0)
+				return 0;
+			selector.selectedKeys().clear();
+		} catch (ClosedSelectorException e) {
+			throw new SocketException("Socket is closed");
+		}
+		return read(batch);
+	}
+
+	/**
+	 * Reads the datagrams waiting, up to the length of the batch, without waiting
+	 *
+	 * @param batch The packets to receive datagrams into
+	 * @return The number of datagrams read
+	 * @throws IOException Thrown if the channel is closed or fails to receive
+	 */
+	private int read(DatagramPacket[] batch) throws IOException {
+		int count = 0;
+		while (count < batch.length) {
+			buffer.clear();
+			SocketAddress source = channel.receive(buffer);
+			if (source == null)
+				break;
+			DatagramPacket packet = batch[count++];
+			int length = Math.min(buffer.position(), packet.getData().length);
+			System.arraycopy(buffer.array(), 0, packet.getData(), 0, length);
+			packet.setLength(length);
+			packet.setSocketAddress(source);
+		}
+		return count;
+	}
+
+	/**
+	 * Sends datagrams over the channel, dropping those that do not fit in the socket's send buffer
+	 *
+	 * @param batch The datagrams to send
+	 * @throws IOException Thrown if the channel is closed or fails to send
+	 */
+	public void send(List<DatagramPacket> batch) throws IOException {
+		for (DatagramPacket datagram : batch)
+			channel.send(ByteBuffer.wrap(datagram.getData(), datagram.getOffset(), datagram.getLength()),
+					datagram.getSocketAddress());
+	}
+
+	/**
+	 * @return The socket address to which the channel is bound
+	 */
+	public InetSocketAddress getLocalAddress() {
+		try {
+			return (InetSocketAddress) channel.getLocalAddress();
+		} catch (IOException e) { // The channel is closed
+			return null;
+		}
+	}
+
+	/**
+	 * @return 'true' iff the channel has not been closed
+	 */
+	public boolean isOpen() {
+		return channel.isOpen();
+	}
+
+	/**
+	 * Closes the channel, causing a thread waiting to receive to fail
+	 */
+	public void close() {
+		try {
+			selector.close(); // Wakes up a thread waiting on the selector
+			channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,364 @@
+package com.veltro.blazingbarrels.server.connect;
+
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.veltro.blazingbarrels.server.BBServer;
+import com.veltro.blazingbarrels.server.connect.packet.BBPacket;
+import com.veltro.blazingbarrels.server.connect.packet.Packet01AuthResponse;
+import com.veltro.blazingbarrels.server.connect.packet.Packet03Ping;
+import com.veltro.blazingbarrels.server.connect.packet.Packet21PlayerConnect;
+import com.veltro.blazingbarrels.server.game.Location3D;
+import com.veltro.blazingbarrels.server.log.LogLevel;
+import com.veltro.blazingbarrels.server.log.ServerLog;
+
+/**
+ * A warm-up of the server, run on the main thread before the {@link ReceiverThread} and {@link SenderThread} are
+ * started, so that the code handling the players is compiled by the time the first of them join rather than while
+ * they play. Synthetic clients go through the handshake, join, fly around, fire, answer pings, acknowledge what the
+ * server sends reliably, and now and then leave and join again; their datagrams are passed to the receiver's
+ * {@link ReceiverThread#process(DatagramPacket, long) process} method, the cycles are run back to back by the
+ * {@link PacketManager}, and the packets queued in reply are encoded by the sender's
+ * {@link SenderThread#send(BBPacket, boolean) send} method without being sent, then read back by the clients.<p>
+ *
+ * The datagrams are stamped with a clock that advances by a cycle length every cycle, so that the rate limits and the
+ * cookies see the clients as they would in a real match; the round-trip times measured are meaningless, which does not
+ * matter as the connections are discarded afterwards. The warm-up stops after the given number of cycles, or earlier
+ * once the JIT compiler has spent less than {@value #SETTLED_COMPILATION_TIME} ms compiling over the last
+ * {@value #SETTLE_WINDOW} cycles. It leaves the synthetic players in the world and their state in the server's
+ * components: the caller resets them before accepting players.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public class WarmUp {
+
+	/**
+	 * The maximum number of synthetic clients (fewer are used if the player cap is lower)
+	 */
+	public static final int CLIENTS = 16;
+
+	/**
+	 * The number of cycles over which the time spent compiling is measured to tell whether compilation has settled
+	 */
+	public static final int SETTLE_WINDOW = 200;
+
+	/**
+	 * The time, in milliseconds, that the JIT compiler may spend compiling over a {@link #SETTLE_WINDOW} once
+	 * compilation has settled
+	 */
+	public static final long SETTLED_COMPILATION_TIME = 5;
+
+	/**
+	 * The number of cycles between the shots of a synthetic client
+	 */
+	private static final int FIRE_INTERVAL = 10;
+
+	/**
+	 * The number of cycles a synthetic client plays before leaving and joining again
+	 */
+	private static final int SESSION_LENGTH = 500;
+
+	/**
+	 * The number of cycles a refused synthetic client waits before trying to join again
+	 */
+	private static final int RETRY_DELAY = 20;
+
+	/**
+	 * The character set of the packets
+	 */
+	private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+	/**
+	 * The receiver processing the clients' datagrams
+	 */
+	private final ReceiverThread receiver;
+
+	/**
+	 * The sender encoding the packets queued for the clients
+	 */
+	private final SenderThread sender;
+
+	/**
+	 * The synthetic clients, in the order in which they act
+	 */
+	private final List<Client> clients = new ArrayList<Client>();
+
+	/**
+	 * The synthetic clients, by address
+	 */
+	private final Map<InetSocketAddress, Client> clientsByAddress = new HashMap<InetSocketAddress, Client>();
+
+	/**
+	 * The time (as given by System.nanoTime(), but advancing by a cycle length every cycle) at which the datagrams of
+	 * the current cycle are received
+	 */
+	private long clock;
+
+	/**
+	 * The number of the current cycle, starting at 1
+	 */
+	private int cycle = 0;
+
+	/**
+	 * @param receiver The receiver, bound but not started
+	 * @param sender The sender, not started
+	 */
+	public WarmUp(ReceiverThread receiver, SenderThread sender) {
+		this.receiver = receiver;
+		this.sender = sender;
+	}
+
+	/**
+	 * Runs the warm-up. Messages less severe than {@link LogLevel#WARNING} are not logged meanwhile.
+	 *
+	 * @param maxCycles The maximum number of cycles to run
+	 * @return The number of cycles run
+	 */
+	public int run(int maxCycles) {
+		LogLevel level = ServerLog.getLevel();
+		if (ServerLog.isLoggable(LogLevel.INFO))
+			ServerLog.setLevel(LogLevel.WARNING);
+		int count = Math.min(CLIENTS, BBServer.getConfig().getPlayerCap());
+		try {
+			for (int i = 0; i < count; i++) {
+				Client client = new Client(i);
+				clients.add(client);
+				clientsByAddress.put(new InetSocketAddress(client.address, client.port), client);
+			}
+		} catch (UnknownHostException e) { // Never thrown for an address given as bytes
+			e.printStackTrace();
+		}
+		CompilationMXBean compiler = ManagementFactory.getCompilationMXBean();
+		boolean monitored = compiler != null && compiler.isCompilationTimeMonitoringSupported();
+		long compilationTime = monitored ? compiler.getTotalCompilationTime() : 0;
+		clock = System.nanoTime();
+		for (cycle = 1; cycle <= maxCycles; cycle++) {
+			for (Client client : clients)
+				client.act();
+			BBServer.getPacketManager().advance();
+			BBPacket packet;
+			while ((packet = sender.outgoingPacketQueue.poll()) != null) {
+				sender.send(packet, false);
+				Client client = clientsByAddress.get(new InetSocketAddress(packet.getAddress(), packet.getPort()));
+				if (client != null)
+					client.receive(packet);
+			}
+			clock += PacketManager.CYCLE_LENGTH * 1000000L;
+			if (monitored && cycle % SETTLE_WINDOW == 0) {
+				long total = compiler.getTotalCompilationTime();
+				if (total - compilationTime < SETTLED_COMPILATION_TIME)
+					break;
+				compilationTime = total;
+			}
+		}
+		for (Client client : clients) // Those still authorizing have deauth tasks waiting for them
+			BBServer.getPacketManager().cancelDeauthTask(client.name);
+		ServerLog.setLevel(level);
+		return Math.min(cycle, maxCycles);
+	}
+
+	/**
+	 * A synthetic client, which plays its part over the datagrams it passes to the {@link ReceiverThread} and the
+	 * packets the server queues for it
+	 *
+	 * @author LinearLogic
+	 * @since 0.4.0
+	 */
+	private class Client {
+
+		/**
+		 * The client's state while it is not connected
+		 */
+		private static final int OFFLINE = 0;
+
+		/**
+		 * The client's state from its first authorization request until its player is connected
+		 */
+		private static final int JOINING = 1;
+
+		/**
+		 * The client's state while its player is connected
+		 */
+		private static final int PLAYING = 2;
+
+		/**
+		 * The index of the client, from which its name, address and path are derived
+		 */
+		private final int index;
+
+		/**
+		 * The name of the client's player
+		 */
+		private final String name;
+
+		/**
+		 * The client's (fictitious) address
+		 */
+		private final InetAddress address;
+
+		/**
+		 * The client's port
+		 */
+		private final int port;
+
+		/**
+		 * Whether the client opts in to compression (every other client does)
+		 */
+		private final boolean compression;
+
+		/**
+		 * The packets the client is to send in reply to those it received, rendered as text
+		 */
+		private final List<String> replies = new ArrayList<String>();
+
+		/**
+		 * The client's state
+		 */
+		private int state = OFFLINE;
+
+		/**
+		 * The cycle from which the client (while {@link #OFFLINE}) tries to join, or leaves (while {@link #PLAYING})
+		 */
+		private int nextChange = 1;
+
+		/**
+		 * The session ID issued to the client (-1 until it is authorized)
+		 */
+		private int sessionID = -1;
+
+		/**
+		 * The highest sequence number of the packets the server sent the client reliably (-1 if none were sent)
+		 */
+		private int remoteSequence = -1;
+
+		/**
+		 * The acknowledgment bitfield for the sequence numbers preceding the {@link #remoteSequence}
+		 */
+		private int receivedBits = 0;
+
+		/**
+		 * Whether a packet sent reliably has been received since the last acknowledgment
+		 */
+		private boolean ackPending = false;
+
+		/**
+		 * @param index The index of the client
+		 * @throws UnknownHostException Never thrown, as the address is given as bytes
+		 */
+		private Client(int index) throws UnknownHostException {
+			this.index = index;
+			name = "warmup" + index;
+			address = InetAddress.getByAddress(new byte[] {127, 2, (byte) (index / 250), (byte) (index % 250 + 1)});
+			port = 40000 + index;
+			compression = index % 2 == 1;
+		}
+
+		/**
+		 * Sends the packets due this cycle: replies, the handshake, location updates, shots and the leave notice
+		 */
+		private void act() {
+			for (String reply : replies)
+				send(reply);
+			replies.clear();
+			if (state == OFFLINE && cycle >= nextChange) {
+				state = JOINING;
+				send(authRequest(null));
+			} else if (state == PLAYING && cycle >= nextChange) {
+				send("22 @" + sessionID + " 0");
+				state = OFFLINE;
+				nextChange = cycle + 1;
+				sessionID = remoteSequence = -1;
+				receivedBits = 0;
+				ackPending = false;
+			} else if (state == PLAYING) {
+				double angle = index * 2.39996 + cycle * 0.05; // The golden angle spreads the clients evenly
+				int radius = 50 + index * 20;
+				Location3D location = new Location3D((float) (radius * Math.cos(angle)), (float) (10 *
+						Math.sin(angle * 3)), (float) (radius * Math.sin(angle)), (float) Math.toDegrees(angle) % 360,
+						0, 0);
+				send("30 @" + sessionID + " l" + location.toString(3));
+				if ((cycle + index) % FIRE_INTERVAL == 0)
+					send("40 @" + sessionID + " " + location.toString(3) + " " + index % 4); // No doomsday devices
+			}
+		}
+
+		/**
+		 * Reads a packet the server queued for the client
+		 *
+		 * @param packet The packet
+		 */
+		private void receive(BBPacket packet) {
+			if (packet.getSequence() >= 0)
+				receiveSequence(packet.getSequence());
+			if (packet instanceof Packet01AuthResponse && state == JOINING) {
+				Packet01AuthResponse response = (Packet01AuthResponse) packet;
+				if (response.getCookie() != null)
+					replies.add(authRequest(response.getCookie()));
+				else if (response.getAuthorizationVerdictID() == 3) {
+					sessionID = response.getIssuedSessionID();
+					replies.add("20 " + name);
+				} else { // Refused
+					state = OFFLINE;
+					nextChange = cycle + RETRY_DELAY;
+				}
+			} else if (packet instanceof Packet03Ping && state == PLAYING) {
+				replies.add("4 @" + sessionID + " " + ((Packet03Ping) packet).getSequence());
+			} else if (packet instanceof Packet21PlayerConnect && state == JOINING &&
+					name.equals(((Packet21PlayerConnect) packet).getUsername())) {
+				state = PLAYING;
+				nextChange = cycle + SESSION_LENGTH + index * 7; // Staggered, so that the clients leave one by one
+			}
+		}
+
+		/**
+		 * @param cookie The cookie the server challenged the client to echo, or null for the first request
+		 * @return An authorization request, rendered as text
+		 */
+		private String authRequest(String cookie) {
+			String password = BBServer.getConfig().getPassword();
+			return "0 " + name + (password.equals("") ? "" : " " + password) + (cookie == null ? "" : " +c:" +
+					cookie + (compression ? " +z" : ""));
+		}
+
+		/**
+		 * Records the receipt of a packet sent reliably, for the acknowledgment piggybacked on the next packet sent
+		 *
+		 * @param sequence The packet's sequence number
+		 */
+		private void receiveSequence(int sequence) {
+			ackPending = true;
+			if (sequence > remoteSequence) {
+				int shift = sequence - remoteSequence;
+				receivedBits = shift >= 32 ? 0 : receivedBits << shift;
+				if (remoteSequence >= 0 && shift <= 32)
+					receivedBits |= 1 << (shift - 1);
+				remoteSequence = sequence;
+			} else if (sequence < remoteSequence && remoteSequence - sequence <= 32)
+				receivedBits |= 1 << (remoteSequence - sequence - 1);
+		}
+
+		/**
+		 * Passes a datagram from the client to the receiver, piggybacking the pending acknowledgment (if any) on it
+		 *
+		 * @param packet The packet, rendered as text
+		 */
+		private void send(String packet) {
+			if (ackPending && sessionID >= 0) {
+				packet = "!" + remoteSequence + "." + Integer.toHexString(receivedBits) + " " + packet;
+				ackPending = false;
+			}
+			byte[] data = packet.getBytes(US_ASCII);
+			receiver.process(new DatagramPacket(data, data.length, address, port), clock);
+		}
+	}
+}
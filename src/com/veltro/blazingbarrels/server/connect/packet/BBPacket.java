@@ -3,13 +3,23 @@ package com.veltro.blazingbarrels.server.connect.packet;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
 
+import com.veltro.blazingbarrels.server.connect.Connection;
+import com.veltro.blazingbarrels.server.connect.PacketTrace;
+import com.veltro.blazingbarrels.server.connect.ReliableChannel;
+import com.veltro.blazingbarrels.server.game.Player;
+import com.veltro.blazingbarrels.server.game.World;
+
 /**
- * The superclass for specifying custom UDP packets
+ * The superclass for specifying custom UDP packets<p>
+ * 
+ * On the wire, a packet consists of its {@link #ID} and {@link #data}, separated by a space. Packets sent or received
+ * over a {@link ReliableChannel} are prefixed with a header of the form "#&lt;sequence&gt; ", and packets carrying an
+ * acknowledgment for such a channel with a header of the form "!&lt;ack&gt;.&lt;hex ack bitfield&gt; ".
  * 
  * @author LinearLogic
  * @since 0.0.2
  */
-public abstract class BBPacket implements Comparable<BBPacket> {
+public abstract class BBPacket implements Comparable<BBPacket>, Cloneable {
 
 	/**
 	 * The integer ID corresponding to the type of packet. As well as serving to identify an incoming packet, the ID
@@ -32,6 +42,46 @@ public abstract class BBPacket implements Comparable<BBPacket> {
 	 */
 	protected int port;
 
+	/**
+	 * The sequence number assigned to the packet by a {@link ReliableChannel} (-1 if the packet is not sent or received
+	 * reliably)
+	 */
+	protected int sequence = -1;
+
+	/**
+	 * The {@link ReliableChannel} acknowledgment carried by the packet: the highest sequence number received by the
+	 * packet's sender (-1 if the packet carries no acknowledgment)
+	 */
+	protected int ack = -1;
+
+	/**
+	 * The {@link ReliableChannel} acknowledgment bitfield for the sequence numbers preceding the {@link #ack}
+	 */
+	protected int ackBits = 0;
+
+	/**
+	 * The session ID the client used to identify its player in the packet, in place of the player's name (-1 if the
+	 * player's name was used)
+	 */
+	protected int sessionID = -1;
+
+	/**
+	 * The connection registered for the socket address the packet was received from (null for packets created by the
+	 * server and for packets from clients that have not been authorized)
+	 */
+	protected Connection connection = null;
+
+	/**
+	 * The time (as given by System.nanoTime()) at which the packet was received (0 for packets created by the server)
+	 */
+	protected long receiptTime = 0;
+
+	/**
+	 * The {@link PacketTrace} following the packet through the server, if the packet was sampled for tracing (or was
+	 * derived from a packet that was)
+	 */
+	protected PacketTrace trace = null;
+
 	/**
 	 * Constructor - called by the BBPacket subclasses during their construction
 	 * 
@@ -53,10 +103,75 @@ public abstract class BBPacket implements Comparable<BBPacket> {
 	 * @return The resulting DatagramPacket
 	 */
 	public DatagramPacket generatePacket() {
-		byte[] buffer = new String(ID + " " + data).getBytes();
+		byte[] buffer = new String(getHeader() + ID + " " + data).getBytes();
 		return new DatagramPacket(buffer, buffer.length, address, port);
 	}
 
+	/**
+	 * @return The {@link ReliableChannel} header(s) to prefix the packet with, or an empty String if it has none
+	 */
+	protected String getHeader() {
+		if (sequence < 0 && ack < 0)
+			return "";
+		return (sequence >= 0 ? "#" + sequence + " " : "") + (ack >= 0 ? "!" + ack + "." +
+				Integer.toHexString(ackBits) + " " : "");
+	}
+
+	/**
+	 * @return The length, in bytes, of the payload that {@link #generatePacket()} will produce for the packet (the
+	 * length of the data rendered as ASCII text)
+	 */
+	public int getLength() {
+		return getHeader().length() + (ID < 10 ? 2 : 3) + data.length();
+	}
+
+	/**
+	 * Creates a shallow copy of the packet bound for the provided destination. The packet calling this method is not
+	 * changed, so the same packet can be addressed to several clients (when broadcasting, for instance) without each
+	 * copy overwriting the destination of the last.
+	 * 
+	 * @param address The IP address of the copy's destination
+	 * @param port The port on the above address
+	 * @return The copy
+	 */
+	public BBPacket addressedTo(InetAddress address, int port) {
+		BBPacket copy;
+		try {
+			copy = (BBPacket) clone();
+		} catch (CloneNotSupportedException e) { // Cannot happen, as BBPacket implements Cloneable
+			throw new InternalError(e.toString());
+		}
+		copy.address = address;
+		copy.port = port;
+		return copy;
+	}
+
+	/**
+	 * Retrieves the player whose client sent the packet, identified either by the provided name or, if the client used
+	 * one, by its {@link #sessionID}. The player is only returned if the packet was received over the player's own
+	 * {@link #connection}, so that neither names nor session IDs can be used to impersonate other players.
+	 * 
+	 * @param username The name the client identified its player with (ignored if a session ID was used)
+	 * @return The player, or null if there is no such player or the packet did not come from the player's client
+	 */
+	protected Player findSender(String username) {
+		Player player = sessionID < 0 ? World.getPlayer(username) : World.getPlayer(sessionID);
+		if (player == null || connection == null || player.getConnection() != connection)
+			return null;
+		return player;
+	}
+
+	/**
+	 * Determines whether the packet must be sent over its recipient's {@link ReliableChannel}, guaranteeing that it
+	 * arrives (in order) even if it is lost. Packets are sent unreliably by default; subclasses whose loss would leave
+	 * clients out of sync with the server override this method.
+	 * 
+	 * @return 'true' iff the packet must be sent reliably
+	 */
+	public boolean isReliable() {
+		return false;
+	}
+
 	/**
 	 * This method, implemented in {@link BBPacket} subclasses, updates the server based on the data in the packet.
 	 * Only packets received by the server are handled.
@@ -76,6 +191,110 @@ public abstract class BBPacket implements Comparable<BBPacket> {
 		return (ID / 10) - (anotherPacket.ID / 10);
 	}
 
+	/**
+	 * @return The packet's {@link #sequence} number, or -1 if it has none
+	 */
+	public int getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Sets the packet's {@link ReliableChannel} {@link #sequence} number
+	 * 
+	 * @param sequence A non-negative integer, or -1 to send the packet unreliably
+	 */
+	public void setSequence(int sequence) {
+		this.sequence = sequence;
+	}
+
+	/**
+	 * @return The highest sequence number acknowledged by the packet, or -1 if it carries no acknowledgment
+	 */
+	public int getAck() {
+		return ack;
+	}
+
+	/**
+	 * @return The packet's acknowledgment bitfield (see {@link #ackBits})
+	 */
+	public int getAckBits() {
+		return ackBits;
+	}
+
+	/**
+	 * Attaches a {@link ReliableChannel} acknowledgment to the packet
+	 * 
+	 * @param ack The highest sequence number received
+	 * @param ackBits The acknowledgment bitfield for the sequence numbers before ack
+	 */
+	public void setAck(int ack, int ackBits) {
+		this.ack = ack;
+		this.ackBits = ackBits;
+	}
+
+	/**
+	 * @return The {@link #connection} the packet was received over, or null if it was not attributed to one
+	 */
+	public Connection getConnection() {
+		return connection;
+	}
+
+	/**
+	 * Attributes the received packet to the connection registered for its source address
+	 * 
+	 * @param connection The {@link #connection}
+	 */
+	public void setConnection(Connection connection) {
+		this.connection = connection;
+	}
+
+	/**
+	 * @return The {@link #sessionID} used by the packet's sender, or -1 if the sender used its player's name
+	 */
+	public int getSessionID() {
+		return sessionID;
+	}
+
+	/**
+	 * Specifies that the packet's sender identified its player with the provided session ID rather than its name
+	 * 
+	 * @param sessionID The player's session ID
+	 */
+	public void setSessionID(int sessionID) {
+		this.sessionID = sessionID;
+	}
+
+	/**
+	 * @return The time (as given by System.nanoTime()) at which the packet was received, or 0 if it was created by the
+	 * server
+	 */
+	public long getReceiptTime() {
+		return receiptTime;
+	}
+
+	/**
+	 * Stamps the packet with the time at which it was received
+	 * 
+	 * @param receiptTime The time, as given by System.nanoTime()
+	 */
+	public void setReceiptTime(long receiptTime) {
+		this.receiptTime = receiptTime;
+	}
+
+	/**
+	 * @return The packet's {@link #trace}, or null if it is not traced
+	 */
+	public PacketTrace getTrace() {
+		return trace;
+	}
+
+	/**
+	 * @param trace The {@link #trace} to follow the packet, or null to stop tracing it
+	 */
+	public void setTrace(PacketTrace trace) {
+		this.trace = trace;
+	}
+
 	/**
 	 * @return The packet's {@link #ID}
 	 */
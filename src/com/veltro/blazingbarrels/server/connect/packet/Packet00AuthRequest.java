@@ -1,10 +1,15 @@
 package com.veltro.blazingbarrels.server.connect.packet;
 
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 
 import com.veltro.blazingbarrels.server.BBServer;
+import com.veltro.blazingbarrels.server.connect.Connection;
 import com.veltro.blazingbarrels.server.connect.DeauthTask;
 import com.veltro.blazingbarrels.server.game.World;
+import com.veltro.blazingbarrels.server.jfr.PlayerAuthEvent;
+import com.veltro.blazingbarrels.server.log.LogLevel;
+import com.veltro.blazingbarrels.server.log.ServerLog;
 
 /**
  * The packet sent by the client when attempting to authorize on a server in order to join and play. It contains the
@@ -13,6 +18,13 @@ import com.veltro.blazingbarrels.server.game.World;
  * not taken, the client is sent a positive response; otherwise, the client receives a negative response. In either
  * case, the server sends a {@link Packet01AuthResponse} to the client.<p>
  * 
+ * On the wire, the username is followed by the password (if any) and by options, which are prefixed with '+'. A client
+ * without a connection must include the cookie it was challenged with, as "+c:&lt;cookie&gt;"; requests without a valid
+ * cookie are answered with a challenge by the {@link com.veltro.blazingbarrels.server.connect.ReceiverThread
+ * ReceiverThread} and never become packets. A client that includes "+z" opts in to receiving
+ * {@link com.veltro.blazingbarrels.server.connect.Compressor compressed} packets. Passwords starting with '+' are thus
+ * not supported.<p>
+ * 
  * This packet is only ever received by the server.
  * 
  * @author LinearLogic
@@ -31,6 +43,11 @@ public class Packet00AuthRequest extends BBPacket {
 	 */
 	private String password;
 
+	/**
+	 * Whether the client opted in to receiving compressed packets
+	 */
+	private boolean compression;
+
 	/**
 	 * Constructs the {@link BBPacket} superclass with the ID of this packet (0), its data rendered as a string, and
 	 * its Internet destination address. Initializes all class fields.
@@ -42,36 +59,73 @@ public class Packet00AuthRequest extends BBPacket {
 	 * @param port The port on the above address
 	 */
 	public Packet00AuthRequest(String username, String password, InetAddress address, int port) {
-		super(0, username + (password.equals("") || password == null ? "" : " " + password), address, port);
+		this(username, password, false, address, port);
+	}
+
+	/**
+	 * Constructs the {@link BBPacket} superclass with the ID of this packet (0), its data rendered as a string, and
+	 * its Internet destination address. Initializes all class fields.
+	 * 
+	 * @param username An account's {@link #username}
+	 * @param password The {@link #password}, which in the event of successful authentication will match the password
+	 * of the server
+	 * @param compression Whether the client opted in to {@link #compression}
+	 * @param address The IP address from which the packet was sent (and to which a response packet should be sent)
+	 * @param port The port on the above address
+	 */
+	public Packet00AuthRequest(String username, String password, boolean compression, InetAddress address, int port) {
+		super(0, username + (password.equals("") || password == null ? "" : " " + password) +
+				(compression ? " +z" : ""), address, port);
 		this.username = username;
 		this.password = password;
+		this.compression = compression;
 	}
 
 	/**
 	 * Sends a {@link Packet01AuthResponse} to the client that sent this authorization request. The player will be
-	 * authorized iff the server is not full, the provided {@link #username} is not taken, and the provided
-	 * {@link #password} is correct.<p>
-	 * If the player is successfully authorized, a {@link DeauthTask} will be scheduled.
+	 * authorized iff the server is not full, the provided {@link #username} is not taken, the client's address and port
+	 * do not already have a connection, and the provided {@link #password} is correct. A client that already has a
+	 * connection is told its username is taken, as whatever name it holds its connection under is.<p>
+	 * If the player is successfully authorized, a {@link Connection} is established for its client (and issued a
+	 * session ID and the compression the client opted in to), and a {@link DeauthTask} will be scheduled.
 	 */
 	public void handle() {
 		// Make sure the player is not already on the server; if so, ignore this packet:
 		if (World.getPlayers().length >= BBServer.getConfig().getPlayerCap()) {
 			BBServer.getSenderDaemon().outgoingPacketQueue.add(new Packet01AuthResponse(username, 0, address, port));
-			System.out.println("Player " + username + " failed to join: server is full");
+			ServerLog.log(LogLevel.INFO, "Player {} failed to join: server is full", username);
+			PlayerAuthEvent.record(username, address.getHostAddress() + ":" + port, 0, -1, compression);
 			return;
 		}
 		if (World.getPlayer(username) != null || BBServer.getPacketManager().hasAssociatedDeauthTask(username)) {
 			BBServer.getSenderDaemon().outgoingPacketQueue.add(new Packet01AuthResponse(username, 1, address, port));
-			System.out.println("Player " + username + " failed to join: username is taken");
+			ServerLog.log(LogLevel.INFO, "Player {} failed to join: username is taken", username);
+			PlayerAuthEvent.record(username, address.getHostAddress() + ":" + port, 1, -1, compression);
+			return;
+		}
+		if (BBServer.getPacketManager().getConnectionTable().get(new InetSocketAddress(address, port)) != null) {
+			// Replacing the connection would orphan the player (or pending authorization) it belongs to
+			BBServer.getSenderDaemon().outgoingPacketQueue.add(new Packet01AuthResponse(username, 1, address, port));
+			ServerLog.log(LogLevel.INFO, "Player {} failed to join: {}:{} already has a connection", username,
+					address.getHostAddress(), port);
+			PlayerAuthEvent.record(username, address.getHostAddress() + ":" + port, 1, -1, compression);
 			return;
 		}
 		if (!BBServer.getConfig().getPassword().equals("") && !BBServer.getConfig().getPassword().equals(password)) {
 			BBServer.getSenderDaemon().outgoingPacketQueue.add(new Packet01AuthResponse(username, 2, address, port));
-			System.out.println("Player " + username + " failed to join: wrong password");
+			ServerLog.log(LogLevel.INFO, "Player {} failed to join: wrong password", username);
+			PlayerAuthEvent.record(username, address.getHostAddress() + ":" + port, 2, -1, compression);
 			return;
 		}
-		BBServer.getSenderDaemon().outgoingPacketQueue.add(new Packet01AuthResponse(username, 3, address, port));
-		BBServer.getPacketManager().runDeauthTask(new DeauthTask(username, address, port, 5, 2000));
+		Connection connection = new Connection(address, port);
+		connection.setSessionID(World.allocateSessionID());
+		connection.setCompressionEnabled(compression);
+		BBServer.getPacketManager().registerConnection(connection);
+		BBServer.getPacketManager().sendPacket(connection, new Packet01AuthResponse(username, 3,
+				connection.getSessionID(), address, port));
+		BBServer.getPacketManager().runDeauthTask(new DeauthTask(username, connection, 5, 2000));
+		PlayerAuthEvent.record(username, address.getHostAddress() + ":" + port, 3, connection.getSessionID(),
+				compression);
 	}
 
 	/**
@@ -87,4 +141,11 @@ public class Packet00AuthRequest extends BBPacket {
 	public String getPassword() {
 		return password;
 	}
+
+	/**
+	 * @return 'true' iff the client opted in to receiving compressed packets
+	 */
+	public boolean isCompressionRequested() {
+		return compression;
+	}
 }
@@ -6,7 +6,16 @@ import java.net.InetAddress;
  * This packet is sent to a client from a BBServer instance in response to the client's sending a
  * {@link Packet00AuthRequest} to attempt authorization in order to join the server. This packet contains the server's
  * verdict, and if the user was successfully authorized, the server will now wait for the client to send a
- * {@link Packet20PlayerJoin} to begin interaction with the server.<p>
+ * {@link Packet20PlayerJoin} to begin interaction with the server. A successfully authorized client is also issued a
+ * {@link #issuedSessionID session ID}, which it may use in place of its username to identify its player in subsequent
+ * packets.<p>
+ * 
+ * A client whose request did not carry a valid {@link com.veltro.blazingbarrels.server.connect.CookieGenerator cookie}
+ * is instead sent a challenge (verdict '4') carrying a cookie, which it must echo in a new request before the server
+ * considers it. Challenges are sent without the server keeping any record of them.<p>
+ * 
+ * Positive verdicts are sent over the client's {@link com.veltro.blazingbarrels.server.connect.ReliableChannel
+ * ReliableChannel}, as a lost one would leave the client waiting while the server waits for it to join.<p>
  * 
  * This packet is only ever sent by the server.
  * 
@@ -23,10 +32,20 @@ public class Packet01AuthResponse extends BBPacket {
 	/**
 	 * The user's authorization verdict - '0' if not authorized due to the server's player cap being reached, '1' if
 	 * not authorized due to the provided {@link #username} being taken, '2' if not authorized due to an incorrect
-	 * password, '3' if successfully authorized.
+	 * password, '3' if successfully authorized, '4' if challenged to echo a {@link #cookie}.
 	 */
 	private int authorized;
 
+	/**
+	 * The session ID issued to the client (-1 if the client was not authorized)
+	 */
+	private int issuedSessionID;
+
+	/**
+	 * The cookie the client is challenged to echo (null unless the verdict is a challenge)
+	 */
+	private String cookie;
+
 	/**
 	 * Constructs the {@link BBPacket} superclass with the ID of this packet (1), its data rendered as a string, and
 	 * its Internet destination address. Initializes all class fields.
@@ -37,9 +56,50 @@ public class Packet01AuthResponse extends BBPacket {
 	 * @param port The port on the above address
 	 */
 	public Packet01AuthResponse(String username, int authorizationVerdict, InetAddress address, int port) {
-		super(1, "username " + authorizationVerdict, address, port);
+		this(username, authorizationVerdict, -1, address, port);
+	}
+
+	/**
+	 * Constructs the {@link BBPacket} superclass with the ID of this packet (1), its data rendered as a string, and
+	 * its Internet destination address. Initializes all class fields.
+	 * 
+	 * @param username An account's {@link #username}
+	 * @param authorizationVerdict The {@link #authorized ID} of the authorization verdict
+	 * @param sessionID The {@link #issuedSessionID session ID} issued to the client (-1 if the client was not
+	 * authorized)
+	 * @param address The IP address of the client receiving the authorization verdict
+	 * @param port The port on the above address
+	 */
+	public Packet01AuthResponse(String username, int authorizationVerdict, int sessionID, InetAddress address,
+			int port) {
+		super(1, username + " " + authorizationVerdict + (sessionID >= 0 ? " " + sessionID : ""), address, port);
 		this.username = username;
 		authorized = authorizationVerdict;
+		issuedSessionID = sessionID;
+	}
+
+	/**
+	 * Constructs a challenge (verdict '4'), which the client must answer by sending its request again along with the
+	 * provided cookie.
+	 * 
+	 * @param username An account's {@link #username}
+	 * @param cookie The {@link #cookie} the client must echo
+	 * @param address The IP address of the client receiving the challenge
+	 * @param port The port on the above address
+	 */
+	public Packet01AuthResponse(String username, String cookie, InetAddress address, int port) {
+		super(1, username + " 4 " + cookie, address, port);
+		this.username = username;
+		authorized = 4;
+		issuedSessionID = -1;
+		this.cookie = cookie;
+	}
+
+	/**
+	 * Positive verdicts are sent reliably; negative ones are not, as the client is free to simply retry.
+	 */
+	public boolean isReliable() {
+		return authorized == 3;
 	}
 
 	/**
@@ -60,4 +120,18 @@ public class Packet01AuthResponse extends BBPacket {
 	public int getAuthorizationVerdictID() {
 		return authorized;
 	}
+
+	/**
+	 * @return The {@link #issuedSessionID session ID} issued to the client, or -1 if it was not authorized
+	 */
+	public int getIssuedSessionID() {
+		return issuedSessionID;
+	}
+
+	/**
+	 * @return The {@link #cookie} the client is challenged to echo, or null if the verdict is not a challenge
+	 */
+	public String getCookie() {
+		return cookie;
+	}
 }
@@ -0,0 +1,49 @@
+package com.veltro.blazingbarrels.server.connect.packet;
+
+import java.net.InetAddress;
+
+import com.veltro.blazingbarrels.server.connect.Connection;
+
+/**
+ * This packet is sent periodically by the server to every connected client in order to measure the quality of the
+ * client's network link. Each ping carries a {@link #sequence} number, which the client echoes back in a
+ * {@link Packet04Pong}. The time between the two is used as a round-trip time sample, and pings that are never
+ * answered are counted as lost (see {@link Connection}).<p>
+ *
+ * This packet is only ever sent by the server.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public class Packet03Ping extends BBPacket {
+
+	/**
+	 * The sequence number of the ping, which the client must echo back in its {@link Packet04Pong}
+	 */
+	private int sequence;
+
+	/**
+	 * Constructs the {@link BBPacket} superclass with the ID of this packet (3), its data rendered as a string, and
+	 * its Internet destination address. Initializes all class fields.
+	 *
+	 * @param sequence The ping's {@link #sequence} number
+	 * @param address The IP address of the client being pinged
+	 * @param port The port on the above address
+	 */
+	public Packet03Ping(int sequence, InetAddress address, int port) {
+		super(3, String.valueOf(sequence), address, port);
+		this.sequence = sequence;
+	}
+
+	/**
+	 * This packet is never received by the server, so it is not handled.
+	 */
+	public void handle() { }
+
+	/**
+	 * @return The ping's {@link #sequence} number
+	 */
+	public int getSequence() {
+		return sequence;
+	}
+}
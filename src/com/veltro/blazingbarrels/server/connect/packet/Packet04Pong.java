@@ -0,0 +1,70 @@
+package com.veltro.blazingbarrels.server.connect.packet;
+
+import java.net.InetAddress;
+
+import com.veltro.blazingbarrels.server.connect.Connection;
+import com.veltro.blazingbarrels.server.game.Player;
+
+/**
+ * This packet is sent by a client in reply to a {@link Packet03Ping}, echoing the ping's sequence number. The time at
+ * which the pong arrived is stamped on it as soon as it is received (rather than when it is handled) so that the
+ * round-trip time sample handed to the player's {@link Connection} is not inflated by the time spent waiting for the
+ * next cycle.
+ * <p>
+ * This packet is only ever received by the server.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public class Packet04Pong extends BBPacket {
+
+	/**
+	 * The name of the player whose client is answering the ping
+	 */
+	private String username;
+
+	/**
+	 * The sequence number of the {@link Packet03Ping} being answered
+	 */
+	private int pingSequence;
+
+	/**
+	 * Constructs the {@link BBPacket} superclass with the ID of this packet (4), its data rendered as a string, and
+	 * its Internet source address. Initializes all class fields.
+	 *
+	 * @param username The name of the player answering the ping
+	 * @param pingSequence The {@link #pingSequence sequence number} of the ping being answered
+	 * @param address The IP address from which the packet was sent
+	 * @param port The port on the above address
+	 */
+	public Packet04Pong(String username, int pingSequence, InetAddress address, int port) {
+		super(4, username + " " + pingSequence, address, port);
+		this.username = username;
+		this.pingSequence = pingSequence;
+	}
+
+	/**
+	 * Retrieves the {@link Player} with the provided {@link #username} (or session ID), if any, and passes the pong on
+	 * to the player's {@link Connection} so that it can update its round-trip time and loss estimates.
+	 */
+	public void handle() {
+		Player player = findSender(username);
+		if (player == null)
+			return;
+		player.getConnection().handlePong(pingSequence, receiptTime);
+	}
+
+	/**
+	 * @return The name of the player answering the ping
+	 */
+	public String getUsername() {
+		return username;
+	}
+
+	/**
+	 * @return The {@link #pingSequence sequence number} of the ping being answered
+	 */
+	public int getPingSequence() {
+		return pingSequence;
+	}
+}
@@ -0,0 +1,42 @@
+package com.veltro.blazingbarrels.server.connect.packet;
+
+import java.net.InetAddress;
+
+import com.veltro.blazingbarrels.server.connect.ReliableChannel;
+
+/**
+ * This packet carries an explicit acknowledgment for a {@link ReliableChannel}: the highest sequence number received
+ * over the channel and the bitfield covering the sequence numbers before it. Acknowledgments are normally piggybacked
+ * on other packets; this packet is only sent when there is nothing else to piggyback them on. When sent by a client,
+ * it is prefixed with the client's username (or session ID) like the client's other packets.<p>
+ *
+ * This packet is both sent and received by the server. The acknowledgment it carries is processed by the
+ * {@link com.veltro.blazingbarrels.server.connect.PacketManager PacketManager} before any packet is handled, so there
+ * is nothing left for the packet itself to do.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public class Packet05Ack extends BBPacket {
+
+	/**
+	 * Constructs the {@link BBPacket} superclass with the ID of this packet (5), its data rendered as a string, and
+	 * its Internet source/destination address. When the packet is received, the
+	 * {@link com.veltro.blazingbarrels.server.connect.ReceiverThread ReceiverThread} also stores the acknowledgment in
+	 * the packet's {@link BBPacket#getAck() acknowledgment fields}, where piggybacked acknowledgments end up.
+	 *
+	 * @param username The name of the player whose client sent the packet (null if the packet is sent by the server)
+	 * @param ack The highest sequence number received
+	 * @param ackBits The acknowledgment bitfield for the sequence numbers before ack
+	 * @param address The source/destination IP address of the packet
+	 * @param port The port on the above address
+	 */
+	public Packet05Ack(String username, int ack, int ackBits, InetAddress address, int port) {
+		super(5, (username == null ? "" : username + " ") + ack + " " + Integer.toHexString(ackBits), address, port);
+	}
+
+	/**
+	 * Explicit acknowledgments are processed before packets are handled, so this method does nothing.
+	 */
+	public void handle() { }
+}
@@ -1,16 +1,20 @@
 package com.veltro.blazingbarrels.server.connect.packet;
 
+import java.net.DatagramPacket;
 import java.net.InetAddress;
 
-import com.veltro.blazingbarrels.server.BBServer;
-import com.veltro.blazingbarrels.server.game.Player;
+import com.veltro.blazingbarrels.server.connect.SnapshotEncoder;
 
 /**
  * This packet is sent to a client to provide it with all the information it needs to create a local copy of the game
- * world and all its contents. Due to size limit on the {@link BBPacket} payload, the server will occasionally send
- * multiple instances of this packet in order to provide a complete snapshot (whether this happens is determined based
- * on the return value of the {@link #addPlayerSnapshot(Player)} method each time a player's information is appended to
- * the packet's {@link BBPacket#data}).<p>
+ * world and all its contents. The server info and each player's information are separated by spaces. Snapshots
+ * larger than a datagram are split into fragments by the {@link com.veltro.blazingbarrels.server.connect.Fragmenter
+ * Fragmenter} and reassembled by the client, so a snapshot normally arrives (or is lost) as a whole. Only if the
+ * snapshot exceeds the maximum size of a fragmented message does the server send multiple instances of this packet.<p>
+ * 
+ * The packet's payload is encoded ahead of time by the {@link SnapshotEncoder} rather than kept in the packet's
+ * {@link BBPacket#data}, and is written into the datagram as it is. Since the payload is never modified, the packets
+ * sending the same snapshot to different clients share it.<p>
  * 
  * This packet is only ever sent by the server.
  * 
@@ -20,17 +24,21 @@ import com.veltro.blazingbarrels.server.game.Player;
 public class Packet10ServerSnapshot extends BBPacket {
 
 	/**
-	 * Constructs the {@link BBPacket} superclass with the ID of this packet (10), its data rendered as a string, and
-	 * its Internet destination address. Initializes all class fields.
+	 * The encoded payload of the packet, shared with the packets sending the same snapshot to other clients
+	 */
+	private final byte[] payload;
+
+	/**
+	 * Constructs the {@link BBPacket} superclass with the ID of this packet (10) and its Internet destination address.
+	 * Initializes all class fields.
 	 * 
-	 * @param sendServerInfo Whether to send the client the necessary info about the server (this info is typically
-	 * only sent in the first member of a series of Packet6ServerSnapshot packets.
+	 * @param payload A {@link #payload} produced by the {@link SnapshotEncoder}, which must not be modified afterwards
 	 * @param address The IP address of the client being sent the snapshot
 	 * @param port The port on the above address
 	 */
-	public Packet10ServerSnapshot(boolean sendServerInfo, InetAddress address, int port) {
-		super(10, (sendServerInfo ? "s." + BBServer.getConfig().getWorldRadius() + "." +
-				BBServer.getConfig().getHealthCap() : ""), address, port);
+	public Packet10ServerSnapshot(byte[] payload, InetAddress address, int port) {
+		super(10, "", address, port);
+		this.payload = payload;
 	}
 
 	/**
@@ -39,16 +47,21 @@ public class Packet10ServerSnapshot extends BBPacket {
 	public void handle() { }
 
 	/**
-	 * Attempts to add the provided user's relevant data to the packet. This method ensures
-	 * @param player The player whose data to add to the packet
-	 * @return 'true' if the player's data is successfully added to the packet, 'false' if the operation failed due to
-	 * the packet payload size limit being reached
+	 * Writes the packet's headers and ID followed by its encoded {@link #payload} into a new DatagramPacket
+	 */
+	public DatagramPacket generatePacket() {
+		String prefix = getHeader() + ID + " ";
+		byte[] buffer = new byte[prefix.length() + payload.length];
+		for (int i = 0; i < prefix.length(); i++)
+			buffer[i] = (byte) prefix.charAt(i);
+		System.arraycopy(payload, 0, buffer, prefix.length(), payload.length);
+		return new DatagramPacket(buffer, buffer.length, address, port);
+	}
+
+	/**
+	 * @return The length, in bytes, of the datagram that {@link #generatePacket()} will produce for the packet
 	 */
-	public boolean addPlayerSnapshot(Player player) {
-		String toAppend = player.generateSnapshotString();
-		if (toAppend.length() + data.length() > 210) // Packet data will be truncated if this player's info is included
-			return false;
-		data += toAppend;
-		return true;
+	public int getLength() {
+		return getHeader().length() + 3 + payload.length;
 	}
-}
\ No newline at end of file
+}
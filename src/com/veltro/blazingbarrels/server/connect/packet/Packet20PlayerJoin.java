@@ -3,8 +3,10 @@ package com.veltro.blazingbarrels.server.connect.packet;
 import java.net.InetAddress;
 
 import com.veltro.blazingbarrels.server.BBServer;
+import com.veltro.blazingbarrels.server.connect.DeauthTask;
 import com.veltro.blazingbarrels.server.game.Player;
 import com.veltro.blazingbarrels.server.game.World;
+import com.veltro.blazingbarrels.server.jfr.PlayerJoinEvent;
 
 /**
  * This packet is sent from a client after receiving a positive {@link Packet01AuthResponse} and serves to inform the
@@ -42,17 +44,23 @@ public class Packet20PlayerJoin extends BBPacket {
 	 */
 	public Packet20PlayerJoin(String username, boolean isSpectator, InetAddress address, int port) {
 		super(20, username + (isSpectator ? " s" : ""), address, port);
+		this.username = username;
+		this.isSpectator = isSpectator;
 	}
 
 	/**
-	 * Ensures that the joining player is authorized and is not already on the server, and then cancels the
-	 * {@link DeauthTask} pinging the player's client and adds the player to the {@link World#players list of players}.
+	 * Ensures that the joining player is authorized (from the same address) and is not already on the server, and then
+	 * cancels the {@link DeauthTask} pinging the player's client and adds the player to the
+	 * {@link World#players list of players}, handing it the connection established during authorization.
 	 * Lastly, a {@link Packet21PlayerConnect} packet is sent to all connected clients to notify them of the new player.
 	 */
 	public void handle() {
 		// Make sure the player is not unauthorized or already playing on the server
 		if (!BBServer.getPacketManager().hasAssociatedDeauthTask(username) || World.getPlayer(username) != null)
 			return;
+		DeauthTask task = BBServer.getPacketManager().getDeauthTask(username);
+		if (task.getClientPort() != port || !task.getClientAddress().equals(address))
+			return;
 		BBServer.getPacketManager().cancelDeauthTask(username);
 		Player joined;
 		if (isSpectator)
@@ -60,7 +68,9 @@ public class Packet20PlayerJoin extends BBPacket {
 					BBServer.getConfig().getHealthCap(), false, true, true, true);
 		else
 			joined = new Player(username, address, port);
+		joined.setConnection(task.getConnection());
 		World.addPlayer(joined);
+		PlayerJoinEvent.record(username, task.getConnection().getSessionID(), isSpectator, World.getPlayers().length);
 		BBServer.getPacketManager().broadcastPacket(new Packet21PlayerConnect(joined));
 		BBServer.getPacketManager().sendServerSnapshot(joined);
 	}
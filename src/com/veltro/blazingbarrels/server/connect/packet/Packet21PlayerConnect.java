@@ -85,6 +85,13 @@ public class Packet21PlayerConnect extends BBPacket {
 		vanished = isVanished;
 	}
 
+	/**
+	 * Clients that miss this packet would disagree with the server about who is playing, so it is sent reliably.
+	 */
+	public boolean isReliable() {
+		return true;
+	}
+
 	/**
 	 * This packet is never received by the server, so it is not handled.
 	 */
@@ -3,7 +3,6 @@ package com.veltro.blazingbarrels.server.connect.packet;
 import java.net.InetAddress;
 
 import com.veltro.blazingbarrels.server.game.Player;
-import com.veltro.blazingbarrels.server.game.World;
 
 /**
  * This packet is sent by a client upon voluntarily disconnecting from a server, or from a server to notify clients
@@ -44,15 +43,20 @@ public class Packet22PlayerDisconnect extends BBPacket {
 	}
 
 	/**
-	 * Retrieves the {@link Player} with the provided username (if any) and registers a disconnect {@link ChangeType}
-	 * based on the packet's {@link #reasonID}
+	 * Clients that miss this packet would disagree with the server about who is playing, so it is sent reliably.
+	 */
+	public boolean isReliable() {
+		return true;
+	}
+
+	/**
+	 * Retrieves the {@link Player} with the provided username (or session ID), if any, and registers a disconnect
+	 * {@link ChangeType} based on the packet's {@link #reasonID}
 	 */
 	public void handle() {
-		Player disconnecting = World.getPlayer(username);
+		Player disconnecting = findSender(username);
 		if (disconnecting == null)
 			return;
-		disconnecting.setClientAddress(address);
-		disconnecting.setClientPort(port);
 		disconnecting.disconnect(reasonID);
 	}
 
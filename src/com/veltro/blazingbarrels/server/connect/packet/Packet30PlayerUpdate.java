@@ -4,7 +4,6 @@ import java.net.InetAddress;
 
 import com.veltro.blazingbarrels.server.game.Location3D;
 import com.veltro.blazingbarrels.server.game.Player;
-import com.veltro.blazingbarrels.server.game.World;
 
 /**
  * This packet is sent by a client to update the server's copy of the client's {@link Player}, and is broadcasted by
@@ -30,6 +29,11 @@ public class Packet30PlayerUpdate extends BBPacket {
 	 */
 	private Location3D location;
 
+	/**
+	 * The number of decimal places with which to send the {@link #location} (-1 for full precision)
+	 */
+	private int locationPrecision = -1;
+
 	/**
 	 * The player's new health level (-1 if it has not changed)
 	 */
@@ -95,17 +99,17 @@ public class Packet30PlayerUpdate extends BBPacket {
 	}
 
 	/**
-	 * Retrieves the {@link Player} with the provided {@link #username} (if any), and updates the player according to
-	 * the values of the packet's fields.
+	 * Retrieves the {@link Player} with the provided {@link #username} (or session ID), if any, and updates the player
+	 * according to the values of the packet's fields.
 	 */
 	public void handle() {
-		Player player = World.getPlayer(username);
+		Player player = findSender(username);
 		if (player == null)
 			return;
-		player.setClientAddress(address);
-		player.setClientPort(port);
-		if (location != null)
+		if (location != null) {
 			player.setLocation(location);
+			player.setLocationTrace(trace);
+		}
 		if (health > -1)
 			player.setHealth(health);
 		if (toggleAdmin)
@@ -123,11 +127,38 @@ public class Packet30PlayerUpdate extends BBPacket {
 	 * {@link BBPacket#data} string.
 	 */
 	public void updateData() {
-		data = username + (location != null ? " l" + location.toString() : "") + (health > -1 ? " h" +
+		data = username + (location != null ? " l" + location.toString(locationPrecision) : "") + (health > -1 ? " h" +
 				health : "") + (toggleAdmin ? " a" : "") + (toggleFlyMode ? " f" : "") + (toggleGodMode ? " g" : "") +
 				(toggleVisibility ? " v" : "");
 	}
 
+	/**
+	 * @return 'true' iff the packet carries nothing but the player's location and/or health, meaning that it is made
+	 * obsolete by any newer such packet concerning the same player
+	 */
+	public boolean isStateUpdate() {
+		return (location != null || health > -1) && !toggleAdmin && !toggleFlyMode && !toggleGodMode &&
+				!toggleVisibility;
+	}
+
+	/**
+	 * Merges an older {@link #isStateUpdate() state update} concerning the same player into this one: any value this
+	 * packet does not carry is taken from the older packet, and the packet's {@link BBPacket#data data} is refreshed.
+	 * 
+	 * @param older The state update superseded by this packet
+	 */
+	public void absorb(Packet30PlayerUpdate older) {
+		if (location == null && older.location != null) {
+			location = older.location;
+			locationPrecision = older.locationPrecision;
+		}
+		if (health < 0)
+			health = older.health;
+		if (ack < 0 && older.ack >= 0) // Keep the acknowledgment piggybacked on the older update
+			setAck(older.ack, older.ackBits);
+		updateData();
+	}
+
 	/**
 	 * @return The username of the player whose status is being updated
 	 */
@@ -151,6 +182,16 @@ public class Packet30PlayerUpdate extends BBPacket {
 		this.location = location;
 	}
 
+	/**
+	 * Specifies the number of decimal places with which to send the {@link #location}. Lower precision is used for
+	 * clients on poor network links in order to shorten the updates sent to them.
+	 * 
+	 * @param decimals The number of decimal places, or -1 for full precision
+	 */
+	public void setLocationPrecision(int decimals) {
+		locationPrecision = decimals;
+	}
+
 	/**
 	 * @return The player's {@link #health} level
 	 */
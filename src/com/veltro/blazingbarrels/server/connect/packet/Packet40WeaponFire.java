@@ -8,6 +8,9 @@ import com.veltro.blazingbarrels.server.game.Player;
 import com.veltro.blazingbarrels.server.game.Vector3D;
 import com.veltro.blazingbarrels.server.game.WeaponType;
 import com.veltro.blazingbarrels.server.game.World;
+import com.veltro.blazingbarrels.server.jfr.WeaponFireEvent;
+import com.veltro.blazingbarrels.server.log.LogLevel;
+import com.veltro.blazingbarrels.server.log.ServerLog;
 
 /**
  * This packet is sent from a client to the server when the client fires a weapon, and from the server to all connected
@@ -58,60 +61,135 @@ public class Packet40WeaponFire extends BBPacket {
 	}
 
 	/**
-	 * Checks to ensure that the shooter (the player with the provided {@link #username}) is legitimate, and then
-	 * handles the firing of the weapon. If the weapon is a nuke, all players except for the shooter are killed. If the
-	 * weapon is an EMP, no handling is done server-side. If the weapon is of any other type, the weapon's trajectory
-	 * is checked for collision with a player using mathematical operations on {@link Vector3D} objects. If a collision
-	 * occurs, the target player is damaged according to the {@link WeaponType}'s damage and damage dropoff values. If
-	 * the player is killed by the shot, the occurrence is printed to console.
+	 * Checks to ensure that the shooter (the player with the provided {@link #username} or session ID) is legitimate,
+	 * and then handles the firing of the weapon. If the weapon is a nuke, all players except for the shooter are
+	 * killed. If the weapon is an EMP, no handling is done server-side. If the weapon is of any other type, the
+	 * weapon's trajectory is checked for collision with a player using mathematical operations on {@link Vector3D}
+	 * objects. If a collision occurs, the target player is damaged according to the {@link WeaponType}'s damage and
+	 * damage dropoff values. If the player is killed by the shot, the occurrence is printed to console.
 	 */
 	public void handle() {
-		Player shooter = World.getPlayer(username);
+		Player shooter = findSender(username);
 		if (shooter == null)
 			return;
-		shooter.setClientAddress(address);
-		shooter.setClientPort(port);
+		if (username == null) { // The shooter used its session ID; clients are sent the shooter's name
+			username = shooter.getName();
+			data = username + " " + data;
+		}
+		BBServer.getMatchRecorder().recordFire(shooter, trajectoryRay, type);
+		WeaponFireEvent event = new WeaponFireEvent();
+		event.begin();
 
 		// Handle abnormal weapons
 		if (type.equals(WeaponType.NUKE)) {
 			BBServer.getPacketManager().broadcastPacket(this);
+			int victims = 0;
 			for (Player p : World.getPlayers())
-				if (p.getName() != username)
-					p.damage(p.getHealth() + 1); // Make sure no one survives the blast
-			System.out.println(shooter.getName() + " used activated the doomsday device!");
+				if (p != shooter) {
+					p.damage(p.getHealth() + 1, shooter); // Make sure no one survives the blast
+					victims++;
+				}
+			ServerLog.log(LogLevel.INFO, "{} used activated the doomsday device!", shooter.getName());
+			commitEvent(event, shooter, victims, victims);
 			return;
 		}
 		if (type.equals(WeaponType.EMP)) {
 			BBServer.getPacketManager().broadcastPacket(this);
+			commitEvent(event, shooter, 0, 0);
 			return;
 		}
 
 		// Handle linear trajectory weapons:
-		Vector3D direction = new Vector3D((float) Math.cos(trajectoryRay.getYaw()),
-				(float) Math.sin(trajectoryRay.getYaw()), (float) Math.sin(trajectoryRay.getPitch())), // Unit vector
-				source = new Vector3D(trajectoryRay.getX(), trajectoryRay.getY(), trajectoryRay.getZ()); // Source
+		Vector3D direction = getDirection(trajectoryRay), source = getSource(trajectoryRay);
+		int candidates = 0, hits = 0;
 		for (Player p : World.getPlayers()) {
-			if ((direction.getX() >= 0 && p.getLocation().getX() + Player.SHIELD_RADIUS < source.getX()) ||
-			(direction.getY() >= 0 && p.getLocation().getY() + Player.SHIELD_RADIUS < source.getY()) ||
-			(direction.getZ() >= 0 && p.getLocation().getZ() + Player.SHIELD_RADIUS < source.getZ()))
+			if (!isInPath(source, direction, p.getLocation()))
 				continue;
 			// Player is a potential target
-			Vector3D target = new Vector3D(p.getLocation().getX(), p.getLocation().getY(), p.getLocation().getZ());
-			if (Math.sqrt(Math.pow(direction.dot(source.add(target)), 2) + (Player.SHIELD_RADIUS ^ 2) -
-					source.add(target.negate()).square()) >= 0) { // The shot has hit the player
-				p.damage(type.damage - (int) (type.damageDropoff * trajectoryRay.distanceTo(p.getLocation()) / 100.0));
+			candidates++;
+			if (isHit(source, direction, p.getLocation())) { // The shot has hit the player
+				hits++;
+				p.damage(type.damage - (int) (type.damageDropoff * trajectoryRay.distanceTo(p.getLocation()) / 100.0),
+						shooter);
 				if (p.getHealth() == BBServer.getConfig().getHealthCap()) { // The shot killed the player
 					// TODO: broadcast packet explaining that the player was killed by the shooter
-					System.out.println(p.getName() + "'s ship was destroyed by " + shooter.getName() + " using a " +
-							type.toString());
+					ServerLog.log(LogLevel.INFO, "{}'s ship was destroyed by {} using a {}", p.getName(),
+							shooter.getName(), type);
 				}
 			}
 			
 		}
+		commitEvent(event, shooter, candidates, hits);
 		BBServer.getPacketManager().broadcastPacket(this);
 		
 	}
 
+	/**
+	 * @param trajectory The trajectory of a shot
+	 * @return The unit vector in the direction of the shot
+	 */
+	public static Vector3D getDirection(Location3D trajectory) {
+		return new Vector3D((float) Math.cos(trajectory.getYaw()), (float) Math.sin(trajectory.getYaw()),
+				(float) Math.sin(trajectory.getPitch()));
+	}
+
+	/**
+	 * @param trajectory The trajectory of a shot
+	 * @return The point from which the shot was fired
+	 */
+	public static Vector3D getSource(Location3D trajectory) {
+		return new Vector3D(trajectory.getX(), trajectory.getY(), trajectory.getZ());
+	}
+
+	/**
+	 * Checks whether a player stands in the path of a shot, that is, not behind the point from which it was fired
+	 * along any axis the shot is heading up. Only the players in the path are {@link #isHit(Vector3D, Vector3D,
+	 * Location3D) checked for a hit}.
+	 * 
+	 * @param source The {@link #getSource(Location3D) point} from which the shot was fired
+	 * @param direction The {@link #getDirection(Location3D) direction} of the shot
+	 * @param target The location of the player
+	 * @return 'true' iff the player is in the path of the shot
+	 */
+	public static boolean isInPath(Vector3D source, Vector3D direction, Location3D target) {
+		return !((direction.getX() >= 0 && target.getX() + Player.SHIELD_RADIUS < source.getX()) ||
+				(direction.getY() >= 0 && target.getY() + Player.SHIELD_RADIUS < source.getY()) ||
+				(direction.getZ() >= 0 && target.getZ() + Player.SHIELD_RADIUS < source.getZ()));
+	}
+
+	/**
+	 * Checks a shot for collision with the shield of a player in its {@link #isInPath(Vector3D, Vector3D, Location3D)
+	 * path}. This is plain geometry on the shot and the player's location, and touches no other state.
+	 * 
+	 * @param source The {@link #getSource(Location3D) point} from which the shot was fired
+	 * @param direction The {@link #getDirection(Location3D) direction} of the shot
+	 * @param target The location of the player
+	 * @return 'true' iff the shot hits the player
+	 */
+	public static boolean isHit(Vector3D source, Vector3D direction, Location3D target) {
+		Vector3D position = new Vector3D(target.getX(), target.getY(), target.getZ());
+		return Math.sqrt(Math.pow(direction.dot(source.add(position)), 2) + (Player.SHIELD_RADIUS ^ 2) -
+				source.add(position.negate()).square()) >= 0;
+	}
+
+	/**
+	 * Ends the provided event, recording the resolution of this shot, and commits it if the Flight Recorder is
+	 * recording such events
+	 * 
+	 * @param event The event begun when the resolution of the shot started
+	 * @param shooter The player that fired the shot
+	 * @param candidates The number of players checked for a hit
+	 * @param hits The number of players hit
+	 */
+	private void commitEvent(WeaponFireEvent event, Player shooter, int candidates, int hits) {
+		event.end();
+		if (!event.shouldCommit())
+			return;
+		event.setShot(shooter.getName(), type);
+		event.setOutcome(candidates, hits);
+		event.commit();
+	}
+
 	/**
 	 * @return The name of the player that fired the shot
 	 */
@@ -0,0 +1,268 @@
+package com.veltro.blazingbarrels.server.game;
+
+import java.nio.charset.Charset;
+
+/**
+ * Formats and parses the decimal floats of the text protocol (the coordinates of {@link Location3D locations}, mostly)
+ * directly on byte arrays, without the intermediate Strings and the general-purpose algorithms of Float.toString()
+ * and Float.parseFloat().<p>
+ *
+ * Values are formatted in fixed-point notation, rounded to a given number of decimal places, with trailing zeros and
+ * a bare decimal point removed: 2 is formatted as "2" and 0.5 as "0.5". Parsing a value formatted with a given number
+ * of decimal places yields the original value to within half a unit in the last place kept.<p>
+ *
+ * With full precision, values of magnitudes from {@value #MIN_FULL_PRECISION} up to (but excluding)
+ * {@value #MAX_FULL_PRECISION}, as well as zero, are formatted in fixed-point notation with as many significant digits
+ * as it takes for them to parse back to the exact same float. In that range the output is never longer than what
+ * Float.toString() produces, and usually shorter; all other values are formatted by Float.toString(), which uses
+ * exponent notation for them. The parser takes the fast path for plain
+ * decimal numbers, which is all that the formatter produces, and falls back to Float.parseFloat() for anything else
+ * (such as the exponent notation older clients may send), so it accepts everything Float.parseFloat() does.<p>
+ *
+ * Values too large to be formatted in fixed-point notation with a given number of decimal places, as well as
+ * infinities and NaN, are formatted by Float.toString().
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public final class FloatCodec {
+
+	/**
+	 * The maximum number of decimal places a value can be formatted with
+	 */
+	public static final int MAX_DECIMALS = 6;
+
+	/**
+	 * The number of significant digits kept when formatting a value with full precision, which is as many as a float
+	 * holds. Up to {@value #MAX_SIGNIFICANT_DIGITS} are kept for the values that would not parse back exactly.
+	 */
+	public static final int SIGNIFICANT_DIGITS = 7;
+
+	/**
+	 * The number of significant digits that tells any float apart from its neighbours
+	 */
+	public static final int MAX_SIGNIFICANT_DIGITS = 9;
+
+	/**
+	 * The smallest non-zero magnitude formatted in fixed-point notation with full precision, below which
+	 * Float.toString() switches to exponent notation (and is shorter)
+	 */
+	public static final double MIN_FULL_PRECISION = 1e-3;
+
+	/**
+	 * The magnitude from which values are formatted by Float.toString() with full precision, as Float.toString()
+	 * switches to exponent notation there (and is shorter)
+	 */
+	public static final double MAX_FULL_PRECISION = 1e7;
+
+	/**
+	 * The maximum length, in bytes, of a formatted value
+	 */
+	public static final int MAX_LENGTH = 24;
+
+	/**
+	 * The magnitude from which values are formatted by Float.toString()
+	 */
+	private static final double FIXED_POINT_LIMIT = 1e15;
+
+	/**
+	 * The bound below which a value scaled by a power of ten must stay to be rounded to a long without overflowing
+	 */
+	private static final double MAX_SCALED = 9e18;
+
+	/**
+	 * The maximum number of digits the fast path of the parser accepts
+	 */
+	private static final int MAX_PARSED_DIGITS = 18;
+
+	/**
+	 * The powers of ten up to 10 to the power of {@value #MAX_PARSED_DIGITS}
+	 */
+	private static final long[] POWERS_OF_TEN = new long[MAX_PARSED_DIGITS + 1];
+
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++)
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+	}
+
+	/**
+	 * The character set of the text protocol
+	 */
+	private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+	/**
+	 * FloatCodec is a utility class and is never instantiated
+	 */
+	private FloatCodec() { }
+
+	/**
+	 * Formats the provided value into the provided array
+	 *
+	 * @param value The value to format
+	 * @param decimals The number of decimal places to keep (0 to {@value #MAX_DECIMALS}; larger numbers are treated as
+	 * the maximum), or a negative number for full precision. Large values keep fewer decimal places if their digits
+	 * would not fit in a long otherwise. Values outside the fixed-point range of full precision are formatted by
+	 * Float.toString() (see the {@link FloatCodec class description}).
+	 * @param out The array to write to, which must have at least {@value #MAX_LENGTH} bytes left after the offset
+	 * @param offset The index at which to start writing
+	 * @return The index following the last byte written
+	 */
+	public static int format(float value, int decimals, byte[] out, int offset) {
+		double magnitude = Math.abs((double) value);
+		boolean fixedPoint = decimals < 0 ? magnitude == 0 || (magnitude >= MIN_FULL_PRECISION &&
+				magnitude < MAX_FULL_PRECISION) : magnitude < FIXED_POINT_LIMIT; // Also excludes NaN
+		if (!fixedPoint) {
+			String text = Float.toString(value);
+			for (int i = 0; i < text.length(); i++)
+				out[offset++] = (byte) text.charAt(i);
+			return offset;
+		}
+		long scaled;
+		if (decimals < 0) { // Keep as many decimal places as the significant digits left by the integer part allow
+			decimals = SIGNIFICANT_DIGITS - 1;
+			for (long limit = 10; decimals > 0 && magnitude >= limit; limit *= 10)
+				decimals--;
+			for (double limit = 1; magnitude != 0 && magnitude < limit; limit /= 10)
+				decimals++;
+			scaled = Math.round(magnitude * POWERS_OF_TEN[decimals]);
+			for (int extra = SIGNIFICANT_DIGITS; extra < MAX_SIGNIFICANT_DIGITS && (float) ((double) scaled /
+					POWERS_OF_TEN[decimals]) != (float) magnitude; extra++) // Keep a digit more until it parses back
+				scaled = Math.round(magnitude * POWERS_OF_TEN[++decimals]);
+		} else {
+			decimals = Math.min(decimals, MAX_DECIMALS);
+			while (decimals > 0 && magnitude * POWERS_OF_TEN[decimals] >= MAX_SCALED) // Drop what a long cannot hold
+				decimals--;
+			scaled = Math.round(magnitude * POWERS_OF_TEN[decimals]);
+		}
+		if (value < 0 && scaled != 0)
+			out[offset++] = '-';
+		long fraction = scaled % POWERS_OF_TEN[decimals];
+		offset = formatDigits(scaled / POWERS_OF_TEN[decimals], 1, out, offset);
+		if (fraction == 0)
+			return offset;
+		while (fraction % 10 == 0) {
+			fraction /= 10;
+			decimals--;
+		}
+		out[offset++] = '.';
+		return formatDigits(fraction, decimals, out, offset);
+	}
+
+	/**
+	 * Formats the provided value, for the code paths that build Strings rather than byte arrays
+	 *
+	 * @param value The value to format
+	 * @param decimals The number of decimal places to keep, or a negative number for full precision
+	 * @return The formatted value
+	 * @see #format(float, int, byte[], int)
+	 */
+	public static String toString(float value, int decimals) {
+		byte[] buffer = new byte[MAX_LENGTH];
+		return new String(buffer, 0, format(value, decimals, buffer, 0), US_ASCII);
+	}
+
+	/**
+	 * Writes the provided non-negative integer in decimal notation, padded with leading zeros to the provided width
+	 *
+	 * @param value The integer to write
+	 * @param width The minimum number of digits to write
+	 * @param out The array to write to
+	 * @param offset The index at which to start writing
+	 * @return The index following the last digit written
+	 */
+	private static int formatDigits(long value, int width, byte[] out, int offset) {
+		int length = 1;
+		for (long v = value / 10; v > 0; v /= 10)
+			length++;
+		length = Math.max(length, width);
+		for (int i = offset + length - 1; i >= offset; i--) {
+			out[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		return offset + length;
+	}
+
+	/**
+	 * Parses the value in the provided range of the provided array
+	 *
+	 * @param in The array containing the value
+	 * @param start The index of the value's first byte
+	 * @param end The index following the value's last byte
+	 * @return The value
+	 * @throws NumberFormatException Thrown if the range does not contain a valid float
+	 */
+	public static float parse(byte[] in, int start, int end) {
+		int i = start;
+		boolean negative = false;
+		if (i < end && (in[i] == '-' || in[i] == '+'))
+			negative = in[i++] == '-';
+		long mantissa = 0;
+		int digits = 0, decimals = -1; // No decimal point yet
+		for (; i < end; i++) {
+			int c = in[i];
+			if (c >= '0' && c <= '9' && digits < MAX_PARSED_DIGITS) {
+				mantissa = mantissa * 10 + c - '0';
+				digits++;
+				if (decimals >= 0)
+					decimals++;
+			} else if (c == '.' && decimals < 0) {
+				decimals = 0;
+			} else {
+				return Float.parseFloat(new String(in, start, end - start, US_ASCII));
+			}
+		}
+		return toFloat(mantissa, digits, decimals, negative);
+	}
+
+	/**
+	 * Parses the value in the provided range of the provided text, for the code paths that work on Strings rather
+	 * than byte arrays
+	 *
+	 * @param in The text containing the value
+	 * @param start The index of the value's first character
+	 * @param end The index following the value's last character
+	 * @return The value
+	 * @throws NumberFormatException Thrown if the range does not contain a valid float
+	 * @see #parse(byte[], int, int)
+	 */
+	public static float parse(CharSequence in, int start, int end) {
+		int i = start;
+		boolean negative = false;
+		if (i < end && (in.charAt(i) == '-' || in.charAt(i) == '+'))
+			negative = in.charAt(i++) == '-';
+		long mantissa = 0;
+		int digits = 0, decimals = -1; // No decimal point yet
+		for (; i < end; i++) {
+			char c = in.charAt(i);
+			if (c >= '0' && c <= '9' && digits < MAX_PARSED_DIGITS) {
+				mantissa = mantissa * 10 + c - '0';
+				digits++;
+				if (decimals >= 0)
+					decimals++;
+			} else if (c == '.' && decimals < 0) {
+				decimals = 0;
+			} else {
+				return Float.parseFloat(in.subSequence(start, end).toString());
+			}
+		}
+		return toFloat(mantissa, digits, decimals, negative);
+	}
+
+	/**
+	 * Combines the parts of a parsed decimal number into a float
+	 *
+	 * @param mantissa The digits of the number, read as an integer
+	 * @param digits The number of digits read
+	 * @param decimals The number of digits after the decimal point (-1 if there is no decimal point)
+	 * @param negative Whether the number has a minus sign
+	 * @return The number
+	 * @throws NumberFormatException Thrown if no digits were read
+	 */
+	private static float toFloat(long mantissa, int digits, int decimals, boolean negative) {
+		if (digits == 0)
+			throw new NumberFormatException("A number must contain at least one digit");
+		double value = decimals > 0 ? (double) mantissa / POWERS_OF_TEN[decimals] : mantissa;
+		return (float) (negative ? -value : value);
+	}
+}
@@ -1,5 +1,7 @@
 package com.veltro.blazingbarrels.server.game;
 
+import java.nio.charset.Charset;
+
 /**
  * Location3D objects represent three-dimensional locations that factor in rotation (yaw, pitch, and roll). NOTE: the
  * 'up and down' dimension is the y dimension, as is the convention for graphics design. The z axis runs into the
@@ -12,6 +14,16 @@ package com.veltro.blazingbarrels.server.game;
  */
 public class Location3D {
 
+	/**
+	 * The maximum length, in bytes, of a location rendered as text
+	 */
+	public static final int MAX_LENGTH = 6 * FloatCodec.MAX_LENGTH + 5;
+
+	/**
+	 * The character set of the text protocol
+	 */
+	private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
 	/**
 	 * The x-coordinate of the location, in pixels
 	 */
@@ -71,20 +83,25 @@ public class Location3D {
 	 */
 	public Location3D(String locationString) {
 		this(); // Load defaults
-		String[] data = locationString.split(":");
-		if (data.length != 6)
-			return;
-		try {
-			x = Float.parseFloat(data[0]);
-			y = Float.parseFloat(data[1]);
-			z = Float.parseFloat(data[2]);
-			yaw = Float.parseFloat(data[3]);
-			pitch = Float.parseFloat(data[4]);
-			roll = Float.parseFloat(data[5]);
-		} catch (NumberFormatException e) { // Invalid formatting - revert to default location
-			return;
+		float[] values = new float[6];
+		int start = 0;
+		for (int i = 0; i < 6; i++) {
+			int end = i < 5 ? locationString.indexOf(':', start) : locationString.length();
+			if (end < 0 || (i == 5 && locationString.indexOf(':', start) >= 0))
+				return;
+			try {
+				values[i] = FloatCodec.parse(locationString, start, end);
+			} catch (NumberFormatException e) { // Invalid formatting - revert to default location
+				return;
+			}
+			start = end + 1;
 		}
-			
+		x = values[0];
+		y = values[1];
+		z = values[2];
+		yaw = values[3];
+		pitch = values[4];
+		roll = values[5];
 	}
 
 	/**
@@ -169,14 +186,50 @@ public class Location3D {
 	 * @return The distance, a float value, between the two locations
 	 */
 	public float distanceTo(Location3D anotherLocation) {
-		return (float) Math.sqrt(Math.pow(x, 2) + Math.pow(y, 2) + Math.pow(z, 2));
+		float dx = anotherLocation.x - x, dy = anotherLocation.y - y, dz = anotherLocation.z - z;
+		return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
 	}
 
 	/**
 	 * Stores the location's data in a String to be sent in a BBPacket
 	 */
 	public String toString() {
-		return x + ":" + y + ":" + z + ":" + yaw + ":" + pitch + ":" + roll;
+		return toString(-1);
+	}
+
+	/**
+	 * Stores the location's data in a String to be sent in a BBPacket, rounding each value to the provided number of
+	 * decimal places. The result is parsed in the same way as that of {@link #toString()}, but is shorter.
+	 * 
+	 * @param decimals The number of decimal places to keep (0 to 6), or a negative number for full precision
+	 * @return The location rendered as a String
+	 */
+	public String toString(int decimals) {
+		byte[] buffer = new byte[MAX_LENGTH];
+		return new String(buffer, 0, write(buffer, 0, decimals), US_ASCII);
+	}
+
+	/**
+	 * Writes the location's data into the provided array in the format of {@link #toString(int)}, without creating
+	 * any Strings (see {@link FloatCodec})
+	 * 
+	 * @param out The array to write to, which must have at least {@value #MAX_LENGTH} bytes left after the offset
+	 * @param offset The index at which to start writing
+	 * @param decimals The number of decimal places to keep (0 to 6), or a negative number for full precision
+	 * @return The index following the last byte written
+	 */
+	public int write(byte[] out, int offset, int decimals) {
+		offset = FloatCodec.format(x, decimals, out, offset);
+		out[offset++] = ':';
+		offset = FloatCodec.format(y, decimals, out, offset);
+		out[offset++] = ':';
+		offset = FloatCodec.format(z, decimals, out, offset);
+		out[offset++] = ':';
+		offset = FloatCodec.format(yaw, decimals, out, offset);
+		out[offset++] = ':';
+		offset = FloatCodec.format(pitch, decimals, out, offset);
+		out[offset++] = ':';
+		return FloatCodec.format(roll, decimals, out, offset);
 	}
 
 	/**
@@ -0,0 +1,197 @@
+package com.veltro.blazingbarrels.server.game;
+
+/**
+ * A hash index of the players on the server, keyed by name. Names are compared the way the server has always compared
+ * them - ignoring case and surrounding whitespace - but without creating normalized copies: the hash is computed over
+ * the case-folded characters of the trimmed name, and candidates are compared in place. Lookups are thus constant time
+ * and allocation-free.<p>
+ *
+ * The index uses open addressing with linear probing over a power-of-two table kept at most half full. Removals shift
+ * the entries that follow back into place rather than leaving tombstones, so the table never degrades.<p>
+ *
+ * Like the {@link World} it belongs to, the index is only accessed by the thread running the game.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+class NameIndex {
+
+	/**
+	 * The initial capacity of the table (must be a power of two)
+	 */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * The indexed players, placed at the slot their name hashes to or the first free slot after it
+	 */
+	private Player[] table = new Player[INITIAL_CAPACITY];
+
+	/**
+	 * The hashes of the names of the players in the {@link #table}, kept alongside them so that probing and resizing
+	 * never need to rehash a name
+	 */
+	private int[] hashes = new int[INITIAL_CAPACITY];
+
+	/**
+	 * The number of players in the index
+	 */
+	private int size = 0;
+
+	/**
+	 * Retrieves the player with the provided name
+	 *
+	 * @param name The name to look up (case and surrounding whitespace are ignored)
+	 * @return The player, or null if no indexed player has that name
+	 */
+	public Player get(String name) {
+		int start = trimStart(name), end = trimEnd(name, start);
+		int hash = hash(name, start, end);
+		int mask = table.length - 1;
+		for (int i = hash & mask; table[i] != null; i = (i + 1) & mask)
+			if (hashes[i] == hash && matches(table[i].getName(), name, start, end))
+				return table[i];
+		return null;
+	}
+
+	/**
+	 * Adds the provided player to the index, unless a player with the same name is already indexed
+	 *
+	 * @param player The player to index
+	 * @return 'true' if the player was added, or 'false' if its name is taken
+	 */
+	public boolean put(Player player) {
+		String name = player.getName();
+		int start = trimStart(name), end = trimEnd(name, start);
+		int hash = hash(name, start, end);
+		int mask = table.length - 1;
+		int i = hash & mask;
+		for (; table[i] != null; i = (i + 1) & mask)
+			if (hashes[i] == hash && matches(table[i].getName(), name, start, end))
+				return false;
+		table[i] = player;
+		hashes[i] = hash;
+		if (++size * 2 > table.length)
+			resize();
+		return true;
+	}
+
+	/**
+	 * Removes the provided player from the index. A different player indexed under the same name is left untouched.
+	 *
+	 * @param player The player to remove
+	 * @return 'true' iff the player was indexed and has been removed
+	 */
+	public boolean remove(Player player) {
+		String name = player.getName();
+		int mask = table.length - 1;
+		int start = trimStart(name);
+		int i = hash(name, start, trimEnd(name, start)) & mask;
+		for (; table[i] != player; i = (i + 1) & mask)
+			if (table[i] == null)
+				return false;
+		table[i] = null;
+		size--;
+
+		// Shift back the entries of the probe sequence that follows, so that none of them is cut off from its slot:
+		for (int j = (i + 1) & mask; table[j] != null; j = (j + 1) & mask) {
+			int home = hashes[j] & mask;
+			if (((j - home) & mask) < ((j - i) & mask)) // The entry sits between its slot and the gap; leave it be
+				continue;
+			table[i] = table[j];
+			hashes[i] = hashes[j];
+			table[j] = null;
+			i = j;
+		}
+		return true;
+	}
+
+	/**
+	 * Removes every player from the index
+	 */
+	public void clear() {
+		for (int i = 0; i < table.length; i++)
+			table[i] = null;
+		size = 0;
+	}
+
+	/**
+	 * @return The number of players in the index
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Doubles the capacity of the table, reinserting every player
+	 */
+	private void resize() {
+		Player[] oldTable = table;
+		int[] oldHashes = hashes;
+		table = new Player[oldTable.length * 2];
+		hashes = new int[oldTable.length * 2];
+		int mask = table.length - 1;
+		for (int j = 0; j < oldTable.length; j++) {
+			if (oldTable[j] == null)
+				continue;
+			int i = oldHashes[j] & mask;
+			while (table[i] != null)
+				i = (i + 1) & mask;
+			table[i] = oldTable[j];
+			hashes[i] = oldHashes[j];
+		}
+	}
+
+	/**
+	 * Hashes the case-folded characters of the provided range of a name
+	 *
+	 * @param name The name to hash
+	 * @param start The index of the first character of the range
+	 * @param end The index after the last character of the range
+	 * @return The hash, with its high bits spread into the low ones used to pick a slot
+	 */
+	private static int hash(String name, int start, int end) {
+		int hash = 0;
+		for (int i = start; i < end; i++)
+			hash = 31 * hash + Character.toLowerCase(Character.toUpperCase(name.charAt(i)));
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Compares an indexed name with the provided range of a name being looked up, in the same way as the trimmed names
+	 * would be compared by String.equalsIgnoreCase()
+	 *
+	 * @param indexed The name of an indexed player
+	 * @param name The name being looked up
+	 * @param start The index of the first character of the looked-up range
+	 * @param end The index after the last character of the looked-up range
+	 * @return 'true' iff the names match
+	 */
+	private static boolean matches(String indexed, String name, int start, int end) {
+		int indexedStart = trimStart(indexed);
+		return trimEnd(indexed, indexedStart) - indexedStart == end - start &&
+				indexed.regionMatches(true, indexedStart, name, start, end - start);
+	}
+
+	/**
+	 * @param name A name
+	 * @return The index of the first character of the name that String.trim() would keep
+	 */
+	private static int trimStart(String name) {
+		int start = 0;
+		while (start < name.length() && name.charAt(start) <= ' ')
+			start++;
+		return start;
+	}
+
+	/**
+	 * @param name A name
+	 * @param start The name's {@link #trimStart(String) trimmed start}
+	 * @return The index after the last character of the name that String.trim() would keep
+	 */
+	private static int trimEnd(String name, int start) {
+		int end = name.length();
+		while (end > start && name.charAt(end - 1) <= ' ')
+			end--;
+		return end;
+	}
+}
@@ -6,7 +6,8 @@ import java.util.Set;
 
 import com.veltro.blazingbarrels.server.BBServer;
 import com.veltro.blazingbarrels.server.Configuration;
-import com.veltro.blazingbarrels.server.connect.packet.Packet10ServerSnapshot;
+import com.veltro.blazingbarrels.server.connect.Connection;
+import com.veltro.blazingbarrels.server.connect.PacketTrace;
 
 /**
  * Represents an in-game player connected to the server
@@ -16,6 +17,12 @@ import com.veltro.blazingbarrels.server.connect.packet.Packet10ServerSnapshot;
  */
 public class Player {
 
+	/**
+	 * The amount of time, in milliseconds, for which damage taken by a player is considered recent (see
+	 * {@link #wasRecentlyDamaged()})
+	 */
+	public static final int RECENT_DAMAGE_WINDOW = 2000;
+
 	/**
 	 * The radius, in pixels, of the "energy shield" sphere rendered around each player (used to handle collisions)
 	 */
@@ -37,6 +44,12 @@ public class Player {
 	 */
 	private int clientPort;
 
+	/**
+	 * The state of the network link to the player's client, used to adapt the rate at which the client is updated
+	 * and to deliver packets to it reliably
+	 */
+	private Connection connection;
+
 	/**
 	 * The player's {@link Location3D location} within the game world
 	 */
@@ -70,11 +83,34 @@ public class Player {
 	 */
 	private int health;
 
+	/**
+	 * The time (as given by System.currentTimeMillis()) at which the player last took damage, or 0 if it never has
+	 */
+	private long lastDamageTime = 0;
+
+	/**
+	 * The player that last damaged this player (null if the player has not been damaged by another player)
+	 */
+	private Player lastAttacker = null;
+
+	/**
+	 * The trace of the update that set the player's current location, if that update was sampled for tracing; the
+	 * trace is passed on to the updates carrying the location to other clients
+	 */
+	private PacketTrace locationTrace = null;
+
 	/**
 	 * A list of the types of updates to the player since the last time its information was sent to connected clients
 	 */
 	private Set<ChangeType> changes = new HashSet<ChangeType>();
 
+	/**
+	 * The record of the player's state last published in a {@link WorldView}, or null if the player has changed since
+	 * (or has yet to be published). Every method changing the state recorded discards the record; changes to the link
+	 * statistics recorded are detected when the next view is published.
+	 */
+	private PlayerView view = null;
+
 	/**
 	 * Simplest constructor. Calls the {@link #Player(String, InetAddress, int, Location3D, int, boolean, boolean,
 	 * boolean, boolean) complete constructor} with the provided name, address, and port, and default values for every
@@ -122,6 +158,7 @@ public class Player {
 		this.name = name;
 		this.clientAddress = clientAddress;
 		this.clientPort = clientPort;
+		connection = new Connection(clientAddress, clientPort);
 		this.location = location;
 		this.health = health;
 		admin = isAdmin;
@@ -131,10 +168,14 @@ public class Player {
 	}
 
 	/**
-	 * @return A string containing all of the player's data needed to add the player to a {@link Packet10ServerSnapshot}
+	 * @return The record of the player's current state, which is only created again once the player or its link
+	 * statistics have changed. Only called by the thread running the game, when {@link World#publishView()
+	 * publishing} a view.
 	 */
-	public String generateSnapshotString() {
-		return name + "." + location.toString() + "." + health + "." + (admin ? "1." : "0.") + (vanished ? "1" : "0");
+	PlayerView getView() {
+		if (view == null || !view.matches(connection))
+			view = new PlayerView(this);
+		return view;
 	}
 
 	/**
@@ -210,6 +251,7 @@ public class Player {
 	 */
 	public void setClientAddress(InetAddress address) {
 		clientAddress = address;
+		view = null;
 	}
 
 	/**
@@ -226,6 +268,32 @@ public class Player {
 	 */
 	public void setClientPort(int port) {
 		clientPort = port;
+		view = null;
+	}
+
+	/**
+	 * @return The player's {@link #connection}
+	 */
+	public Connection getConnection() {
+		return connection;
+	}
+
+	/**
+	 * Replaces the player's {@link #connection} (used to hand a player the connection established while its client
+	 * was being authorized)
+	 * 
+	 * @param connection The connection to the player's client
+	 */
+	public void setConnection(Connection connection) {
+		this.connection = connection;
+		view = null;
+	}
+
+	/**
+	 * @return The session ID issued to the player's client, or -1 if it has not been issued one
+	 */
+	public int getSessionID() {
+		return connection.getSessionID();
 	}
 
 	/**
@@ -242,9 +310,26 @@ public class Player {
 	 */
 	public void setLocation(Location3D location) {
 		this.location = location;
+		locationTrace = null;
+		view = null;
 		changes.add(ChangeType.LOCATION);
 	}
 
+	/**
+	 * @return The {@link #locationTrace trace} of the update that set the player's current location, or null if it was
+	 * not traced
+	 */
+	public PacketTrace getLocationTrace() {
+		return locationTrace;
+	}
+
+	/**
+	 * @param trace The {@link #locationTrace trace} of the update that has just set the player's location
+	 */
+	public void setLocationTrace(PacketTrace trace) {
+		locationTrace = trace;
+	}
+
 	/**
 	 * Moves the player to the specified coordinate position, leaving the player's rotation unchanged.
 	 * 
@@ -254,6 +339,8 @@ public class Player {
 	 */
 	public void teleport(float x, float y, float z) {
 		location.setPosition(x, y, z);
+		locationTrace = null;
+		view = null;
 		changes.add(ChangeType.LOCATION);
 	}
 
@@ -272,6 +359,7 @@ public class Player {
 	public void setHealth(int health) {
 		if (health == this.health)
 			return;
+		view = null;
 		changes.add(ChangeType.HEALTH);
 		if (health < 1) {
 			health = BBServer.getConfig().getHealthCap();
@@ -305,9 +393,48 @@ public class Player {
 	 * @param amount An integer value, normally positive
 	 */
 	public void damage(int amount) {
+		inflictDamage(amount, null);
+	}
+
+	/**
+	 * Decreases the player's {@link #health} by the provided amount, and records the provided player as the
+	 * {@link #lastAttacker}
+	 * 
+	 * @param amount An integer value, normally positive
+	 * @param attacker The player that dealt the damage
+	 */
+	public void damage(int amount, Player attacker) {
+		lastAttacker = attacker;
+		inflictDamage(amount, attacker);
+	}
+
+	/**
+	 * Decreases the player's {@link #health} by the provided amount, recording the damage in the match recording (if
+	 * one is in progress)
+	 * 
+	 * @param amount An integer value, normally positive
+	 * @param attacker The player that dealt the damage, or null if it was not dealt by a player
+	 */
+	private void inflictDamage(int amount, Player attacker) {
+		BBServer.getMatchRecorder().recordDamage(this, attacker, amount);
+		lastDamageTime = System.currentTimeMillis();
 		setHealth(health - amount);
 	}
 
+	/**
+	 * @return 'true' iff the player has taken damage within the last {@value #RECENT_DAMAGE_WINDOW} milliseconds
+	 */
+	public boolean wasRecentlyDamaged() {
+		return System.currentTimeMillis() - lastDamageTime < RECENT_DAMAGE_WINDOW;
+	}
+
+	/**
+	 * @return The {@link #lastAttacker player that last damaged this player}, if any
+	 */
+	public Player getLastAttacker() {
+		return lastAttacker;
+	}
+
 	/**
 	 * @return Whether the player is an administrator
 	 */
@@ -324,6 +451,7 @@ public class Player {
 		if (admin == status)
 			return;
 		admin = status;
+		view = null;
 		changes.add(ChangeType.ADMIN);
 	}
 
@@ -341,6 +469,7 @@ public class Player {
 	 */
 	public void setFlyMode(boolean active) {
 		flyMode = active;
+		view = null;
 	}
 
 	/**
@@ -357,6 +486,7 @@ public class Player {
 	 */
 	public void setGodMode(boolean active) {
 		godMode = active;
+		view = null;
 	}
 
 	/**
@@ -375,6 +505,7 @@ public class Player {
 		if (this.vanished == vanished)
 			return;
 		this.vanished = vanished;
+		view = null;
 		changes.add(ChangeType.VISIBILITY);
 	}
 }
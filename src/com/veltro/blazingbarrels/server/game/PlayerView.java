@@ -0,0 +1,240 @@
+package com.veltro.blazingbarrels.server.game;
+
+import java.net.InetAddress;
+
+import com.veltro.blazingbarrels.server.connect.Connection;
+
+/**
+ * An immutable record of a {@link Player}'s state and link statistics at the end of a cycle, as part of a
+ * {@link WorldView}. A player's record is only created again once the player or the statistics of its
+ * {@link Connection} have changed, so the views published while a player stands idle share the same record.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public final class PlayerView {
+
+	/**
+	 * The player's name
+	 */
+	private final String name;
+
+	/**
+	 * The session ID issued to the player's client
+	 */
+	private final int sessionID;
+
+	/**
+	 * The IP address of the player's client
+	 */
+	private final InetAddress clientAddress;
+
+	/**
+	 * The port of the player's client
+	 */
+	private final int clientPort;
+
+	/**
+	 * The smoothed round-trip time of the link to the player's client, in milliseconds (negative if not measured yet)
+	 */
+	private final float roundTripTime;
+
+	/**
+	 * The number of packets received from the player's client
+	 */
+	private final long packetsReceived;
+
+	/**
+	 * The number of bytes received from the player's client
+	 */
+	private final long bytesReceived;
+
+	/**
+	 * The number of packets queued for transmission to the player's client
+	 */
+	private final long packetsSent;
+
+	/**
+	 * The number of bytes queued for transmission to the player's client
+	 */
+	private final long bytesSent;
+
+	/**
+	 * A copy of the player's location, which is never modified
+	 */
+	private final Location3D location;
+
+	/**
+	 * The player's health level
+	 */
+	private final int health;
+
+	/**
+	 * Whether the player is an administrator
+	 */
+	private final boolean admin;
+
+	/**
+	 * Whether the player is in fly mode
+	 */
+	private final boolean flyMode;
+
+	/**
+	 * Whether the player is in god mode
+	 */
+	private final boolean godMode;
+
+	/**
+	 * Whether the player is vanished
+	 */
+	private final boolean vanished;
+
+	/**
+	 * Records the current state of the provided player. Only called by the thread running the game.
+	 *
+	 * @param player The player
+	 */
+	PlayerView(Player player) {
+		name = player.getName();
+		sessionID = player.getSessionID();
+		clientAddress = player.getClientAddress();
+		clientPort = player.getClientPort();
+		Connection connection = player.getConnection();
+		roundTripTime = connection.getRoundTripTime();
+		packetsReceived = connection.getPacketsReceived();
+		bytesReceived = connection.getBytesReceived();
+		packetsSent = connection.getPacketsSent();
+		bytesSent = connection.getBytesSent();
+		location = copy(player.getLocation());
+		health = player.getHealth();
+		admin = player.isAdmin();
+		flyMode = player.isFlyModeEnabled();
+		godMode = player.isGodModeEnabled();
+		vanished = player.isVanished();
+	}
+
+	/**
+	 * @param connection The connection to the player's client
+	 * @return 'true' iff the connection's statistics are those recorded
+	 */
+	boolean matches(Connection connection) {
+		return connection.getRoundTripTime() == roundTripTime && connection.getPacketsReceived() == packetsReceived &&
+				connection.getBytesReceived() == bytesReceived && connection.getPacketsSent() == packetsSent &&
+				connection.getBytesSent() == bytesSent;
+	}
+
+	/**
+	 * @param location A location
+	 * @return A new location with the same position and rotation
+	 */
+	private static Location3D copy(Location3D location) {
+		return new Location3D(location.getX(), location.getY(), location.getZ(), location.getYaw(),
+				location.getPitch(), location.getRoll());
+	}
+
+	/**
+	 * @return The player's name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return The session ID issued to the player's client
+	 */
+	public int getSessionID() {
+		return sessionID;
+	}
+
+	/**
+	 * @return The IP address of the player's client
+	 */
+	public InetAddress getClientAddress() {
+		return clientAddress;
+	}
+
+	/**
+	 * @return The port of the player's client
+	 */
+	public int getClientPort() {
+		return clientPort;
+	}
+
+	/**
+	 * @return The smoothed round-trip time of the link to the player's client, in milliseconds (negative if not
+	 * measured yet)
+	 */
+	public float getRoundTripTime() {
+		return roundTripTime;
+	}
+
+	/**
+	 * @return The number of packets received from the player's client
+	 */
+	public long getPacketsReceived() {
+		return packetsReceived;
+	}
+
+	/**
+	 * @return The number of bytes received from the player's client
+	 */
+	public long getBytesReceived() {
+		return bytesReceived;
+	}
+
+	/**
+	 * @return The number of packets queued for transmission to the player's client
+	 */
+	public long getPacketsSent() {
+		return packetsSent;
+	}
+
+	/**
+	 * @return The number of bytes queued for transmission to the player's client
+	 */
+	public long getBytesSent() {
+		return bytesSent;
+	}
+
+	/**
+	 * @return A copy of the player's recorded location, which the caller may modify
+	 */
+	public Location3D getLocation() {
+		return copy(location);
+	}
+
+	/**
+	 * @return The player's health level
+	 */
+	public int getHealth() {
+		return health;
+	}
+
+	/**
+	 * @return Whether the player is an administrator
+	 */
+	public boolean isAdmin() {
+		return admin;
+	}
+
+	/**
+	 * @return Whether the player is in fly mode
+	 */
+	public boolean isFlyModeEnabled() {
+		return flyMode;
+	}
+
+	/**
+	 * @return Whether the player is in god mode
+	 */
+	public boolean isGodModeEnabled() {
+		return godMode;
+	}
+
+	/**
+	 * @return Whether the player is vanished
+	 */
+	public boolean isVanished() {
+		return vanished;
+	}
+}
@@ -1,10 +1,14 @@
 package com.veltro.blazingbarrels.server.game;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 
 /**
  * This static class represents the game world and contains a number of its attributes as fields, such as the
- * {@link #players list of players} in-game.
+ * {@link #players list of players} in-game.<p>
+ * 
+ * The world is only modified and read by the thread running the game. Other threads read the {@link WorldView} it
+ * publishes at the end of every cycle instead, which never changes once published.
  * 
  * @author LinearLogic
  * @since 0.1.2
@@ -21,21 +25,53 @@ public class World {
 	 */
 	private static ArrayList<Player> players = new ArrayList<Player>();
 
+	/**
+	 * The connected players indexed by name, allowing them to be looked up by name in constant time
+	 */
+	private static NameIndex names = new NameIndex();
+
+	/**
+	 * The connected players indexed by session ID, allowing packets that identify their sender by session ID to be
+	 * attributed to a player in constant time
+	 */
+	private static Player[] sessions = new Player[16];
+
+	/**
+	 * The session IDs currently in use, whether by connected players or by clients that have been authorized but
+	 * have yet to join
+	 */
+	private static BitSet sessionIDs = new BitSet();
+
 	/**
 	 * A list of the locations used as spawn points. When a player spawns, one is chosen at random.
 	 */
 	private static ArrayList<Location3D> spawnPoints = new ArrayList<Location3D>();
 
+	/**
+	 * The view of the world last published, which any thread may read
+	 */
+	private static volatile WorldView view = WorldView.EMPTY;
+
 	/**
 	 * Adds the provided {@link Player} object to the list of {@link #players} on the server
 	 * 
 	 * @param player
 	 */
 	public static void addPlayer(Player player) {
-		for (Player p : players)
-			if (p.getName().equalsIgnoreCase(player.getName()))
-				return;
+		if (!names.put(player)) // A player with the same name is already connected
+			return;
 		players.add(player);
+		int sessionID = player.getSessionID();
+		if (sessionID < 0) { // The player did not go through authorization (and thus was not issued a session ID)
+			sessionID = allocateSessionID();
+			player.getConnection().setSessionID(sessionID);
+		}
+		if (sessionID >= sessions.length) {
+			Player[] expanded = new Player[Math.max(sessions.length * 2, sessionID + 1)];
+			System.arraycopy(sessions, 0, expanded, 0, sessions.length);
+			sessions = expanded;
+		}
+		sessions[sessionID] = player;
 	}
 
 	/**
@@ -46,23 +82,27 @@ public class World {
 	 * @return 'true' if the list contained the provided player and that player was removed, else 'false'
 	 */
 	public static boolean removePlayer(Player player) {
-		return players.remove(player);
+		if (!names.remove(player))
+			return false;
+		players.remove(player);
+		int sessionID = player.getSessionID();
+		if (sessionID >= 0 && sessionID < sessions.length && sessions[sessionID] == player) {
+			sessions[sessionID] = null;
+			releaseSessionID(sessionID);
+		}
+		return true;
 	}
 
 	/**
-	 * Searches the {@link #players list of players} for one whose name matches the provided string. If a match is
-	 * found, the player is removed from the player list.
+	 * Looks up the player whose name matches the provided string. If a match is found, the player is removed from the
+	 * player list.
 	 * 
 	 * @param name
 	 * @return 'true' if a player with the provided name is found and removed, else 'false'
 	 */
 	public static boolean removePlayer(String name) {
-		for (Player p : players)
-			if (p.getName().equalsIgnoreCase(name)) {
-				players.remove(p);
-				return true;
-			}
-		return false;
+		Player player = names.get(name);
+		return player != null && removePlayer(player);
 	}
 
 	/**
@@ -70,10 +110,16 @@ public class World {
 	 */
 	public static void clearPlayers() {
 		players.clear();
+		names.clear();
+		for (int i = 0; i < sessions.length; i++)
+			sessions[i] = null;
+		sessionIDs.clear();
+		publishView();
 	}
 
 	/**
-	 * @return The currently connected players as an Array
+	 * @return The currently connected players as an Array. Only to be called by the thread running the game; other
+	 * threads {@link #getView() read the view} published instead.
 	 */
 	public static Player[] getPlayers() {
 		Player[] output = new Player[players.size()];
@@ -82,12 +128,74 @@ public class World {
 		return output;
 	}
 
+	/**
+	 * Publishes a new {@link WorldView} of the players connected, for other threads to read. The records of the players
+	 * that have not changed since the last view are reused, as is the last view's array of records if none has. Called
+	 * by the thread running the game at the end of every cycle.
+	 */
+	public static void publishView() {
+		WorldView previous = view;
+		int count = players.size();
+		boolean changed = count != previous.getPlayerCount();
+		PlayerView[] records = new PlayerView[count];
+		for (int i = 0; i < count; i++) {
+			records[i] = players.get(i).getView();
+			if (!changed && records[i] != previous.getPlayer(i))
+				changed = true;
+		}
+		view = changed ? new WorldView(previous.getTick() + 1, records) : previous.next();
+	}
+
+	/**
+	 * @return The view of the world published at the end of the last cycle, which never changes and may be read from
+	 * any thread
+	 */
+	public static WorldView getView() {
+		return view;
+	}
+
+	/**
+	 * @param name The name of a player (case and surrounding whitespace are ignored)
+	 * @return The connected player with the provided name, or null if there is no such player
+	 */
 	public static Player getPlayer(String name) {
-		for (Player p : players)
-			if (p.getName().trim().equalsIgnoreCase(name.trim()))
-				return p;
-		return null;
+		if (name == null)
+			return null;
+		return names.get(name);
+	}
+
+	/**
+	 * @param sessionID The session ID issued to a player's client
+	 * @return The player with the provided session ID, or null if no connected player has that ID
+	 */
+	public static Player getPlayer(int sessionID) {
+		if (sessionID < 0 || sessionID >= sessions.length)
+			return null;
+		return sessions[sessionID];
 	}
+
+	/**
+	 * Reserves the lowest session ID that is not in use. The ID remains reserved until it is
+	 * {@link #releaseSessionID(int) released}, which happens automatically when the player it is issued to leaves.
+	 * 
+	 * @return The reserved session ID
+	 */
+	public static int allocateSessionID() {
+		int sessionID = sessionIDs.nextClearBit(0);
+		sessionIDs.set(sessionID);
+		return sessionID;
+	}
+
+	/**
+	 * Makes the provided session ID available for reuse
+	 * 
+	 * @param sessionID A session ID obtained from {@link #allocateSessionID()}
+	 */
+	public static void releaseSessionID(int sessionID) {
+		if (sessionID >= 0)
+			sessionIDs.clear(sessionID);
+	}
+
 	/**
 	 * Adds the provided location to the list of player spawn points
 	 * 
@@ -0,0 +1,102 @@
+package com.veltro.blazingbarrels.server.game;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable view of the {@link World} as it stood at the end of a cycle. The thread running the game publishes a
+ * new view at the end of every cycle, and any other thread - the console, the metrics - may read the latest through
+ * {@link World#getView()} without locking and without slowing the game down, always seeing a consistent state.<p>
+ *
+ * Views are structurally shared: each player's {@link PlayerView record} is only created again once the player or its
+ * link statistics have changed, and a view in which no player has changed reuses the records of the one before it.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public final class WorldView {
+
+	/**
+	 * The view published before the first cycle, in which no player is connected
+	 */
+	static final WorldView EMPTY = new WorldView(0, new PlayerView[0]);
+
+	/**
+	 * The number of views published before this one, which identifies the cycle at the end of which it was published
+	 */
+	private final long tick;
+
+	/**
+	 * The records of the players connected, which are never modified once the view is published
+	 */
+	private final PlayerView[] players;
+
+	/**
+	 * An unmodifiable list backed by the {@link #players} array
+	 */
+	private final List<PlayerView> playerList;
+
+	/**
+	 * @param tick The number of views published before this one
+	 * @param players The records of the players connected, which the view takes ownership of
+	 */
+	WorldView(long tick, PlayerView[] players) {
+		this.tick = tick;
+		this.players = players;
+		playerList = Collections.unmodifiableList(Arrays.asList(players));
+	}
+
+	/**
+	 * @return A view of the same players, published after this one
+	 */
+	WorldView next() {
+		return new WorldView(tick + 1, players);
+	}
+
+	/**
+	 * @return The number of views published before this one
+	 */
+	public long getTick() {
+		return tick;
+	}
+
+	/**
+	 * @return The records of the players connected, in the order they joined, as an unmodifiable list
+	 */
+	public List<PlayerView> getPlayers() {
+		return playerList;
+	}
+
+	/**
+	 * @return The number of players connected
+	 */
+	public int getPlayerCount() {
+		return players.length;
+	}
+
+	/**
+	 * @param index The index of a player in the view, below the {@link #getPlayerCount() player count}
+	 * @return The record of that player
+	 */
+	PlayerView getPlayer(int index) {
+		return players[index];
+	}
+
+	/**
+	 * Looks up a player by name. The view is scanned, which is cheap at the server's player caps and spares the game
+	 * the cost of indexing every view it publishes.
+	 *
+	 * @param name The name of a player (case and surrounding whitespace are ignored)
+	 * @return The record of the player with the provided name, or null if there is no such player in the view
+	 */
+	public PlayerView getPlayer(String name) {
+		if (name == null)
+			return null;
+		name = name.trim();
+		for (PlayerView player : players)
+			if (player.getName().trim().equalsIgnoreCase(name))
+				return player;
+		return null;
+	}
+}
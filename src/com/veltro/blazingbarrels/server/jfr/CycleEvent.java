@@ -0,0 +1,116 @@
+package com.veltro.blazingbarrels.server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import com.veltro.blazingbarrels.server.connect.CyclePhase;
+import com.veltro.blazingbarrels.server.connect.PacketManager;
+
+/**
+ * A Flight Recorder event spanning the work of a {@link PacketManager} cycle (excluding the wait rounding it out),
+ * with the duration of each of its {@link CyclePhase phases} and the load it handled, so that slow cycles can be
+ * lined up against the garbage collections, safepoints and lock contention recorded alongside.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+@Name("com.veltro.blazingbarrels.Cycle")
+@Label("Cycle")
+@Category({"BlazingBarrels", "Server"})
+@Description("The work of a server cycle, by phase")
+@StackTrace(false)
+public class CycleEvent extends Event {
+
+	/**
+	 * The duration of the {@link CyclePhase#DRAIN} phase
+	 */
+	@Label("Drain Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long drainTime;
+
+	/**
+	 * The duration of the {@link CyclePhase#HANDLE} phase
+	 */
+	@Label("Handle Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long handleTime;
+
+	/**
+	 * The duration of the {@link CyclePhase#COLLECT} phase
+	 */
+	@Label("Collect Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long collectTime;
+
+	/**
+	 * The duration of the {@link CyclePhase#ENCODE} phase
+	 */
+	@Label("Encode Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long encodeTime;
+
+	/**
+	 * The duration of the {@link CyclePhase#ENQUEUE} phase
+	 */
+	@Label("Enqueue Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long enqueueTime;
+
+	/**
+	 * The number of players on the server at the end of the cycle
+	 */
+	@Label("Players")
+	int players;
+
+	/**
+	 * The number of packets drained from the receiver thread's queue
+	 */
+	@Label("Packets Drained")
+	int packetsDrained;
+
+	/**
+	 * The number of packets in the sender thread's queue at the end of the cycle
+	 */
+	@Label("Packets Queued")
+	int packetsQueued;
+
+	/**
+	 * @param phase A phase of the cycle that has ended
+	 * @param duration The duration of the phase, in nanoseconds
+	 */
+	public void setPhaseTime(CyclePhase phase, long duration) {
+		switch (phase) {
+			case DRAIN:
+				drainTime = duration;
+				break;
+			case HANDLE:
+				handleTime = duration;
+				break;
+			case COLLECT:
+				collectTime = duration;
+				break;
+			case ENCODE:
+				encodeTime = duration;
+				break;
+			case ENQUEUE:
+				enqueueTime = duration;
+				break;
+		}
+	}
+
+	/**
+	 * @param players The number of players on the server at the end of the cycle
+	 * @param packetsDrained The number of packets drained from the receiver thread's queue
+	 * @param packetsQueued The number of packets in the sender thread's queue at the end of the cycle
+	 */
+	public void setLoad(int players, int packetsDrained, int packetsQueued) {
+		this.players = players;
+		this.packetsDrained = packetsDrained;
+		this.packetsQueued = packetsQueued;
+	}
+}
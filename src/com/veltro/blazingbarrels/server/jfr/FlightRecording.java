@@ -0,0 +1,86 @@
+package com.veltro.blazingbarrels.server.jfr;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.List;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Event;
+import jdk.jfr.Recording;
+
+/**
+ * Controls the Flight Recorder recording started from the console. A recording captures the JVM's own events (garbage
+ * collections, safepoints, lock contention, ...) with the "default" settings, which are cheap enough for a live
+ * server, together with all of the server's events, and is written to its destination file when it is stopped. At
+ * most one recording is in progress at a time.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public final class FlightRecording {
+
+	/**
+	 * The server's event types, all of which are enabled in recordings
+	 */
+	private static final List<Class<? extends Event>> EVENT_TYPES = Arrays.<Class<? extends Event>>asList(
+			CycleEvent.class, PacketReceivedEvent.class, PacketSentEvent.class, PlayerAuthEvent.class,
+			PlayerJoinEvent.class, PlayerDisconnectEvent.class, WeaponFireEvent.class);
+
+	/**
+	 * The recording in progress, or null if there is none
+	 */
+	private static Recording recording = null;
+
+	/**
+	 * FlightRecording is a utility class and is never instantiated
+	 */
+	private FlightRecording() { }
+
+	/**
+	 * Starts a recording
+	 *
+	 * @param destination The file the recording is to be written to when it is stopped
+	 * @throws IllegalStateException Thrown if a recording is already in progress
+	 * @throws IOException Thrown if the destination cannot be written to
+	 * @throws ParseException Thrown if the JVM's "default" settings cannot be read
+	 */
+	public static synchronized void start(Path destination) throws IOException, ParseException {
+		if (recording != null)
+			throw new IllegalStateException("A recording is already in progress");
+		Recording started = new Recording(Configuration.getConfiguration("default"));
+		started.setName("BBServer");
+		for (Class<? extends Event> type : EVENT_TYPES)
+			started.enable(type);
+		started.setDestination(destination);
+		started.start();
+		recording = started;
+	}
+
+	/**
+	 * Stops the recording in progress and writes it to its destination
+	 *
+	 * @return The file the recording was written to
+	 * @throws IllegalStateException Thrown if no recording is in progress
+	 */
+	public static synchronized Path stop() {
+		if (recording == null)
+			throw new IllegalStateException("No recording is in progress");
+		Path destination = recording.getDestination();
+		try {
+			recording.stop();
+		} finally {
+			recording.close();
+			recording = null;
+		}
+		return destination;
+	}
+
+	/**
+	 * @return 'true' iff a recording is in progress
+	 */
+	public static synchronized boolean isRecording() {
+		return recording != null;
+	}
+}
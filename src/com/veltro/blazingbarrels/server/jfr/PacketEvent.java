@@ -0,0 +1,69 @@
+package com.veltro.blazingbarrels.server.jfr;
+
+import java.net.InetAddress;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * The base of the Flight Recorder events describing the packets that pass through the server. The server handles far
+ * too many packets for each of them to be recorded, so only one in every {@value #SAMPLING_INTERVAL} is; each event
+ * carries that number as its weight, so that totals can still be estimated from a recording.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+@Category({"BlazingBarrels", "Network"})
+@StackTrace(false)
+public abstract class PacketEvent extends Event {
+
+	/**
+	 * The number of packets each event stands for
+	 */
+	public static final int SAMPLING_INTERVAL = 16;
+
+	/**
+	 * The ID of the packet
+	 */
+	@Label("Packet ID")
+	int packetID;
+
+	/**
+	 * The size of the packet, as it crossed the network
+	 */
+	@Label("Size")
+	@DataAmount(DataAmount.BYTES)
+	int size;
+
+	/**
+	 * The socket address of the client the packet came from or went to
+	 */
+	@Label("Client")
+	String client;
+
+	/**
+	 * The number of packets the event stands for
+	 */
+	@Label("Sample Weight")
+	int weight = SAMPLING_INTERVAL;
+
+	/**
+	 * Fills in the event's fields and commits it, provided that the event is enabled in a running recording
+	 *
+	 * @param packetID The ID of the packet
+	 * @param size The size of the packet
+	 * @param address The IP address of the client
+	 * @param port The port of the client
+	 */
+	protected void record(int packetID, int size, InetAddress address, int port) {
+		if (!shouldCommit())
+			return;
+		this.packetID = packetID;
+		this.size = size;
+		this.client = address.getHostAddress() + ":" + port;
+		commit();
+	}
+}
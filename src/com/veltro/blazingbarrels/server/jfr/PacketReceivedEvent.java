@@ -0,0 +1,42 @@
+package com.veltro.blazingbarrels.server.jfr;
+
+import java.net.InetAddress;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import com.veltro.blazingbarrels.server.connect.ReceiverThread;
+
+/**
+ * A Flight Recorder event recording one in every {@value PacketEvent#SAMPLING_INTERVAL} packets admitted by the
+ * {@link ReceiverThread}
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+@Name("com.veltro.blazingbarrels.PacketReceived")
+@Label("Packet Received")
+@Description("A sample of the packets received from clients")
+public class PacketReceivedEvent extends PacketEvent {
+
+	/**
+	 * The number of packets received since the last one recorded. Only accessed by the receiver thread.
+	 */
+	private static int skipped = 0;
+
+	/**
+	 * Records the provided packet if it is due to be sampled. Only called by the receiver thread.
+	 *
+	 * @param packetID The ID of the packet
+	 * @param size The size of the datagram containing the packet
+	 * @param address The IP address of the client that sent the packet
+	 * @param port The port of the client that sent the packet
+	 */
+	public static void sample(int packetID, int size, InetAddress address, int port) {
+		if (++skipped < SAMPLING_INTERVAL)
+			return;
+		skipped = 0;
+		new PacketReceivedEvent().record(packetID, size, address, port);
+	}
+}
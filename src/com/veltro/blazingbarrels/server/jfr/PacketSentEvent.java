@@ -0,0 +1,42 @@
+package com.veltro.blazingbarrels.server.jfr;
+
+import java.net.InetAddress;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import com.veltro.blazingbarrels.server.connect.SenderThread;
+
+/**
+ * A Flight Recorder event recording one in every {@value PacketEvent#SAMPLING_INTERVAL} packets sent by the
+ * {@link SenderThread}
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+@Name("com.veltro.blazingbarrels.PacketSent")
+@Label("Packet Sent")
+@Description("A sample of the packets sent to clients")
+public class PacketSentEvent extends PacketEvent {
+
+	/**
+	 * The number of packets sent since the last one recorded. Only accessed by the sender thread.
+	 */
+	private static int skipped = 0;
+
+	/**
+	 * Records the provided packet if it is due to be sampled. Only called by the sender thread.
+	 *
+	 * @param packetID The ID of the packet
+	 * @param size The total size of the datagrams the packet was sent in
+	 * @param address The IP address of the client the packet was sent to
+	 * @param port The port of the client the packet was sent to
+	 */
+	public static void sample(int packetID, int size, InetAddress address, int port) {
+		if (++skipped < SAMPLING_INTERVAL)
+			return;
+		skipped = 0;
+		new PacketSentEvent().record(packetID, size, address, port);
+	}
+}
@@ -0,0 +1,76 @@
+package com.veltro.blazingbarrels.server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import com.veltro.blazingbarrels.server.connect.packet.Packet00AuthRequest;
+import com.veltro.blazingbarrels.server.connect.packet.Packet01AuthResponse;
+
+/**
+ * A Flight Recorder event recording the handling of an {@link Packet00AuthRequest authorization request}
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+@Name("com.veltro.blazingbarrels.PlayerAuth")
+@Label("Player Authorization")
+@Category({"BlazingBarrels", "Players"})
+@Description("An authorization request handled by the server")
+@StackTrace(false)
+public class PlayerAuthEvent extends Event {
+
+	/**
+	 * The name of the player requesting authorization
+	 */
+	@Label("Player")
+	String player;
+
+	/**
+	 * The socket address of the player's client
+	 */
+	@Label("Client")
+	String client;
+
+	/**
+	 * The {@link Packet01AuthResponse response code} sent to the client
+	 */
+	@Label("Response Code")
+	int responseCode;
+
+	/**
+	 * The session ID issued to the client, or -1 if it was not authorized
+	 */
+	@Label("Session ID")
+	int sessionID;
+
+	/**
+	 * Whether the client opted in to compression
+	 */
+	@Label("Compression")
+	boolean compression;
+
+	/**
+	 * Records the handling of an authorization request, provided that the event is enabled in a running recording
+	 *
+	 * @param player The name of the player requesting authorization
+	 * @param client The socket address of the player's client
+	 * @param responseCode The response code sent to the client
+	 * @param sessionID The session ID issued to the client, or -1 if it was not authorized
+	 * @param compression Whether the client opted in to compression
+	 */
+	public static void record(String player, String client, int responseCode, int sessionID, boolean compression) {
+		PlayerAuthEvent event = new PlayerAuthEvent();
+		if (!event.shouldCommit())
+			return;
+		event.player = player;
+		event.client = client;
+		event.responseCode = responseCode;
+		event.sessionID = sessionID;
+		event.compression = compression;
+		event.commit();
+	}
+}
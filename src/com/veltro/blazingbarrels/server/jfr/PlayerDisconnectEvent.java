@@ -0,0 +1,59 @@
+package com.veltro.blazingbarrels.server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import com.veltro.blazingbarrels.server.connect.packet.Packet22PlayerDisconnect;
+
+/**
+ * A Flight Recorder event recording the departure of a player from the game
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+@Name("com.veltro.blazingbarrels.PlayerDisconnect")
+@Label("Player Disconnect")
+@Category({"BlazingBarrels", "Players"})
+@Description("A player leaving the game, whether by quitting, timing out or being kicked")
+@StackTrace(false)
+public class PlayerDisconnectEvent extends Event {
+
+	/**
+	 * The name of the player
+	 */
+	@Label("Player")
+	String player;
+
+	/**
+	 * The {@link Packet22PlayerDisconnect#getReasonID() reason} for the disconnect
+	 */
+	@Label("Reason")
+	String reason;
+
+	/**
+	 * The number of players left on the server
+	 */
+	@Label("Players")
+	int players;
+
+	/**
+	 * Records the departure of a player, provided that the event is enabled in a running recording
+	 *
+	 * @param player The name of the player
+	 * @param reasonID The reason for the disconnect: 0 for quitting, 1 for timing out and 2 for being kicked
+	 * @param players The number of players left on the server
+	 */
+	public static void record(String player, int reasonID, int players) {
+		PlayerDisconnectEvent event = new PlayerDisconnectEvent();
+		if (!event.shouldCommit())
+			return;
+		event.player = player;
+		event.reason = reasonID == 2 ? "kicked" : reasonID == 1 ? "timed out" : "quit";
+		event.players = players;
+		event.commit();
+	}
+}
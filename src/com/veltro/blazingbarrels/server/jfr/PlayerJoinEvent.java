@@ -0,0 +1,67 @@
+package com.veltro.blazingbarrels.server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import com.veltro.blazingbarrels.server.connect.packet.Packet20PlayerJoin;
+
+/**
+ * A Flight Recorder event recording the arrival of a player in the game (see {@link Packet20PlayerJoin})
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+@Name("com.veltro.blazingbarrels.PlayerJoin")
+@Label("Player Join")
+@Category({"BlazingBarrels", "Players"})
+@Description("A player joining the game")
+@StackTrace(false)
+public class PlayerJoinEvent extends Event {
+
+	/**
+	 * The name of the player
+	 */
+	@Label("Player")
+	String player;
+
+	/**
+	 * The session ID of the player's client
+	 */
+	@Label("Session ID")
+	int sessionID;
+
+	/**
+	 * Whether the player joined as a spectator
+	 */
+	@Label("Spectator")
+	boolean spectator;
+
+	/**
+	 * The number of players on the server, including the one joining
+	 */
+	@Label("Players")
+	int players;
+
+	/**
+	 * Records the arrival of a player, provided that the event is enabled in a running recording
+	 *
+	 * @param player The name of the player
+	 * @param sessionID The session ID of the player's client
+	 * @param spectator Whether the player joined as a spectator
+	 * @param players The number of players on the server, including the one joining
+	 */
+	public static void record(String player, int sessionID, boolean spectator, int players) {
+		PlayerJoinEvent event = new PlayerJoinEvent();
+		if (!event.shouldCommit())
+			return;
+		event.player = player;
+		event.sessionID = sessionID;
+		event.spectator = spectator;
+		event.players = players;
+		event.commit();
+	}
+}
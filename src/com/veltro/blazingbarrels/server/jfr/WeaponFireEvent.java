@@ -0,0 +1,69 @@
+package com.veltro.blazingbarrels.server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import com.veltro.blazingbarrels.server.connect.packet.Packet40WeaponFire;
+import com.veltro.blazingbarrels.server.game.WeaponType;
+
+/**
+ * A Flight Recorder event spanning the resolution of a shot (see {@link Packet40WeaponFire}): the players the shot was
+ * checked against, and those it hit. The cost of resolving a shot grows with the number of candidates, so this event
+ * shows what a burst of weapon fire costs a cycle.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+@Name("com.veltro.blazingbarrels.WeaponFire")
+@Label("Weapon Fire")
+@Category({"BlazingBarrels", "Game"})
+@Description("The resolution of a shot against the players in its path")
+@StackTrace(false)
+public class WeaponFireEvent extends Event {
+
+	/**
+	 * The name of the player who fired
+	 */
+	@Label("Shooter")
+	String shooter;
+
+	/**
+	 * The {@link WeaponType} fired
+	 */
+	@Label("Weapon")
+	String weapon;
+
+	/**
+	 * The number of players in the shot's path, which were checked for a hit
+	 */
+	@Label("Candidates")
+	int candidates;
+
+	/**
+	 * The number of players hit
+	 */
+	@Label("Hits")
+	int hits;
+
+	/**
+	 * @param shooter The name of the player who fired
+	 * @param weapon The weapon fired
+	 */
+	public void setShot(String shooter, WeaponType weapon) {
+		this.shooter = shooter;
+		this.weapon = weapon.toString();
+	}
+
+	/**
+	 * @param candidates The number of players checked for a hit
+	 * @param hits The number of players hit
+	 */
+	public void setOutcome(int candidates, int hits) {
+		this.candidates = candidates;
+		this.hits = hits;
+	}
+}
@@ -0,0 +1,44 @@
+package com.veltro.blazingbarrels.server.log;
+
+/**
+ * The severity of a message written to the {@link ServerLog}, in increasing order. Messages less severe than the
+ * configured level are discarded as soon as they are logged.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public enum LogLevel {
+
+	/**
+	 * Detail of interest when diagnosing the server, discarded by default
+	 */
+	DEBUG,
+
+	/**
+	 * Noteworthy events of the match, such as players failing to join or being killed
+	 */
+	INFO,
+
+	/**
+	 * Failures the server recovers from, such as a packet too large to send or a capture that cannot be written
+	 */
+	WARNING,
+
+	/**
+	 * Failures that stop part of the server, such as the spectator server's channel closing
+	 */
+	SEVERE;
+
+	/**
+	 * Retrieves a LogLevel by name, regardless of case
+	 *
+	 * @param name The name of a level
+	 * @return The level with that name, or null if there is none
+	 */
+	public static LogLevel getLevel(String name) {
+		for (LogLevel level : values())
+			if (level.name().equalsIgnoreCase(name))
+				return level;
+		return null;
+	}
+}
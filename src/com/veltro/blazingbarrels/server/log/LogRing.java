@@ -0,0 +1,165 @@
+package com.veltro.blazingbarrels.server.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock-free ring of log messages, appended to by any number of threads and drained by the single
+ * {@link LogWriter}. The slots are allocated once, and a message holds its template and arguments rather than the text
+ * they make up, so logging a message allocates nothing and leaves the formatting to the writer.<p>
+ *
+ * Each slot carries a sequence number telling whether it is free for the producer that claimed it or holds a message
+ * ready for the consumer. A producer claims a slot by advancing the {@link #tail} with a compare-and-set, fills the
+ * slot in, then publishes it by advancing its sequence; producers never wait on each other or on the writer. When the
+ * ring is full, the message is dropped and counted instead.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+class LogRing {
+
+	/**
+	 * The slots holding the messages
+	 */
+	private final Slot[] slots;
+
+	/**
+	 * The sequence number of each slot: equal to the position of the next message it may hold while it is free, and to
+	 * one more than the position of the message it holds once that message is published
+	 */
+	private final AtomicLongArray sequences;
+
+	/**
+	 * The mask mapping a position to the index of its slot
+	 */
+	private final int mask;
+
+	/**
+	 * The position of the next message to be claimed by a producer
+	 */
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * The number of messages dropped because the ring was full
+	 */
+	private final AtomicLong dropped = new AtomicLong();
+
+	/**
+	 * The position of the next message to be read by the consumer
+	 */
+	private long head = 0;
+
+	/**
+	 * @param capacity The number of messages the ring holds (rounded up to a power of two)
+	 */
+	LogRing(int capacity) {
+		int size = Integer.highestOneBit(Math.max(capacity, 2) * 2 - 1);
+		slots = new Slot[size];
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			slots[i] = new Slot();
+			sequences.set(i, i);
+		}
+		mask = size - 1;
+	}
+
+	/**
+	 * Appends a message to the ring, without waiting
+	 *
+	 * @param level The message's level
+	 * @param template The message's template, in which each "{}" stands for the next argument
+	 * @param argCount The number of arguments (up to 3)
+	 * @param a The first argument
+	 * @param b The second argument
+	 * @param c The third argument
+	 * @return 'true' iff the message was appended, 'false' if it was dropped because the ring was full
+	 */
+	boolean offer(LogLevel level, String template, int argCount, Object a, Object b, Object c) {
+		long position = tail.get();
+		while (true) {
+			long difference = sequences.get((int) position & mask) - position;
+			if (difference == 0) {
+				if (tail.compareAndSet(position, position + 1))
+					break;
+				position = tail.get();
+			} else if (difference < 0) { // The slot still holds a message from a lap ago: the ring is full
+				dropped.incrementAndGet();
+				return false;
+			} else { // Another producer claimed the position
+				position = tail.get();
+			}
+		}
+		Slot slot = slots[(int) position & mask];
+		slot.level = level;
+		slot.time = System.currentTimeMillis();
+		slot.template = template;
+		slot.argCount = argCount;
+		slot.a = a;
+		slot.b = b;
+		slot.c = c;
+		sequences.lazySet((int) position & mask, position + 1);
+		return true;
+	}
+
+	/**
+	 * @return The oldest message of the ring, or null if the ring is empty. Only called by the consumer, which must
+	 * {@link #release()} the message once it is done with it.
+	 */
+	Slot peek() {
+		int index = (int) head & mask;
+		return sequences.get(index) == head + 1 ? slots[index] : null;
+	}
+
+	/**
+	 * Frees the slot of the oldest message for the producers. Only called by the consumer.
+	 */
+	void release() {
+		int index = (int) head & mask;
+		Slot slot = slots[index];
+		slot.template = null;
+		slot.a = slot.b = slot.c = null;
+		sequences.lazySet(index, head + slots.length);
+		head++;
+	}
+
+	/**
+	 * @return The number of messages dropped because the ring was full
+	 */
+	long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * A slot of the ring, holding a message while it waits to be written
+	 *
+	 * @author LinearLogic
+	 * @since 0.4.0
+	 */
+	static class Slot {
+
+		/**
+		 * The message's level
+		 */
+		LogLevel level;
+
+		/**
+		 * The wall-clock time (as given by System.currentTimeMillis()) at which the message was logged
+		 */
+		long time;
+
+		/**
+		 * The message's template, in which each "{}" stands for the next argument
+		 */
+		String template;
+
+		/**
+		 * The number of arguments of the message
+		 */
+		int argCount;
+
+		/**
+		 * The message's arguments
+		 */
+		Object a, b, c;
+	}
+}
@@ -0,0 +1,401 @@
+package com.veltro.blazingbarrels.server.log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A thread draining the {@link LogRing} of the {@link ServerLog}: it formats each message, writes it to the console
+ * (messages of level {@link LogLevel#WARNING} and above to the standard error stream) and appends it, time-stamped, to
+ * the log file, if there is one. The file is rotated once it reaches its maximum size: it becomes "&lt;file&gt;.1",
+ * the previous "&lt;file&gt;.1" becomes "&lt;file&gt;.2", and so on, the oldest being deleted.<p>
+ *
+ * A message repeated more than {@value #REPEAT_LIMIT} times within a second (that is, logged with the same template)
+ * is only written that many times, followed by a count of the repetitions withheld once the second is over. As the
+ * console and the file are only ever written to by this thread, a slow terminal or disk delays the log, and at worst
+ * fills its ring, but never the threads logging.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+class LogWriter extends Thread {
+
+	/**
+	 * The number of times a message may be written within a second before its repetitions are withheld
+	 */
+	public static final int REPEAT_LIMIT = 5;
+
+	/**
+	 * The time, in nanoseconds, the thread sleeps when the ring is empty
+	 */
+	private static final long IDLE_SLEEP = 5000000;
+
+	/**
+	 * The character set of the log file
+	 */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * The ring to drain
+	 */
+	private final LogRing ring;
+
+	/**
+	 * The log file (null if messages are only written to the console)
+	 */
+	private final File file;
+
+	/**
+	 * The size, in bytes, beyond which the log file is rotated
+	 */
+	private final long maxFileSize;
+
+	/**
+	 * The number of rotated files kept besides the log file
+	 */
+	private final int keptFiles;
+
+	/**
+	 * The repetitions of each message template within the current second
+	 */
+	private final Map<String, Repetition> repetitions = new HashMap<String, Repetition>();
+
+	/**
+	 * The reusable builder of the message text
+	 */
+	private final StringBuilder text = new StringBuilder(256);
+
+	/**
+	 * The format of the time stamps in the log file
+	 */
+	private final SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+
+	/**
+	 * The reusable date holding the time of the message being formatted
+	 */
+	private final Date date = new Date();
+
+	/**
+	 * The writer appending to the log file (null if there is no log file)
+	 */
+	private Writer out = null;
+
+	/**
+	 * The size, in bytes, of the log file
+	 */
+	private long fileSize = 0;
+
+	/**
+	 * The number of dropped messages already reported
+	 */
+	private long droppedReported = 0;
+
+	/**
+	 * Status flag for the loop. If set to false, causes the thread to drain the ring one last time and terminate
+	 */
+	private volatile boolean running = true;
+
+	/**
+	 * Opens the log file, if any, to append to it (if it cannot be opened, the log is only written to the console)
+	 *
+	 * @param ring The ring to drain
+	 * @param file The log file, or null to only write to the console
+	 * @param maxFileSize The size, in bytes, beyond which the log file is rotated
+	 * @param keptFiles The number of rotated files kept besides the log file
+	 */
+	LogWriter(LogRing ring, File file, long maxFileSize, int keptFiles) {
+		super("LogWriter");
+		setDaemon(true);
+		this.ring = ring;
+		this.file = file;
+		this.maxFileSize = maxFileSize;
+		this.keptFiles = keptFiles;
+		if (file == null)
+			return;
+		try {
+			openFile();
+		} catch (IOException e) {
+			System.err.println("Failed to open the log file " + file + ": " + e.getMessage() + "; the log is only " +
+					"written to the console.");
+		}
+	}
+
+	/**
+	 * Writes the messages as they are logged, until the thread is {@link #finish() finished}
+	 */
+	public void run() {
+		long nextCheck = 0;
+		while (true) {
+			boolean stopping = !running; // Read before draining, so that no message logged before finishing is missed
+			int written = drain();
+			long now = System.currentTimeMillis();
+			if (now >= nextCheck || stopping) {
+				reportWithheld(now, stopping);
+				reportDropped();
+				nextCheck = now + 1000;
+			}
+			if (written > 0 || stopping)
+				flush();
+			if (stopping)
+				break;
+			if (written == 0)
+				LockSupport.parkNanos(IDLE_SLEEP);
+		}
+		closeFile();
+	}
+
+	/**
+	 * Writes the messages in the ring
+	 *
+	 * @return The number of messages read from the ring
+	 */
+	private int drain() {
+		int count = 0;
+		LogRing.Slot slot;
+		while ((slot = ring.peek()) != null) {
+			if (admit(slot.template, slot.time)) {
+				text.setLength(0);
+				format(slot);
+				write(slot.level, slot.time);
+			}
+			ring.release();
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Counts a message against the {@link #REPEAT_LIMIT} of its template
+	 *
+	 * @param template The message's template
+	 * @param time The time at which the message was logged
+	 * @return 'true' iff the message is to be written, 'false' if it is withheld
+	 */
+	private boolean admit(String template, long time) {
+		Repetition repetition = repetitions.get(template);
+		if (repetition == null) {
+			repetition = new Repetition(time);
+			repetitions.put(template, repetition);
+		} else if (time - repetition.start >= 1000) {
+			if (repetition.withheld > 0)
+				writeWithheld(template, repetition);
+			repetition.start = time;
+			repetition.count = 0;
+			repetition.withheld = 0;
+		}
+		if (++repetition.count <= REPEAT_LIMIT)
+			return true;
+		repetition.withheld++;
+		return false;
+	}
+
+	/**
+	 * Reports the repetitions withheld during the seconds that are over, and forgets the templates not logged during
+	 * them
+	 *
+	 * @param now The current time, as given by System.currentTimeMillis()
+	 * @param all Whether to report the repetitions withheld during the current second as well
+	 */
+	private void reportWithheld(long now, boolean all) {
+		Iterator<Map.Entry<String, Repetition>> iterator = repetitions.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<String, Repetition> entry = iterator.next();
+			Repetition repetition = entry.getValue();
+			if (now - repetition.start < 1000 && !all)
+				continue;
+			if (repetition.withheld > 0)
+				writeWithheld(entry.getKey(), repetition);
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Writes the number of times a message was withheld
+	 *
+	 * @param template The message's template
+	 * @param repetition The message's repetitions
+	 */
+	private void writeWithheld(String template, Repetition repetition) {
+		text.setLength(0);
+		text.append("(The message \"").append(template).append("\" was repeated ").append(repetition.withheld)
+				.append(" more times)");
+		write(LogLevel.INFO, System.currentTimeMillis());
+	}
+
+	/**
+	 * Writes the number of messages dropped since the previous report, if any
+	 */
+	private void reportDropped() {
+		long dropped = ring.getDropped();
+		if (dropped == droppedReported)
+			return;
+		text.setLength(0);
+		text.append("(").append(dropped - droppedReported).append(" log messages were dropped, as the log could not ")
+				.append("keep up)");
+		droppedReported = dropped;
+		write(LogLevel.WARNING, System.currentTimeMillis());
+	}
+
+	/**
+	 * Formats a message into the {@link #text} builder, replacing each "{}" of its template by the next argument
+	 *
+	 * @param slot The slot holding the message
+	 */
+	private void format(LogRing.Slot slot) {
+		String template = slot.template;
+		int start = 0, argument = 0;
+		while (true) {
+			int placeholder = argument < slot.argCount ? template.indexOf("{}", start) : -1;
+			if (placeholder < 0)
+				break;
+			text.append(template, start, placeholder);
+			text.append(argument == 0 ? slot.a : argument == 1 ? slot.b : slot.c);
+			argument++;
+			start = placeholder + 2;
+		}
+		text.append(template, start, template.length());
+	}
+
+	/**
+	 * Writes the {@link #text} of a message to the console and the log file
+	 *
+	 * @param level The message's level
+	 * @param time The time at which the message was logged
+	 */
+	private void write(LogLevel level, long time) {
+		if (level.compareTo(LogLevel.WARNING) >= 0)
+			System.err.println(text);
+		else
+			System.out.println(text);
+		if (out == null)
+			return;
+		date.setTime(time);
+		String line = timeFormat.format(date) + " " + level + " " + text + "\n";
+		try {
+			out.write(line);
+			fileSize += line.length();
+			if (fileSize >= maxFileSize)
+				rotate();
+		} catch (IOException e) {
+			System.err.println("Failed to write to the log file " + file + ": " + e.getMessage() + "; the log is " +
+					"only written to the console from now on.");
+			closeFile();
+		}
+	}
+
+	/**
+	 * Flushes the log file, if any, so that what was written is not lost if the server is killed
+	 */
+	private void flush() {
+		if (out == null)
+			return;
+		try {
+			out.flush();
+		} catch (IOException e) {
+			System.err.println("Failed to write to the log file " + file + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Opens the log file to append to it
+	 *
+	 * @throws IOException Thrown if the file cannot be opened
+	 */
+	private void openFile() throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+			throw new IOException("Failed to create the directory " + parent);
+		out = new OutputStreamWriter(new FileOutputStream(file, true), UTF_8);
+		fileSize = file.length();
+	}
+
+	/**
+	 * Closes the log file, if open
+	 */
+	private void closeFile() {
+		if (out == null)
+			return;
+		try {
+			out.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		out = null;
+	}
+
+	/**
+	 * Shifts the rotated files by one, deleting the oldest, then moves the log file to "&lt;file&gt;.1" and starts a
+	 * new one
+	 *
+	 * @throws IOException Thrown if the new log file cannot be opened
+	 */
+	private void rotate() throws IOException {
+		closeFile();
+		for (int i = keptFiles; i >= 1; i--) {
+			File rotated = new File(file.getPath() + "." + i);
+			if (i == keptFiles) {
+				rotated.delete();
+				continue;
+			}
+			rotated.renameTo(new File(file.getPath() + "." + (i + 1)));
+		}
+		if (keptFiles > 0)
+			file.renameTo(new File(file.getPath() + ".1"));
+		else
+			file.delete();
+		openFile();
+	}
+
+	/**
+	 * Stops the thread once it has written the messages logged so far, and waits for it to do so
+	 */
+	void finish() {
+		running = false;
+		LockSupport.unpark(this);
+		try {
+			join();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * The number of times a message template was logged within a second
+	 *
+	 * @author LinearLogic
+	 * @since 0.4.0
+	 */
+	private static class Repetition {
+
+		/**
+		 * The time (as given by System.currentTimeMillis()) at which the second started
+		 */
+		private long start;
+
+		/**
+		 * The number of times the template was logged within the second
+		 */
+		private int count = 0;
+
+		/**
+		 * The number of times the message was withheld within the second
+		 */
+		private int withheld = 0;
+
+		/**
+		 * @param start The time (as given by System.currentTimeMillis()) at which the second starts
+		 */
+		private Repetition(long start) {
+			this.start = start;
+		}
+	}
+}
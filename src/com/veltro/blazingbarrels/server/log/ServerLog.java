@@ -0,0 +1,152 @@
+package com.veltro.blazingbarrels.server.log;
+
+import java.io.File;
+
+/**
+ * The server's log, through which the threads report what happens without ever waiting on the console or a disk.
+ * Logging a message only appends its template and arguments to a lock-free ring (see {@link LogRing}); a background
+ * {@link LogWriter} formats the messages and writes them to the console and, optionally, to a rotated log file.
+ * Messages less severe than the {@link #setLevel(LogLevel) level} are discarded at once, and so are messages logged
+ * while the ring is full, which are counted and reported instead.<p>
+ *
+ * A template is text in which each "{}" stands for the next argument, as in
+ * <code>ServerLog.log(LogLevel.INFO, "Player {} failed to join: server is full", username)</code>. Templates are
+ * meant to be constants, so that the messages repeated too often can be recognized by their template and withheld.
+ * Messages logged before the log is {@link #start(File, long, int) started} wait in the ring. If the log file cannot be
+ * opened or written to, the log is written to the console only.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public final class ServerLog {
+
+	/**
+	 * The number of messages the ring holds
+	 */
+	public static final int CAPACITY = 4096;
+
+	/**
+	 * The ring holding the messages waiting to be written
+	 */
+	private static final LogRing ring = new LogRing(CAPACITY);
+
+	/**
+	 * The least severe level of the messages written
+	 */
+	private static volatile LogLevel level = LogLevel.INFO;
+
+	/**
+	 * The thread writing the messages (null if the log is not started)
+	 */
+	private static LogWriter writer = null;
+
+	/**
+	 * ServerLog is a utility class and is never instantiated
+	 */
+	private ServerLog() { }
+
+	/**
+	 * Starts writing the messages logged, including those logged so far
+	 *
+	 * @param file The log file, or null to only write to the console
+	 * @param maxFileSize The size, in bytes, beyond which the log file is rotated
+	 * @param keptFiles The number of rotated files kept besides the log file
+	 * @throws IllegalStateException Thrown if the log is already started
+	 */
+	public static synchronized void start(File file, long maxFileSize, int keptFiles) {
+		if (writer != null)
+			throw new IllegalStateException("The log is already started");
+		writer = new LogWriter(ring, file, maxFileSize, keptFiles);
+		writer.start();
+	}
+
+	/**
+	 * Writes the messages logged so far, then stops writing messages (those logged afterwards wait in the ring)
+	 */
+	public static synchronized void stop() {
+		if (writer == null)
+			return;
+		writer.finish();
+		writer = null;
+	}
+
+	/**
+	 * @param level The least severe level of the messages to write
+	 */
+	public static void setLevel(LogLevel level) {
+		ServerLog.level = level;
+	}
+
+	/**
+	 * @return The least severe level of the messages written
+	 */
+	public static LogLevel getLevel() {
+		return level;
+	}
+
+	/**
+	 * @param messageLevel The level of a message
+	 * @return 'true' iff messages of that level are written, which lets callers skip preparing the arguments of
+	 * messages that would be discarded
+	 */
+	public static boolean isLoggable(LogLevel messageLevel) {
+		return messageLevel.compareTo(level) >= 0;
+	}
+
+	/**
+	 * Logs a message without arguments
+	 *
+	 * @param messageLevel The message's level
+	 * @param message The message
+	 */
+	public static void log(LogLevel messageLevel, String message) {
+		if (isLoggable(messageLevel))
+			ring.offer(messageLevel, message, 0, null, null, null);
+	}
+
+	/**
+	 * Logs a message with one argument
+	 *
+	 * @param messageLevel The message's level
+	 * @param template The message's template
+	 * @param a The argument
+	 */
+	public static void log(LogLevel messageLevel, String template, Object a) {
+		if (isLoggable(messageLevel))
+			ring.offer(messageLevel, template, 1, a, null, null);
+	}
+
+	/**
+	 * Logs a message with two arguments
+	 *
+	 * @param messageLevel The message's level
+	 * @param template The message's template
+	 * @param a The first argument
+	 * @param b The second argument
+	 */
+	public static void log(LogLevel messageLevel, String template, Object a, Object b) {
+		if (isLoggable(messageLevel))
+			ring.offer(messageLevel, template, 2, a, b, null);
+	}
+
+	/**
+	 * Logs a message with three arguments
+	 *
+	 * @param messageLevel The message's level
+	 * @param template The message's template
+	 * @param a The first argument
+	 * @param b The second argument
+	 * @param c The third argument
+	 */
+	public static void log(LogLevel messageLevel, String template, Object a, Object b, Object c) {
+		if (isLoggable(messageLevel))
+			ring.offer(messageLevel, template, 3, a, b, c);
+	}
+
+	/**
+	 * @return The number of messages dropped because the ring was full
+	 */
+	public static long getDropped() {
+		return ring.getDropped();
+	}
+}
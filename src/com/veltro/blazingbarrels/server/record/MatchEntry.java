@@ -0,0 +1,203 @@
+package com.veltro.blazingbarrels.server.record;
+
+import com.veltro.blazingbarrels.server.game.Location3D;
+
+/**
+ * An entry of a tick record in a match recording, as decoded by a {@link MatchReader}. Every entry concerns the
+ * player with a given session ID, and is one of:
+ * <ul>
+ * <li>{@link #PLAYER}: the complete state of a player (name, location, health and status flags), written for every
+ * player in keyframes and for each player that joins in between</li>
+ * <li>{@link #LEAVE}: the player has left, for the given {@link
+ * com.veltro.blazingbarrels.server.connect.packet.Packet22PlayerDisconnect disconnect} reason (-1 if the
+ * reason is unknown)</li>
+ * <li>{@link #LOCATION}, {@link #HEALTH} and {@link #FLAGS}: the player's location, health or status flags changed
+ * during the tick</li>
+ * <li>{@link #FIRE}: the player fired a weapon of the given type along the given trajectory</li>
+ * <li>{@link #DAMAGE}: the player was dealt the given amount of damage by the player with the given attacker ID (-1
+ * if the damage was not dealt by a player)</li>
+ * </ul>
+ * Entries are reused from one call to {@link MatchReader#nextEntry(MatchEntry)} to the next; only the fields of the
+ * current entry's type are meaningful.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public class MatchEntry {
+
+	/**
+	 * The type of the entries holding the complete state of a player
+	 */
+	public static final int PLAYER = 1;
+
+	/**
+	 * The type of the entries recording that a player has left
+	 */
+	public static final int LEAVE = 2;
+
+	/**
+	 * The type of the entries recording a change to a player's location
+	 */
+	public static final int LOCATION = 3;
+
+	/**
+	 * The type of the entries recording a change to a player's health
+	 */
+	public static final int HEALTH = 4;
+
+	/**
+	 * The type of the entries recording a change to a player's status flags
+	 */
+	public static final int FLAGS = 5;
+
+	/**
+	 * The type of the entries recording a weapon fired by a player
+	 */
+	public static final int FIRE = 6;
+
+	/**
+	 * The type of the entries recording damage dealt to a player
+	 */
+	public static final int DAMAGE = 7;
+
+	/**
+	 * The status flag set for administrators
+	 */
+	public static final int ADMIN = 1;
+
+	/**
+	 * The status flag set for vanished players
+	 */
+	public static final int VANISHED = 2;
+
+	/**
+	 * The status flag set for players in god mode
+	 */
+	public static final int GOD_MODE = 4;
+
+	/**
+	 * The status flag set for players in fly mode
+	 */
+	public static final int FLY_MODE = 8;
+
+	/**
+	 * The type of the entry
+	 */
+	int type;
+
+	/**
+	 * The session ID of the player the entry concerns
+	 */
+	int sessionID;
+
+	/**
+	 * The name of the player ({@link #PLAYER} entries)
+	 */
+	String name;
+
+	/**
+	 * The location of the player ({@link #PLAYER} and {@link #LOCATION} entries) or the trajectory of the shot
+	 * ({@link #FIRE} entries), as x, y, z, yaw, pitch and roll
+	 */
+	final float[] location = new float[6];
+
+	/**
+	 * The health of the player ({@link #PLAYER} and {@link #HEALTH} entries)
+	 */
+	int health;
+
+	/**
+	 * The status flags of the player ({@link #PLAYER} and {@link #FLAGS} entries)
+	 */
+	int flags;
+
+	/**
+	 * The disconnect reason ({@link #LEAVE} entries), the ID of the weapon type ({@link #FIRE} entries) or the amount
+	 * of damage ({@link #DAMAGE} entries)
+	 */
+	int value;
+
+	/**
+	 * The session ID of the attacker ({@link #DAMAGE} entries)
+	 */
+	int attackerID;
+
+	/**
+	 * @return The type of the entry
+	 */
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * @return The session ID of the player the entry concerns
+	 */
+	public int getSessionID() {
+		return sessionID;
+	}
+
+	/**
+	 * @return The name of the player ({@link #PLAYER} entries)
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return A new Location3D holding the location of the player ({@link #PLAYER} and {@link #LOCATION} entries) or
+	 * the trajectory of the shot ({@link #FIRE} entries)
+	 */
+	public Location3D getLocation() {
+		return new Location3D(location[0], location[1], location[2], location[3], location[4], location[5]);
+	}
+
+	/**
+	 * @param component The index of a component of the location: 0 to 5 for x, y, z, yaw, pitch and roll
+	 * @return The component of the location of the player or of the trajectory of the shot, without allocating
+	 */
+	public float getLocation(int component) {
+		return location[component];
+	}
+
+	/**
+	 * @return The health of the player ({@link #PLAYER} and {@link #HEALTH} entries)
+	 */
+	public int getHealth() {
+		return health;
+	}
+
+	/**
+	 * @return The status flags of the player ({@link #PLAYER} and {@link #FLAGS} entries)
+	 */
+	public int getFlags() {
+		return flags;
+	}
+
+	/**
+	 * @return The disconnect reason, or -1 if it is unknown ({@link #LEAVE} entries)
+	 */
+	public int getReason() {
+		return value;
+	}
+
+	/**
+	 * @return The ID of the type of the weapon fired ({@link #FIRE} entries)
+	 */
+	public int getWeaponID() {
+		return value;
+	}
+
+	/**
+	 * @return The amount of damage dealt ({@link #DAMAGE} entries)
+	 */
+	public int getAmount() {
+		return value;
+	}
+
+	/**
+	 * @return The session ID of the player that dealt the damage, or -1 if none did ({@link #DAMAGE} entries)
+	 */
+	public int getAttackerID() {
+		return attackerID;
+	}
+}
@@ -0,0 +1,308 @@
+package com.veltro.blazingbarrels.server.record;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Reads a match recording written by the {@link MatchRecorder} back, one tick record at a time, and each record one
+ * {@link MatchEntry entry} at a time. Segments are memory-mapped as they are reached, so reading costs no copies
+ * beyond the decoding of the entries. A reader can {@link #seek(long) seek} to any tick, by starting from the latest
+ * keyframe at or before it.<p>
+ *
+ * Readers are not thread-safe.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public class MatchReader implements Closeable {
+
+	/**
+	 * The character set in which players' names are recorded
+	 */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * The segment files of the recording, in the order of their ticks
+	 */
+	private final File[] segments;
+
+	/**
+	 * The index of the current segment in {@link #segments} (-1 before the first)
+	 */
+	private int segmentIndex = -1;
+
+	/**
+	 * The mapped current segment, positioned at the next entry of the current record or at the next record
+	 */
+	private ByteBuffer segment = null;
+
+	/**
+	 * The length of a cycle, in milliseconds, when the recording was made
+	 */
+	private int cycleLength;
+
+	/**
+	 * The wall-clock time (as given by System.currentTimeMillis()) at which the recording started
+	 */
+	private long startTime;
+
+	/**
+	 * The tick of the first record of the current segment
+	 */
+	private long firstTick;
+
+	/**
+	 * The position at which the current record starts in the current segment
+	 */
+	private int recordStart = -1;
+
+	/**
+	 * The position at which the current record ends in the current segment (-1 if there is no current record)
+	 */
+	private int recordEnd = -1;
+
+	/**
+	 * Whether the current record is a keyframe
+	 */
+	private boolean keyframe;
+
+	/**
+	 * The tick of the current record
+	 */
+	private long tick;
+
+	/**
+	 * The milliseconds elapsed between the start of the recording and the current record
+	 */
+	private long time;
+
+	/**
+	 * Finds the segments of a recording
+	 *
+	 * @param directory The directory holding the recording's segments
+	 * @throws IOException Thrown if the directory holds no segment
+	 */
+	public MatchReader(File directory) throws IOException {
+		File[] files = directory.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return file.isFile() && file.getName().endsWith(MatchRecorder.SEGMENT_EXTENSION);
+			}
+		});
+		if (files == null || files.length == 0)
+			throw new IOException(directory + " holds no match recording");
+		Arrays.sort(files);
+		segments = files;
+		openSegment(0);
+	}
+
+	/**
+	 * Maps a segment into memory and reads its header
+	 *
+	 * @param index The index of the segment
+	 * @throws IOException Thrown if the segment cannot be read or is not in a supported format
+	 */
+	private void openSegment(int index) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(segments[index], "r");
+		try {
+			MappedByteBuffer mapped = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+			if (mapped.remaining() < 26 || mapped.getInt() != MatchRecorder.MAGIC)
+				throw new IOException(segments[index] + " is not a match recording segment");
+			int version = mapped.getShort() & 0xFFFF;
+			if (version != MatchRecorder.VERSION)
+				throw new IOException(segments[index] + " is a segment of unsupported version " + version);
+			cycleLength = mapped.getInt();
+			startTime = mapped.getLong();
+			firstTick = mapped.getLong();
+			segment = mapped;
+			segmentIndex = index;
+			recordEnd = -1;
+		} finally {
+			file.close(); // The mapping remains valid
+		}
+	}
+
+	/**
+	 * Moves to the next tick record, which then becomes the current one
+	 *
+	 * @return 'true' iff there was a next record, 'false' at the end of the recording
+	 * @throws IOException Thrown if a segment cannot be read or is corrupt
+	 */
+	public boolean next() throws IOException {
+		if (recordEnd >= 0)
+			segment.position(recordEnd);
+		recordEnd = -1;
+		while (segment.remaining() < 4 || segment.getInt(segment.position()) == 0) { // The end of the segment
+			if (segmentIndex + 1 >= segments.length)
+				return false;
+			openSegment(segmentIndex + 1);
+		}
+		recordStart = segment.position();
+		int length = segment.getInt();
+		if (length < MatchRecorder.RECORD_HEADER - 4 || length > segment.remaining())
+			throw new IOException("Corrupt record in " + segments[segmentIndex]);
+		recordEnd = segment.position() + length;
+		keyframe = segment.get() == MatchRecorder.KEYFRAME;
+		tick = segment.getLong();
+		time = segment.getLong();
+		return true;
+	}
+
+	/**
+	 * Positions the reader so that the next call to {@link #next()} moves to the latest keyframe at or before the
+	 * provided tick (or to the first record of the segment holding the tick, if that segment has no such keyframe).
+	 * Reading on from there up to the provided tick reconstructs the state of the match at that tick.
+	 *
+	 * @param target The tick to seek to
+	 * @throws IOException Thrown if a segment cannot be read or is corrupt
+	 */
+	public void seek(long target) throws IOException {
+		int index = 0;
+		for (int i = 1; i < segments.length; i++) { // Segments are few, and their names are in order of first tick
+			openSegment(i);
+			if (firstTick > target)
+				break;
+			index = i;
+		}
+		openSegment(index);
+		int keyframeStart = segment.position();
+		while (next() && segmentIndex == index && tick <= target)
+			if (keyframe)
+				keyframeStart = recordStart;
+		if (segmentIndex != index)
+			openSegment(index);
+		segment.position(keyframeStart);
+		recordEnd = -1;
+	}
+
+	/**
+	 * Decodes the next entry of the current record
+	 *
+	 * @param entry The entry to fill in
+	 * @return 'true' iff there was a next entry, 'false' at the end of the record
+	 * @throws IOException Thrown if the entry is corrupt
+	 */
+	public boolean nextEntry(MatchEntry entry) throws IOException {
+		if (recordEnd < 0 || segment.position() >= recordEnd)
+			return false;
+		try {
+			readEntry(segment, entry);
+		} catch (IOException e) {
+			throw new IOException(e.getMessage() + " in " + segments[segmentIndex]);
+		}
+		if (segment.position() > recordEnd)
+			throw new IOException("Entry overruns its record in " + segments[segmentIndex]);
+		return true;
+	}
+
+	/**
+	 * Decodes an entry of a tick record, as written by the {@link MatchRecorder}. This lets the records handed to a
+	 * {@link TickConsumer} be read without going through a recording.
+	 *
+	 * @param buffer The buffer holding the record, positioned at the entry (and left positioned after it)
+	 * @param entry The entry to fill in
+	 * @throws IOException Thrown if the entry is truncated or of an unknown type
+	 */
+	public static void readEntry(ByteBuffer buffer, MatchEntry entry) throws IOException {
+		try {
+			entry.type = buffer.get();
+			entry.sessionID = buffer.getShort();
+			switch (entry.type) {
+			case MatchEntry.PLAYER:
+				byte[] name = new byte[buffer.getShort() & 0xFFFF];
+				buffer.get(name);
+				entry.name = new String(name, UTF_8);
+				getLocation(buffer, entry);
+				entry.health = buffer.getShort();
+				entry.flags = buffer.get();
+				break;
+			case MatchEntry.LEAVE:
+				entry.value = buffer.get();
+				break;
+			case MatchEntry.LOCATION:
+				getLocation(buffer, entry);
+				break;
+			case MatchEntry.HEALTH:
+				entry.health = buffer.getShort();
+				break;
+			case MatchEntry.FLAGS:
+				entry.flags = buffer.get();
+				break;
+			case MatchEntry.FIRE:
+				entry.value = buffer.get();
+				getLocation(buffer, entry);
+				break;
+			case MatchEntry.DAMAGE:
+				entry.attackerID = buffer.getShort();
+				entry.value = buffer.getInt();
+				break;
+			default:
+				throw new IOException("Unknown entry type " + entry.type);
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated entry");
+		}
+	}
+
+	/**
+	 * Reads the six components of a location into an entry
+	 *
+	 * @param buffer The buffer holding the location
+	 * @param entry The entry
+	 */
+	private static void getLocation(ByteBuffer buffer, MatchEntry entry) {
+		for (int i = 0; i < 6; i++)
+			entry.location[i] = buffer.getFloat();
+	}
+
+	/**
+	 * @return The length of a cycle, in milliseconds, when the recording was made
+	 */
+	public int getCycleLength() {
+		return cycleLength;
+	}
+
+	/**
+	 * @return The wall-clock time (as given by System.currentTimeMillis()) at which the recording started
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * @return The tick of the current record
+	 */
+	public long getTick() {
+		return tick;
+	}
+
+	/**
+	 * @return The milliseconds elapsed between the start of the recording and the current record
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * @return 'true' iff the current record is a keyframe, holding the complete state of every player
+	 */
+	public boolean isKeyframe() {
+		return keyframe;
+	}
+
+	/**
+	 * Releases the current segment (the mappings are unmapped once they are garbage collected)
+	 */
+	public void close() {
+		segment = null;
+		recordEnd = -1;
+	}
+}
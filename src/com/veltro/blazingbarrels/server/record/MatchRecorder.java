@@ -0,0 +1,499 @@
+package com.veltro.blazingbarrels.server.record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import com.veltro.blazingbarrels.server.connect.PacketManager;
+import com.veltro.blazingbarrels.server.game.Location3D;
+import com.veltro.blazingbarrels.server.game.Player;
+import com.veltro.blazingbarrels.server.game.WeaponType;
+
+/**
+ * Records matches as a series of binary tick records, one per {@link PacketManager} cycle, which are appended to a
+ * memory-mapped, segmented log by a {@link RecorderThread}. A tick record holds the events of the tick (weapons fired,
+ * damage dealt and players leaving, recorded as they happen) followed by the changes to the players' state since the
+ * previous tick, found by comparing each player with the state last recorded for it. Every
+ * {@value #KEYFRAME_INTERVAL} ticks, the record is a keyframe holding the complete state of every player instead, so
+ * that a recording can be {@link MatchReader#seek(long) read from} any point without replaying it from the start.<p>
+ *
+ * A segment starts with a header consisting of the {@link #MAGIC} number, the {@link #VERSION} of the format, the
+ * length of a cycle in milliseconds, the wall-clock time at which the recording started and the tick of the segment's
+ * first record. Each record then consists of its length (excluding the length itself), its kind ({@link #KEYFRAME} or
+ * {@link #DELTA}), its tick, the milliseconds elapsed since the recording started, and its {@link MatchEntry entries},
+ * each made of a type, the session ID of the player concerned and the fields of its type. A zero length ends the
+ * segment.<p>
+ *
+ * Records are built in reusable buffers by the thread running the cycles, and handed to the recorder thread without
+ * waiting, so recording costs each cycle little more than a comparison per player and a copy of its record. The
+ * recorder is only used by that thread, except for {@link #start(File)}, {@link #stop()} and
+ * {@link #setSpectatorFeed(TickConsumer)}.<p>
+ *
+ * Besides the recorder thread, the records can be handed to a spectator feed, which streams the match to viewers
+ * whether or not it is being recorded.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public class MatchRecorder {
+
+	/**
+	 * The number every segment of a recording starts with ("BBMR" in ASCII)
+	 */
+	public static final int MAGIC = 0x42424D52;
+
+	/**
+	 * The version of the format written
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * The kind of the records holding the complete state of every player
+	 */
+	public static final byte KEYFRAME = 1;
+
+	/**
+	 * The kind of the records holding the changes since the previous record
+	 */
+	public static final byte DELTA = 2;
+
+	/**
+	 * The number of ticks between keyframes (ten seconds' worth)
+	 */
+	public static final int KEYFRAME_INTERVAL = 200;
+
+	/**
+	 * The extension of segment files
+	 */
+	public static final String SEGMENT_EXTENSION = ".bbmr";
+
+	/**
+	 * The size, in bytes, of a record's header: its length, kind, tick and time
+	 */
+	static final int RECORD_HEADER = 21;
+
+	/**
+	 * The character set in which players' names are recorded
+	 */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * The thread writing the current recording (null when not recording), as set by {@link #start(File)} and
+	 * {@link #stop()}
+	 */
+	private volatile RecorderThread writer = null;
+
+	/**
+	 * The thread writing the recording the cycles are recording to, which catches up with the {@link #writer} at the
+	 * end of each tick
+	 */
+	private RecorderThread currentWriter = null;
+
+	/**
+	 * The spectator feed the tick records are also handed to (null if there is none), as set by
+	 * {@link #setSpectatorFeed(TickConsumer)}
+	 */
+	private volatile TickConsumer spectatorFeed = null;
+
+	/**
+	 * The spectator feed the cycles are handing records to, which catches up with the {@link #spectatorFeed} at the
+	 * end of each tick
+	 */
+	private TickConsumer currentFeed = null;
+
+	/**
+	 * Set by {@link #setSpectatorFeed(TickConsumer)} to make the next record a keyframe, even if the feed is set back
+	 * to the one the cycles are handing records to before they notice
+	 */
+	private volatile boolean feedKeyframeRequested = false;
+
+	/**
+	 * The events recorded since the last tick record
+	 */
+	private ByteBuffer events = ByteBuffer.allocate(4096);
+
+	/**
+	 * The reusable buffer in which tick records are built
+	 */
+	private ByteBuffer record = ByteBuffer.allocate(16384);
+
+	/**
+	 * The players as last recorded, indexed by session ID
+	 */
+	private Player[] recorded = new Player[16];
+
+	/**
+	 * The locations of the players as last recorded, six components per session ID
+	 */
+	private float[] locations = new float[16 * 6];
+
+	/**
+	 * The health of the players as last recorded, indexed by session ID
+	 */
+	private int[] healths = new int[16];
+
+	/**
+	 * The status flags of the players as last recorded, indexed by session ID
+	 */
+	private int[] flags = new int[16];
+
+	/**
+	 * The tick each session ID was last seen in, used to spot the players that left unannounced
+	 */
+	private long[] lastSeen = new long[16];
+
+	/**
+	 * The tick of the next record
+	 */
+	private long tick = 0;
+
+	/**
+	 * The wall-clock time (as given by System.currentTimeMillis()) at which the current recording started
+	 */
+	private long startTime;
+
+	/**
+	 * Set when the next record must be a keyframe, because the recording has just started or a record was dropped
+	 */
+	private boolean keyframeDue = false;
+
+	/**
+	 * The number of tick records queued for writing and dropped for want of room in the queue
+	 */
+	private volatile long ticksRecorded = 0, ticksDropped = 0;
+
+	/**
+	 * Starts recording to the provided directory as of the end of the current cycle
+	 *
+	 * @param directory The directory to write the recording's segments to
+	 * @throws IOException Thrown if the directory cannot be created
+	 * @throws IllegalStateException Thrown if a recording is already in progress
+	 */
+	public synchronized void start(File directory) throws IOException {
+		if (writer != null)
+			throw new IllegalStateException("A match recording is already in progress");
+		RecorderThread thread = new RecorderThread(directory, System.currentTimeMillis());
+		thread.start();
+		ticksRecorded = 0;
+		ticksDropped = 0;
+		writer = thread;
+	}
+
+	/**
+	 * Stops recording, and waits for the records queued to be written
+	 *
+	 * @return The thread that wrote the recording, or null if no recording was in progress
+	 */
+	public synchronized RecorderThread stop() {
+		RecorderThread thread = writer;
+		if (thread == null)
+			return null;
+		writer = null;
+		thread.finish();
+		return thread;
+	}
+
+	/**
+	 * Sets the consumer that the tick records are handed to, in addition to the recorder thread, as of the end of the
+	 * current cycle. The first record it is handed is a keyframe. Ticks are recorded while there is a feed even if
+	 * no recording is in progress.
+	 *
+	 * @param feed The spectator feed, or null to stop feeding one
+	 */
+	public void setSpectatorFeed(TickConsumer feed) {
+		spectatorFeed = feed;
+		feedKeyframeRequested = true;
+	}
+
+	/**
+	 * @return The thread writing the current recording, or null if no recording is in progress
+	 */
+	public RecorderThread getWriter() {
+		return writer;
+	}
+
+	/**
+	 * Records a weapon fired during the current tick
+	 *
+	 * @param shooter The player that fired the weapon
+	 * @param trajectory The trajectory of the shot
+	 * @param type The type of the weapon
+	 */
+	public void recordFire(Player shooter, Location3D trajectory, WeaponType type) {
+		if (currentWriter == null && currentFeed == null)
+			return;
+		events = ensureRoom(events, 28);
+		events.put((byte) MatchEntry.FIRE).putShort((short) shooter.getSessionID()).put((byte) type.ID);
+		putLocation(events, trajectory);
+	}
+
+	/**
+	 * Records damage dealt during the current tick
+	 *
+	 * @param victim The player dealt the damage
+	 * @param attacker The player that dealt the damage, or null if none did
+	 * @param amount The amount of damage
+	 */
+	public void recordDamage(Player victim, Player attacker, int amount) {
+		if (currentWriter == null && currentFeed == null)
+			return;
+		events = ensureRoom(events, 9);
+		events.put((byte) MatchEntry.DAMAGE).putShort((short) victim.getSessionID());
+		events.putShort((short) (attacker == null ? -1 : attacker.getSessionID())).putInt(amount);
+	}
+
+	/**
+	 * Records a player leaving during the current tick
+	 *
+	 * @param player The player that has left
+	 * @param reasonID The disconnect reason
+	 */
+	public void recordLeave(Player player, int reasonID) {
+		if (currentWriter == null && currentFeed == null)
+			return;
+		int sessionID = player.getSessionID();
+		events = ensureRoom(events, 4);
+		events.put((byte) MatchEntry.LEAVE).putShort((short) sessionID).put((byte) reasonID);
+		if (sessionID >= 0 && sessionID < recorded.length && recorded[sessionID] == player)
+			recorded[sessionID] = null;
+	}
+
+	/**
+	 * Ends the current tick: builds its record from the events recorded during the tick and the changes to the
+	 * provided players, and hands it to the recorder thread and to the spectator feed, if any. Starts and stops
+	 * recording the ticks as the recording and the feed are started and stopped.
+	 *
+	 * @param players The players on the server
+	 */
+	public void endTick(Player[] players) {
+		RecorderThread thread = writer;
+		if (feedKeyframeRequested) { // Read before the feed, so that the feed read is at least as recent as the request
+			feedKeyframeRequested = false;
+			currentFeed = spectatorFeed;
+			keyframeDue = true;
+		}
+		TickConsumer feed = currentFeed;
+		if (thread != currentWriter) { // A recording has started or stopped since the previous tick
+			currentWriter = thread;
+			tick = 0;
+			startTime = System.currentTimeMillis();
+			keyframeDue = true;
+		}
+		if (thread == null && feed == null) {
+			events.clear();
+			return;
+		}
+		boolean keyframe = keyframeDue || tick % KEYFRAME_INTERVAL == 0;
+		record.clear();
+		record.putInt(0).put(keyframe ? KEYFRAME : DELTA).putLong(tick).putLong(System.currentTimeMillis() - startTime);
+		events.flip();
+		record = ensureRoom(record, events.remaining());
+		record.put(events);
+		events.clear();
+		for (Player player : players) {
+			int sessionID = player.getSessionID();
+			if (sessionID < 0)
+				continue;
+			ensureSessions(sessionID);
+			lastSeen[sessionID] = tick;
+			if (keyframe || recorded[sessionID] != player)
+				putPlayer(player, sessionID);
+			else
+				putChanges(player, sessionID);
+		}
+		for (int i = 0; i < recorded.length; i++) {
+			if (recorded[i] != null && lastSeen[i] != tick) { // The player left without its leaving being recorded
+				if (!keyframe) {
+					record = ensureRoom(record, 4);
+					record.put((byte) MatchEntry.LEAVE).putShort((short) i).put((byte) -1);
+				}
+				recorded[i] = null;
+			}
+		}
+		record.putInt(0, record.position() - 4);
+		record.flip();
+		keyframeDue = false;
+		if (thread != null) {
+			if (hand(thread)) {
+				ticksRecorded++;
+			} else {
+				ticksDropped++;
+				keyframeDue = true;
+			}
+		}
+		if (feed != null && !hand(feed))
+			keyframeDue = true;
+		tick++;
+	}
+
+	/**
+	 * Hands a copy of the current tick record to a consumer. If the consumer refuses it, the changes in the record are
+	 * lost to the consumer, so the next record must be a keyframe restating everything.
+	 *
+	 * @param consumer The consumer
+	 * @return 'true' iff the consumer accepted the record
+	 */
+	private boolean hand(TickConsumer consumer) {
+		ByteBuffer copy = consumer.obtainBuffer(record.remaining());
+		copy.put(record.duplicate()).flip();
+		return consumer.offer(copy);
+	}
+
+	/**
+	 * Writes the complete state of a player, and records it as the player's last recorded state
+	 *
+	 * @param player The player
+	 * @param sessionID The player's session ID
+	 */
+	private void putPlayer(Player player, int sessionID) {
+		byte[] name = player.getName().getBytes(UTF_8);
+		record = ensureRoom(record, name.length + 34);
+		record.put((byte) MatchEntry.PLAYER).putShort((short) sessionID);
+		record.putShort((short) name.length).put(name);
+		putLocation(record, player.getLocation());
+		record.putShort((short) player.getHealth()).put((byte) getFlags(player));
+		recorded[sessionID] = player;
+		storeLocation(player.getLocation(), sessionID);
+		healths[sessionID] = player.getHealth();
+		flags[sessionID] = getFlags(player);
+	}
+
+	/**
+	 * Writes the changes to a player's location, health and status flags since they were last recorded
+	 *
+	 * @param player The player
+	 * @param sessionID The player's session ID
+	 */
+	private void putChanges(Player player, int sessionID) {
+		Location3D location = player.getLocation();
+		int offset = sessionID * 6;
+		if (location.getX() != locations[offset] || location.getY() != locations[offset + 1] ||
+				location.getZ() != locations[offset + 2] || location.getYaw() != locations[offset + 3] ||
+				location.getPitch() != locations[offset + 4] || location.getRoll() != locations[offset + 5]) {
+			record = ensureRoom(record, 27);
+			record.put((byte) MatchEntry.LOCATION).putShort((short) sessionID);
+			putLocation(record, location);
+			storeLocation(location, sessionID);
+		}
+		if (player.getHealth() != healths[sessionID]) {
+			record = ensureRoom(record, 5);
+			record.put((byte) MatchEntry.HEALTH).putShort((short) sessionID).putShort((short) player.getHealth());
+			healths[sessionID] = player.getHealth();
+		}
+		int playerFlags = getFlags(player);
+		if (playerFlags != flags[sessionID]) {
+			record = ensureRoom(record, 4);
+			record.put((byte) MatchEntry.FLAGS).putShort((short) sessionID).put((byte) playerFlags);
+			flags[sessionID] = playerFlags;
+		}
+	}
+
+	/**
+	 * @param player A player
+	 * @return The player's status flags, as {@link MatchEntry#ADMIN}, {@link MatchEntry#VANISHED},
+	 * {@link MatchEntry#GOD_MODE} and {@link MatchEntry#FLY_MODE} bits
+	 */
+	private static int getFlags(Player player) {
+		return (player.isAdmin() ? MatchEntry.ADMIN : 0) | (player.isVanished() ? MatchEntry.VANISHED : 0) |
+				(player.isGodModeEnabled() ? MatchEntry.GOD_MODE : 0) |
+				(player.isFlyModeEnabled() ? MatchEntry.FLY_MODE : 0);
+	}
+
+	/**
+	 * Writes the six components of a location
+	 *
+	 * @param buffer The buffer to write to, which has room for them
+	 * @param location The location
+	 */
+	private static void putLocation(ByteBuffer buffer, Location3D location) {
+		buffer.putFloat(location.getX()).putFloat(location.getY()).putFloat(location.getZ());
+		buffer.putFloat(location.getYaw()).putFloat(location.getPitch()).putFloat(location.getRoll());
+	}
+
+	/**
+	 * Records the provided location as the last recorded location of the player with the provided session ID
+	 *
+	 * @param location The location
+	 * @param sessionID The player's session ID
+	 */
+	private void storeLocation(Location3D location, int sessionID) {
+		int offset = sessionID * 6;
+		locations[offset] = location.getX();
+		locations[offset + 1] = location.getY();
+		locations[offset + 2] = location.getZ();
+		locations[offset + 3] = location.getYaw();
+		locations[offset + 4] = location.getPitch();
+		locations[offset + 5] = location.getRoll();
+	}
+
+	/**
+	 * Grows the arrays indexed by session ID, if needed, to hold the provided session ID
+	 *
+	 * @param sessionID A session ID
+	 */
+	private void ensureSessions(int sessionID) {
+		if (sessionID < recorded.length)
+			return;
+		int length = Math.max(recorded.length * 2, sessionID + 1);
+		Player[] expandedRecorded = new Player[length];
+		System.arraycopy(recorded, 0, expandedRecorded, 0, recorded.length);
+		recorded = expandedRecorded;
+		float[] expandedLocations = new float[length * 6];
+		System.arraycopy(locations, 0, expandedLocations, 0, locations.length);
+		locations = expandedLocations;
+		int[] expandedHealths = new int[length], expandedFlags = new int[length];
+		System.arraycopy(healths, 0, expandedHealths, 0, healths.length);
+		System.arraycopy(flags, 0, expandedFlags, 0, flags.length);
+		healths = expandedHealths;
+		flags = expandedFlags;
+		long[] expandedLastSeen = new long[length];
+		System.arraycopy(lastSeen, 0, expandedLastSeen, 0, lastSeen.length);
+		lastSeen = expandedLastSeen;
+	}
+
+	/**
+	 * @param buffer A buffer being written to
+	 * @param room The number of bytes about to be written
+	 * @return The buffer, or a copy of it twice as large (or larger) if it does not have enough room left
+	 */
+	private static ByteBuffer ensureRoom(ByteBuffer buffer, int room) {
+		if (buffer.remaining() >= room)
+			return buffer;
+		ByteBuffer expanded = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + room));
+		buffer.flip();
+		return expanded.put(buffer);
+	}
+
+	/**
+	 * @return The name of the directory of a recording started now, made of the date and time
+	 */
+	public static String getRecordingName() {
+		return "match-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+	}
+
+	/**
+	 * @param firstTick The tick of the first record of a segment
+	 * @return The name of the segment's file, which sorts segments in the order of their ticks
+	 */
+	public static String getSegmentName(long firstTick) {
+		return String.format("segment-%012d", firstTick) + SEGMENT_EXTENSION;
+	}
+
+	/**
+	 * @return The number of tick records of the current (or last) recording queued for writing
+	 */
+	public long getTicksRecorded() {
+		return ticksRecorded;
+	}
+
+	/**
+	 * @return The number of tick records of the current (or last) recording dropped because the recorder thread
+	 * could not keep up
+	 */
+	public long getTicksDropped() {
+		return ticksDropped;
+	}
+}
@@ -0,0 +1,236 @@
+package com.veltro.blazingbarrels.server.record;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.veltro.blazingbarrels.server.game.Location3D;
+
+/**
+ * The state of a match as reconstructed from its tick records: the name, location, health and status flags of each
+ * player, by session ID. Applying the entries of a keyframe, then those of each following record, keeps the state up
+ * to date with the records, whether they are read from a recording or handed to a {@link TickConsumer} live. The
+ * entries of a keyframe are applied between calls to {@link #beginKeyframe()} and {@link #endKeyframe()}, which drop
+ * the players it does not restate; players are otherwise kept, so that the events recorded at the start of the
+ * keyframe can still be attributed to them.<p>
+ *
+ * Match states are not thread-safe.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public class MatchState {
+
+	/**
+	 * The players of the match, by session ID (null for the unused session IDs)
+	 */
+	private Entity[] entities = new Entity[64];
+
+	/**
+	 * The players of the match, in the order of their session IDs
+	 */
+	private final List<Entity> present = new ArrayList<Entity>();
+
+	/**
+	 * Whether {@link #present} needs to be rebuilt from the {@link #entities}
+	 */
+	private boolean presentStale = false;
+
+	/**
+	 * The number of keyframes begun, with which the players restated by the current keyframe are marked
+	 */
+	private int keyframes = 0;
+
+	/**
+	 * Forgets every player, as is done when the records start coming from a different match
+	 */
+	public void clear() {
+		for (int i = 0; i < entities.length; i++)
+			entities[i] = null;
+		presentStale = true;
+	}
+
+	/**
+	 * Begins applying the entries of a keyframe
+	 */
+	public void beginKeyframe() {
+		keyframes++;
+	}
+
+	/**
+	 * Ends applying the entries of a keyframe, dropping the players that it did not restate
+	 */
+	public void endKeyframe() {
+		for (int i = 0; i < entities.length; i++) {
+			if (entities[i] != null && entities[i].keyframe != keyframes) {
+				entities[i] = null;
+				presentStale = true;
+			}
+		}
+	}
+
+	/**
+	 * Applies an entry of a tick record to the state. Entries recording events ({@link MatchEntry#FIRE} and
+	 * {@link MatchEntry#DAMAGE}) leave the state unchanged, as do changes to players whose complete state has not
+	 * been applied yet.
+	 *
+	 * @param entry The entry
+	 */
+	public void apply(MatchEntry entry) {
+		int sessionID = entry.sessionID;
+		if (sessionID < 0)
+			return;
+		if (entry.type == MatchEntry.PLAYER) {
+			if (sessionID >= entities.length) {
+				Entity[] grown = new Entity[Math.max(sessionID + 1, entities.length * 2)];
+				System.arraycopy(entities, 0, grown, 0, entities.length);
+				entities = grown;
+			}
+			Entity entity = entities[sessionID];
+			if (entity == null) {
+				entity = new Entity(sessionID);
+				entities[sessionID] = entity;
+				presentStale = true;
+			}
+			entity.name = entry.name;
+			entity.keyframe = keyframes;
+			setLocation(entity, entry);
+			entity.health = entry.health;
+			entity.flags = entry.flags;
+			return;
+		}
+		Entity entity = getEntity(sessionID);
+		if (entity == null)
+			return;
+		switch (entry.type) {
+		case MatchEntry.LEAVE:
+			entities[sessionID] = null;
+			presentStale = true;
+			break;
+		case MatchEntry.LOCATION:
+			setLocation(entity, entry);
+			break;
+		case MatchEntry.HEALTH:
+			entity.health = entry.health;
+			break;
+		case MatchEntry.FLAGS:
+			entity.flags = entry.flags;
+			break;
+		}
+	}
+
+	/**
+	 * Copies the location of an entry into an entity's
+	 *
+	 * @param entity The entity
+	 * @param entry The entry
+	 */
+	private void setLocation(Entity entity, MatchEntry entry) {
+		float[] location = entry.location;
+		entity.location.setPosition(location[0], location[1], location[2]);
+		entity.location.setRotation(location[3], location[4], location[5]);
+	}
+
+	/**
+	 * @param sessionID A session ID
+	 * @return The player with the session ID, or null if there is none
+	 */
+	public Entity getEntity(int sessionID) {
+		return sessionID >= 0 && sessionID < entities.length ? entities[sessionID] : null;
+	}
+
+	/**
+	 * @return The players of the match, in the order of their session IDs (the list is reused, and changes as
+	 * entries are applied)
+	 */
+	public List<Entity> getEntities() {
+		if (presentStale) {
+			present.clear();
+			for (Entity entity : entities)
+				if (entity != null)
+					present.add(entity);
+			presentStale = false;
+		}
+		return present;
+	}
+
+	/**
+	 * A player of a reconstructed match
+	 *
+	 * @author LinearLogic
+	 * @since 0.4.0
+	 */
+	public static class Entity {
+
+		/**
+		 * The player's session ID
+		 */
+		private final int sessionID;
+
+		/**
+		 * The player's name
+		 */
+		private String name;
+
+		/**
+		 * The player's location, which is updated in place
+		 */
+		private final Location3D location = new Location3D();
+
+		/**
+		 * The player's health
+		 */
+		private int health;
+
+		/**
+		 * The player's status flags (see {@link MatchEntry#getFlags()})
+		 */
+		private int flags;
+
+		/**
+		 * The number of the last keyframe that restated the player (see {@link MatchState#beginKeyframe()})
+		 */
+		private int keyframe;
+
+		/**
+		 * @param sessionID The player's session ID
+		 */
+		private Entity(int sessionID) {
+			this.sessionID = sessionID;
+		}
+
+		/**
+		 * @return The player's session ID
+		 */
+		public int getSessionID() {
+			return sessionID;
+		}
+
+		/**
+		 * @return The player's name
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return The player's location (updated in place as entries are applied)
+		 */
+		public Location3D getLocation() {
+			return location;
+		}
+
+		/**
+		 * @return The player's health
+		 */
+		public int getHealth() {
+			return health;
+		}
+
+		/**
+		 * @return The player's status flags (see {@link MatchEntry#getFlags()})
+		 */
+		public int getFlags() {
+			return flags;
+		}
+	}
+}
@@ -0,0 +1,256 @@
+package com.veltro.blazingbarrels.server.record;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.veltro.blazingbarrels.server.connect.PacketManager;
+import com.veltro.blazingbarrels.server.log.LogLevel;
+import com.veltro.blazingbarrels.server.log.ServerLog;
+
+/**
+ * A thread dedicated to appending the tick records produced by the {@link MatchRecorder} to the segments of a match
+ * recording. Records are handed over through a bounded queue that the thread running the {@link PacketManager} cycles
+ * never waits on: when the queue is full, the record is dropped instead (and the next one is made a keyframe).<p>
+ *
+ * Each segment is a file of the recording's directory, named after the first tick it holds, that is memory-mapped
+ * {@value #SEGMENT_SIZE} bytes at a time, so that appending a record is a copy into memory and the operating system
+ * writes the pages out in the background. A new segment is started at the first keyframe once the current one is
+ * three quarters full (or whenever a record does not fit), so that each segment normally starts with a keyframe and
+ * can be read on its own. When a segment is finished, its pages are forced out to the file and the file is truncated
+ * to the records it holds.<p>
+ *
+ * The buffers holding the records are recycled once written, so that recording does not allocate in steady state.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public class RecorderThread extends Thread implements TickConsumer {
+
+	/**
+	 * The size, in bytes, of the region of each segment file that is mapped into memory (32 MiB)
+	 */
+	public static final int SEGMENT_SIZE = 32 << 20;
+
+	/**
+	 * The number of records the queue holds (six seconds' worth of cycles)
+	 */
+	public static final int QUEUE_CAPACITY = 128;
+
+	/**
+	 * The buffer queued to make the thread finish its work
+	 */
+	private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+	/**
+	 * The directory holding the recording's segments
+	 */
+	private final File directory;
+
+	/**
+	 * The wall-clock time (as given by System.currentTimeMillis()) at which the recording started
+	 */
+	private final long startTime;
+
+	/**
+	 * The records waiting to be written
+	 */
+	private final ArrayBlockingQueue<ByteBuffer> queue = new ArrayBlockingQueue<ByteBuffer>(QUEUE_CAPACITY);
+
+	/**
+	 * The buffers whose records have been written, ready to be reused
+	 */
+	private final ConcurrentLinkedQueue<ByteBuffer> freeBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
+
+	/**
+	 * The segment file being written to (null before the first record)
+	 */
+	private RandomAccessFile file = null;
+
+	/**
+	 * The mapped region of the {@link #file} the records are appended to
+	 */
+	private MappedByteBuffer segment = null;
+
+	/**
+	 * Set once no more records are accepted
+	 */
+	private volatile boolean finished = false;
+
+	/**
+	 * The number of bytes written to the segments, including their headers
+	 */
+	private volatile long bytesWritten = 0;
+
+	/**
+	 * The number of segments started
+	 */
+	private volatile int segmentCount = 0;
+
+	/**
+	 * Creates the recording's directory
+	 *
+	 * @param directory The directory to write the recording's segments to
+	 * @param startTime The wall-clock time (as given by System.currentTimeMillis()) at which the recording starts
+	 * @throws IOException Thrown if the directory cannot be created
+	 */
+	public RecorderThread(File directory, long startTime) throws IOException {
+		super("RecorderThread");
+		setDaemon(true);
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Failed to create the directory " + directory);
+		this.directory = directory;
+		this.startTime = startTime;
+	}
+
+	/**
+	 * Writes the records queued until the recording is {@link #finish() finished}, then finishes the last segment
+	 */
+	public void run() {
+		try {
+			while (true) {
+				ByteBuffer record = queue.take();
+				if (record == END)
+					break;
+				write(record);
+				record.clear();
+				freeBuffers.offer(record);
+			}
+		} catch (InterruptedException e) {
+			ServerLog.log(LogLevel.WARNING, "The match recorder was interrupted; the recording ends here.");
+		} catch (IOException e) {
+			ServerLog.log(LogLevel.SEVERE, "Failed to write the match recording: {}", e.getMessage());
+		} finally {
+			finished = true;
+			queue.clear();
+			try {
+				finishSegment();
+			} catch (IOException e) {
+				ServerLog.log(LogLevel.SEVERE, "Failed to finish the match recording: {}", e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Appends a record to the current segment, starting a new segment first if the record is a keyframe and the
+	 * current segment is three quarters full, or if the record does not fit
+	 *
+	 * @param record The record, from its length to its last entry
+	 * @throws IOException Thrown if a new segment cannot be created
+	 */
+	private void write(ByteBuffer record) throws IOException {
+		boolean keyframe = record.get(4) == MatchRecorder.KEYFRAME;
+		if (segment == null || segment.remaining() < record.remaining() + 4 ||
+				(keyframe && segment.position() > SEGMENT_SIZE / 4 * 3))
+			startSegment(record.getLong(5));
+		if (segment.remaining() < record.remaining() + 4) // Leave room for the zero length ending the segment
+			throw new IOException("A tick record of " + record.remaining() + " bytes does not fit in a segment");
+		bytesWritten += record.remaining();
+		segment.put(record);
+	}
+
+	/**
+	 * Finishes the current segment, if any, and starts a new one
+	 *
+	 * @param firstTick The tick of the first record the segment will hold
+	 * @throws IOException Thrown if the segment cannot be created
+	 */
+	private void startSegment(long firstTick) throws IOException {
+		finishSegment();
+		file = new RandomAccessFile(new File(directory, MatchRecorder.getSegmentName(firstTick)), "rw");
+		file.setLength(0);
+		segment = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+		segment.putInt(MatchRecorder.MAGIC).putShort((short) MatchRecorder.VERSION);
+		segment.putInt(PacketManager.CYCLE_LENGTH).putLong(startTime).putLong(firstTick);
+		bytesWritten += segment.position();
+		segmentCount++;
+	}
+
+	/**
+	 * Forces the records of the current segment out to its file, truncates the file to them (mapping the file
+	 * extended it to {@value #SEGMENT_SIZE} bytes) and closes it
+	 *
+	 * @throws IOException Thrown if the file cannot be truncated or closed
+	 */
+	private void finishSegment() throws IOException {
+		if (segment == null)
+			return;
+		segment.force();
+		try {
+			file.getChannel().truncate(segment.position() + 4); // Keep the zero length ending the segment
+		} finally {
+			file.close();
+			file = null;
+			segment = null;
+		}
+	}
+
+	/**
+	 * @param size The size of a record
+	 * @return An empty buffer able to hold the record, recycled if possible
+	 */
+	public ByteBuffer obtainBuffer(int size) {
+		ByteBuffer buffer = freeBuffers.poll();
+		if (buffer == null || buffer.capacity() < size)
+			buffer = ByteBuffer.allocate(Math.max(size, 4096));
+		return buffer;
+	}
+
+	/**
+	 * Queues a record to be written, without waiting
+	 *
+	 * @param record The record, ready to be read
+	 * @return 'true' iff the record was queued, 'false' if the queue is full or the recording is finished
+	 */
+	public boolean offer(ByteBuffer record) {
+		return !finished && queue.offer(record);
+	}
+
+	/**
+	 * Stops accepting records, and waits for those queued to be written and the last segment to be finished
+	 */
+	public void finish() {
+		finished = true;
+		try {
+			if (isAlive()) {
+				queue.put(END);
+				join();
+			}
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return The directory holding the recording's segments
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @return The number of bytes written to the segments
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/**
+	 * @return The number of segments started
+	 */
+	public int getSegmentCount() {
+		return segmentCount;
+	}
+
+	/**
+	 * @return 'true' iff the thread no longer accepts records
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+}
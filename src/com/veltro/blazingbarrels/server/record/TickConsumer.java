@@ -0,0 +1,30 @@
+package com.veltro.blazingbarrels.server.record;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A consumer of the tick records produced by the {@link MatchRecorder}, such as the {@link RecorderThread} writing
+ * them to a recording or a spectator feed encoding them for viewers. Records are handed over by the thread running
+ * the cycles, which must never wait on a consumer: a consumer that cannot take a record right away refuses it, and
+ * is then sent a keyframe so that it can recover.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public interface TickConsumer {
+
+	/**
+	 * @param size The size of a record
+	 * @return An empty buffer able to hold the record, recycled if possible. Only called by the thread running the
+	 * cycles.
+	 */
+	ByteBuffer obtainBuffer(int size);
+
+	/**
+	 * Hands over a record, without waiting
+	 *
+	 * @param record A buffer obtained from {@link #obtainBuffer(int)}, holding the record and ready to be read
+	 * @return 'true' iff the record was accepted, 'false' if it was refused
+	 */
+	boolean offer(ByteBuffer record);
+}
@@ -0,0 +1,674 @@
+package com.veltro.blazingbarrels.server.spectate;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.veltro.blazingbarrels.server.BBServer;
+import com.veltro.blazingbarrels.server.connect.CookieGenerator;
+import com.veltro.blazingbarrels.server.connect.Fragmenter;
+import com.veltro.blazingbarrels.server.connect.PacketManager;
+import com.veltro.blazingbarrels.server.connect.SnapshotEncoder;
+import com.veltro.blazingbarrels.server.connect.packet.Packet01AuthResponse;
+import com.veltro.blazingbarrels.server.connect.packet.Packet10ServerSnapshot;
+import com.veltro.blazingbarrels.server.connect.packet.Packet40WeaponFire;
+import com.veltro.blazingbarrels.server.game.WeaponType;
+import com.veltro.blazingbarrels.server.log.LogLevel;
+import com.veltro.blazingbarrels.server.log.ServerLog;
+import com.veltro.blazingbarrels.server.record.MatchEntry;
+import com.veltro.blazingbarrels.server.record.MatchReader;
+import com.veltro.blazingbarrels.server.record.MatchRecorder;
+import com.veltro.blazingbarrels.server.record.MatchState;
+import com.veltro.blazingbarrels.server.record.TickConsumer;
+
+/**
+ * A thread streaming the match to spectators on a port of its own, apart from the players: spectators have no
+ * presence in the world, hold no {@link com.veltro.blazingbarrels.server.connect.Connection Connection} and do not
+ * count against the player cap, and serving them costs the thread running the {@link PacketManager} cycles nothing but
+ * a copy of each tick record.<p>
+ *
+ * The feed is built from the tick records of the {@link MatchRecorder}, which are applied to a {@link MatchState} on
+ * this thread. Every {@value #FRAME_INTERVAL} ticks, a frame is encoded once - the {@link Packet40WeaponFire}s for
+ * the weapons fired since the previous frame, then a {@link Packet10ServerSnapshot} of the players, fragmented if it
+ * must be - and the same datagrams are sent to every spectator. Frames of the live match are held back by the
+ * configured spectator delay before being sent, so that spectators cannot relay what they see to the players in time
+ * to matter. The feed can instead {@link #replay(File, long) replay} a recorded match, at the pace it was recorded
+ * and without delay, after which it returns to the live match.<p>
+ *
+ * Spectators subscribe by sending "60 &lt;name&gt;", which is answered with a challenge carrying a
+ * {@link CookieGenerator cookie} as for players' authorization, then "60 &lt;name&gt; +c:&lt;cookie&gt;", which is
+ * answered with verdict '3' (or '0' once the spectator cap is reached). A subscription lapses after
+ * {@value #SUBSCRIPTION_TIMEOUT} milliseconds unless it is renewed by another "60", and ends at once with "62".
+ * Nothing is sent reliably, and nothing is retained about clients until they echo a valid cookie.
+ *
+ * @author LinearLogic
+ * @since 0.4.0
+ */
+public class SpectatorServer extends Thread implements TickConsumer {
+
+	/**
+	 * The number of ticks between the frames sent to spectators
+	 */
+	public static final int FRAME_INTERVAL = 2;
+
+	/**
+	 * The time, in milliseconds, after which a subscription that has not been renewed lapses
+	 */
+	public static final int SUBSCRIPTION_TIMEOUT = 10000;
+
+	/**
+	 * The number of live tick records the queue holds
+	 */
+	public static final int QUEUE_CAPACITY = 64;
+
+	/**
+	 * The longest time, in milliseconds, the thread waits for datagrams before checking for records and due frames
+	 */
+	private static final int POLL_INTERVAL = 10;
+
+	/**
+	 * The channel on which spectators subscribe and are sent the feed
+	 */
+	private final DatagramChannel channel;
+
+	/**
+	 * The selector waking the thread when datagrams arrive on the {@link #channel}
+	 */
+	private final Selector selector;
+
+	/**
+	 * The live tick records waiting to be applied
+	 */
+	private final ArrayBlockingQueue<ByteBuffer> records = new ArrayBlockingQueue<ByteBuffer>(QUEUE_CAPACITY);
+
+	/**
+	 * The buffers whose records have been applied, ready to be reused
+	 */
+	private final ConcurrentLinkedQueue<ByteBuffer> freeBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
+
+	/**
+	 * Generates and verifies the cookies that spectators must echo to subscribe
+	 */
+	private final CookieGenerator cookies = new CookieGenerator();
+
+	/**
+	 * The state of the match being streamed
+	 */
+	private final MatchState state = new MatchState();
+
+	/**
+	 * The entry decoded from the current record
+	 */
+	private final MatchEntry entry = new MatchEntry();
+
+	/**
+	 * Encodes the snapshots of the {@link #state}
+	 */
+	private final SnapshotEncoder encoder = new SnapshotEncoder();
+
+	/**
+	 * Splits the snapshots too large for a datagram into fragments
+	 */
+	private final Fragmenter fragmenter;
+
+	/**
+	 * The subscribed spectators, with the time (as given by System.currentTimeMillis()) at which their subscriptions
+	 * lapse
+	 */
+	private final Map<InetSocketAddress, Long> subscribers = new LinkedHashMap<InetSocketAddress, Long>();
+
+	/**
+	 * The datagrams of the weapons fired since the previous frame
+	 */
+	private final List<ByteBuffer> fires = new ArrayList<ByteBuffer>();
+
+	/**
+	 * The frames encoded but not yet sent, in the order they are due
+	 */
+	private final ArrayDeque<Frame> frames = new ArrayDeque<Frame>();
+
+	/**
+	 * The delay, in nanoseconds, with which frames of the live match are sent
+	 */
+	private final long delay;
+
+	/**
+	 * The maximum number of subscribed spectators
+	 */
+	private final int cap;
+
+	/**
+	 * Status flag for the loop. If set to false, causes the thread to complete its {@link #run()} method and terminate
+	 */
+	private volatile boolean running = true;
+
+	/**
+	 * The recording requested by {@link #replay(File, long)} and not yet opened, if any
+	 */
+	private volatile File requestedReplay = null;
+
+	/**
+	 * The tick from which the {@link #requestedReplay} is to be streamed
+	 */
+	private volatile long requestedTick = 0;
+
+	/**
+	 * Set by {@link #live()} until the thread returns to the live match
+	 */
+	private volatile boolean liveRequested = false;
+
+	/**
+	 * Whether the live records are skipped until the next keyframe, as the {@link #state} has been forgotten
+	 */
+	private boolean awaitingKeyframe = true;
+
+	/**
+	 * The directory of the recording being replayed (null while streaming the live match)
+	 */
+	private volatile File replayDirectory = null;
+
+	/**
+	 * The reader of the recording being replayed (null while streaming the live match)
+	 */
+	private MatchReader reader = null;
+
+	/**
+	 * Whether the {@link #reader}'s current record has been read but not yet applied, as it is not due yet
+	 */
+	private boolean replayHeld = false;
+
+	/**
+	 * The tick from which the recording is streamed; the records before it are applied without being streamed
+	 */
+	private long replayTarget = 0;
+
+	/**
+	 * The time (as given by System.nanoTime()) matching the start of the recording being replayed (-1 until the first
+	 * record streamed)
+	 */
+	private long replayOrigin = -1;
+
+	/**
+	 * The time (as given by System.currentTimeMillis()) of the next sweep of the lapsed subscriptions
+	 */
+	private long nextSweep = 0;
+
+	/**
+	 * The number of subscribed spectators
+	 */
+	private volatile int subscriberCount = 0;
+
+	/**
+	 * The number of frames encoded
+	 */
+	private volatile long framesEncoded = 0;
+
+	/**
+	 * The number of datagrams sent to spectators
+	 */
+	private volatile long datagramsSent = 0;
+
+	/**
+	 * The number of live tick records refused because the queue was full
+	 */
+	private volatile long recordsDropped = 0;
+
+	/**
+	 * Opens a non-blocking channel on the provided port
+	 *
+	 * @param port The port on which spectators subscribe
+	 * @throws IOException Thrown if the server failed to bind to the port
+	 */
+	public SpectatorServer(int port) throws IOException {
+		super("SpectatorServer");
+		setDaemon(true);
+		channel = DatagramChannel.open();
+		channel.socket().bind(new InetSocketAddress(port));
+		channel.configureBlocking(false);
+		selector = Selector.open();
+		channel.register(selector, SelectionKey.OP_READ);
+		fragmenter = new Fragmenter(BBServer.getConfig().getMaxDatagramSize());
+		delay = BBServer.getConfig().getSpectatorDelay() * 1000000L;
+		cap = BBServer.getConfig().getSpectatorCap();
+	}
+
+	/**
+	 * Receives subscriptions, applies the tick records of the live match or of the recording being replayed, and
+	 * sends the frames as they become due, until the thread is {@link #terminate() terminated}
+	 */
+	public void run() {
+		ByteBuffer inbound = ByteBuffer.allocate(BBServer.getConfig().getMaxDatagramSize());
+		try {
+			while (running) {
+				long wait = POLL_INTERVAL;
+				if (liveRequested)
+					startLive();
+				if (requestedReplay != null)
+					startReplay();
+				if (reader != null)
+					wait = Math.min(wait, applyReplay());
+				else
+					applyLive();
+				if (!frames.isEmpty())
+					wait = Math.min(wait, sendFrames());
+				if (wait > 0)
+					selector.select(wait);
+				selector.selectedKeys().clear();
+				InetSocketAddress source;
+				inbound.clear();
+				while ((source = (InetSocketAddress) channel.receive(inbound)) != null) {
+					inbound.flip();
+					handleRequest(new String(inbound.array(), 0, inbound.limit(), "US-ASCII").trim(), source);
+					inbound.clear();
+				}
+				long now = System.currentTimeMillis();
+				if (now >= nextSweep) {
+					sweep(now);
+					nextSweep = now + 1000;
+				}
+			}
+		} catch (IOException e) {
+			ServerLog.log(LogLevel.SEVERE, "The spectator server failed: {}", e.getMessage());
+		} finally {
+			closeReader();
+			try {
+				selector.close();
+				channel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Handles a datagram received from a spectator: a subscription, its renewal or its end
+	 *
+	 * @param request The text of the datagram
+	 * @param source The address it was sent from
+	 * @throws IOException Thrown if the response cannot be sent
+	 */
+	private void handleRequest(String request, InetSocketAddress source) throws IOException {
+		String[] data = request.split("\\s+");
+		if (data[0].equals("62")) {
+			if (subscribers.remove(source) != null)
+				subscriberCount = subscribers.size();
+			return;
+		}
+		if (!data[0].equals("60"))
+			return;
+		long now = System.currentTimeMillis();
+		if (subscribers.containsKey(source)) {
+			subscribers.put(source, now + SUBSCRIPTION_TIMEOUT);
+			return;
+		}
+		if (data.length < 2)
+			return;
+		String name = data[1], cookie = null;
+		for (int i = 2; i < data.length; i++)
+			if (data[i].startsWith("+c:"))
+				cookie = data[i].substring(3);
+		long nanos = System.nanoTime();
+		if (!cookies.verify(cookie, source.getAddress(), source.getPort(), nanos)) {
+			reply(new Packet01AuthResponse(name, cookies.generate(source.getAddress(), source.getPort(), nanos),
+					source.getAddress(), source.getPort()).generatePacket(), source);
+			return;
+		}
+		if (subscribers.size() >= cap) {
+			reply(new Packet01AuthResponse(name, 0, source.getAddress(), source.getPort()).generatePacket(), source);
+			return;
+		}
+		subscribers.put(source, now + SUBSCRIPTION_TIMEOUT);
+		subscriberCount = subscribers.size();
+		reply(new Packet01AuthResponse(name, 3, source.getAddress(), source.getPort()).generatePacket(), source);
+	}
+
+	/**
+	 * Sends a datagram in response to a spectator's request
+	 *
+	 * @param datagram The datagram
+	 * @param target The spectator's address
+	 * @throws IOException Thrown if the datagram cannot be sent
+	 */
+	private void reply(DatagramPacket datagram, InetSocketAddress target) throws IOException {
+		channel.send(ByteBuffer.wrap(datagram.getData(), datagram.getOffset(), datagram.getLength()), target);
+	}
+
+	/**
+	 * Ends the subscriptions that have lapsed
+	 *
+	 * @param now The current time, as given by System.currentTimeMillis()
+	 */
+	private void sweep(long now) {
+		Iterator<Long> expiries = subscribers.values().iterator();
+		while (expiries.hasNext())
+			if (expiries.next() <= now)
+				expiries.remove();
+		subscriberCount = subscribers.size();
+	}
+
+	/**
+	 * Applies the live tick records queued, encoding a frame due after the spectator delay every
+	 * {@value #FRAME_INTERVAL} ticks
+	 *
+	 * @throws IOException Thrown if a record is corrupt
+	 */
+	private void applyLive() throws IOException {
+		ByteBuffer record;
+		while ((record = records.poll()) != null) {
+			record.getInt();
+			boolean keyframe = record.get() == MatchRecorder.KEYFRAME;
+			long tick = record.getLong();
+			record.getLong();
+			if (keyframe) {
+				awaitingKeyframe = false;
+				state.beginKeyframe();
+			}
+			while (!awaitingKeyframe && record.hasRemaining()) {
+				MatchReader.readEntry(record, entry);
+				apply(entry, true);
+			}
+			if (keyframe)
+				state.endKeyframe();
+			if (!awaitingKeyframe && tick % FRAME_INTERVAL == 0)
+				encodeFrame(System.nanoTime() + delay);
+			record.clear();
+			freeBuffers.offer(record);
+		}
+	}
+
+	/**
+	 * Applies the records of the recording being replayed that are due, encoding a frame due right away every
+	 * {@value #FRAME_INTERVAL} ticks once the target tick is reached. Returns to the live match at the end of the
+	 * recording.
+	 *
+	 * @return The time, in milliseconds, until the next record is due
+	 * @throws IOException Thrown if the recording cannot be read
+	 */
+	private long applyReplay() throws IOException {
+		while (true) {
+			if (!replayHeld) {
+				if (!reader.next()) {
+					ServerLog.log(LogLevel.INFO, "The replay of {} has ended; spectators are back to the live match.",
+							replayDirectory);
+					startLive();
+					return 0;
+				}
+				replayHeld = true;
+			}
+			boolean streamed = reader.getTick() >= replayTarget;
+			long now = System.nanoTime();
+			if (streamed) {
+				if (replayOrigin < 0)
+					replayOrigin = now - reader.getTime() * 1000000L;
+				long due = replayOrigin + reader.getTime() * 1000000L;
+				if (due > now)
+					return (due - now) / 1000000L + 1;
+			}
+			replayHeld = false;
+			if (reader.isKeyframe())
+				state.beginKeyframe();
+			while (reader.nextEntry(entry))
+				apply(entry, streamed);
+			if (reader.isKeyframe())
+				state.endKeyframe();
+			if (streamed && reader.getTick() % FRAME_INTERVAL == 0)
+				encodeFrame(now);
+		}
+	}
+
+	/**
+	 * Applies an entry to the {@link #state}, or adds the datagram of a fired weapon to the next frame
+	 *
+	 * @param entry The entry
+	 * @param streamed Whether the entry is streamed to spectators (events of the ticks skipped over are not)
+	 */
+	private void apply(MatchEntry entry, boolean streamed) {
+		if (entry.getType() != MatchEntry.FIRE) {
+			state.apply(entry);
+			return;
+		}
+		MatchState.Entity shooter = state.getEntity(entry.getSessionID());
+		WeaponType type = WeaponType.getTypeFromID(entry.getWeaponID());
+		if (!streamed || shooter == null || type == null)
+			return;
+		DatagramPacket datagram = new Packet40WeaponFire(shooter.getName(), entry.getLocation(), type, null, 0)
+				.generatePacket();
+		fires.add(ByteBuffer.wrap(datagram.getData(), datagram.getOffset(), datagram.getLength()));
+	}
+
+	/**
+	 * Encodes a frame from the weapons fired since the previous one and a snapshot of the {@link #state}, and adds it
+	 * to the frames to send
+	 *
+	 * @param due The time (as given by System.nanoTime()) at which the frame is to be sent
+	 */
+	private void encodeFrame(long due) {
+		Frame frame = new Frame(due);
+		frame.datagrams.addAll(fires);
+		fires.clear();
+		for (byte[] payload : encoder.encode(state))
+			for (DatagramPacket datagram : fragmenter.split(new Packet10ServerSnapshot(payload, null, 0)
+					.generatePacket()))
+				frame.datagrams.add(ByteBuffer.wrap(datagram.getData(), datagram.getOffset(), datagram.getLength()));
+		frames.add(frame);
+		framesEncoded++;
+	}
+
+	/**
+	 * Sends the frames that are due to every subscribed spectator. Datagrams the channel cannot take right away are
+	 * dropped, as a frame is soon superseded by the next.
+	 *
+	 * @return The time, in milliseconds, until the next frame is due
+	 * @throws IOException Thrown if a datagram cannot be sent
+	 */
+	private long sendFrames() throws IOException {
+		long now = System.nanoTime();
+		while (!frames.isEmpty() && frames.peek().due <= now) {
+			Frame frame = frames.poll();
+			int sent = 0;
+			for (InetSocketAddress subscriber : subscribers.keySet()) {
+				for (ByteBuffer datagram : frame.datagrams) {
+					datagram.rewind();
+					if (channel.send(datagram, subscriber) > 0)
+						sent++;
+				}
+			}
+			datagramsSent += sent;
+		}
+		return frames.isEmpty() ? POLL_INTERVAL : (frames.peek().due - now) / 1000000L + 1;
+	}
+
+	/**
+	 * Opens the {@link #requestedReplay requested recording}, seeks to the requested tick and stops taking the live
+	 * records
+	 */
+	private void startReplay() {
+		File directory = requestedReplay;
+		requestedReplay = null;
+		MatchReader opened;
+		try {
+			opened = new MatchReader(directory);
+			opened.seek(requestedTick);
+		} catch (IOException e) {
+			ServerLog.log(LogLevel.WARNING, "Failed to replay {}: {}", directory, e.getMessage());
+			return;
+		}
+		BBServer.getMatchRecorder().setSpectatorFeed(null);
+		closeReader();
+		reader = opened;
+		replayDirectory = directory;
+		replayTarget = requestedTick;
+		replayOrigin = -1;
+		replayHeld = false;
+		discardPending();
+	}
+
+	/**
+	 * Stops replaying the recording, if any, and takes the live records again (starting with a keyframe)
+	 */
+	private void startLive() {
+		liveRequested = false;
+		closeReader();
+		discardPending();
+		BBServer.getMatchRecorder().setSpectatorFeed(this);
+	}
+
+	/**
+	 * Closes the reader of the recording being replayed, if any
+	 */
+	private void closeReader() {
+		if (reader != null)
+			reader.close();
+		reader = null;
+		replayDirectory = null;
+	}
+
+	/**
+	 * Forgets the state of the match and the frames not yet sent, as the records start coming from elsewhere
+	 */
+	private void discardPending() {
+		state.clear();
+		awaitingKeyframe = true;
+		fires.clear();
+		frames.clear();
+		ByteBuffer record;
+		while ((record = records.poll()) != null) {
+			record.clear();
+			freeBuffers.offer(record);
+		}
+	}
+
+	/**
+	 * Requests that spectators be streamed a recorded match, from the provided tick, instead of the live match.
+	 * Spectators return to the live match at the end of the recording.
+	 *
+	 * @param directory The directory holding the recording
+	 * @param tick The tick from which to stream the recording
+	 */
+	public void replay(File directory, long tick) {
+		requestedTick = tick;
+		requestedReplay = directory;
+	}
+
+	/**
+	 * Requests that spectators be streamed the live match again
+	 */
+	public void live() {
+		requestedReplay = null;
+		liveRequested = true;
+	}
+
+	/**
+	 * @param size The size of a record
+	 * @return An empty buffer able to hold the record, recycled if possible
+	 */
+	public ByteBuffer obtainBuffer(int size) {
+		ByteBuffer buffer = freeBuffers.poll();
+		if (buffer == null || buffer.capacity() < size)
+			buffer = ByteBuffer.allocate(Math.max(size, 4096));
+		return buffer;
+	}
+
+	/**
+	 * Queues a live record to be applied, without waiting
+	 *
+	 * @param record The record, ready to be read
+	 * @return 'true' iff the record was queued, 'false' if the queue is full or the thread is terminated
+	 */
+	public boolean offer(ByteBuffer record) {
+		if (running && records.offer(record))
+			return true;
+		recordsDropped++;
+		return false;
+	}
+
+	/**
+	 * Causes the main loop in the {@link #run()} method to exit; as a result, the thread closes its channel and
+	 * completes its execution.
+	 */
+	public void terminate() {
+		running = false;
+		selector.wakeup();
+	}
+
+	/**
+	 * @return The port on which spectators subscribe
+	 */
+	public int getPort() {
+		return channel.socket().getLocalPort();
+	}
+
+	/**
+	 * @return The directory of the recording being replayed, or null while streaming the live match
+	 */
+	public File getReplayDirectory() {
+		return replayDirectory;
+	}
+
+	/**
+	 * @return The number of subscribed spectators
+	 */
+	public int getSubscriberCount() {
+		return subscriberCount;
+	}
+
+	/**
+	 * @return The number of frames encoded
+	 */
+	public long getFramesEncoded() {
+		return framesEncoded;
+	}
+
+	/**
+	 * @return The number of datagrams sent to spectators
+	 */
+	public long getDatagramsSent() {
+		return datagramsSent;
+	}
+
+	/**
+	 * @return The number of live tick records refused because the thread had fallen behind
+	 */
+	public long getRecordsDropped() {
+		return recordsDropped;
+	}
+
+	/**
+	 * A frame of the feed: the datagrams sent to every spectator at a given time
+	 *
+	 * @author LinearLogic
+	 * @since 0.4.0
+	 */
+	private static class Frame {
+
+		/**
+		 * The time (as given by System.nanoTime()) at which the frame is to be sent
+		 */
+		private final long due;
+
+		/**
+		 * The datagrams of the frame, shared by every spectator
+		 */
+		private final List<ByteBuffer> datagrams = new ArrayList<ByteBuffer>();
+
+		/**
+		 * @param due The time (as given by System.nanoTime()) at which the frame is to be sent
+		 */
+		private Frame(long due) {
+			this.due = due;
+		}
+	}
+}